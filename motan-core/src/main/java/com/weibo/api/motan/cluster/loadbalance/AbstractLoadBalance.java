@@ -16,10 +16,16 @@
 
 package com.weibo.api.motan.cluster.loadbalance;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import com.weibo.api.motan.cluster.LoadBalance;
 import com.weibo.api.motan.exception.MotanServiceException;
+import com.weibo.api.motan.rpc.AvailableListener;
+import com.weibo.api.motan.rpc.AvailableNotifier;
 import com.weibo.api.motan.rpc.Referer;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.util.LoggerUtil;
@@ -28,6 +34,12 @@ import com.weibo.api.motan.util.MotanFrameworkUtil;
 /**
  * 
  * loadbalance
+ *
+ * <pre>
+ * 		1） 可用 referer 列表：referer 可用状态变化时（{@link AvailableNotifier}）重新生成，选择时直接使用，
+ * 		   不需要每次请求遍历全部 referer 检查 isAvailable
+ * 		2） 不支持状态通知的 referer 始终在可用列表中，选择时仍需检查 isAvailable
+ * </pre>
  * 
  * @author fishermen
  * @version V1.0 created at: 2013-5-22
@@ -38,10 +50,55 @@ public abstract class AbstractLoadBalance<T> implements LoadBalance<T> {
 
     private List<Referer<T>> referers;
 
+    private volatile List<Referer<T>> availableReferers = Collections.emptyList();
+
+    // 已注册 availableListener 的 referer
+    private Set<Referer<T>> notifyReferers = Collections.emptySet();
+
+    private final AvailableListener availableListener = new AvailableListener() {
+        @Override
+        public void onAvailableChanged(boolean available) {
+            refreshAvailableReferers();
+        }
+    };
+
     @Override
-    public void onRefresh(List<Referer<T>> referers) {
+    public synchronized void onRefresh(List<Referer<T>> referers) {
+        Set<Referer<T>> newNotifyReferers = Collections.newSetFromMap(new IdentityHashMap<Referer<T>, Boolean>());
+        if (referers != null) {
+            for (Referer<T> referer : referers) {
+                if (notifyReferers.contains(referer)
+                        || (referer instanceof AvailableNotifier && ((AvailableNotifier) referer).addAvailableListener(availableListener))) {
+                    newNotifyReferers.add(referer);
+                }
+            }
+        }
+        for (Referer<T> referer : notifyReferers) {
+            if (!newNotifyReferers.contains(referer)) {
+                ((AvailableNotifier) referer).removeAvailableListener(availableListener);
+            }
+        }
+        notifyReferers = newNotifyReferers;
+
         // 只能引用替换，不能进行referers update。
         this.referers = referers;
+        refreshAvailableReferers();
+    }
+
+    private synchronized void refreshAvailableReferers() {
+        List<Referer<T>> referers = this.referers;
+        if (referers == null) {
+            availableReferers = Collections.emptyList();
+            return;
+        }
+
+        List<Referer<T>> available = new ArrayList<Referer<T>>(referers.size());
+        for (Referer<T> referer : referers) {
+            if (!notifyReferers.contains(referer) || referer.isAvailable()) {
+                available.add(referer);
+            }
+        }
+        availableReferers = Collections.unmodifiableList(available);
     }
 
     @Override
@@ -50,7 +107,9 @@ public abstract class AbstractLoadBalance<T> implements LoadBalance<T> {
 
         Referer<T> ref = null;
         if (referers.size() > 1) {
-            ref = doSelect(request);
+            if (!availableReferers.isEmpty()) {
+                ref = doSelect(request);
+            }
 
         } else if (referers.size() == 1) {
             ref = referers.get(0).isAvailable() ? referers.get(0) : null;
@@ -72,7 +131,9 @@ public abstract class AbstractLoadBalance<T> implements LoadBalance<T> {
         }
 
         if (referers.size() > 1) {
-            doSelectToHolder(request, refersHolder);
+            if (!availableReferers.isEmpty()) {
+                doSelectToHolder(request, refersHolder);
+            }
 
         } else if (referers.size() == 1 && referers.get(0).isAvailable()) {
             refersHolder.add(referers.get(0));
@@ -87,6 +148,13 @@ public abstract class AbstractLoadBalance<T> implements LoadBalance<T> {
         return referers;
     }
 
+    /**
+     * 可用的 referer，可能包含刚变为不可用的 referer，使用前需要检查 isAvailable
+     */
+    protected List<Referer<T>> getAvailableReferers() {
+        return availableReferers;
+    }
+
     @Override
     public void setWeightString(String weightString) {
         LoggerUtil.info("ignore weightString:" + weightString);
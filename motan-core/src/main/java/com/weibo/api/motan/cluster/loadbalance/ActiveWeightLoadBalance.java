@@ -47,7 +47,10 @@ public class ActiveWeightLoadBalance<T> extends AbstractLoadBalance<T> {
 
     @Override
     protected Referer<T> doSelect(Request request) {
-        List<Referer<T>> referers = getReferers();
+        List<Referer<T>> referers = getAvailableReferers();
+        if (referers.isEmpty()) {
+            return null;
+        }
 
         int refererSize = referers.size();
         int startIndex = ThreadLocalRandom.current().nextInt(refererSize);
@@ -80,7 +83,10 @@ public class ActiveWeightLoadBalance<T> extends AbstractLoadBalance<T> {
 
     @Override
     protected void doSelectToHolder(Request request, List<Referer<T>> refersHolder) {
-        List<Referer<T>> referers = getReferers();
+        List<Referer<T>> referers = getAvailableReferers();
+        if (referers.isEmpty()) {
+            return;
+        }
 
         int refererSize = referers.size();
         int startIndex = ThreadLocalRandom.current().nextInt(refererSize);
@@ -68,15 +68,19 @@ public class ConfigurableWeightLoadBalance<T> extends ActiveWeightLoadBalance<T>
         RefererListCacheHolder<T> h = this.holder;
         Referer<T> r = h.next();
         if (!r.isAvailable()) {
-            int retryTimes = getReferers().size() - 1;
+            // 按可用的 referer 数重试，仍然不可用时直接从可用列表中选择
+            int retryTimes = Math.min(getAvailableReferers().size(), MAX_REFERER_COUNT) - 1;
             for (int i = 0; i < retryTimes; i++) {
                 r = h.next();
                 if (r.isAvailable()) {
                     break;
                 }
             }
+            if (!r.isAvailable()) {
+                r = super.doSelect(request);
+            }
         }
-        if (r.isAvailable()) {
+        if (r != null && r.isAvailable()) {
             return r;
         } else {
             noAvailableReferer();
@@ -92,7 +96,8 @@ public class ConfigurableWeightLoadBalance<T> extends ActiveWeightLoadBalance<T>
 
         RefererListCacheHolder<T> h = this.holder;
         int i = 0, j = 0;
-        while (i++ < getReferers().size()) {
+        int times = getAvailableReferers().size();
+        while (i++ < times) {
             Referer<T> r = h.next();
             if (r.isAvailable()) {
                 refersHolder.add(r);
@@ -101,6 +106,9 @@ public class ConfigurableWeightLoadBalance<T> extends ActiveWeightLoadBalance<T>
                 }
             }
         }
+        if (refersHolder.isEmpty()) {
+            super.doSelectToHolder(request, refersHolder);
+        }
         if (refersHolder.isEmpty()) {
             noAvailableReferer();
         }
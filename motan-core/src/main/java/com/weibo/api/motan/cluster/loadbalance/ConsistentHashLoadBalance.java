@@ -16,52 +16,83 @@
 
 package com.weibo.api.motan.cluster.loadbalance;
 
-import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 
-import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.codec.Serialization;
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.core.extension.ExtensionLoader;
 import com.weibo.api.motan.core.extension.SpiMeta;
 import com.weibo.api.motan.rpc.Referer;
 import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.util.LoggerUtil;
 import com.weibo.api.motan.util.MathUtil;
 
 /**
  * 
  * Use consistent hash to choose referer
  *
+ * <pre>
+ * 		1） ketama 环：每个 referer 按 host:port 生成 consistentHashNodes 个虚拟节点，节点位置只与 host:port 有关，
+ * 		   referer 增减时只有相邻区间的 key 会重新映射
+ * 		2） 请求的 hash key 由 consistentHashKey 指定：为空时使用全部参数，"argument:index" 使用指定下标的参数，
+ * 		   "attachment:name" 使用指定的 attachment；参数按内容编码后 hash，不依赖参数的 hashCode 和 toString：
+ * 		   String、基本类型的包装类和枚举按值，数组按元素递归，其他对象使用 referer 配置的 serialization 序列化后的字节。
+ * 		   无法序列化的参数对象退回 toString 并打印告警，此时需要通过 "argument:index" 指定其他参数，或使用 "attachment:name"
+ * 		3） 从 key 在环上的位置顺时针查找第一个可用的 referer
+ * </pre>
+ *
  * @author fishermen
  * @version V1.0 created at: 2013-5-21
  */
 @SpiMeta(name = "consistent")
 public class ConsistentHashLoadBalance<T> extends AbstractLoadBalance<T> {
+    private static final String ARGUMENT_KEY_PREFIX = "argument:";
+    private static final String ATTACHMENT_KEY_PREFIX = "attachment:";
+    private static final byte[] ARRAY_SEPARATOR = getBytes(", ");
+
+    // 已打印过告警的无法序列化的参数类型，每种类型只告警一次
+    private static final ConcurrentMap<Class<?>, Boolean> UNSTABLE_TYPES = new ConcurrentHashMap<Class<?>, Boolean>();
 
-    private List<Referer<T>> consistentHashReferers;
+    private volatile HashRing<T> ring;
 
     @Override
     public void onRefresh(List<Referer<T>> referers) {
+        ring = new HashRing<T>(referers);
         super.onRefresh(referers);
-
-        List<Referer<T>> copyReferers = new ArrayList<Referer<T>>(referers);
-        List<Referer<T>> tempRefers = new ArrayList<Referer<T>>();
-        for (int i = 0; i < MotanConstants.DEFAULT_CONSISTENT_HASH_BASE_LOOP; i++) {
-            Collections.shuffle(copyReferers);
-            for (Referer<T> ref : copyReferers) {
-                tempRefers.add(ref);
-            }
-        }
-
-        consistentHashReferers = tempRefers;
     }
 
     @Override
     protected Referer<T> doSelect(Request request) {
+        HashRing<T> current = ring;
+        if (current.size() == 0) {
+            return null;
+        }
+        int index = current.indexOf(getHash(request, current));
+        Referer<T> ref = current.get(index);
+        if (ref.isAvailable()) {
+            return ref;
+        }
 
-        int hash = getHash(request);
-        Referer<T> ref;
-        for (int i = 0; i < getReferers().size(); i++) {
-            ref = consistentHashReferers.get((hash + i) % consistentHashReferers.size());
+        // 附近的节点不可用时，每个 referer 只检查一次，检查过全部 referer 后不再遍历剩余的虚拟节点
+        boolean[] checked = new boolean[current.refererCount];
+        checked[current.getRefererIndex(index)] = true;
+        int checkedCount = 1;
+        for (int i = 1; i < current.size() && checkedCount < current.refererCount; i++) {
+            int refererIndex = current.getRefererIndex(index + i);
+            if (checked[refererIndex]) {
+                continue;
+            }
+            checked[refererIndex] = true;
+            checkedCount++;
+            ref = current.get(index + i);
             if (ref.isAvailable()) {
                 return ref;
             }
@@ -71,26 +102,216 @@ public class ConsistentHashLoadBalance<T> extends AbstractLoadBalance<T> {
 
     @Override
     protected void doSelectToHolder(Request request, List<Referer<T>> refersHolder) {
-        List<Referer<T>> referers = getReferers();
-
-        int hash = getHash(request);
-        for (int i = 0; i < referers.size(); i++) {
-            Referer<T> ref = consistentHashReferers.get((hash + i) % consistentHashReferers.size());
+        HashRing<T> current = ring;
+        if (current.size() == 0) {
+            return;
+        }
+        int index = current.indexOf(getHash(request, current));
+        // 每个 referer 只检查一次，检查过全部 referer 后不再遍历剩余的虚拟节点
+        int limit = Math.min(MAX_REFERER_COUNT, current.refererCount);
+        boolean[] checked = new boolean[current.refererCount];
+        int checkedCount = 0;
+        for (int i = 0; i < current.size() && refersHolder.size() < limit && checkedCount < current.refererCount; i++) {
+            int refererIndex = current.getRefererIndex(index + i);
+            if (checked[refererIndex]) {
+                continue;
+            }
+            checked[refererIndex] = true;
+            checkedCount++;
+            Referer<T> ref = current.get(index + i);
             if (ref.isAvailable()) {
                 refersHolder.add(ref);
             }
         }
     }
 
-    private int getHash(Request request) {
-        int hashcode;
-        if (request.getArguments() == null || request.getArguments().length == 0) {
-            hashcode = request.hashCode();
+    private long getHash(Request request, HashRing<T> current) {
+        if (current.attachmentKey != null) {
+            String key = request.getAttachments() == null ? null : request.getAttachments().get(current.attachmentKey);
+            if (key != null) {
+                return hash(key);
+            }
+        }
+
+        Object[] arguments = request.getArguments();
+        if (arguments == null || arguments.length == 0) {
+            return ThreadLocalRandom.current().nextLong();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (current.argumentIndex >= 0 && current.argumentIndex < arguments.length) {
+            writeArgument(out, new Object[] {arguments[current.argumentIndex]}, current.serialization);
         } else {
-            hashcode = Arrays.hashCode(request.getArguments());
+            writeArgument(out, arguments, current.serialization);
+        }
+        return MathUtil.murmurHash64(out.toByteArray());
+    }
+
+    /**
+     * 参数的稳定编码：null、String、基本类型的包装类和枚举按值，数组按元素递归，与 Arrays.deepToString 的结果一致；
+     * 其他对象使用 serialization 序列化后的字节
+     */
+    private static void writeArgument(ByteArrayOutputStream out, Object argument, Serialization serialization) {
+        byte[] bytes;
+        if (argument == null || argument instanceof String || (argument instanceof Number && isJdkType(argument))
+                || argument instanceof Boolean || argument instanceof Character) {
+            bytes = getBytes(String.valueOf(argument));
+        } else if (argument instanceof Enum) {
+            bytes = getBytes(((Enum<?>) argument).name());
+        } else if (argument.getClass().isArray()) {
+            out.write('[');
+            int length = Array.getLength(argument);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    out.write(ARRAY_SEPARATOR, 0, ARRAY_SEPARATOR.length);
+                }
+                writeArgument(out, Array.get(argument, i), serialization);
+            }
+            out.write(']');
+            return;
+        } else {
+            bytes = serialize(argument, serialization);
+        }
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static boolean isJdkType(Object argument) {
+        return argument.getClass().getName().startsWith("java.");
+    }
+
+    private static byte[] serialize(Object argument, Serialization serialization) {
+        try {
+            return serialization.serialize(argument);
+        } catch (Exception e) {
+            if (UNSTABLE_TYPES.putIfAbsent(argument.getClass(), Boolean.TRUE) == null) {
+                LoggerUtil.warn("ConsistentHashLoadBalance can not serialize argument " + argument.getClass().getName()
+                        + ", hash by toString(), use consistentHashKey argument:index or attachment:name instead", e);
+            }
+            return getBytes(String.valueOf(argument));
         }
-        return MathUtil.getPositive(hashcode);
     }
 
+    private static long hash(String key) {
+        return MathUtil.murmurHash64(getBytes(key));
+    }
+
+    private static byte[] getBytes(String key) {
+        try {
+            return key.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return key.getBytes();
+        }
+    }
+
+    /**
+     * 按 hash 排序的虚拟节点，onRefresh 时整体替换
+     */
+    static class HashRing<T> {
+        private final long[] hashes;
+        private final Referer<T>[] nodes;
+        // 虚拟节点对应的 referer 在列表中的下标，遍历时按 referer 去重
+        private final int[] refererIndexes;
+        // 不同 referer 的数量
+        private final int refererCount;
+        private final int argumentIndex;
+        private final String attachmentKey;
+        // 序列化参数对象，与 referer 的 serialization 配置一致
+        private final Serialization serialization;
+
+        @SuppressWarnings("unchecked")
+        HashRing(List<Referer<T>> referers) {
+            int argumentIndex = -1;
+            String attachmentKey = null;
+            int nodeCount = URLParamType.consistentHashNodes.getIntValue();
+            String serializationName = URLParamType.serialize.getValue();
+
+            if (!referers.isEmpty()) {
+                URL url = referers.get(0).getUrl();
+                String hashKey = url.getParameter(URLParamType.consistentHashKey.getName(), URLParamType.consistentHashKey.getValue());
+                if (hashKey.startsWith(ARGUMENT_KEY_PREFIX)) {
+                    argumentIndex = MathUtil.parseInt(hashKey.substring(ARGUMENT_KEY_PREFIX.length()), -1);
+                } else if (hashKey.startsWith(ATTACHMENT_KEY_PREFIX)) {
+                    attachmentKey = hashKey.substring(ATTACHMENT_KEY_PREFIX.length());
+                } else if (!hashKey.isEmpty()) {
+                    LoggerUtil.warn("ConsistentHashLoadBalance unknown consistentHashKey: " + hashKey + ", use all arguments");
+                }
+                nodeCount =
+                        Math.max(1, url.getIntParameter(URLParamType.consistentHashNodes.getName(),
+                                URLParamType.consistentHashNodes.getIntValue()));
+                serializationName = url.getParameter(URLParamType.serialize.getName(), URLParamType.serialize.getValue());
+            }
+            this.argumentIndex = argumentIndex;
+            this.attachmentKey = attachmentKey;
+            this.serialization = ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(serializationName);
+            this.refererCount = referers.size();
+
+            VirtualNode<T>[] virtualNodes = new VirtualNode[referers.size() * nodeCount];
+            int n = 0;
+            for (int r = 0; r < referers.size(); r++) {
+                Referer<T> referer = referers.get(r);
+                String address = referer.getUrl().getServerPortStr();
+                for (int i = 0; i < nodeCount; i++) {
+                    virtualNodes[n++] = new VirtualNode<T>(hash(address + "-" + i), address, referer, r);
+                }
+            }
+            Arrays.sort(virtualNodes);
+
+            hashes = new long[virtualNodes.length];
+            nodes = new Referer[virtualNodes.length];
+            refererIndexes = new int[virtualNodes.length];
+            for (int i = 0; i < virtualNodes.length; i++) {
+                hashes[i] = virtualNodes[i].hash;
+                nodes[i] = virtualNodes[i].referer;
+                refererIndexes[i] = virtualNodes[i].refererIndex;
+            }
+        }
+
+        /**
+         * hash 在环上顺时针方向的第一个虚拟节点
+         */
+        int indexOf(long hash) {
+            int index = Arrays.binarySearch(hashes, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index == hashes.length ? 0 : index;
+        }
+
+        Referer<T> get(int index) {
+            return nodes[index % nodes.length];
+        }
+
+        int getRefererIndex(int index) {
+            return refererIndexes[index % refererIndexes.length];
+        }
+
+        int size() {
+            return nodes.length;
+        }
+    }
+
+    /**
+     * hash 相同时按 host:port 排序，保证各 client 的环一致
+     */
+    static class VirtualNode<T> implements Comparable<VirtualNode<T>> {
+        private final long hash;
+        private final String address;
+        private final Referer<T> referer;
+        private final int refererIndex;
+
+        VirtualNode(long hash, String address, Referer<T> referer, int refererIndex) {
+            this.hash = hash;
+            this.address = address;
+            this.referer = referer;
+            this.refererIndex = refererIndex;
+        }
+
+        @Override
+        public int compareTo(VirtualNode<T> other) {
+            if (hash != other.hash) {
+                return hash < other.hash ? -1 : 1;
+            }
+            return address.compareTo(other.address);
+        }
+    }
 
 }
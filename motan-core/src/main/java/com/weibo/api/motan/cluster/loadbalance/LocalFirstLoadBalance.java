@@ -30,13 +30,13 @@ import java.util.concurrent.ThreadLocalRandom;
  * <p>
  * <pre>
  * 		1） 本地服务优先：
- *   		当referers里面包含本地暴露的服务时，并此服务为available的情况下，优先使用此服务。
- * 			当不存在本地暴露的服务时，默认使用低并发ActiveWeight负载均衡策略
+ *   		referers 按 ip 分为本机、同网段（ip 前三段相同）、其他三个层级，优先使用靠前且有可用服务的层级。
+ * 			当不存在本地服务时，依次使用同网段及其他服务
  *
- * 		2） 本地服务优先获取策略：
- * 			对referers根据ip顺序查找本地服务，多存在多个本地服务，获取Active最小的本地服务进行服务。
- * 			当不存在本地服务，但是存在远程RPC服务，则根据ActivWeight获取远程RPC服务
- * 			当两者都存在，所有本地服务都应优先于远程服务，本地RPC服务与远程RPC服务内部则根据ActiveWeight进行
+ * 		2） 层级在 onRefresh 时计算，每个 referer 只解析一次 ip，可用 referer 变化时按已计算的层级重新分组，
+ * 			选择时不需要解析 ip 或遍历全部 referer
+ *
+ * 		3） 层级内随机选取两个 referer（power of two choices），选择 Active 较小的一个
  *
  * </pre>
  */
@@ -44,6 +44,17 @@ import java.util.concurrent.ThreadLocalRandom;
 public class LocalFirstLoadBalance<T> extends AbstractLoadBalance<T> {
     public static final int MAX_REFERER_COUNT = 10;
 
+    private static final int TIER_LOCAL = 0;
+    private static final int TIER_SUBNET = 1;
+    private static final int TIER_REMOTE = 2;
+    private static final int TIER_COUNT = 3;
+
+    // 随机选取的两个 referer 都不可用时的重试次数
+    private static final int MAX_PICK_TIMES = 3;
+
+    private volatile Map<Referer<T>, Integer> refererTiers = Collections.emptyMap();
+    private volatile Tiers<T> tiers = new Tiers<T>(Collections.<Referer<T>>emptyList(), Collections.<Referer<T>, Integer>emptyMap());
+
     public static long ipToLong(final String addr) {
         final String[] addressBytes = addr.split("\\.");
         int length = addressBytes.length;
@@ -64,94 +75,140 @@ public class LocalFirstLoadBalance<T> extends AbstractLoadBalance<T> {
     }
 
     @Override
-    protected Referer<T> doSelect(Request request) {
-        List<Referer<T>> referers = getReferers();
-
-        List<Referer<T>> localReferers = searchLocalReferer(referers, NetUtils.getLocalAddress().getHostAddress());
-
-        if (!localReferers.isEmpty()) {
-            referers = localReferers;
+    public synchronized void onRefresh(List<Referer<T>> referers) {
+        Map<Referer<T>, Integer> newRefererTiers = new IdentityHashMap<Referer<T>, Integer>();
+        if (referers != null) {
+            long local = ipToLong(NetUtils.getLocalAddress().getHostAddress());
+            for (Referer<T> referer : referers) {
+                newRefererTiers.put(referer, getTier(local, ipToLong(referer.getUrl().getHost())));
+            }
         }
+        refererTiers = newRefererTiers;
 
-        int refererSize = referers.size();
-        Referer<T> referer = null;
-
-        for (int i = 0; i < refererSize; i++) {
-            Referer<T> temp = referers.get(i % refererSize);
-
-            if (!temp.isAvailable()) {
-                continue;
-            }
+        super.onRefresh(referers);
+    }
 
-            if (referer == null) {
-                referer = temp;
-            } else {
-                if (compare(referer, temp) > 0) {
-                    referer = temp;
-                }
+    @Override
+    protected Referer<T> doSelect(Request request) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (Referer<T>[] tier : getTiers().tiers) {
+            Referer<T> referer = selectFromTier(tier, random);
+            if (referer != null) {
+                return referer;
             }
         }
-
-        return referer;
+        return null;
     }
 
     @Override
     protected void doSelectToHolder(Request request, List<Referer<T>> refersHolder) {
-        List<Referer<T>> referers = getReferers();
-
-        List<Referer<T>> localReferers = searchLocalReferer(referers, NetUtils.getLocalAddress().getHostAddress());
-
-        if (!localReferers.isEmpty()) {
-            Collections.sort(localReferers, new LowActivePriorityComparator<T>());
-            refersHolder.addAll(localReferers);
+        Referer<T> selected = doSelect(request);
+        if (selected == null) {
+            return;
         }
+        refersHolder.add(selected);
+
+        // 其他可用的 referer 用于 failover，按层级顺序添加
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (Referer<T>[] tier : getTiers().tiers) {
+            int startIndex = tier.length == 0 ? 0 : random.nextInt(tier.length);
+            for (int i = 0; i < tier.length && refersHolder.size() < MAX_REFERER_COUNT; i++) {
+                Referer<T> referer = tier[(startIndex + i) % tier.length];
+                if (referer != selected && referer.isAvailable()) {
+                    refersHolder.add(referer);
+                }
+            }
+        }
+    }
 
-        int refererSize = referers.size();
-        int startIndex = ThreadLocalRandom.current().nextInt(refererSize);
-        int currentCursor = 0;
-        int currentAvailableCursor = 0;
-
-        List<Referer<T>> remoteReferers = new ArrayList<Referer<T>>();
-        while (currentAvailableCursor < MAX_REFERER_COUNT && currentCursor < refererSize) {
-            Referer<T> temp = referers.get((startIndex + currentCursor) % refererSize);
-            currentCursor++;
+    private Referer<T> selectFromTier(Referer<T>[] tier, ThreadLocalRandom random) {
+        int size = tier.length;
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return tier[0].isAvailable() ? tier[0] : null;
+        }
 
-            if (!temp.isAvailable() || localReferers.contains(temp)) {
-                continue;
+        for (int i = 0; i < MAX_PICK_TIMES; i++) {
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                second++;
             }
 
-            currentAvailableCursor++;
-
-            remoteReferers.add(temp);
+            Referer<T> referer1 = tier[first];
+            Referer<T> referer2 = tier[second];
+            boolean available1 = referer1.isAvailable();
+            boolean available2 = referer2.isAvailable();
+
+            if (available1 && available2) {
+                return compare(referer1, referer2) <= 0 ? referer1 : referer2;
+            } else if (available1) {
+                return referer1;
+            } else if (available2) {
+                return referer2;
+            }
         }
 
-        Collections.sort(remoteReferers, new LowActivePriorityComparator<T>());
-        refersHolder.addAll(remoteReferers);
+        int startIndex = random.nextInt(size);
+        for (int i = 0; i < size; i++) {
+            Referer<T> referer = tier[(startIndex + i) % size];
+            if (referer.isAvailable()) {
+                return referer;
+            }
+        }
+        return null;
     }
 
-    private List<Referer<T>> searchLocalReferer(List<Referer<T>> referers, String localhost) {
-        List<Referer<T>> localReferers = new ArrayList<Referer<T>>();
-        long local = ipToLong(localhost);
-        for (Referer<T> referer : referers) {
-            long tmp = ipToLong(referer.getUrl().getHost());
-            if (local != 0 && local == tmp) {
-                if (referer.isAvailable()) {
-                    localReferers.add(referer);
-                }
-            }
+    /**
+     * 可用 referer 列表变化后按已计算的层级重新分组
+     */
+    private Tiers<T> getTiers() {
+        Tiers<T> current = tiers;
+        List<Referer<T>> availableReferers = getAvailableReferers();
+        if (current.availableReferers != availableReferers) {
+            current = new Tiers<T>(availableReferers, refererTiers);
+            tiers = current;
         }
+        return current;
+    }
 
-        return localReferers;
+    private static int getTier(long local, long ip) {
+        if (local == 0 || ip == 0) {
+            return TIER_REMOTE;
+        }
+        if (local == ip) {
+            return TIER_LOCAL;
+        }
+        return (local >>> 8) == (ip >>> 8) ? TIER_SUBNET : TIER_REMOTE;
     }
 
     private int compare(Referer<T> referer1, Referer<T> referer2) {
         return referer1.activeRefererCount() - referer2.activeRefererCount();
     }
 
-    static class LowActivePriorityComparator<T> implements Comparator<Referer<T>> {
-        @Override
-        public int compare(Referer<T> referer1, Referer<T> referer2) {
-            return referer1.activeRefererCount() - referer2.activeRefererCount();
+    static class Tiers<T> {
+        private final List<Referer<T>> availableReferers;
+        private final Referer<T>[][] tiers;
+
+        @SuppressWarnings("unchecked")
+        Tiers(List<Referer<T>> availableReferers, Map<Referer<T>, Integer> refererTiers) {
+            this.availableReferers = availableReferers;
+
+            List<List<Referer<T>>> tierList = new ArrayList<List<Referer<T>>>(TIER_COUNT);
+            for (int i = 0; i < TIER_COUNT; i++) {
+                tierList.add(new ArrayList<Referer<T>>());
+            }
+            for (Referer<T> referer : availableReferers) {
+                Integer tier = refererTiers.get(referer);
+                tierList.get(tier == null ? TIER_REMOTE : tier).add(referer);
+            }
+
+            tiers = new Referer[TIER_COUNT][];
+            for (int i = 0; i < TIER_COUNT; i++) {
+                tiers[i] = tierList.get(i).toArray(new Referer[0]);
+            }
         }
     }
 }
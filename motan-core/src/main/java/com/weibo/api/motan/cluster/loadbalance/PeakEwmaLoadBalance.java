@@ -0,0 +1,264 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.cluster.loadbalance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.weibo.api.motan.core.extension.SpiMeta;
+import com.weibo.api.motan.rpc.AvailableListener;
+import com.weibo.api.motan.rpc.AvailableNotifier;
+import com.weibo.api.motan.rpc.Future;
+import com.weibo.api.motan.rpc.FutureListener;
+import com.weibo.api.motan.rpc.Referer;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.Response;
+import com.weibo.api.motan.rpc.URL;
+
+/**
+ * "peak EWMA" 负载均衡，随机选取两个 referer（power of two choices），选择代价较小的一个
+ *
+ * <pre>
+ * 		1） 代价 = 延迟的指数移动平均（EWMA） * (未返回的请求数 + 1)，慢但没有失败的 referer 也会少分到请求
+ *
+ * 		2） 延迟统计：
+ * 				延迟变大时直接使用新的值（peak），变小时按时间衰减，衰减时间为 DECAY_TIME，
+ * 				调用完成时更新（异步调用在 future 完成时更新），异常的调用同样计入延迟
+ *
+ * 		3） 每次只比较两个 referer，不需要遍历或排序，referer 很多时开销也是固定的
+ *
+ * 		4） referer 在 onRefresh 时包装为统计延迟的 referer，refresh 前后同一个 referer 的统计保留
+ * </pre>
+ */
+@SpiMeta(name = "peakEwma")
+public class PeakEwmaLoadBalance<T> extends AbstractLoadBalance<T> {
+    private static final double DECAY_TIME = TimeUnit.SECONDS.toNanos(10);
+    // 还没有延迟数据但已有请求未返回时的代价，避免新加入的 referer 在第一个请求返回前被分配大量请求
+    private static final double PENALTY = Long.MAX_VALUE >> 16;
+    // 随机选取的两个 referer 都不可用时的重试次数
+    private static final int MAX_PICK_TIMES = 5;
+
+    private volatile Map<Referer<T>, EwmaReferer<T>> ewmaReferers = Collections.emptyMap();
+
+    @Override
+    public synchronized void onRefresh(List<Referer<T>> referers) {
+        Map<Referer<T>, EwmaReferer<T>> current = ewmaReferers;
+        Map<Referer<T>, EwmaReferer<T>> newEwmaReferers = new IdentityHashMap<Referer<T>, EwmaReferer<T>>();
+        List<Referer<T>> wrappedReferers = new ArrayList<Referer<T>>(referers.size());
+
+        for (Referer<T> referer : referers) {
+            EwmaReferer<T> ewmaReferer = current.get(referer);
+            if (ewmaReferer == null) {
+                ewmaReferer = new EwmaReferer<T>(referer);
+            }
+            newEwmaReferers.put(referer, ewmaReferer);
+            wrappedReferers.add(ewmaReferer);
+        }
+
+        ewmaReferers = newEwmaReferers;
+        super.onRefresh(wrappedReferers);
+    }
+
+    @Override
+    protected Referer<T> doSelect(Request request) {
+        List<Referer<T>> referers = getAvailableReferers();
+        int refererSize = referers.size();
+        if (refererSize < 2) {
+            return refererSize == 1 && referers.get(0).isAvailable() ? referers.get(0) : null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < MAX_PICK_TIMES; i++) {
+            int first = random.nextInt(refererSize);
+            int second = random.nextInt(refererSize - 1);
+            if (second >= first) {
+                second++;
+            }
+
+            Referer<T> referer1 = referers.get(first);
+            Referer<T> referer2 = referers.get(second);
+            boolean available1 = referer1.isAvailable();
+            boolean available2 = referer2.isAvailable();
+
+            if (available1 && available2) {
+                return getCost(referer1) <= getCost(referer2) ? referer1 : referer2;
+            } else if (available1) {
+                return referer1;
+            } else if (available2) {
+                return referer2;
+            }
+        }
+
+        // 可用的 referer 很少时从随机位置开始查找
+        int startIndex = random.nextInt(refererSize);
+        for (int i = 0; i < refererSize; i++) {
+            Referer<T> referer = referers.get((startIndex + i) % refererSize);
+            if (referer.isAvailable()) {
+                return referer;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void doSelectToHolder(Request request, List<Referer<T>> refersHolder) {
+        Referer<T> selected = doSelect(request);
+        if (selected == null) {
+            return;
+        }
+        refersHolder.add(selected);
+
+        // 其他可用的 referer 用于 failover，不需要排序
+        List<Referer<T>> referers = getAvailableReferers();
+        int refererSize = referers.size();
+        int startIndex = ThreadLocalRandom.current().nextInt(refererSize);
+        for (int i = 0; i < refererSize && refersHolder.size() < MAX_REFERER_COUNT; i++) {
+            Referer<T> referer = referers.get((startIndex + i) % refererSize);
+            if (referer != selected && referer.isAvailable()) {
+                refersHolder.add(referer);
+            }
+        }
+    }
+
+    private double getCost(Referer<T> referer) {
+        return ((EwmaReferer<T>) referer).getCost();
+    }
+
+    /**
+     * 统计调用延迟及未返回请求数的 referer
+     */
+    static class EwmaReferer<T> implements Referer<T>, AvailableNotifier {
+        private final Referer<T> referer;
+        private final AtomicInteger pending = new AtomicInteger(0);
+
+        // 延迟的指数移动平均（纳秒）
+        private double ewma;
+        private long lastUpdateTime = System.nanoTime();
+
+        EwmaReferer(Referer<T> referer) {
+            this.referer = referer;
+        }
+
+        @Override
+        public Response call(Request request) {
+            pending.incrementAndGet();
+            final long startTime = System.nanoTime();
+            Response response = null;
+            try {
+                response = referer.call(request);
+                return response;
+            } finally {
+                if (response instanceof Future) {
+                    ((Future) response).addListener(new FutureListener() {
+                        @Override
+                        public void operationComplete(Future future) throws Exception {
+                            complete(startTime);
+                        }
+                    });
+                } else {
+                    complete(startTime);
+                }
+            }
+        }
+
+        private void complete(long startTime) {
+            long now = System.nanoTime();
+            pending.decrementAndGet();
+            observe(now, now - startTime);
+        }
+
+        synchronized void observe(long now, long latency) {
+            if (latency > ewma) {
+                ewma = latency;
+            } else {
+                double weight = Math.exp(-(now - lastUpdateTime) / DECAY_TIME);
+                ewma = ewma * weight + latency * (1 - weight);
+            }
+            lastUpdateTime = now;
+        }
+
+        synchronized double getCost() {
+            int currentPending = pending.get();
+            if (ewma == 0 && currentPending != 0) {
+                return PENALTY + currentPending;
+            }
+            return ewma * (currentPending + 1);
+        }
+
+        Referer<T> getReferer() {
+            return referer;
+        }
+
+        @Override
+        public int activeRefererCount() {
+            return referer.activeRefererCount();
+        }
+
+        @Override
+        public URL getServiceUrl() {
+            return referer.getServiceUrl();
+        }
+
+        @Override
+        public Class<T> getInterface() {
+            return referer.getInterface();
+        }
+
+        @Override
+        public void init() {
+            referer.init();
+        }
+
+        @Override
+        public void destroy() {
+            referer.destroy();
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return referer.isAvailable();
+        }
+
+        @Override
+        public boolean addAvailableListener(AvailableListener listener) {
+            return referer instanceof AvailableNotifier && ((AvailableNotifier) referer).addAvailableListener(listener);
+        }
+
+        @Override
+        public void removeAvailableListener(AvailableListener listener) {
+            if (referer instanceof AvailableNotifier) {
+                ((AvailableNotifier) referer).removeAvailableListener(listener);
+            }
+        }
+
+        @Override
+        public String desc() {
+            return referer.desc();
+        }
+
+        @Override
+        public URL getUrl() {
+            return referer.getUrl();
+        }
+    }
+}
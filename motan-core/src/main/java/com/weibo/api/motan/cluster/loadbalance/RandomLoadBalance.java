@@ -35,7 +35,7 @@ public class RandomLoadBalance<T> extends AbstractLoadBalance<T> {
 
     @Override
     protected Referer<T> doSelect(Request request) {
-        List<Referer<T>> referers = getReferers();
+        List<Referer<T>> referers = getAvailableReferers();
 
         int idx = (int) (ThreadLocalRandom.current().nextDouble() * referers.size());
         for (int i = 0; i < referers.size(); i++) {
@@ -49,7 +49,7 @@ public class RandomLoadBalance<T> extends AbstractLoadBalance<T> {
 
     @Override
     protected void doSelectToHolder(Request request, List<Referer<T>> refersHolder) {
-        List<Referer<T>> referers = getReferers();
+        List<Referer<T>> referers = getAvailableReferers();
 
         int idx = (int) (ThreadLocalRandom.current().nextDouble() * referers.size());
         for (int i = 0; i < referers.size(); i++) {
@@ -38,7 +38,7 @@ public class RoundRobinLoadBalance<T> extends AbstractLoadBalance<T> {
 
     @Override
     protected Referer<T> doSelect(Request request) {
-        List<Referer<T>> referers = getReferers();
+        List<Referer<T>> referers = getAvailableReferers();
 
         int index = getNextPositive();
         for (int i = 0; i < referers.size(); i++) {
@@ -52,7 +52,7 @@ public class RoundRobinLoadBalance<T> extends AbstractLoadBalance<T> {
 
     @Override
     protected void doSelectToHolder(Request request, List<Referer<T>> refersHolder) {
-        List<Referer<T>> referers = getReferers();
+        List<Referer<T>> referers = getAvailableReferers();
 
         int index = getNextPositive();
         for (int i = 0, count = 0; i < referers.size() && count < MAX_REFERER_COUNT; i++) {
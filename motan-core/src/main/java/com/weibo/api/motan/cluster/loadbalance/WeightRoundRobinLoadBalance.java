@@ -0,0 +1,215 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.cluster.loadbalance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.core.extension.SpiMeta;
+import com.weibo.api.motan.rpc.Referer;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.util.MathUtil;
+
+/**
+ * 按节点权重的平滑加权轮询（nginx smooth weighted round-robin）
+ *
+ * <pre>
+ * 		1） 权重：provider 通过 weight 参数注册到注册中心，client 从 referer 的 service url 中获取，
+ * 				不同配置的机器可以设置不同的权重，权重为 0 的节点不分配请求（全部为 0 时按相同权重处理）
+ *
+ * 		2） 平滑：每轮每个节点的 currentWeight 加上自身权重，选择 currentWeight 最大的节点并减去总权重，
+ * 				权重高的节点的请求分散在整个周期中，不会连续分配
+ *
+ * 		3） 一个周期（总权重次）的选择顺序在可用 referer 列表变化后的第一次选择时计算一次，选择时只需要递增下标，
+ * 				总权重超过 MAX_SEQUENCE_LENGTH 时按比例缩小权重；可用状态通知可能在 IO 线程中，只替换列表不计算顺序
+ *
+ * 		4） 下标在权重变化时不重置，继续在新的周期中轮询；初始下标随机，避免多个 client 同时从同一个节点开始
+ * </pre>
+ */
+@SpiMeta(name = "weightRoundRobin")
+public class WeightRoundRobinLoadBalance<T> extends AbstractLoadBalance<T> {
+    static final int MAX_SEQUENCE_LENGTH = 8192;
+    // 选中的 referer 不可用时继续轮询的次数
+    private static final int MAX_PICK_TIMES = 3;
+
+    private final AtomicInteger idx = new AtomicInteger(ThreadLocalRandom.current().nextInt(MAX_SEQUENCE_LENGTH));
+    private final Object sequenceLock = new Object();
+    private volatile Sequence<T> sequence = new Sequence<T>(Collections.<Referer<T>>emptyList());
+
+    @Override
+    protected Referer<T> doSelect(Request request) {
+        return select(getSequence());
+    }
+
+    private Referer<T> select(Sequence<T> current) {
+        Referer<T>[] referers = current.referers;
+        if (referers.length == 0) {
+            return null;
+        }
+
+        for (int i = 0; i < MAX_PICK_TIMES; i++) {
+            Referer<T> referer = referers[getNextPositive() % referers.length];
+            if (referer.isAvailable()) {
+                return referer;
+            }
+        }
+
+        // 不分配请求的权重为 0 的节点也不参与兜底
+        List<Referer<T>> candidates = current.candidates;
+        int size = candidates.size();
+        int startIndex = size == 0 ? 0 : ThreadLocalRandom.current().nextInt(size);
+        for (int i = 0; i < size; i++) {
+            Referer<T> referer = candidates.get((startIndex + i) % size);
+            if (referer.isAvailable()) {
+                return referer;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void doSelectToHolder(Request request, List<Referer<T>> refersHolder) {
+        Sequence<T> current = getSequence();
+        Referer<T> selected = select(current);
+        if (selected == null) {
+            return;
+        }
+        refersHolder.add(selected);
+
+        // 其他权重不为 0 的可用 referer 用于 failover，不需要按权重排序
+        List<Referer<T>> candidates = current.candidates;
+        int size = candidates.size();
+        int startIndex = size == 0 ? 0 : ThreadLocalRandom.current().nextInt(size);
+        for (int i = 0; i < size && refersHolder.size() < MAX_REFERER_COUNT; i++) {
+            Referer<T> referer = candidates.get((startIndex + i) % size);
+            if (referer != selected && referer.isAvailable()) {
+                refersHolder.add(referer);
+            }
+        }
+    }
+
+    /**
+     * 可用 referer 列表变化后重新计算选择顺序，权重随 referer 的 url 一起更新；只由一个线程计算，其他线程等待结果
+     */
+    private Sequence<T> getSequence() {
+        Sequence<T> current = sequence;
+        if (current.availableReferers == getAvailableReferers()) {
+            return current;
+        }
+
+        synchronized (sequenceLock) {
+            current = sequence;
+            List<Referer<T>> availableReferers = getAvailableReferers();
+            if (current.availableReferers != availableReferers) {
+                current = new Sequence<T>(availableReferers);
+                sequence = current;
+            }
+            return current;
+        }
+    }
+
+    private int getNextPositive() {
+        return MathUtil.getPositive(idx.incrementAndGet());
+    }
+
+    static int getWeight(Referer<?> referer) {
+        URL url = referer.getServiceUrl();
+        if (url == null) {
+            url = referer.getUrl();
+        }
+        if (url == null) {
+            return URLParamType.weight.getIntValue();
+        }
+        return Math.max(0, url.getIntParameter(URLParamType.weight.getName(), URLParamType.weight.getIntValue()));
+    }
+
+    static class Sequence<T> {
+        private final List<Referer<T>> availableReferers;
+        private final Referer<T>[] referers;
+        // 权重不为 0 的可用 referer（全部为 0 时为全部可用 referer），用于兜底和 failover
+        private final List<Referer<T>> candidates;
+
+        @SuppressWarnings("unchecked")
+        Sequence(List<Referer<T>> availableReferers) {
+            this.availableReferers = availableReferers;
+            int size = availableReferers.size();
+            int[] weights = new int[size];
+            long totalWeight = 0;
+            for (int i = 0; i < size; i++) {
+                weights[i] = getWeight(availableReferers.get(i));
+                totalWeight += weights[i];
+            }
+            if (totalWeight == 0) {
+                for (int i = 0; i < size; i++) {
+                    weights[i] = 1;
+                }
+                totalWeight = size;
+            }
+
+            List<Referer<T>> weighted = new ArrayList<Referer<T>>(size);
+            for (int i = 0; i < size; i++) {
+                if (weights[i] > 0) {
+                    weighted.add(availableReferers.get(i));
+                }
+            }
+            candidates = Collections.unmodifiableList(weighted);
+
+            int gcd = 0;
+            for (int weight : weights) {
+                gcd = gcd(gcd, weight);
+            }
+            totalWeight = 0;
+            for (int i = 0; i < size; i++) {
+                weights[i] = gcd == 0 ? 0 : weights[i] / gcd;
+                totalWeight += weights[i];
+            }
+            if (totalWeight > MAX_SEQUENCE_LENGTH) {
+                long scaledTotal = 0;
+                for (int i = 0; i < size; i++) {
+                    if (weights[i] > 0) {
+                        weights[i] = (int) Math.max(1, (long) weights[i] * MAX_SEQUENCE_LENGTH / totalWeight);
+                    }
+                    scaledTotal += weights[i];
+                }
+                totalWeight = scaledTotal;
+            }
+
+            referers = new Referer[(int) totalWeight];
+            long[] currentWeights = new long[size];
+            for (int n = 0; n < referers.length; n++) {
+                int best = -1;
+                for (int i = 0; i < size; i++) {
+                    currentWeights[i] += weights[i];
+                    if (weights[i] > 0 && (best < 0 || currentWeights[i] > currentWeights[best])) {
+                        best = i;
+                    }
+                }
+                currentWeights[best] -= totalWeight;
+                referers[n] = availableReferers.get(best);
+            }
+        }
+
+        private static int gcd(int a, int b) {
+            return b == 0 ? a : gcd(b, a % b);
+        }
+    }
+}
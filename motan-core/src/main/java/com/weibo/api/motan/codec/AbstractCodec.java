@@ -23,16 +23,61 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+import com.weibo.api.motan.common.URLParamType;
 import com.weibo.api.motan.exception.MotanErrorMsgConstant;
 import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.rpc.DeferredRequest;
+import com.weibo.api.motan.rpc.DeferredResponse;
+import com.weibo.api.motan.transport.Channel;
+import com.weibo.api.motan.util.BufferOutputStream;
+import com.weibo.api.motan.util.ByteArrayBufferOutputStream;
+import com.weibo.api.motan.util.EncodeBufferUtil;
+import com.weibo.api.motan.util.ReflectUtil;
 
 /**
  * @author maijunsheng
  * @version 创建时间：2013-5-24
  * 
  */
-public abstract class AbstractCodec implements Codec {
+public abstract class AbstractCodec implements BufferCodec {
+
+    /**
+     * 默认 encode 成 byte[] 后写入 out，支持直接写 buffer 的 codec 需要覆盖该方法
+     */
+    @Override
+    public void encode(Channel channel, Object message, BufferOutputStream out) throws IOException {
+        out.write(encode(channel, message));
+    }
+
+    /**
+     * 通过 {@link #encode(Channel, Object, BufferOutputStream)} encode 成 byte[]：按预测大小使用线程内复用的 buffer，只在最后拷贝一次。
+     * 
+     * transport 直接写 buffer 时不经过这里，由 transport 记录大小
+     */
+    protected byte[] encodeToBytes(Channel channel, Object message) throws IOException {
+        Object sizeKey = EncodeBufferUtil.getSizeKey(message);
+        ByteArrayBufferOutputStream out = EncodeBufferUtil.acquire(EncodeBufferUtil.predictSize(sizeKey));
+        try {
+            encode(channel, message, out);
+            EncodeBufferUtil.recordSize(sizeKey, out.position());
+            return out.toByteArray();
+        } finally {
+            EncodeBufferUtil.release(out);
+        }
+    }
+
+    /**
+     * 默认拷贝成 byte[] 后 decode，支持 buffer 解析的 codec 需要覆盖该方法
+     */
+    @Override
+    public Object decode(Channel channel, String remoteIp, ByteBuffer buffer) throws IOException {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return decode(channel, remoteIp, data);
+    }
+
     protected void serialize(ObjectOutput output, Object message, Serialization serialize) throws IOException {
         if (message == null) {
             output.writeObject(null);
@@ -50,6 +95,64 @@ public abstract class AbstractCodec implements Codec {
         return serialize.deserialize(value, type);
     }
 
+    /**
+     * server 端是否在业务线程中反序列化参数，见 {@link DeferredRequest}
+     */
+    protected boolean isDecodeInWorker(Channel channel) {
+        return channel.getUrl().getBooleanParameter(URLParamType.decodeInWorker.getName(),
+                URLParamType.decodeInWorker.getBooleanValue());
+    }
+
+    /**
+     * 从 ObjectInput 中读取序列化后的参数（每个参数一个 byte[]），反序列化在 {@link DeferredRequest#decodeArguments()} 时进行
+     * 
+     * @return parameterDesc 为空时返回 null
+     */
+    protected DeferredRequest.ArgumentsDecoder readSerializedArguments(ObjectInput input, final String parameterDesc,
+            final Serialization serialization) throws IOException, ClassNotFoundException {
+        if (parameterDesc == null || parameterDesc.equals("")) {
+            return null;
+        }
+
+        final byte[][] values = new byte[ReflectUtil.getParamCount(parameterDesc)][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (byte[]) input.readObject();
+        }
+
+        return new DeferredRequest.ArgumentsDecoder() {
+            @Override
+            public Object[] decode() throws Exception {
+                Class<?>[] classTypes = ReflectUtil.forNames(parameterDesc);
+                Object[] paramObjs = new Object[classTypes.length];
+                for (int i = 0; i < classTypes.length; i++) {
+                    paramObjs[i] = deserialize(values[i], classTypes[i], serialization);
+                }
+                return paramObjs;
+            }
+        };
+    }
+
+    /**
+     * client 端是否在调用线程中反序列化返回值，见 {@link DeferredResponse}
+     */
+    protected boolean isLazyDeserialize(Channel channel) {
+        return channel.getUrl().getBooleanParameter(URLParamType.lazyDeserialize.getName(),
+                URLParamType.lazyDeserialize.getBooleanValue());
+    }
+
+    /**
+     * 持有序列化后的返回值，类加载和反序列化在 {@link DeferredResponse#decodeValue()} 时进行
+     */
+    protected DeferredResponse.ValueDecoder createValueDecoder(final String className, final byte[] value,
+            final Serialization serialization) {
+        return new DeferredResponse.ValueDecoder() {
+            @Override
+            public Object decode() throws Exception {
+                return deserialize(value, ReflectUtil.forName(className), serialization);
+            }
+        };
+    }
+
     public ObjectOutput createOutput(OutputStream outputStream) {
         try {
             return new ObjectOutputStream(outputStream);
@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.weibo.api.motan.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.weibo.api.motan.transport.Channel;
+import com.weibo.api.motan.util.BufferOutputStream;
+
+/**
+ * 可以直接读写 transport buffer 的 codec
+ * 
+ * <pre>
+ * 		1） transport 通过 instanceof 判断，是 BufferCodec 时直接把 buffer 交给 codec，否则走 byte[] 的 encode、decode
+ * 		2） {@link AbstractCodec} 提供了基于 byte[] 的默认实现，支持直接读写 buffer 的 codec 覆盖对应方法即可
+ * </pre>
+ */
+public interface BufferCodec extends Codec {
+
+	/**
+	 * 直接 encode 到 transport 提供的 buffer 中，避免 body、header 的临时数组及拼接拷贝
+	 * 
+	 * <pre>
+	 * 		1） 从 out 的当前 position 开始写入一个完整的 codec 数据包（含 header），写入内容与 encode(channel, message) 的结果一致
+	 * 		2） 长度等字段可以先写占位值，body 写完后通过 out.setInt 回填
+	 * 		3） 抛出异常时 out 中可能已写入部分数据，由调用方负责丢弃
+	 * </pre>
+	 * 
+	 * @param channel
+	 * @param message
+	 * @param out
+	 * @throws IOException
+	 */
+	void encode(Channel channel, Object message, BufferOutputStream out) throws IOException;
+
+	/**
+	 * 直接从 transport 的 buffer 中 decode，避免先拷贝成 byte[]
+	 * 
+	 * <pre>
+	 * 		1） buffer 的 position ~ limit 为一个完整的 codec 数据包（含 header）
+	 * 		2） buffer 可能是 transport 的直接内存视图，decode 返回后会被回收，不能在返回的对象中持有 buffer 的引用
+	 * </pre>
+	 * 
+	 * @param channel
+	 * @param remoteIp 用来在server端decode request时能获取到client的ip。
+	 * @param buffer
+	 * @return
+	 * @throws IOException
+	 */
+	Object decode(Channel channel, String remoteIp, ByteBuffer buffer) throws IOException;
+
+}
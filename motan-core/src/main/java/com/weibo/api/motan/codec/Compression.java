@@ -0,0 +1,39 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.weibo.api.motan.codec;
+
+import java.io.IOException;
+
+import com.weibo.api.motan.core.extension.Scope;
+import com.weibo.api.motan.core.extension.Spi;
+
+/**
+ * rpc body 的压缩算法
+ * 
+ * <pre>
+ * 		1） getId() 为 1 ~ 7，由 codec 写入 header 的 flag 中，decode 端据此选择解压算法，不需要尝试解压
+ * 		2） 单例，实现需要线程安全；压缩器等可重用的状态按线程保存
+ * </pre>
+ */
+@Spi(scope=Scope.SINGLETON)
+public interface Compression {
+
+	byte getId();
+
+	byte[] compress(byte[] data) throws IOException;
+
+	byte[] decompress(byte[] data) throws IOException;
+}
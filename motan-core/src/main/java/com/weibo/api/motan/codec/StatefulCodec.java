@@ -0,0 +1,31 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.weibo.api.motan.codec;
+
+/**
+ * 带有连接级状态的 codec
+ * 
+ * <pre>
+ * 		1） transport 在每个物理连接建立时调用 newConnectionCodec()，该连接上的 encode、decode 都使用返回的 codec
+ * 		2） transport 需要保证同一个连接上 encode 的顺序与写出的顺序一致、decode 的顺序与读入的顺序一致
+ * 		3） endpoint 级的状态（如协商结果）由 codec 自行在连接间共享
+ * </pre>
+ */
+public interface StatefulCodec extends Codec {
+
+	Codec newConnectionCodec();
+
+}
@@ -92,6 +92,17 @@ public class MotanConstants {
     // don't share channel min worker thread
     public static final int NETTY_NOT_SHARECHANNEL_MIN_WORKDER = 20;
     public static final int NETTY_TIMEOUT_TIMER_PERIOD = 100;
+    // request timeout timer: tick(ms) & wheel size
+    public static final int NETTY_TIMEOUT_TIMER_TICK = 10;
+    public static final int NETTY_TIMEOUT_TIMER_WHEEL_SIZE = 512;
+    // request timeout task(cancel future & notify listeners) threads & queue size
+    public static final int NETTY_TIMEOUT_TASK_THREADS = 4;
+    public static final int NETTY_TIMEOUT_TASK_QUEUE_SIZE = 100000;
+    // multiplex channel group check & reconnect period
+    public static final int MULTIPLEX_CHANNEL_CHECK_PERIOD = 1000;
+    // multiplex channel group reconnect threads & max reconnect backoff(ms)
+    public static final int MULTIPLEX_CHANNEL_RECONNECT_THREADS = 4;
+    public static final int MULTIPLEX_CHANNEL_MAX_RECONNECT_BACKOFF = 30000;
     public static final byte NETTY_REQUEST_TYPE = 1;
     public static final byte FLAG_REQUEST = 0x00;
     public static final byte FLAG_RESPONSE = 0x01;
@@ -36,16 +36,32 @@ public enum URLParamType {
     minWorkerThread("minWorkerThread", 20),
     /** service max worker threads **/
     maxWorkerThread("maxWorkerThread", 200),
+    /** service or method isolated worker threads on shared channel server, 0 means using the server worker threads **/
+    bulkheadThread("bulkheadThread", 0),
+    /** queue size of the isolated worker threads, requests are rejected when the queue is full **/
+    bulkheadQueueSize("bulkheadQueueSize", 0),
     /** pool min conn number **/
     minClientConnection("minClientConnection", 2),
     /** pool max conn number **/
     maxClientConnection("maxClientConnection", 10),
     /** pool max conn number **/
     maxContentLength("maxContentLength", 10 * 1024 * 1024),
+    /** motan3 codec per conn attachment table size, 0 means disabled **/
+    attachmentTableSize("attachmentTableSize", 4096),
+    /** server deserializes request arguments in worker threads, IO threads only parse header and attachments **/
+    decodeInWorker("decodeInWorker", false),
+    /** client deserializes response value in the caller thread on first getValue **/
+    lazyDeserialize("lazyDeserialize", false),
+    /** server executes the method in IO thread, only for short non-blocking methods **/
+    inlineExecute("inlineExecute", false),
+    /** inlineExecute falls back to the thread pool when the method's average latency exceeds this value (microseconds) **/
+    inlineLatencyThreshold("inlineLatencyThreshold", 100),
     /** max server conn (all clients conn) **/
     maxServerConnection("maxServerConnection", 100000),
     /** pool conn manger stragy **/
     poolLifo("poolLifo", true),
+    /** client conn multiplex: minClientConnection fixed channels shared by all requests instead of pool **/
+    multiplexChannel("multiplexChannel", false),
 
     lazyInit("lazyInit", false),
     /** multi referer share the same channel **/
@@ -85,6 +101,12 @@ public enum URLParamType {
     excise("excise", Excise.excise_dynamic.getName()), 
     cluster("cluster", MotanConstants.DEFAULT_VALUE), 
     loadbalance("loadbalance", "activeWeight"), 
+    /** consistent loadbalance hash key: empty for all arguments, "argument:index" or "attachment:name"; arguments are hashed by value, other objects by their serialized bytes **/
+    consistentHashKey("consistentHashKey", ""),
+    /** consistent loadbalance virtual nodes of each referer **/
+    consistentHashNodes("consistentHashNodes", 160),
+    /** weightRoundRobin loadbalance weight of the provider node, 0 means no request unless all nodes are 0 **/
+    weight("weight", 1),
     haStrategy("haStrategy", "failover"), 
     protocol("protocol", MotanConstants.PROTOCOL_MOTAN), 
     path("path", ""), 
@@ -98,6 +120,8 @@ public enum URLParamType {
 
     usegz("usegz", false), // 是否开启gzip压缩
     mingzSize("mingzSize", 1000), // 进行gz压缩的最小数据大小。超过此阈值才进行gz压缩
+    compression("compression", ""), // 压缩算法（Compression 扩展名，如 gzip、lz4），为空时由 usegz 决定是否使用 gzip。非 gzip 算法需要对端同样升级
+    adaptiveCompress("adaptiveCompress", false), // 按方法统计压缩率，压缩效果差的方法暂时不压缩
 
 
     application("application", MotanConstants.FRAMEWORK_NAME), 
@@ -0,0 +1,207 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.weibo.api.motan.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.weibo.api.motan.codec.Compression;
+import com.weibo.api.motan.core.extension.SpiMeta;
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+
+/**
+ * gzip 压缩，数据格式与 GZIPOutputStream/GZIPInputStream 兼容。
+ * 
+ * Deflater/Inflater 按线程重用，不再每个消息创建一次 native 压缩器
+ */
+@SpiMeta(name = "gzip")
+public class GzipCompression implements Compression {
+    public static final byte ID = 1;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int HEADER_LENGTH = 10;
+    private static final int TRAILER_LENGTH = 8;
+    // header 中的 flag 位
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    // deflate 的最大压缩比约为 1032:1，声明的原始长度超过该比例时一定是错误数据
+    private static final int MAX_RATIO = 1032;
+    // 解压 buffer 的初始大小为压缩数据的若干倍，不足时翻倍，不按对端声明的长度一次分配
+    private static final int INITIAL_RATIO = 4;
+
+    private static final byte[] HEADER = {(byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[4096];
+        }
+    };
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + HEADER_LENGTH + TRAILER_LENGTH);
+        out.write(HEADER);
+
+        Deflater deflater = DEFLATER.get();
+        byte[] buffer = BUFFER.get();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+        } finally {
+            deflater.reset();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        writeIntLE(out, (int) crc.getValue());
+        writeIntLE(out, data.length);
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) throws IOException {
+        if (!isGzip(data) || data.length < HEADER_LENGTH + TRAILER_LENGTH || data[2] != Deflater.DEFLATED) {
+            throw new MotanFrameworkException("gzip decompress error: not in gzip format", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+
+        int offset = skipHeader(data);
+        int length = readIntLE(data, data.length - 4);
+        if (length < 0 || length > (long) (data.length - offset) * MAX_RATIO) {
+            throw new MotanFrameworkException("gzip decompress error: length=" + length, MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+
+        byte[] result = new byte[(int) Math.min(length, (long) data.length * INITIAL_RATIO)];
+        Inflater inflater = INFLATER.get();
+        try {
+            // nowrap 模式下 inflater 需要多一个字节的输入，trailer 保证了这一点
+            inflater.setInput(data, offset, data.length - offset);
+            int n = 0;
+            while (n < length) {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, (int) Math.min(length, (long) result.length * 2));
+                }
+                int count = inflater.inflate(result, n, result.length - n);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += count;
+            }
+            if (n != length) {
+                throw new MotanFrameworkException("gzip decompress error: length not match, expect=" + length + ", actual=" + n,
+                        MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+            }
+        } catch (DataFormatException e) {
+            throw new MotanFrameworkException("gzip decompress error", e, MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        } finally {
+            inflater.reset();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(result);
+        if ((int) crc.getValue() != readIntLE(data, data.length - TRAILER_LENGTH)) {
+            throw new MotanFrameworkException("gzip decompress error: crc error", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+        return result;
+    }
+
+    /**
+     * 根据 gzip magic 判断是否为 gzip 数据
+     */
+    public static boolean isGzip(byte[] data) {
+        return data != null && data.length >= 2 && data[0] == (byte) GZIP_MAGIC && data[1] == (byte) (GZIP_MAGIC >> 8);
+    }
+
+    // 返回 deflate 数据的起始位置，header 超出 trailer 之前的范围时抛出异常
+    private static int skipHeader(byte[] data) {
+        int flag = data[3] & 0xff;
+        int limit = data.length - TRAILER_LENGTH;
+        int offset = HEADER_LENGTH;
+        if ((flag & FEXTRA) != 0) {
+            checkHeaderRange(offset + 2, limit);
+            offset += 2 + ((data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8));
+        }
+        if ((flag & FNAME) != 0) {
+            offset = skipZeroTerminated(data, offset, limit);
+        }
+        if ((flag & FCOMMENT) != 0) {
+            offset = skipZeroTerminated(data, offset, limit);
+        }
+        if ((flag & FHCRC) != 0) {
+            offset += 2;
+        }
+        checkHeaderRange(offset, limit);
+        return offset;
+    }
+
+    private static int skipZeroTerminated(byte[] data, int offset, int limit) {
+        while (true) {
+            checkHeaderRange(offset + 1, limit);
+            if (data[offset++] == 0) {
+                return offset;
+            }
+        }
+    }
+
+    private static void checkHeaderRange(int offset, int limit) {
+        if (offset > limit) {
+            throw new MotanFrameworkException("gzip decompress error: header out of range", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static int readIntLE(byte[] data, int offset) {
+        return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8) | ((data[offset + 2] & 0xff) << 16)
+                | ((data[offset + 3] & 0xff) << 24);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.weibo.api.motan.compress;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.weibo.api.motan.codec.Compression;
+import com.weibo.api.motan.core.extension.SpiMeta;
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+
+/**
+ * 纯 java 实现的 LZ4 block 格式压缩，速度优先，压缩率低于 gzip，适合机房内的调用
+ * 
+ * <pre>
+ * 		1） 数据格式：int(原始长度，big endian) + LZ4 block
+ * 		2） 压缩使用单个 hash 表的贪心匹配，hash 表按线程重用
+ * </pre>
+ */
+@SpiMeta(name = "lz4")
+public class Lz4Compression implements Compression {
+    public static final byte ID = 2;
+
+    private static final int MIN_MATCH = 4;
+    // 最后一个 match 必须在数据结束前 MF_LIMIT 字节开始，最后 LAST_LITERALS 字节必须为 literal
+    private static final int MF_LIMIT = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int ML_MASK = 0x0f;
+    private static final int RUN_MASK = 0x0f;
+    // 连续未匹配时按 (ip - anchor) >> SKIP_STRENGTH 加快步长
+    private static final int SKIP_STRENGTH = 6;
+
+    private static final int HASH_LOG = 12;
+
+    // 每个长度字节最多表示 255 字节的输出，声明的原始长度超过该比例时一定是错误数据
+    private static final int MAX_RATIO = 255;
+    // 解压 buffer 的初始大小为压缩数据的若干倍，不足时翻倍，不按对端声明的长度一次分配
+    private static final int INITIAL_RATIO = 4;
+
+    private static final ThreadLocal<int[]> HASH_TABLE = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] src) throws IOException {
+        int length = src.length;
+        byte[] dest = new byte[4 + length + length / 255 + 16];
+        writeInt(dest, 0, length);
+        int op = 4;
+        int anchor = 0;
+
+        if (length > MF_LIMIT) {
+            int[] table = HASH_TABLE.get();
+            Arrays.fill(table, -1);
+
+            int matchLimit = length - MF_LIMIT;
+            int ip = 0;
+            while (ip < matchLimit) {
+                int sequence = readIntLE(src, ip);
+                int h = hash(sequence);
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readIntLE(src, ref) != sequence) {
+                    ip += 1 + ((ip - anchor) >>> SKIP_STRENGTH);
+                    continue;
+                }
+
+                // 向前扩展
+                while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                // 向后扩展，保留最后 LAST_LITERALS 字节
+                int matchLength = MIN_MATCH;
+                int matchEnd = length - LAST_LITERALS;
+                while (ip + matchLength < matchEnd && src[ip + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+
+                int tokenIndex = op;
+                op = writeLiterals(src, anchor, ip - anchor, dest, op);
+                dest[op++] = (byte) (ip - ref);
+                dest[op++] = (byte) ((ip - ref) >>> 8);
+                if (matchLength - MIN_MATCH >= ML_MASK) {
+                    dest[tokenIndex] |= ML_MASK;
+                    op = writeLength(dest, op, matchLength - MIN_MATCH - ML_MASK);
+                } else {
+                    dest[tokenIndex] |= matchLength - MIN_MATCH;
+                }
+
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+
+        // 最后的 literals
+        op = writeLiterals(src, anchor, length - anchor, dest, op);
+        return Arrays.copyOf(dest, op);
+    }
+
+    @Override
+    public byte[] decompress(byte[] src) throws IOException {
+        if (src.length < 5) {
+            throw new MotanFrameworkException("lz4 decompress error: format problem", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+        int length = readIntBE(src, 0);
+        if (length < 0 || length > (long) src.length * MAX_RATIO) {
+            throw new MotanFrameworkException("lz4 decompress error: length=" + length, MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+
+        byte[] dest = new byte[(int) Math.min(length, (long) src.length * INITIAL_RATIO)];
+        int ip = 4;
+        int op = 0;
+        while (true) {
+            checkInput(src, ip + 1);
+            int token = src[ip++] & 0xff;
+
+            int literalLength = token >>> 4;
+            if (literalLength == RUN_MASK) {
+                int b;
+                do {
+                    checkInput(src, ip + 1);
+                    b = src[ip++] & 0xff;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > src.length - ip || literalLength > length - op) {
+                throw new MotanFrameworkException("lz4 decompress error: literal out of range", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+            }
+            dest = ensureCapacity(dest, op + literalLength, length);
+            System.arraycopy(src, ip, dest, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+
+            if (ip == src.length) {
+                break;
+            }
+
+            checkInput(src, ip + 2);
+            int offset = (src[ip++] & 0xff) | ((src[ip++] & 0xff) << 8);
+            int matchLength = token & ML_MASK;
+            if (matchLength == ML_MASK) {
+                int b;
+                do {
+                    checkInput(src, ip + 1);
+                    b = src[ip++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (offset == 0 || offset > op || matchLength > length - op) {
+                throw new MotanFrameworkException("lz4 decompress error: match out of range", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+            }
+
+            dest = ensureCapacity(dest, op + matchLength, length);
+            int ref = op - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(dest, ref, dest, op, matchLength);
+                op += matchLength;
+            } else {
+                // 重叠的 match 需要逐字节拷贝
+                for (int i = 0; i < matchLength; i++) {
+                    dest[op++] = dest[ref++];
+                }
+            }
+        }
+
+        if (op != length) {
+            throw new MotanFrameworkException("lz4 decompress error: length not match, expect=" + length + ", actual=" + op,
+                    MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+        return dest.length == length ? dest : Arrays.copyOf(dest, length);
+    }
+
+    // 截断的数据在读取 token、长度、offset 时抛出 decode 异常
+    private static void checkInput(byte[] src, int end) {
+        if (end > src.length) {
+            throw new MotanFrameworkException("lz4 decompress error: input truncated", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+    }
+
+    // 按需翻倍，不超过声明的原始长度
+    private static byte[] ensureCapacity(byte[] dest, int required, int length) {
+        if (required <= dest.length) {
+            return dest;
+        }
+        return Arrays.copyOf(dest, (int) Math.min(length, Math.max(required, (long) dest.length * 2)));
+    }
+
+    // token + literal 长度 + literals，match 长度由调用方写入 token 的低 4 位
+    private static int writeLiterals(byte[] src, int start, int literalLength, byte[] dest, int op) {
+        int tokenIndex = op++;
+        if (literalLength >= RUN_MASK) {
+            dest[tokenIndex] = (byte) (RUN_MASK << 4);
+            op = writeLength(dest, op, literalLength - RUN_MASK);
+        } else {
+            dest[tokenIndex] = (byte) (literalLength << 4);
+        }
+        System.arraycopy(src, start, dest, op, literalLength);
+        return op + literalLength;
+    }
+
+    private static int writeLength(byte[] dest, int op, int length) {
+        while (length >= 255) {
+            dest[op++] = (byte) 255;
+            length -= 255;
+        }
+        dest[op++] = (byte) length;
+        return op;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readIntLE(byte[] data, int offset) {
+        return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8) | ((data[offset + 2] & 0xff) << 16)
+                | ((data[offset + 3] & 0xff) << 24);
+    }
+
+    private static int readIntBE(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16) | ((data[offset + 2] & 0xff) << 8)
+                | (data[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
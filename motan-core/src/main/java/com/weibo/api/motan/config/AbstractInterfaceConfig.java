@@ -114,6 +114,12 @@ public class AbstractInterfaceConfig extends AbstractConfig {
     // 进行gzip压缩的最小阈值，usegz开启，且大于此值时才进行gzip压缩。单位Byte
     protected Integer mingzSize;
 
+    // 压缩算法，如 gzip、lz4。为空时由 usegz 决定是否使用 gzip
+    protected String compression;
+
+    // 是否按方法统计压缩率，压缩效果差的方法暂时不压缩
+    protected Boolean adaptiveCompress;
+
     protected String codec;
     protected String localServiceAddress;
 
@@ -310,6 +316,22 @@ public class AbstractInterfaceConfig extends AbstractConfig {
         this.mingzSize = mingzSize;
     }
 
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    public Boolean getAdaptiveCompress() {
+        return adaptiveCompress;
+    }
+
+    public void setAdaptiveCompress(Boolean adaptiveCompress) {
+        this.adaptiveCompress = adaptiveCompress;
+    }
+
     public String getCodec() {
         return codec;
     }
@@ -37,6 +37,15 @@ public abstract class AbstractServiceConfig extends AbstractInterfaceConfig {
     /** 一般不用设置，由服务自己获取，但如果有多个ip，而只想用指定ip，则可以在此处指定 */
     protected String host;
 
+    /** shareChannel 时该 service 独立的业务线程数，0 表示使用 server 共享的线程池 */
+    protected Integer bulkheadThread;
+
+    /** 独立线程池的排队数，队列满时拒绝请求 */
+    protected Integer bulkheadQueueSize;
+
+    /** 该节点的权重，注册到注册中心，client 使用 weightRoundRobin 负载均衡时按权重分配请求 */
+    protected Integer weight;
+
     public String getExport() {
         return export;
     }
@@ -53,6 +62,30 @@ public abstract class AbstractServiceConfig extends AbstractInterfaceConfig {
         this.host = host;
     }
 
+    public Integer getBulkheadThread() {
+        return bulkheadThread;
+    }
+
+    public void setBulkheadThread(Integer bulkheadThread) {
+        this.bulkheadThread = bulkheadThread;
+    }
+
+    public Integer getBulkheadQueueSize() {
+        return bulkheadQueueSize;
+    }
+
+    public void setBulkheadQueueSize(Integer bulkheadQueueSize) {
+        this.bulkheadQueueSize = bulkheadQueueSize;
+    }
+
+    public Integer getWeight() {
+        return weight;
+    }
+
+    public void setWeight(Integer weight) {
+        this.weight = weight;
+    }
+
 
 
 }
@@ -33,6 +33,14 @@ public class MethodConfig extends AbstractConfig {
     private Integer actives;
     // 参数类型（逗号分隔）
     private String argumentTypes;
+    // server 端是否在 IO 线程中直接执行（只适合耗时很短且不阻塞的方法）
+    private Boolean inlineExecute;
+    // inlineExecute 的耗时阈值（微秒），平均耗时超过时回到线程池执行
+    private Integer inlineLatencyThreshold;
+    // server 端该方法独立的业务线程数，不配置时使用 service 的配置
+    private Integer bulkheadThread;
+    // 方法独立线程池的排队数
+    private Integer bulkheadQueueSize;
 
     @ConfigDesc(excluded = true)
     public String getName() {
@@ -75,4 +83,36 @@ public class MethodConfig extends AbstractConfig {
     public void setArgumentTypes(String argumentTypes) {
         this.argumentTypes = argumentTypes;
     }
+
+    public Boolean getInlineExecute() {
+        return inlineExecute;
+    }
+
+    public void setInlineExecute(Boolean inlineExecute) {
+        this.inlineExecute = inlineExecute;
+    }
+
+    public Integer getInlineLatencyThreshold() {
+        return inlineLatencyThreshold;
+    }
+
+    public void setInlineLatencyThreshold(Integer inlineLatencyThreshold) {
+        this.inlineLatencyThreshold = inlineLatencyThreshold;
+    }
+
+    public Integer getBulkheadThread() {
+        return bulkheadThread;
+    }
+
+    public void setBulkheadThread(Integer bulkheadThread) {
+        this.bulkheadThread = bulkheadThread;
+    }
+
+    public Integer getBulkheadQueueSize() {
+        return bulkheadQueueSize;
+    }
+
+    public void setBulkheadQueueSize(Integer bulkheadQueueSize) {
+        this.bulkheadQueueSize = bulkheadQueueSize;
+    }
 }
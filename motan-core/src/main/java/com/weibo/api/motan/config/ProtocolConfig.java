@@ -69,10 +69,18 @@ public class ProtocolConfig extends AbstractConfig {
     protected String cluster;
     // loadbalance 方式
     protected String loadbalance;
+    // consistent loadbalance 的 hash key：为空时使用全部参数，"argument:index" 或 "attachment:name"；参数按值 hash，其他对象按序列化后的字节 hash
+    protected String consistentHashKey;
+    // consistent loadbalance 每个 referer 的虚拟节点数
+    protected Integer consistentHashNodes;
     // high available strategy
     protected String haStrategy;
     // server worker queue size
     protected Integer workerQueueSize;
+    // server 端请求参数是否在业务线程中反序列化
+    protected Boolean decodeInWorker;
+    // client 端返回值是否在调用线程中反序列化
+    protected Boolean lazyDeserialize;
     // server accept connections count
     protected Integer acceptConnections;
 
@@ -236,6 +244,22 @@ public class ProtocolConfig extends AbstractConfig {
         this.loadbalance = loadbalance;
     }
 
+    public String getConsistentHashKey() {
+        return consistentHashKey;
+    }
+
+    public void setConsistentHashKey(String consistentHashKey) {
+        this.consistentHashKey = consistentHashKey;
+    }
+
+    public Integer getConsistentHashNodes() {
+        return consistentHashNodes;
+    }
+
+    public void setConsistentHashNodes(Integer consistentHashNodes) {
+        this.consistentHashNodes = consistentHashNodes;
+    }
+
     public String getHaStrategy() {
         return haStrategy;
     }
@@ -252,6 +276,22 @@ public class ProtocolConfig extends AbstractConfig {
         this.workerQueueSize = workerQueueSize;
     }
 
+    public Boolean getDecodeInWorker() {
+        return decodeInWorker;
+    }
+
+    public void setDecodeInWorker(Boolean decodeInWorker) {
+        this.decodeInWorker = decodeInWorker;
+    }
+
+    public Boolean getLazyDeserialize() {
+        return lazyDeserialize;
+    }
+
+    public void setLazyDeserialize(Boolean lazyDeserialize) {
+        this.lazyDeserialize = lazyDeserialize;
+    }
+
     public Integer getAcceptConnections() {
         return acceptConnections;
     }
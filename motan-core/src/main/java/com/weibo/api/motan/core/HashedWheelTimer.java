@@ -0,0 +1,385 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.core;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.weibo.api.motan.util.InternalMetricsFactory;
+import com.weibo.api.motan.util.LoggerUtil;
+import com.weibo.api.motan.util.StatisticCallback;
+import com.weibo.api.motan.util.StatsUtil;
+
+/**
+ * 时间轮定时器
+ *
+ * <pre>
+ * 		用于大量、短时、大部分会被提前取消的超时任务（如 rpc 请求超时）：
+ * 			1） 新增、取消都是 O(1)，不需要像周期扫描一样每个 tick 遍历全部任务
+ * 			2） 单个 worker 线程按 tickDuration 推进，bucket 只由 worker 线程访问，无锁
+ * 			3） 统计 tick 的延迟以及任务实际触发时间与预期时间的差值（lag）
+ * 			4） 指定 taskExecutor 时到期任务交给 executor 执行，任务中的慢操作（如 listener）不会拖慢时间轮
+ * </pre>
+ */
+public class HashedWheelTimer implements StatisticCallback {
+    // 每个 tick 最多从队列中转移的新任务数，避免 worker 线程长时间不推进
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    private final String name;
+    private final long tickDuration;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicLong pendingCount = new AtomicLong(0);
+    private final Histogram lagHistogram;
+    private final long startTime;
+    private final Thread workerThread;
+    // 为 null 时到期任务直接在 worker 线程中执行
+    private final Executor taskExecutor;
+
+    private volatile long tickLag = 0;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param name 名称，用于线程名及统计
+     * @param tickDuration 每个 tick 的时长
+     * @param unit tickDuration 的单位
+     * @param wheelSize bucket 数量，会调整为 2 的幂
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        this(name, tickDuration, unit, wheelSize, null);
+    }
+
+    /**
+     * @param name 名称，用于线程名及统计
+     * @param tickDuration 每个 tick 的时长
+     * @param unit tickDuration 的单位
+     * @param wheelSize bucket 数量，会调整为 2 的幂
+     * @param taskExecutor 执行到期任务的 executor，为 null 时在 worker 线程中执行
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int wheelSize, Executor taskExecutor) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("HashedWheelTimer tickDuration must be greater than 0: " + tickDuration);
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("HashedWheelTimer wheelSize must be in (0, 2^30]: " + wheelSize);
+        }
+
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+
+        this.name = name;
+        this.tickDuration = unit.toNanos(tickDuration);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.taskExecutor = taskExecutor;
+        this.lagHistogram = InternalMetricsFactory.getDefaultMetricsRegistry().histogram(
+                MetricRegistry.name(HashedWheelTimer.class, name, "lagMillis"));
+
+        this.startTime = System.nanoTime();
+        this.workerThread = new DefaultThreadFactory(name, true).newThread(new Worker());
+        this.workerThread.start();
+
+        StatsUtil.registryStatisticCallback(this);
+    }
+
+    /**
+     * 注册超时任务，没有指定 taskExecutor 时任务在 worker 线程中执行，因此不能有阻塞操作
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new NullPointerException("HashedWheelTimer task is null");
+        }
+        if (stopped) {
+            throw new IllegalStateException("HashedWheelTimer already stopped: " + name);
+        }
+
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + unit.toNanos(delay));
+        pendingCount.incrementAndGet();
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        stopped = true;
+        workerThread.interrupt();
+        StatsUtil.unRegistryStatisticCallback(this);
+    }
+
+    /**
+     * 尚未触发且未取消的任务数
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * 最近一个 tick 实际推进时间与预期时间的差值（ms）
+     */
+    public long getTickLag() {
+        return tickLag;
+    }
+
+    /**
+     * 任务实际触发时间与预期时间差值（ms）的分布
+     */
+    public Histogram getLagHistogram() {
+        return lagHistogram;
+    }
+
+    @Override
+    public String statisticCallback() {
+        Snapshot snapshot = lagHistogram.getSnapshot();
+        return String.format("timer: %s pending: %s tickLag: %sms lag99: %.1fms lagMax: %sms", name,
+                pendingCount.get(), tickLag, snapshot.get99thPercentile(), snapshot.getMax());
+    }
+
+    private class Worker implements Runnable {
+        private long tick = 0;
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                long current = waitForNextTick();
+                if (current < 0) {
+                    break;
+                }
+
+                removeCancelledTimeouts();
+                transferPendingTimeouts();
+                wheel[(int) (tick & mask)].expireTimeouts(current);
+                tick++;
+            }
+        }
+
+        /**
+         * 等待到下一个 tick，返回当前相对时间（ns），被 stop 时返回 -1
+         */
+        private long waitForNextTick() {
+            long deadline = tickDuration * (tick + 1);
+
+            for (;;) {
+                long current = System.nanoTime() - startTime;
+                long sleepTimeMs = (deadline - current + 999999) / 1000000;
+
+                if (sleepTimeMs <= 0) {
+                    tickLag = (current - deadline) / 1000000;
+                    return current;
+                }
+
+                try {
+                    Thread.sleep(sleepTimeMs);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        return -1;
+                    }
+                }
+            }
+        }
+
+        private void transferPendingTimeouts() {
+            for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+                Timeout timeout = pendingTimeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.isCancelled()) {
+                    // 已经在 cancel 时计数
+                    continue;
+                }
+
+                long calculated = timeout.deadline / tickDuration;
+                timeout.remainingRounds = (calculated - tick) / wheel.length;
+                // 已经过期的任务放到当前 tick 的 bucket，马上触发
+                long ticks = Math.max(calculated, tick);
+                wheel[(int) (ticks & mask)].add(timeout);
+            }
+        }
+
+        private void removeCancelledTimeouts() {
+            for (;;) {
+                Timeout timeout = cancelledTimeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+    }
+
+    private void expired(final Timeout timeout, long current) {
+        pendingCount.decrementAndGet();
+        lagHistogram.update(Math.max(0, (current - timeout.deadline) / 1000000));
+
+        if (taskExecutor != null) {
+            try {
+                taskExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runTask(timeout);
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // executor 已满或已关闭时退化为在 worker 线程中执行，保证任务不丢失
+                LoggerUtil.warn("HashedWheelTimer " + name + " taskExecutor rejected, run timeout task in worker thread");
+            }
+        }
+
+        runTask(timeout);
+    }
+
+    private void runTask(Timeout timeout) {
+        try {
+            timeout.task.run();
+        } catch (Throwable t) {
+            LoggerUtil.error("HashedWheelTimer " + name + " run timeout task Error", t);
+        }
+    }
+
+    /**
+     * 双向链表，只由 worker 线程访问
+     */
+    private final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expireTimeouts(long current) {
+            Timeout timeout = head;
+
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (timeout.expire()) {
+                        expired(timeout, current);
+                    }
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    /**
+     * 定时任务的句柄
+     */
+    public static final class Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER = AtomicIntegerFieldUpdater
+                .newUpdater(Timeout.class, "state");
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state = ST_INIT;
+
+        // 以下字段只由 worker 线程访问
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout prev;
+        private Bucket bucket;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消任务，任务已经触发或已经取消时返回 false
+         */
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+
+            timer.pendingCount.decrementAndGet();
+            timer.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        private boolean expire() {
+            return STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED);
+        }
+    }
+}
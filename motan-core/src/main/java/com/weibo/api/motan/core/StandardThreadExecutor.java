@@ -14,9 +14,14 @@
  *    limitations under the License.
  */
 
-package com.weibo.api.motan.transport.netty;
+package com.weibo.api.motan.core;
 
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
@@ -24,8 +29,6 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.jboss.netty.util.internal.LinkedTransferQueue;
-
 /**
  * <pre>
  * 
@@ -136,19 +139,29 @@ public class StandardThreadExecutor extends ThreadPoolExecutor {
  * 
  * <pre>
  * 		1) 不过LinkedTransferQueue的缺点是没有队列长度控制，需要在外层协助控制
+ * 		2) motan-core 不依赖 netty，JDK 7+ 使用 java.util.concurrent.LinkedTransferQueue，JDK 6 退化为 LinkedBlockingQueue
  * </pre>
  * 
  * @author maijunsheng
  *
  */
-class ExecutorQueue extends LinkedTransferQueue<Runnable> {
-	private static final long serialVersionUID = -265236426751004839L;
+class ExecutorQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+	private final BlockingQueue<Runnable> queue = createQueue();
 	StandardThreadExecutor threadPoolExecutor;
 
 	public ExecutorQueue() {
 		super();
 	}
 
+	@SuppressWarnings("unchecked")
+	private static BlockingQueue<Runnable> createQueue() {
+		try {
+			return (BlockingQueue<Runnable>) Class.forName("java.util.concurrent.LinkedTransferQueue").newInstance();
+		} catch (Throwable e) {
+			return new LinkedBlockingQueue<Runnable>();
+		}
+	}
+
 	public void setStandardThreadExecutor(StandardThreadExecutor threadPoolExecutor) {
 		this.threadPoolExecutor = threadPoolExecutor;
 	}
@@ -159,7 +172,7 @@ class ExecutorQueue extends LinkedTransferQueue<Runnable> {
 			throw new RejectedExecutionException("Executor not running, can't force a command into the queue");
 		}
 		// forces the item onto the queue, to be used if the task is rejected
-		return super.offer(o);
+		return queue.offer(o);
 	}
 
 	// 注：tomcat的代码进行一些小变更 
@@ -168,12 +181,12 @@ class ExecutorQueue extends LinkedTransferQueue<Runnable> {
 
 		// we are maxed out on threads, simply queue the object
 		if (poolSize == threadPoolExecutor.getMaximumPoolSize()) {
-			return super.offer(o);
+			return queue.offer(o);
 		}
 		// we have idle threads, just add it to the queue
 		// note that we don't use getActiveCount(), see BZ 49730
 		if (threadPoolExecutor.getSubmittedTasksCount() <= poolSize) {
-			return super.offer(o);
+			return queue.offer(o);
 		}
 		// if we have less threads than maximum force creation of a new
 		// thread
@@ -181,6 +194,66 @@ class ExecutorQueue extends LinkedTransferQueue<Runnable> {
 			return false;
 		}
 		// if we reached here, we need to add it to the queue
-		return super.offer(o);
+		return queue.offer(o);
+	}
+
+	@Override
+	public void put(Runnable o) throws InterruptedException {
+		queue.put(o);
+	}
+
+	@Override
+	public boolean offer(Runnable o, long timeout, TimeUnit unit) throws InterruptedException {
+		return queue.offer(o, timeout, unit);
+	}
+
+	@Override
+	public Runnable take() throws InterruptedException {
+		return queue.take();
+	}
+
+	@Override
+	public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return queue.poll(timeout, unit);
+	}
+
+	@Override
+	public Runnable poll() {
+		return queue.poll();
 	}
-}
\ No newline at end of file
+
+	@Override
+	public Runnable peek() {
+		return queue.peek();
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return queue.remove(o);
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return queue.remainingCapacity();
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c) {
+		return queue.drainTo(c);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c, int maxElements) {
+		return queue.drainTo(c, maxElements);
+	}
+
+	@Override
+	public Iterator<Runnable> iterator() {
+		return queue.iterator();
+	}
+
+	@Override
+	public int size() {
+		return queue.size();
+	}
+}
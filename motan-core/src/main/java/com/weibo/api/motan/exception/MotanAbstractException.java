@@ -88,6 +88,13 @@ public abstract class MotanAbstractException extends RuntimeException {
                 + ",r=" + RpcContext.getContext().getRequestId();
     }
 
+    /**
+     * 构造时传入的 message，不包含 status、error_code 等修饰
+     */
+    public String getOriginMessage() {
+        return errorMsg;
+    }
+
     public int getStatus() {
         return motanErrorMsg != null ? motanErrorMsg.getStatus() : 0;
     }
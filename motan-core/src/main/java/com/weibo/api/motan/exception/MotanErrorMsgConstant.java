@@ -26,6 +26,7 @@ public class MotanErrorMsgConstant {
     public static final int SERVICE_REJECT_ERROR_CODE = 10002;
     public static final int SERVICE_TIMEOUT_ERROR_CODE = 10003;
     public static final int SERVICE_TASK_CANCEL_ERROR_CODE = 10004;
+    public static final int SERVICE_METHOD_ID_EXPIRED_ERROR_CODE = 10005;
     // service error status 404
     public static final int SERVICE_UNFOUND_ERROR_CODE = 10101;
     // service error status 403
@@ -50,6 +51,8 @@ public class MotanErrorMsgConstant {
     public static final MotanErrorMsg SERVICE_UNFOUND = new MotanErrorMsg(404, SERVICE_UNFOUND_ERROR_CODE, "service unfound");
     public static final MotanErrorMsg SERVICE_TIMEOUT = new MotanErrorMsg(503, SERVICE_TIMEOUT_ERROR_CODE, "service request timeout");
     public static final MotanErrorMsg SERVICE_TASK_CANCEL = new MotanErrorMsg(503, SERVICE_TASK_CANCEL_ERROR_CODE, "service task cancel");
+    public static final MotanErrorMsg SERVICE_METHOD_ID_EXPIRED = new MotanErrorMsg(503, SERVICE_METHOD_ID_EXPIRED_ERROR_CODE,
+            "service method id expired");
     public static final MotanErrorMsg SERVICE_REQUEST_LENGTH_OUT_OF_LIMIT = new MotanErrorMsg(403,
             SERVICE_REQUEST_LENGTH_OUT_OF_LIMIT_ERROR_CODE, "servier requset data length over of limit");
     /**
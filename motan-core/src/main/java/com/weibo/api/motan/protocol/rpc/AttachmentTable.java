@@ -0,0 +1,215 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.weibo.api.motan.protocol.rpc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+
+/**
+ * 连接级的 attachment 动态表（参考 HPACK 的 dynamic table）
+ * 
+ * <pre>
+ * 		1） 每个连接的每个方向一张表，encode 端和 decode 端按相同的顺序做相同的插入和淘汰，两端的表始终保持一致
+ * 		2） 线上使用相对下标，0 为最近插入的表项
+ * 		3） 表的大小为所有表项 name、value 的长度加上 ENTRY_OVERHEAD 之和，插入时超过 maxSize 则从最早插入的表项开始淘汰，
+ * 		   单个表项超过 maxSize 时清空表且不插入
+ * 		4） maxSize 由 encode 端修改并显式通知 decode 端，不能超过 MAX_TABLE_SIZE
+ * 		5） 非线程安全，调用方需要保证 encode 与写出、decode 与读入的顺序一致
+ * </pre>
+ */
+public class AttachmentTable {
+    public static final int ENTRY_OVERHEAD = 32;
+    public static final int MAX_TABLE_SIZE = 64 * 1024;
+
+    // 环形数组，head 为最早插入的表项
+    private Entry[] entries = new Entry[16];
+    private int head = 0;
+    private int count = 0;
+    // 已插入的表项数，同时作为下一个表项的序号
+    private long inserted = 0;
+
+    private int size = 0;
+    private int maxSize = 0;
+    private boolean maxSizeChanged = false;
+
+    // encode 端的查找索引
+    private Map<Entry, Entry> fields = new HashMap<Entry, Entry>();
+    private Map<String, Entry> names = new HashMap<String, Entry>();
+
+    /**
+     * name 和 value 都相同的表项的下标，不存在时返回 -1
+     */
+    public int indexOf(String name, String value) {
+        Entry entry = fields.get(new Entry(name, value, -1));
+        if (entry == null) {
+            return -1;
+        }
+        entry.reused = true;
+        return index(entry);
+    }
+
+    /**
+     * 最近插入的 name 相同的表项的下标，不存在时返回 -1
+     */
+    public int indexOfName(String name) {
+        Entry entry = names.get(name);
+        return entry == null ? -1 : index(entry);
+    }
+
+    /**
+     * name 的新 value 是否应该插入表中：name 不在表中，或者 name 最近插入的 value 被复用过。
+     * 
+     * 每次都不同的 value（如 requestIdFromClient）只会插入一次，之后仅引用 name，避免冲掉其他表项
+     */
+    public boolean shouldAdd(String name) {
+        Entry entry = names.get(name);
+        return entry == null || entry.reused;
+    }
+
+    public void add(String name, String value) {
+        Entry entry = new Entry(name, value, inserted++);
+        if (entry.size > maxSize) {
+            // 与 HPACK 相同：超过表大小的表项会清空整个表
+            evict(0);
+            return;
+        }
+        evict(maxSize - entry.size);
+
+        if (count == entries.length) {
+            Entry[] newEntries = new Entry[entries.length << 1];
+            for (int i = 0; i < count; i++) {
+                newEntries[i] = entries[(head + i) % entries.length];
+            }
+            entries = newEntries;
+            head = 0;
+        }
+        entries[(head + count) % entries.length] = entry;
+        count++;
+        size += entry.size;
+        fields.put(entry, entry);
+        names.put(name, entry);
+    }
+
+    public String getName(int index) {
+        return get(index).name;
+    }
+
+    public String getValue(int index) {
+        return get(index).value;
+    }
+
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 0 || maxSize > MAX_TABLE_SIZE) {
+            throw new MotanFrameworkException("attachment table size error: " + maxSize,
+                    MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+        if (maxSize != this.maxSize) {
+            this.maxSize = maxSize;
+            maxSizeChanged = true;
+            evict(maxSize);
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * encode 端使用：maxSize 修改后尚未通知对端
+     */
+    public boolean isMaxSizeChanged() {
+        return maxSizeChanged;
+    }
+
+    public void resetMaxSizeChanged() {
+        maxSizeChanged = false;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    private Entry get(int index) {
+        if (index < 0 || index >= count) {
+            throw new MotanFrameworkException("attachment table index error: index=" + index + ", count=" + count,
+                    MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+        return entries[(head + count - 1 - index) % entries.length];
+    }
+
+    private int index(Entry entry) {
+        return (int) (inserted - 1 - entry.seq);
+    }
+
+    // 从最早插入的表项开始淘汰，直到 size 不超过 targetSize
+    private void evict(int targetSize) {
+        while (count > 0 && size > targetSize) {
+            Entry entry = entries[head];
+            entries[head] = null;
+            head = (head + 1) % entries.length;
+            count--;
+            size -= entry.size;
+
+            if (fields.get(entry) == entry) {
+                fields.remove(entry);
+            }
+            if (names.get(entry.name) == entry) {
+                names.remove(entry.name);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final String name;
+        private final String value;
+        private final long seq;
+        private final int size;
+        private final int hash;
+        private boolean reused = false;
+
+        private Entry(String name, String value, long seq) {
+            this.name = name;
+            this.value = value;
+            this.seq = seq;
+            this.size = name.length() + value.length() + ENTRY_OVERHEAD;
+            this.hash = 31 * name.hashCode() + value.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return hash == other.hash && name.equals(other.name) && value.equals(other.value);
+        }
+    }
+}
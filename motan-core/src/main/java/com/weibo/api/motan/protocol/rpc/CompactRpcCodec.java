@@ -0,0 +1,945 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.protocol.rpc;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.weibo.api.motan.codec.AbstractCodec;
+import com.weibo.api.motan.codec.Codec;
+import com.weibo.api.motan.codec.Serialization;
+import com.weibo.api.motan.codec.StatefulCodec;
+import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.core.extension.ExtensionLoader;
+import com.weibo.api.motan.core.extension.SpiMeta;
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.exception.MotanServiceException;
+import com.weibo.api.motan.rpc.DefaultRequest;
+import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.DeferredRequest;
+import com.weibo.api.motan.rpc.DeferredResponse;
+import com.weibo.api.motan.rpc.ProviderMethodTable;
+import com.weibo.api.motan.rpc.ProviderMethodTable.MethodEntry;
+import com.weibo.api.motan.rpc.ProviderMethodTable.MethodKey;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.Response;
+import com.weibo.api.motan.transport.AbstractServer;
+import com.weibo.api.motan.transport.Channel;
+import com.weibo.api.motan.transport.ProviderMessageRouter;
+import com.weibo.api.motan.util.BufferOutputStream;
+import com.weibo.api.motan.util.ExceptionUtil;
+import com.weibo.api.motan.util.ReflectUtil;
+
+/**
+ * 不依赖 ObjectOutputStream/ObjectInputStream 的紧凑 codec（v3）
+ * 
+ * <pre>
+ * 		1） header 与 v1 相同，version 为 3；body 中的字符串、参数、attachments 使用 varint 长度前缀，没有 ObjectStream 的 stream header 和 block data
+ * 		2） 协商：client 先以 v1 编码并在 flag 中带上 v3 能力位，server 端（motan3 codec）在所有 response 的 flag 中带上该能力位，
+ * 		   client 收到带能力位的 response 后切换为 v3；对端为 DefaultRpcCodec 时能力位会被 mask 忽略，一直使用 v1
+ * 		3） server 端按 request 的版本回复 response，因此同一个 server 可以同时服务 v1 和 v3 的 client
+ * 		4） codec 为 PROTOTYPE scope，每个 endpoint 一个实例，协商结果保存在实例中
+ * 		5） 方法 id：server 端按 {@link ProviderMethodTable} 为暴露的方法分配整数 id，client 以字符串调用某方法时，
+ * 		   server 在 v3 response 中下发该方法的 id 和表的 epoch（连接级 codec 内部按 requestId 对应，不经过 attachments），client 之后在该连接上只发送 id 和 epoch；
+ * 		   id 属于连接，重连（如 server 重启）后的新连接重新以字符串调用；server 记录每个连接下发过的 id 对应的方法签名，
+ * 		   方法表变化（如重新 export）后 id 无法按下标解析时按方法签名查找，不会返回失败，也不会分发到其他方法
+ * 		6） attachments：transport 为每个连接创建一个 {@link ConnectionCodec}，request 的 attachments 通过连接级的 {@link AttachmentTable}
+ * 		   编码，重复的 name、value 只发送表的下标；表的大小由 client 的 attachmentTableSize 决定，0 表示不使用
+ * 		7） 声明类型为 byte[] 或 ByteBuffer 的参数、以及 byte[] 或 ByteBuffer 类型的返回值不经过序列化，直接写入 body；
+ * 		   decode 的数据归 codec 所有时（byte[] 入口），ByteBuffer 参数直接使用 body 的视图，transport 的 buffer 在 decode 后会被回收，此时拷贝一次
+ * </pre>
+ */
+@SpiMeta(name = "motan3")
+public class CompactRpcCodec extends AbstractCodec implements StatefulCodec {
+    private static final short MAGIC = (short) 0xF0F0;
+
+    private static final byte MASK = 0x07;
+
+    /** flag 中的 v3 能力位，DefaultRpcCodec decode 时会通过 MASK 忽略 **/
+    private static final byte FLAG_V3_SUPPORTED = 0x08;
+
+    /** server 端每个连接等待下发的方法 id 的最大数量，超过时不再下发，client 继续使用字符串 **/
+    private static final int MAX_PENDING_METHOD_ID_ACKS = 1024;
+
+    /** server 端每个连接下发过的方法 id 的最大数量，超过时不再下发 **/
+    private static final int MAX_ACKED_METHOD_IDS = 4096;
+
+    // attachment 的编码方式，见 encodeRequest
+    private static final int ATTACHMENT_INDEXED = 1;
+    private static final int ATTACHMENT_INCREMENTAL = 2;
+    private static final int ATTACHMENT_LITERAL = 3;
+
+    private static final String RAW_BYTES_NAME = ReflectUtil.getName(byte[].class);
+    private static final String RAW_BUFFER_NAME = ByteBuffer.class.getName();
+
+    private DefaultRpcCodec v1Codec = new DefaultRpcCodec();
+
+    // server 端：与 message router 共享的方法 id 表
+    private volatile ProviderMethodTable methodTable;
+
+    // 对端是否支持 v3，收到带能力位或 v3 版本的数据包后置为 true
+    private volatile boolean v3Supported = false;
+
+    @Override
+    public Codec newConnectionCodec() {
+        return new ConnectionCodec();
+    }
+
+    @Override
+    public byte[] encode(Channel channel, Object message) throws IOException {
+        return encodeToBytes(channel, message);
+    }
+
+    /**
+     * 不使用 attachment 表，attachments 全部以字符串发送
+     */
+    @Override
+    public void encode(Channel channel, Object message, BufferOutputStream out) throws IOException {
+        encode(channel, message, out, null);
+    }
+
+    /**
+     * @param connection 连接级的状态（attachment 表、方法 id），为 null 时不使用 attachment 表，也不使用、不下发方法 id
+     */
+    private void encode(Channel channel, Object message, BufferOutputStream out, ConnectionCodec connection) throws IOException {
+        // response 不论以哪个版本编码都移除对应的条目，v1 的 response（如 transport 构造的异常 response）不下发方法 id
+        MethodEntry methodIdAck = null;
+        if (message instanceof Response && connection != null && !connection.pendingMethodIdAcks.isEmpty()) {
+            methodIdAck = connection.pendingMethodIdAcks.remove(((Response) message).getRequestId());
+        }
+
+        boolean useV3;
+        if (message instanceof Request) {
+            useV3 = v3Supported;
+        } else if (message instanceof Response) {
+            useV3 = ((Response) message).getRpcProtocolVersion() == RpcProtocolVersion.VERSION_3.getVersion();
+        } else {
+            throw new MotanFrameworkException("encode error: message type not support, " + message.getClass(),
+                    MotanErrorMsgConstant.FRAMEWORK_ENCODE_ERROR);
+        }
+
+        if (!useV3) {
+            // v1 编码，在 flag 中带上 v3 能力位
+            int start = out.position();
+            v1Codec.encode(channel, message, out);
+            out.setByte(start + 3, getFlag(message) | FLAG_V3_SUPPORTED);
+            return;
+        }
+
+        try {
+            if (message instanceof Request) {
+                encodeRequest(channel, (Request) message, out, connection);
+            } else {
+                encodeResponse(channel, (Response) message, out, methodIdAck, connection);
+            }
+        } catch (Exception e) {
+            if (ExceptionUtil.isMotanException(e)) {
+                throw (RuntimeException) e;
+            } else {
+                throw new MotanFrameworkException("encode error: isResponse=" + (message instanceof Response), e,
+                        MotanErrorMsgConstant.FRAMEWORK_ENCODE_ERROR);
+            }
+        }
+    }
+
+    @Override
+    public Object decode(Channel channel, String remoteIp, byte[] data) throws IOException {
+        return decode(channel, remoteIp, ByteBuffer.wrap(data), null, true);
+    }
+
+    /**
+     * 不使用 attachment 表，request 中有表下标时 decode 失败
+     */
+    @Override
+    public Object decode(Channel channel, String remoteIp, ByteBuffer buffer) throws IOException {
+        return decode(channel, remoteIp, buffer, null, false);
+    }
+
+    /**
+     * @param connection 连接级的状态，为 null 时不使用 attachment 表，也不分配方法 id
+     * @param shareBuffer buffer 在 decode 之后是否仍然有效，为 true 时 ByteBuffer 类型的参数和返回值直接使用 buffer 的视图
+     */
+    private Object decode(Channel channel, String remoteIp, ByteBuffer buffer, ConnectionCodec connection,
+            boolean shareBuffer) throws IOException {
+        if (buffer.remaining() <= RpcProtocolVersion.VERSION_3.getHeaderLength()) {
+            throw new MotanFrameworkException("decode error: format problem", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+
+        byte version = buffer.get(buffer.position() + 2);
+        if (version == RpcProtocolVersion.VERSION_1.getVersion()) {
+            if ((buffer.get(buffer.position() + 3) & FLAG_V3_SUPPORTED) != 0) {
+                v3Supported = true;
+            }
+            return checkMethodIdExpired(v1Codec.decode(channel, remoteIp, buffer), connection);
+        } else if (version != RpcProtocolVersion.VERSION_3.getVersion()) {
+            throw new MotanFrameworkException("decode error: version error. version=" + version,
+                    MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+
+        v3Supported = true;
+
+        ByteBuffer data = buffer.slice();
+        data.order(ByteOrder.BIG_ENDIAN);
+
+        if (data.getShort(0) != MAGIC) {
+            throw new MotanFrameworkException("decode error: magic error", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+
+        int bodyLength = data.getInt(12);
+
+        if (RpcProtocolVersion.VERSION_3.getHeaderLength() + bodyLength != data.remaining()) {
+            throw new MotanFrameworkException("decode error: content length error", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+
+        byte dataType = (byte) (data.get(3) & MASK);
+        boolean isResponse = (dataType != MotanConstants.FLAG_REQUEST);
+        long requestId = data.getLong(4);
+
+        data.position(RpcProtocolVersion.VERSION_3.getHeaderLength());
+
+        Serialization serialization =
+                ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(
+                        channel.getUrl().getParameter(URLParamType.serialize.getName(), URLParamType.serialize.getValue()));
+
+        try {
+            if (isResponse) {
+                return checkMethodIdExpired(decodeResponse(data, dataType, requestId, serialization, connection, shareBuffer,
+                        isLazyDeserialize(channel)), connection);
+            } else {
+                return decodeRequest(channel, data, requestId, serialization, connection, shareBuffer,
+                        isDecodeInWorker(channel));
+            }
+        } catch (ClassNotFoundException e) {
+            throw new MotanFrameworkException("decode " + (isResponse ? "response" : "request") + " error: class not found", e,
+                    MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        } catch (Exception e) {
+            if (ExceptionUtil.isMotanException(e)) {
+                throw (RuntimeException) e;
+            } else {
+                throw new MotanFrameworkException("decode error: isResponse=" + isResponse, e, MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+            }
+        }
+    }
+
+    /**
+     * 是否已协商为 v3
+     */
+    public boolean isV3Supported() {
+        return v3Supported;
+    }
+
+    /**
+     * request body 数据：
+     * 
+     * <pre>
+	 * 
+	 * 	 varint(method_id + 1) int(epoch)  或  varint(0) string(interface_name) string(method_name) string(method_param_desc)
+	 * 
+	 * 	 varint(attachments_size << 1 | size_update) [varint(table_max_size)] for_each (attachment)
+	 * 
+	 * 	 for_each (bytes(serialize(method_param_value)))，声明类型为 byte[] 或 ByteBuffer 的参数为 bytes(method_param_value)
+	 * 
+	 * 	 attachment:
+	 * 	   varint(index << 2 | 1)                          表中的 name 和 value
+	 * 	   varint((index + 1) << 2 | 2) string(value)      表中的 name，插入表
+	 * 	   varint(2) string(name) string(value)            插入表
+	 * 	   varint((index + 1) << 2 | 3) string(value)      表中的 name，不插入表
+	 * 	   varint(3) string(name) string(value)            不插入表
+	 * 
+	 * 	 string/bytes:  varint(length + 1) + data, length + 1 为 0 时表示 null
+	 * 
+	 * </pre>
+     * 
+     * attachments 在参数之前，参数序列化失败时不会写入 attachments，decode 时参数反序列化失败也不影响表的更新，两端的表保持一致
+     * 
+     * @param channel
+     * @param request
+     * @param out
+     * @param connection 连接级的状态，为 null 时不使用 attachment 表和方法 id
+     * @throws IOException
+     */
+    private void encodeRequest(Channel channel, Request request, BufferOutputStream out, ConnectionCodec connection)
+            throws IOException {
+        Serialization serialization =
+                ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(
+                        channel.getUrl().getParameter(URLParamType.serialize.getName(), URLParamType.serialize.getValue()));
+
+        byte[][] arguments = null;
+        if (request.getArguments() != null && request.getArguments().length > 0) {
+            arguments = new byte[request.getArguments().length][];
+            String[] paramNames = null;
+            for (int i = 0; i < arguments.length; i++) {
+                Object obj = request.getArguments()[i];
+                if (obj instanceof byte[] || obj instanceof ByteBuffer) {
+                    // 只在有 byte[] 或 ByteBuffer 参数时解析参数类型，由声明类型决定是否直接发送，与 decode 端保持一致
+                    if (paramNames == null) {
+                        paramNames = request.getParamtersDesc().split(ReflectUtil.PARAM_CLASS_SPLIT);
+                    }
+                    if (i < paramNames.length && isRawName(paramNames[i])) {
+                        arguments[i] = toRawBytes(obj);
+                        continue;
+                    }
+                }
+                arguments[i] = obj == null ? null : serialization.serialize(obj);
+            }
+        }
+
+        int start = writeHeader(out, MotanConstants.FLAG_REQUEST, request.getRequestId());
+
+        // epoch 与 id 来自同一个不可变的快照
+        MethodIds methodIds = connection == null ? null : connection.methodIds;
+        Integer methodId = (methodIds == null || methodIds.isEmpty()) ? null : methodIds.get(MethodKey.of(request));
+        if (methodId != null) {
+            writeVarint(out, methodId + 1);
+            out.writeInt(methodIds.getEpoch());
+        } else {
+            writeVarint(out, 0);
+            writeString(out, request.getInterfaceName());
+            writeString(out, request.getMethodName());
+            writeString(out, request.getParamtersDesc());
+        }
+
+        writeAttachments(out, request.getAttachments(), connection == null ? null : connection.encodeTable);
+
+        if (arguments != null) {
+            for (byte[] argument : arguments) {
+                writeBytes(out, argument);
+            }
+        }
+
+        writeBodyLength(out, start);
+    }
+
+    /**
+     * response body 数据：
+     * 
+     * <pre>
+	 * 
+	 * 	 varint(process_time) method_id_ack [string(class_name) bytes(serialize(result or exception))]
+	 * 
+	 * 	 byte[] 或 ByteBuffer 类型的返回值：string(byte[] 或 java.nio.ByteBuffer) bytes(result)
+	 * 
+	 * 	 method_id_ack:  varint(0)  或  varint(method_id + 1) int(epoch) string(group) string(interface_name) string(version) string(method_name) string(method_param_desc)
+	 * 
+	 * </pre>
+     * 
+     * @param channel
+     * @param value
+     * @param out
+     * @param methodIdAck 需要下发的方法 id，为 null 时不下发
+     * @param connection 连接级的状态，记录下发过的方法 id
+     * @throws IOException
+     */
+    private void encodeResponse(Channel channel, Response value, BufferOutputStream out, MethodEntry methodIdAck,
+            ConnectionCodec connection) throws IOException {
+        Serialization serialization =
+                ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(
+                        channel.getUrl().getParameter(URLParamType.serialize.getName(), URLParamType.serialize.getValue()));
+
+        int start = writeHeader(out, getFlag(value), value.getRequestId());
+
+        writeVarLong(out, value.getProcessTime());
+        writeMethodIdAck(out, methodIdAck, connection);
+
+        if (value.getException() != null) {
+            writeString(out, value.getException().getClass().getName());
+            writeBytes(out, serialization.serialize(value.getException()));
+        } else if (value.getValue() instanceof byte[] || value.getValue() instanceof ByteBuffer) {
+            writeString(out, value.getValue() instanceof byte[] ? RAW_BYTES_NAME : RAW_BUFFER_NAME);
+            writeRawBytes(out, value.getValue());
+        } else if (value.getValue() != null) {
+            writeString(out, value.getValue().getClass().getName());
+            writeBytes(out, serialization.serialize(value.getValue()));
+        }
+
+        writeBodyLength(out, start);
+    }
+
+    private Object decodeRequest(Channel channel, ByteBuffer body, long requestId, Serialization serialization,
+            ConnectionCodec connection, boolean shareBuffer, boolean decodeInWorker) throws IOException,
+            ClassNotFoundException {
+        AttachmentTable table = connection == null ? null : connection.decodeTable;
+        DefaultRequest rpcRequest = decodeInWorker ? new DeferredRequest() : new DefaultRequest();
+        rpcRequest.setRequestId(requestId);
+        rpcRequest.setRpcProtocolVersion(RpcProtocolVersion.VERSION_3.getVersion());
+
+        Class<?>[] classTypes = null;
+        int methodId = readVarint(body) - 1;
+        if (methodId >= 0) {
+            // 按数组下标获取方法信息，不需要解析字符串
+            int epoch = body.getInt();
+            // 先读取 attachments，id 失效时 attachment 表也已更新
+            rpcRequest.setAttachments(readAttachments(body, table));
+            MethodKey ackedKey = connection == null ? null : connection.ackedMethodIds.get(methodId);
+            MethodEntry entry = resolveMethodId(channel, methodId, epoch, ackedKey);
+            if (entry != null) {
+                rpcRequest.setInterfaceName(entry.getKey().getInterfaceName());
+                rpcRequest.setMethodName(entry.getKey().getMethodName());
+                rpcRequest.setParamtersDesc(entry.getKey().getParamtersDesc());
+                rpcRequest.setMethodId(entry.getId());
+                classTypes = entry.getParamTypes();
+                if (entry.getId() != methodId && connection != null
+                        && connection.pendingMethodIdAcks.size() < MAX_PENDING_METHOD_ID_ACKS) {
+                    // 方法表变化后按签名找到的方法，下发新的 id
+                    connection.pendingMethodIdAcks.put(requestId, entry);
+                }
+            } else if (ackedKey != null) {
+                // 方法已不再暴露，按字符串调用处理，由 router 返回与字符串调用一致的错误
+                rpcRequest.setInterfaceName(ackedKey.getInterfaceName());
+                rpcRequest.setMethodName(ackedKey.getMethodName());
+                rpcRequest.setParamtersDesc(ackedKey.getParamtersDesc());
+                String paramtersDesc = ackedKey.getParamtersDesc();
+                if (paramtersDesc != null && !paramtersDesc.equals("")) {
+                    classTypes = ReflectUtil.forNames(paramtersDesc);
+                }
+            } else {
+                // 该连接上没有下发过的 id，无法确定调用的方法
+                throw new MotanServiceException("decode error: method id expired, methodId=" + methodId + ", epoch=" + epoch,
+                        MotanErrorMsgConstant.SERVICE_METHOD_ID_EXPIRED);
+            }
+        } else {
+            rpcRequest.setInterfaceName(readString(body));
+            rpcRequest.setMethodName(readString(body));
+            rpcRequest.setParamtersDesc(readString(body));
+            rpcRequest.setAttachments(readAttachments(body, table));
+            String paramtersDesc = rpcRequest.getParamtersDesc();
+            if (paramtersDesc != null && !paramtersDesc.equals("")) {
+                classTypes = ReflectUtil.forNames(paramtersDesc);
+            }
+        }
+
+        if (classTypes != null && classTypes.length > 0) {
+            final Object[] paramObjs = new Object[classTypes.length];
+            // decodeInWorker 时只读取序列化后的数据，在业务线程中反序列化
+            final byte[][] values = decodeInWorker ? new byte[classTypes.length][] : null;
+            for (int i = 0; i < classTypes.length; i++) {
+                if (classTypes[i] == byte[].class) {
+                    paramObjs[i] = readBytes(body);
+                } else if (classTypes[i] == ByteBuffer.class) {
+                    paramObjs[i] = readByteBuffer(body, shareBuffer);
+                } else if (decodeInWorker) {
+                    values[i] = readBytes(body);
+                } else {
+                    paramObjs[i] = deserialize(readBytes(body), classTypes[i], serialization);
+                }
+            }
+            if (decodeInWorker) {
+                final Class<?>[] types = classTypes;
+                final Serialization argumentSerialization = serialization;
+                ((DeferredRequest) rpcRequest).setArgumentsDecoder(new DeferredRequest.ArgumentsDecoder() {
+                    @Override
+                    public Object[] decode() throws Exception {
+                        for (int i = 0; i < types.length; i++) {
+                            if (values[i] != null) {
+                                paramObjs[i] = deserialize(values[i], types[i], argumentSerialization);
+                            }
+                        }
+                        return paramObjs;
+                    }
+                });
+            } else {
+                rpcRequest.setArguments(paramObjs);
+            }
+        }
+
+        if (methodId < 0) {
+            // 以字符串调用的方法，分配 id 并在 response 中下发
+            ProviderMethodTable methodTable = getMethodTable(channel);
+            MethodEntry entry = methodTable == null ? null : methodTable.getMethod(MethodKey.of(rpcRequest));
+            if (entry != null) {
+                rpcRequest.setMethodId(entry.getId());
+                // 条目随连接释放，response 没有 encode 时残留的条目由数量上限兜底，漏发的 id 会在下次以字符串调用时再下发
+                if (connection != null && connection.pendingMethodIdAcks.size() < MAX_PENDING_METHOD_ID_ACKS) {
+                    connection.pendingMethodIdAcks.put(requestId, entry);
+                }
+            }
+        }
+
+        return rpcRequest;
+    }
+
+    private Object decodeResponse(ByteBuffer body, byte dataType, long requestId, Serialization serialization,
+            ConnectionCodec connection, boolean shareBuffer, boolean lazyDeserialize) throws IOException,
+            ClassNotFoundException {
+        // lazyDeserialize 时返回值在调用线程中反序列化，异常和直接发送的 byte[]/ByteBuffer 仍然在 IO 线程中处理
+        boolean deferred = lazyDeserialize && dataType == MotanConstants.FLAG_RESPONSE;
+        DefaultResponse response = deferred ? new DeferredResponse() : new DefaultResponse();
+        response.setRequestId(requestId);
+        response.setProcessTime(readVarLong(body));
+        response.setRpcProtocolVersion(RpcProtocolVersion.VERSION_3.getVersion());
+        readMethodIdAck(body, connection);
+
+        if (dataType == MotanConstants.FLAG_RESPONSE_VOID) {
+            return response;
+        }
+
+        String className = readString(body);
+        Object result;
+        if (dataType == MotanConstants.FLAG_RESPONSE && RAW_BYTES_NAME.equals(className)) {
+            result = readBytes(body);
+        } else if (dataType == MotanConstants.FLAG_RESPONSE && RAW_BUFFER_NAME.equals(className)) {
+            result = readByteBuffer(body, shareBuffer);
+        } else if (deferred) {
+            ((DeferredResponse) response).setValueDecoder(createValueDecoder(className, readBytes(body), serialization));
+            return response;
+        } else {
+            result = deserialize(readBytes(body), ReflectUtil.forName(className), serialization);
+        }
+
+        if (dataType == MotanConstants.FLAG_RESPONSE) {
+            response.setValue(result);
+        } else if (dataType == MotanConstants.FLAG_RESPONSE_EXCEPTION) {
+            response.setException((Exception) result);
+        } else {
+            throw new MotanFrameworkException("decode error: response dataType not support " + dataType,
+                    MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+
+        return response;
+    }
+
+    private void writeAttachments(BufferOutputStream out, Map<String, String> attachments, AttachmentTable table)
+            throws IOException {
+        int size = attachments == null ? 0 : attachments.size();
+        if (table != null && table.isMaxSizeChanged()) {
+            writeVarint(out, size << 1 | 1);
+            writeVarint(out, table.getMaxSize());
+            table.resetMaxSizeChanged();
+        } else {
+            writeVarint(out, size << 1);
+        }
+        if (size == 0) {
+            return;
+        }
+
+        for (Map.Entry<String, String> entry : attachments.entrySet()) {
+            String name = entry.getKey();
+            String value = entry.getValue();
+            if (table == null || table.getMaxSize() == 0 || name == null || value == null) {
+                writeVarint(out, ATTACHMENT_LITERAL);
+                writeString(out, name);
+                writeString(out, value);
+                continue;
+            }
+
+            int index = table.indexOf(name, value);
+            if (index >= 0) {
+                writeVarint(out, index << 2 | ATTACHMENT_INDEXED);
+                continue;
+            }
+
+            int code = table.shouldAdd(name) ? ATTACHMENT_INCREMENTAL : ATTACHMENT_LITERAL;
+            int nameIndex = table.indexOfName(name);
+            if (nameIndex >= 0) {
+                writeVarint(out, (nameIndex + 1) << 2 | code);
+            } else {
+                writeVarint(out, code);
+                writeString(out, name);
+            }
+            writeString(out, value);
+            if (code == ATTACHMENT_INCREMENTAL) {
+                table.add(name, value);
+            }
+        }
+    }
+
+    private Map<String, String> readAttachments(ByteBuffer body, AttachmentTable table) throws IOException {
+        int header = readVarint(body);
+        if ((header & 1) != 0) {
+            getAttachmentTable(table).setMaxSize(readVarint(body));
+        }
+        int size = header >>> 1;
+        if (size == 0) {
+            return null;
+        }
+
+        Map<String, String> attachments = new HashMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            int code = readVarint(body);
+            int type = code & 3;
+            int index = code >>> 2;
+            if (type == ATTACHMENT_INDEXED) {
+                AttachmentTable t = getAttachmentTable(table);
+                attachments.put(t.getName(index), t.getValue(index));
+                continue;
+            }
+
+            String name = index > 0 ? getAttachmentTable(table).getName(index - 1) : readString(body);
+            String value = readString(body);
+            if (type == ATTACHMENT_INCREMENTAL) {
+                getAttachmentTable(table).add(name, value);
+            } else if (type != ATTACHMENT_LITERAL) {
+                throw new MotanFrameworkException("decode error: attachment type error, type=" + type,
+                        MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+            }
+            attachments.put(name, value);
+        }
+        return attachments;
+    }
+
+    private AttachmentTable getAttachmentTable(AttachmentTable table) {
+        if (table == null) {
+            throw new MotanFrameworkException("decode error: attachment table not supported",
+                    MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+        return table;
+    }
+
+    private void writeMethodIdAck(BufferOutputStream out, MethodEntry entry, ConnectionCodec connection) throws IOException {
+        ProviderMethodTable table = methodTable;
+        if (entry == null || table == null || connection == null
+                || (connection.ackedMethodIds.size() >= MAX_ACKED_METHOD_IDS && !connection.ackedMethodIds.containsKey(entry.getId()))) {
+            writeVarint(out, 0);
+            return;
+        }
+
+        MethodKey key = entry.getKey();
+        // 先记录再下发，client 收到 id 后的 request 一定能在该连接上解析
+        connection.ackedMethodIds.put(entry.getId(), key);
+
+        writeVarint(out, entry.getId() + 1);
+        out.writeInt(table.getEpoch());
+        writeString(out, key.getGroup());
+        writeString(out, key.getInterfaceName());
+        writeString(out, key.getVersion());
+        writeString(out, key.getMethodName());
+        writeString(out, key.getParamtersDesc());
+    }
+
+    private void readMethodIdAck(ByteBuffer body, ConnectionCodec connection) throws IOException {
+        int methodId = readVarint(body) - 1;
+        if (methodId < 0) {
+            return;
+        }
+
+        int epoch = body.getInt();
+        MethodKey key = new MethodKey(readString(body), readString(body), readString(body), readString(body), readString(body));
+        if (connection != null) {
+            connection.addMethodId(epoch, key, methodId);
+        }
+    }
+
+    /**
+     * 按下标解析 client 发送的方法 id。
+     * 
+     * 该连接下发过此 id 时，下标解析出的方法与下发时的方法签名不一致（方法表变化）则按签名查找，签名找不到时返回 null；
+     * 没有下发过时只在 epoch 一致时按下标解析
+     */
+    private MethodEntry resolveMethodId(Channel channel, int methodId, int epoch, MethodKey ackedKey) {
+        ProviderMethodTable table = getMethodTable(channel);
+        if (table == null) {
+            return null;
+        }
+        MethodEntry entry = table.getEpoch() == epoch ? table.getMethod(methodId) : null;
+        if (ackedKey == null || (entry != null && entry.getKey().equals(ackedKey))) {
+            return entry;
+        }
+        return table.getMethod(ackedKey);
+    }
+
+    // 兼容仍然返回 SERVICE_METHOD_ID_EXPIRED 的 server：清空该连接的方法 id，后续请求重新使用字符串
+    private Object checkMethodIdExpired(Object message, ConnectionCodec connection) {
+        if (connection != null && message instanceof Response) {
+            Exception e = ((Response) message).getException();
+            if (e instanceof MotanServiceException
+                    && ((MotanServiceException) e).getErrorCode() == MotanErrorMsgConstant.SERVICE_METHOD_ID_EXPIRED_ERROR_CODE) {
+                connection.methodIds = MethodIds.EMPTY;
+            }
+        }
+        return message;
+    }
+
+    /**
+     * 通过 server 关联的 message router 获取，decode 时的 channel 为 server
+     */
+    private ProviderMethodTable getMethodTable(Channel channel) {
+        ProviderMethodTable table = methodTable;
+        if (table == null && channel instanceof AbstractServer) {
+            ProviderMessageRouter router = ((AbstractServer) channel).getProviderRouter();
+            if (router != null) {
+                table = router.getMethodTable();
+                methodTable = table;
+            }
+        }
+        return table;
+    }
+
+    private byte getFlag(Object message) {
+        if (message instanceof Response) {
+            Response response = (Response) message;
+            if (response.getException() != null) {
+                return MotanConstants.FLAG_RESPONSE_EXCEPTION;
+            } else if (response.getValue() == null) {
+                return MotanConstants.FLAG_RESPONSE_VOID;
+            } else {
+                return MotanConstants.FLAG_RESPONSE;
+            }
+        }
+        return MotanConstants.FLAG_REQUEST;
+    }
+
+    private int writeHeader(BufferOutputStream out, byte flag, long requestId) {
+        int start = out.position();
+
+        // 0 - 15 bit : magic
+        out.writeShort(MAGIC);
+
+        // 16 - 23 bit : version
+        out.write(RpcProtocolVersion.VERSION_3.getVersion());
+
+        // 24 - 31 bit : extend flag
+        out.write(flag | FLAG_V3_SUPPORTED);
+
+        // 32 - 95 bit : requestId
+        out.writeLong(requestId);
+
+        // 96 - 127 bit : body content length, body 写完后回填
+        out.writeInt(0);
+
+        return start;
+    }
+
+    private void writeBodyLength(BufferOutputStream out, int start) {
+        int bodyLength = out.position() - start - RpcProtocolVersion.VERSION_3.getHeaderLength();
+        out.setInt(start + RpcProtocolVersion.VERSION_3.getHeaderLength() - 4, bodyLength);
+    }
+
+    private static void writeVarint(BufferOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeVarLong(BufferOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeBytes(BufferOutputStream out, byte[] bytes) {
+        if (bytes == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeString(BufferOutputStream out, String value) throws UnsupportedEncodingException {
+        writeBytes(out, value == null ? null : value.getBytes(MotanConstants.DEFAULT_CHARACTER));
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new MotanFrameworkException("decode error: malformed varint", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new MotanFrameworkException("decode error: malformed varint", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = readVarint(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new MotanFrameworkException("decode error: content length error", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer readByteBuffer(ByteBuffer in, boolean shareBuffer) {
+        int length = readVarint(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new MotanFrameworkException("decode error: content length error", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+        ByteBuffer value;
+        if (shareBuffer) {
+            value = in.slice();
+            value.limit(length);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = ByteBuffer.wrap(bytes);
+        }
+        return value;
+    }
+
+    private static boolean isRawName(String className) {
+        return RAW_BYTES_NAME.equals(className) || RAW_BUFFER_NAME.equals(className);
+    }
+
+    /**
+     * ByteBuffer 发送 position 到 limit 之间的数据，不改变其 position
+     */
+    private static byte[] toRawBytes(Object value) {
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void writeRawBytes(BufferOutputStream out, Object value) {
+        if (value instanceof ByteBuffer && ((ByteBuffer) value).hasArray()) {
+            ByteBuffer buffer = (ByteBuffer) value;
+            writeVarint(out, buffer.remaining() + 1);
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        writeBytes(out, toRawBytes(value));
+    }
+
+    private static String readString(ByteBuffer in) throws UnsupportedEncodingException {
+        int length = readVarint(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new MotanFrameworkException("decode error: content length error", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, MotanConstants.DEFAULT_CHARACTER);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, MotanConstants.DEFAULT_CHARACTER);
+    }
+
+    /**
+     * 连接级 codec：协商结果与 endpoint 共享，attachment 表、client 端的方法 id、server 端待下发及下发过的方法 id 每个连接一份，
+     * transport 在连接建立时创建，因此重连后方法 id 重新协商。
+     * 
+     * encode 端只有 request 使用表，encodeTable 在 client 连接上按写出顺序访问，decodeTable 在 server 连接的 IO 线程上按读入顺序访问；
+     * pendingMethodIdAcks 在 IO 线程上写入，在写出 response 的线程上移除；methodIds 在 IO 线程上整体替换，在写出 request 的线程上读取
+     */
+    private class ConnectionCodec extends AbstractCodec {
+        private AttachmentTable encodeTable;
+        private AttachmentTable decodeTable = new AttachmentTable();
+        // server 端：以字符串调用的 request 需要在 response 中下发的方法 id，按 requestId 对应，不经过 request/response 的 attachments
+        private ConcurrentMap<Long, MethodEntry> pendingMethodIdAcks = new ConcurrentHashMap<Long, MethodEntry>();
+        // server 端：该连接上下发过的方法 id 对应的方法签名
+        private ConcurrentMap<Integer, MethodKey> ackedMethodIds = new ConcurrentHashMap<Integer, MethodKey>();
+        // client 端：server 在该连接上下发的方法 id 及对应的 epoch
+        private volatile MethodIds methodIds = MethodIds.EMPTY;
+
+        private synchronized void addMethodId(int epoch, MethodKey key, int methodId) {
+            methodIds = methodIds.with(epoch, key, methodId);
+        }
+
+        @Override
+        public byte[] encode(Channel channel, Object message) throws IOException {
+            return encodeToBytes(channel, message);
+        }
+
+        @Override
+        public void encode(Channel channel, Object message, BufferOutputStream out) throws IOException {
+            if (encodeTable == null) {
+                encodeTable = new AttachmentTable();
+                encodeTable.setMaxSize(channel.getUrl().getIntParameter(URLParamType.attachmentTableSize.getName(),
+                        URLParamType.attachmentTableSize.getIntValue()));
+            }
+            CompactRpcCodec.this.encode(channel, message, out, this);
+        }
+
+        @Override
+        public Object decode(Channel channel, String remoteIp, byte[] data) throws IOException {
+            return CompactRpcCodec.this.decode(channel, remoteIp, ByteBuffer.wrap(data), this, true);
+        }
+
+        @Override
+        public Object decode(Channel channel, String remoteIp, ByteBuffer buffer) throws IOException {
+            return CompactRpcCodec.this.decode(channel, remoteIp, buffer, this, false);
+        }
+    }
+
+    /**
+     * client 端的方法 id 快照，epoch 与 id 一起替换，encode 时不会读到新 epoch 下的旧 id
+     */
+    private static final class MethodIds {
+        private static final MethodIds EMPTY = new MethodIds(0, Collections.<MethodKey, Integer>emptyMap());
+
+        private final int epoch;
+        private final Map<MethodKey, Integer> ids;
+
+        private MethodIds(int epoch, Map<MethodKey, Integer> ids) {
+            this.epoch = epoch;
+            this.ids = ids;
+        }
+
+        /**
+         * epoch 变化时丢弃旧的 id
+         */
+        private MethodIds with(int newEpoch, MethodKey key, int methodId) {
+            Map<MethodKey, Integer> newIds =
+                    newEpoch == epoch ? new HashMap<MethodKey, Integer>(ids) : new HashMap<MethodKey, Integer>();
+            newIds.put(key, methodId);
+            return new MethodIds(newEpoch, newIds);
+        }
+
+        private int getEpoch() {
+            return epoch;
+        }
+
+        private boolean isEmpty() {
+            return ids.isEmpty();
+        }
+
+        private Integer get(MethodKey key) {
+            return ids.get(key);
+        }
+    }
+}
@@ -17,38 +17,45 @@
 package com.weibo.api.motan.protocol.rpc;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.lang3.StringUtils;
 
 import com.weibo.api.motan.codec.AbstractCodec;
+import com.weibo.api.motan.codec.Compression;
 import com.weibo.api.motan.codec.Serialization;
 import com.weibo.api.motan.common.MotanConstants;
 import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.compress.GzipCompression;
 import com.weibo.api.motan.core.extension.ExtensionLoader;
 import com.weibo.api.motan.core.extension.SpiMeta;
 import com.weibo.api.motan.exception.MotanErrorMsgConstant;
 import com.weibo.api.motan.exception.MotanFrameworkException;
 import com.weibo.api.motan.rpc.DefaultRequest;
 import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.DeferredRequest;
+import com.weibo.api.motan.rpc.DeferredResponse;
 import com.weibo.api.motan.rpc.Provider;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
 import com.weibo.api.motan.transport.Channel;
 import com.weibo.api.motan.transport.support.DefaultRpcHeartbeatFactory;
+import com.weibo.api.motan.util.BufferOutputStream;
+import com.weibo.api.motan.util.ByteArrayBufferOutputStream;
 import com.weibo.api.motan.util.ByteUtil;
 import com.weibo.api.motan.util.ConcurrentHashSet;
+import com.weibo.api.motan.util.EncodeBufferUtil;
 import com.weibo.api.motan.util.ExceptionUtil;
 import com.weibo.api.motan.util.LoggerUtil;
 import com.weibo.api.motan.util.MotanDigestUtil;
@@ -59,6 +66,12 @@ import com.weibo.api.motan.util.ReflectUtil;
 /**
  * 压缩协议codec，支持开启gzip压缩。
  * 
+ * <pre>
+ * 		1） 压缩算法由 {@link Compression} 扩展提供，使用的算法 id 写在 header flag 的 3-5 bit 中，decode 时不需要尝试解压
+ * 		2） flag 中没有算法 id 时按 gzip magic 判断，兼容旧版本 client/server 发送的 gzip 数据
+ * 		3） 开启 adaptiveCompress 时按方法（response 按返回值类型）统计压缩率，压缩后没有明显变小的方法之后一段时间内不压缩
+ * </pre>
+ * 
  * @author zhanglei
  *
  */
@@ -68,6 +81,28 @@ public class CompressRpcCodec extends AbstractCodec {
 
     private static final byte MASK = 0x07;
 
+    // flag 中压缩算法 id 的位置，旧版本 decode 时会通过 MASK 忽略
+    private static final int COMPRESSION_SHIFT = 3;
+    private static final int COMPRESSION_MASK = 0x07;
+
+    // 压缩后大于原始长度的 MIN_COMPRESS_RATIO% 时认为压缩效果差，之后 SKIP_COMPRESS_COUNT 次不压缩
+    private static final int MIN_COMPRESS_RATIO = 90;
+    private static final int SKIP_COMPRESS_COUNT = 100;
+
+    // 按 id 索引的压缩算法，decode 时使用
+    private static final Compression[] COMPRESSIONS = new Compression[COMPRESSION_MASK + 1];
+
+    static {
+        for (Compression compression : ExtensionLoader.getExtensionLoader(Compression.class).getExtensions(null)) {
+            int id = compression.getId();
+            if (id <= 0 || id > COMPRESSION_MASK || COMPRESSIONS[id] != null) {
+                throw new MotanFrameworkException("compression id error: " + compression.getClass().getName() + ", id=" + id,
+                        MotanErrorMsgConstant.FRAMEWORK_INIT_ERROR);
+            }
+            COMPRESSIONS[id] = compression;
+        }
+    }
+
     // 保存方法签名与具体方法信息的对应关系，decode request时server端使用
     private static ConcurrentHashMap<String, MethodInfo> SIGN_METHOD_MAP = new ConcurrentHashMap<String, MethodInfo>();
     // 保存方法信息串与签名之间的对应关系。
@@ -89,6 +124,9 @@ public class CompressRpcCodec extends AbstractCodec {
     public static final String GROUP_CODEC_VERSION_SWITCHER = "feature.motanrpc.codecversion.groupdegrade.";// 按group分组降级codec开关前缀，默认为false，为true时会使用v1非压缩版本。
     private DefaultRpcCodec v1Codec = new DefaultRpcCodec();
 
+    // adaptiveCompress 开启时，每个方法剩余的不压缩次数
+    private ConcurrentHashMap<String, AtomicInteger> compressSkips = new ConcurrentHashMap<String, AtomicInteger>();
+
     static {
         LoggerUtil.info("init compress codec");
         MotanSwitcherUtil.initSwitcher(CODEC_VERSION_SWITCHER, false);
@@ -105,6 +143,18 @@ public class CompressRpcCodec extends AbstractCodec {
 
     }
 
+    /**
+     * v1 数据包直接写入 out，v2 数据包仍然先 encode 成 byte[]
+     */
+    @Override
+    public void encode(Channel channel, Object message, BufferOutputStream out) throws IOException {
+        if (needEncodeV1(message)) {
+            v1Codec.encode(channel, message, out);
+        } else {
+            out.write(encodeV2(channel, message));
+        }
+    }
+
     // v1降级开关打开、心跳请求、client端使用v1版本时，需要使用v1编码
     private boolean needEncodeV1(Object message) {
 
@@ -165,6 +215,18 @@ public class CompressRpcCodec extends AbstractCodec {
 
 
 
+    /**
+     * v1 数据包直接在 buffer 上 decode，v2 数据包仍然拷贝成 byte[]
+     */
+    @Override
+    public Object decode(Channel channel, String remoteIp, ByteBuffer buffer) throws IOException {
+        if (MotanSwitcherUtil.isOpen(CODEC_VERSION_SWITCHER)
+                || (buffer.remaining() > 3 && buffer.get(buffer.position() + 2) == RpcProtocolVersion.VERSION_1.getVersion())) {
+            return v1Codec.decode(channel, remoteIp, buffer);
+        }
+        return super.decode(channel, remoteIp, buffer);
+    }
+
     public byte[] encodeV2(Channel channel, Object message) throws IOException {
         try {
             if (message instanceof Request) {
@@ -232,9 +294,10 @@ public class CompressRpcCodec extends AbstractCodec {
 
         try {
             if (isResponse) {
-                return decodeResponse(body, dataType, requestId, data[2], serialization);
+                return decodeResponse(decompress(body, flag), dataType, requestId, data[2], serialization,
+                        isLazyDeserialize(channel));
             } else {
-                return decodeRequest(body, requestId, remoteIp, serialization);
+                return decodeRequest(decompress(body, flag), requestId, remoteIp, serialization, isDecodeInWorker(channel));
             }
         } catch (ClassNotFoundException e) {
             throw new MotanFrameworkException("decode " + (isResponse ? "response" : "request") + " error: class not found", e,
@@ -273,41 +336,47 @@ public class CompressRpcCodec extends AbstractCodec {
      * @throws IOException
      */
     private byte[] encodeRequest(Channel channel, Request request) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ObjectOutput output = createOutput(outputStream);
-        addMethodInfo(output, request);
+        // 按 transport 记录的数据包大小预测 body 的大小，body 的大小不再单独记录
+        ByteArrayBufferOutputStream outputStream =
+                EncodeBufferUtil.acquire(EncodeBufferUtil.predictSize(EncodeBufferUtil.getSizeKey(request)));
+        String methodInfoStr = MotanFrameworkUtil.getServiceKey(request) + request.getMethodName() + request.getParamtersDesc();
+        byte[] body;
+        try {
+            ObjectOutput output = createOutput(outputStream);
+            addMethodInfo(output, request, methodInfoStr);
 
 
-        Serialization serialization =
-                ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(
-                        channel.getUrl().getParameter(URLParamType.serialize.getName(), URLParamType.serialize.getValue()));
+            Serialization serialization =
+                    ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(
+                            channel.getUrl().getParameter(URLParamType.serialize.getName(), URLParamType.serialize.getValue()));
 
-        if (request.getArguments() != null && request.getArguments().length > 0) {
-            for (Object obj : request.getArguments()) {
-                serialize(output, obj, serialization);
+            if (request.getArguments() != null && request.getArguments().length > 0) {
+                for (Object obj : request.getArguments()) {
+                    serialize(output, obj, serialization);
+                }
             }
-        }
 
-        if (request.getAttachments() == null || request.getAttachments().isEmpty()) {
-            // empty attachments
-            output.writeShort(0);
-        } else {
-            // 需要copy一份attachment进行签名替换，这样在失败重试时原始的request信息不会变更
-            Map<String, String> attachments = copyMap(request.getAttachments());
-            replaceAttachmentParamsBySign(channel, attachments);
+            if (request.getAttachments() == null || request.getAttachments().isEmpty()) {
+                // empty attachments
+                output.writeShort(0);
+            } else {
+                // 需要copy一份attachment进行签名替换，这样在失败重试时原始的request信息不会变更
+                Map<String, String> attachments = copyMap(request.getAttachments());
+                replaceAttachmentParamsBySign(channel, attachments);
 
-            addAttachment(output, attachments);
-        }
+                addAttachment(output, attachments);
+            }
 
-        output.flush();
-        byte[] body = outputStream.toByteArray();
+            output.flush();
+            body = outputStream.toByteArray();
+            output.close();
+        } finally {
+            EncodeBufferUtil.release(outputStream);
+        }
 
         byte flag = MotanConstants.FLAG_REQUEST;
 
-        output.close();
-        Boolean usegz = channel.getUrl().getBooleanParameter(URLParamType.usegz.getName(), URLParamType.usegz.getBooleanValue());
-        int minGzSize = channel.getUrl().getIntParameter(URLParamType.mingzSize.getName(), URLParamType.mingzSize.getIntValue());
-        return encode(compress(body, usegz, minGzSize), flag, request.getRequestId());
+        return encode(channel, methodInfoStr, body, flag, request.getRequestId());
     }
 
     private Map<String, String> copyMap(Map<String, String> attachments) {
@@ -323,10 +392,10 @@ public class CompressRpcCodec extends AbstractCodec {
      * 
      * @param output
      * @param request
+     * @param methodInfoStr
      * @throws IOException
      */
-    private void addMethodInfo(ObjectOutput output, Request request) throws IOException {
-        String methodInfoStr = MotanFrameworkUtil.getServiceKey(request) + request.getMethodName() + request.getParamtersDesc();
+    private void addMethodInfo(ObjectOutput output, Request request, String methodInfoStr) throws IOException {
         String methodSign = METHOD_SIGN_MAP.get(methodInfoStr);
         if (methodSign == null) {
             MethodInfo temp =
@@ -404,56 +473,68 @@ public class CompressRpcCodec extends AbstractCodec {
      * @throws IOException
      */
     private byte[] encodeResponse(Channel channel, Response value) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ObjectOutput output = createOutput(outputStream);
-        Serialization serialization =
-                ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(
-                        channel.getUrl().getParameter(URLParamType.serialize.getName(), URLParamType.serialize.getValue()));
-
+        // 按 transport 记录的数据包大小预测 body 的大小，body 的大小不再单独记录
+        ByteArrayBufferOutputStream outputStream =
+                EncodeBufferUtil.acquire(EncodeBufferUtil.predictSize(EncodeBufferUtil.getSizeKey(value)));
         byte flag = 0;
-
-        output.writeLong(value.getProcessTime());
-
-        if (value.getException() != null) {
-            output.writeUTF(value.getException().getClass().getName());
-            serialize(output, value.getException(), serialization);
-            flag = MotanConstants.FLAG_RESPONSE_EXCEPTION;
-        } else if (value.getValue() == null) {
-            flag = MotanConstants.FLAG_RESPONSE_VOID;
-        } else {
-            output.writeUTF(value.getValue().getClass().getName());
-            serialize(output, value.getValue(), serialization);
-            // v2版本可以在response中添加attachment
-            Map<String, String> attachments = value.getAttachments();
-            if (attachments != null) {
-                String signed = attachments.get(ATTACHMENT_SIGN);
-                String unSigned = attachments.get(UN_ATTACHMENT_SIGN);
-                attachments.clear(); // 除了attachment签名外不返回其他信息。
-
-                if (StringUtils.isNotBlank(signed)) {
-                    attachments.put(ATTACHMENT_SIGN, signed);
+        byte[] body;
+        try {
+            ObjectOutput output = createOutput(outputStream);
+            Serialization serialization =
+                    ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(
+                            channel.getUrl().getParameter(URLParamType.serialize.getName(), URLParamType.serialize.getValue()));
+
+            output.writeLong(value.getProcessTime());
+
+            if (value.getException() != null) {
+                output.writeUTF(value.getException().getClass().getName());
+                serialize(output, value.getException(), serialization);
+                flag = MotanConstants.FLAG_RESPONSE_EXCEPTION;
+            } else if (value.getValue() == null) {
+                flag = MotanConstants.FLAG_RESPONSE_VOID;
+            } else {
+                output.writeUTF(value.getValue().getClass().getName());
+                serialize(output, value.getValue(), serialization);
+                // v2版本可以在response中添加attachment
+                Map<String, String> attachments = value.getAttachments();
+                if (attachments != null) {
+                    String signed = attachments.get(ATTACHMENT_SIGN);
+                    String unSigned = attachments.get(UN_ATTACHMENT_SIGN);
+                    attachments.clear(); // 除了attachment签名外不返回其他信息。
+
+                    if (StringUtils.isNotBlank(signed)) {
+                        attachments.put(ATTACHMENT_SIGN, signed);
+                    }
+                    if (StringUtils.isNotBlank(unSigned)) {
+                        attachments.put(UN_ATTACHMENT_SIGN, unSigned);
+                    }
                 }
-                if (StringUtils.isNotBlank(unSigned)) {
-                    attachments.put(UN_ATTACHMENT_SIGN, unSigned);
+                if (attachments != null && !attachments.isEmpty()) {// 需要回传附加数据
+                    addAttachment(output, attachments);
+                } else {
+                    // empty attachments
+                    output.writeShort(0);
                 }
+                flag = MotanConstants.FLAG_RESPONSE_ATTACHMENT; // v2版本flag
             }
-            if (attachments != null && !attachments.isEmpty()) {// 需要回传附加数据
-                addAttachment(output, attachments);
-            } else {
-                // empty attachments
-                output.writeShort(0);
-            }
-            flag = MotanConstants.FLAG_RESPONSE_ATTACHMENT; // v2版本flag
-        }
 
-        output.flush();
+            output.flush();
+
+            body = outputStream.toByteArray();
 
-        byte[] body = outputStream.toByteArray();
+            output.close();
+        } finally {
+            EncodeBufferUtil.release(outputStream);
+        }
 
-        output.close();
-        Boolean usegz = channel.getUrl().getBooleanParameter(URLParamType.usegz.getName(), URLParamType.usegz.getBooleanValue());
-        int minGzSize = channel.getUrl().getIntParameter(URLParamType.mingzSize.getName(), URLParamType.mingzSize.getIntValue());
-        return encode(compress(body, usegz, minGzSize), flag, value.getRequestId());
+        // response 没有方法信息，按返回值类型统计压缩率
+        String compressKey = null;
+        if (value.getException() != null) {
+            compressKey = value.getException().getClass().getName();
+        } else if (value.getValue() != null) {
+            compressKey = value.getValue().getClass().getName();
+        }
+        return encode(channel, compressKey, body, flag, value.getRequestId());
     }
 
     /**
@@ -477,6 +558,74 @@ public class CompressRpcCodec extends AbstractCodec {
      * @return
      * @throws IOException
      */
+    private byte[] encode(Channel channel, String compressKey, byte[] body, byte flag, long requestId) throws IOException {
+        Compression compression = getCompression(channel, body.length);
+        if (compression == null) {
+            return encode(body, flag, requestId);
+        }
+
+        boolean adaptive =
+                channel.getUrl().getBooleanParameter(URLParamType.adaptiveCompress.getName(), URLParamType.adaptiveCompress.getBooleanValue());
+        AtomicInteger skip = (adaptive && compressKey != null) ? compressSkips.get(compressKey) : null;
+        if (skip != null && skip.get() > 0 && skip.decrementAndGet() >= 0) {
+            return encode(body, flag, requestId);
+        }
+
+        byte[] compressed = compression.compress(body);
+        if (adaptive && compressed.length * 100L > body.length * (long) MIN_COMPRESS_RATIO) {
+            // 压缩效果差：本次发送较小的数据，之后一段时间不压缩
+            if (compressKey != null) {
+                if (skip == null) {
+                    skip = new AtomicInteger();
+                    AtomicInteger old = compressSkips.putIfAbsent(compressKey, skip);
+                    skip = old == null ? skip : old;
+                }
+                skip.set(SKIP_COMPRESS_COUNT);
+            }
+            if (compressed.length >= body.length) {
+                return encode(body, flag, requestId);
+            }
+        }
+        return encode(compressed, (byte) (flag | compression.getId() << COMPRESSION_SHIFT), requestId);
+    }
+
+    // 获取需要使用的压缩算法，不压缩时返回 null
+    private Compression getCompression(Channel channel, int bodyLength) {
+        String name = channel.getUrl().getParameter(URLParamType.compression.getName(), URLParamType.compression.getValue());
+        if (StringUtils.isBlank(name)) {
+            if (!channel.getUrl().getBooleanParameter(URLParamType.usegz.getName(), URLParamType.usegz.getBooleanValue())) {
+                return null;
+            }
+            name = "gzip";
+        }
+        int minSize = channel.getUrl().getIntParameter(URLParamType.mingzSize.getName(), URLParamType.mingzSize.getIntValue());
+        if (bodyLength <= minSize) {
+            return null;
+        }
+
+        Compression compression = ExtensionLoader.getExtensionLoader(Compression.class).getExtension(name);
+        if (compression == null) {
+            throw new MotanFrameworkException("encode error: compression not found, name=" + name,
+                    MotanErrorMsgConstant.FRAMEWORK_ENCODE_ERROR);
+        }
+        return compression;
+    }
+
+    // 按 flag 中的算法 id 解压，没有 id 时兼容旧版本的 gzip 数据
+    private byte[] decompress(byte[] body, byte flag) throws IOException {
+        int id = (flag >> COMPRESSION_SHIFT) & COMPRESSION_MASK;
+        if (id == 0) {
+            return GzipCompression.isGzip(body) ? COMPRESSIONS[GzipCompression.ID].decompress(body) : body;
+        }
+
+        Compression compression = COMPRESSIONS[id];
+        if (compression == null) {
+            throw new MotanFrameworkException("decode error: compression not support, id=" + id,
+                    MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+        }
+        return compression.decompress(body);
+    }
+
     private byte[] encode(byte[] body, byte flag, long requestId) throws IOException {
         byte[] header = new byte[RpcProtocolVersion.VERSION_2.getHeaderLength()];
         int offset = 0;
@@ -506,10 +655,10 @@ public class CompressRpcCodec extends AbstractCodec {
         return data;
     }
 
-    private Object decodeRequest(byte[] body, long requestId, String remoteIp, Serialization serialization) throws IOException,
-            ClassNotFoundException {
+    private Object decodeRequest(byte[] body, long requestId, String remoteIp, Serialization serialization, boolean decodeInWorker)
+            throws IOException, ClassNotFoundException {
 
-        ObjectInput input = createInput(getInputStream(body));
+        ObjectInput input = createInput(new ByteArrayInputStream(body));
         String interfaceName = null;
         String methodName = null;
         String paramtersDesc = null;
@@ -537,12 +686,16 @@ public class CompressRpcCodec extends AbstractCodec {
         }
 
 
-        DefaultRequest rpcRequest = new DefaultRequest();
+        DefaultRequest rpcRequest = decodeInWorker ? new DeferredRequest() : new DefaultRequest();
         rpcRequest.setRequestId(requestId);
         rpcRequest.setInterfaceName(interfaceName);
         rpcRequest.setMethodName(methodName);
         rpcRequest.setParamtersDesc(paramtersDesc);
-        rpcRequest.setArguments(decodeRequestParameter(input, paramtersDesc, serialization));
+        if (decodeInWorker) {
+            ((DeferredRequest) rpcRequest).setArgumentsDecoder(readSerializedArguments(input, paramtersDesc, serialization));
+        } else {
+            rpcRequest.setArguments(decodeRequestParameter(input, paramtersDesc, serialization));
+        }
         rpcRequest.setAttachments(decodeRequestAttachments(input));
         rpcRequest.setRpcProtocolVersion(RpcProtocolVersion.VERSION_2.getVersion());
 
@@ -642,15 +795,19 @@ public class CompressRpcCodec extends AbstractCodec {
      * @throws IOException
      * @throws ClassNotFoundException
      */
-    private Object decodeResponse(byte[] body, byte dataType, long requestId, byte rpcProtocolVersion, Serialization serialization)
-            throws IOException, ClassNotFoundException {
+    private Object decodeResponse(byte[] body, byte dataType, long requestId, byte rpcProtocolVersion, Serialization serialization,
+            boolean lazyDeserialize) throws IOException, ClassNotFoundException {
 
 
-        ObjectInput input = createInput(getInputStream(body));
+        ObjectInput input = createInput(new ByteArrayInputStream(body));
 
         long processTime = input.readLong();
 
-        DefaultResponse response = new DefaultResponse();
+        // lazyDeserialize 时返回值在调用线程中反序列化，异常和 attachment 仍然在 IO 线程中处理
+        boolean deferred =
+                lazyDeserialize
+                        && (dataType == MotanConstants.FLAG_RESPONSE || dataType == MotanConstants.FLAG_RESPONSE_ATTACHMENT);
+        DefaultResponse response = deferred ? new DeferredResponse() : new DefaultResponse();
         response.setRequestId(requestId);
         response.setProcessTime(processTime);
 
@@ -659,14 +816,22 @@ public class CompressRpcCodec extends AbstractCodec {
         }
 
         String className = input.readUTF();
-        Class<?> clz = ReflectUtil.forName(className);
-
-        Object result = deserialize((byte[]) input.readObject(), clz, serialization);
+        Object result = null;
+        if (deferred) {
+            ((DeferredResponse) response).setValueDecoder(createValueDecoder(className, (byte[]) input.readObject(),
+                    serialization));
+        } else {
+            result = deserialize((byte[]) input.readObject(), ReflectUtil.forName(className), serialization);
+        }
 
         if (dataType == MotanConstants.FLAG_RESPONSE) {
-            response.setValue(result);
+            if (!deferred) {
+                response.setValue(result);
+            }
         } else if (dataType == MotanConstants.FLAG_RESPONSE_ATTACHMENT) {
-            response.setValue(result);
+            if (!deferred) {
+                response.setValue(result);
+            }
             Map<String, String> attachment = decodeRequestAttachments(input);
             checkAttachment(attachment);
         } else if (dataType == MotanConstants.FLAG_RESPONSE_EXCEPTION) {
@@ -730,31 +895,24 @@ public class CompressRpcCodec extends AbstractCodec {
     }
 
     /**
-     * 获取输入流。兼容gzip
+     * 获取输入流。兼容gzip，按 gzip magic 判断，不再尝试创建 GZIPInputStream
      *
      * @param data
      * @return
      */
     public static InputStream getInputStream(byte[] data) {
-        InputStream ret = new ByteArrayInputStream(data);
-        try {
-            GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(data));
-            return gis;
-        } catch (Exception ignore) {}
-        return ret;
+        if (GzipCompression.isGzip(data)) {
+            try {
+                return new GZIPInputStream(new ByteArrayInputStream(data));
+            } catch (Exception ignore) {}
+        }
+        return new ByteArrayInputStream(data);
     }
 
     // 对rpc body进行压缩。
     public byte[] compress(byte[] org, boolean useGzip, int minGzSize) throws IOException {
         if (useGzip && org.length > minGzSize) {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            GZIPOutputStream gos = new GZIPOutputStream(outputStream);
-            gos.write(org);
-            gos.finish();
-            gos.flush();
-            gos.close();
-            byte[] ret = outputStream.toByteArray();
-            return ret;
+            return COMPRESSIONS[GzipCompression.ID].compress(org);
         } else {
             return org;
         }
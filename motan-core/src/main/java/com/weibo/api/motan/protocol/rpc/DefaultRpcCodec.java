@@ -16,11 +16,12 @@
 
 package com.weibo.api.motan.protocol.rpc;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -34,10 +35,13 @@ import com.weibo.api.motan.exception.MotanErrorMsgConstant;
 import com.weibo.api.motan.exception.MotanFrameworkException;
 import com.weibo.api.motan.rpc.DefaultRequest;
 import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.DeferredRequest;
+import com.weibo.api.motan.rpc.DeferredResponse;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
 import com.weibo.api.motan.transport.Channel;
-import com.weibo.api.motan.util.ByteUtil;
+import com.weibo.api.motan.util.BufferOutputStream;
+import com.weibo.api.motan.util.ByteBufferInputStream;
 import com.weibo.api.motan.util.ExceptionUtil;
 import com.weibo.api.motan.util.ReflectUtil;
 
@@ -54,11 +58,21 @@ public class DefaultRpcCodec extends AbstractCodec {
 
     @Override
     public byte[] encode(Channel channel, Object message) throws IOException {
+        return encodeToBytes(channel, message);
+    }
+
+    /**
+     * header 与 body 直接写入 out，body length 在 body 写完后回填
+     */
+    @Override
+    public void encode(Channel channel, Object message, BufferOutputStream out) throws IOException {
         try {
             if (message instanceof Request) {
-                return encodeRequest(channel, (Request) message);
+                encodeRequest(channel, (Request) message, out);
+                return;
             } else if (message instanceof Response) {
-                return encodeResponse(channel, (Response) message);
+                encodeResponse(channel, (Response) message, out);
+                return;
             }
         } catch (Exception e) {
             if (ExceptionUtil.isMotanException(e)) {
@@ -87,44 +101,55 @@ public class DefaultRpcCodec extends AbstractCodec {
      */
     @Override
     public Object decode(Channel channel, String remoteIp, byte[] data) throws IOException {
-        if (data.length <= RpcProtocolVersion.VERSION_1.getHeaderLength()) {
+        return decode(channel, remoteIp, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * 直接在 buffer 上解析 header，body 通过 {@link ByteBufferInputStream} 读取，不拷贝数据
+     */
+    @Override
+    public Object decode(Channel channel, String remoteIp, ByteBuffer buffer) throws IOException {
+        ByteBuffer data = buffer.slice();
+        data.order(ByteOrder.BIG_ENDIAN);
+
+        if (data.remaining() <= RpcProtocolVersion.VERSION_1.getHeaderLength()) {
             throw new MotanFrameworkException("decode error: format problem", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
         }
 
-        short type = ByteUtil.bytes2short(data, 0);
+        short type = data.getShort(0);
 
         if (type != MAGIC) {
             throw new MotanFrameworkException("decode error: magic error", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
         }
 
-        if (data[2] != RpcProtocolVersion.VERSION_1.getVersion()) {
+        if (data.get(2) != RpcProtocolVersion.VERSION_1.getVersion()) {
             throw new MotanFrameworkException("decode error: version error", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
         }
 
-        int bodyLength = ByteUtil.bytes2int(data, 12);
+        int bodyLength = data.getInt(12);
 
-        if (RpcProtocolVersion.VERSION_1.getHeaderLength() + bodyLength != data.length) {
+        if (RpcProtocolVersion.VERSION_1.getHeaderLength() + bodyLength != data.remaining()) {
             throw new MotanFrameworkException("decode error: content length error", MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
         }
 
-        byte flag = data[3];
+        byte flag = data.get(3);
         byte dataType = (byte) (flag & MASK);
         boolean isResponse = (dataType != MotanConstants.FLAG_REQUEST);
 
-        byte[] body = new byte[bodyLength];
+        long requestId = data.getLong(4);
 
-        System.arraycopy(data, RpcProtocolVersion.VERSION_1.getHeaderLength(), body, 0, bodyLength);
+        data.position(RpcProtocolVersion.VERSION_1.getHeaderLength());
+        InputStream body = new ByteBufferInputStream(data);
 
-        long requestId = ByteUtil.bytes2long(data, 4);
         Serialization serialization =
                 ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(
                         channel.getUrl().getParameter(URLParamType.serialize.getName(), URLParamType.serialize.getValue()));
 
         try {
             if (isResponse) { // response
-                return decodeResponse(body, dataType, requestId, serialization);
+                return decodeResponse(body, dataType, requestId, serialization, isLazyDeserialize(channel));
             } else {
-                return decodeRequest(body, requestId, serialization);
+                return decodeRequest(body, requestId, serialization, isDecodeInWorker(channel));
             }
         } catch (ClassNotFoundException e) {
             throw new MotanFrameworkException("decode " + (isResponse ? "response" : "request") + " error: class not found", e,
@@ -158,12 +183,13 @@ public class DefaultRpcCodec extends AbstractCodec {
 	 * </pre>
      * 
      * @param request
-     * @return
+     * @param out
      * @throws IOException
      */
-    private byte[] encodeRequest(Channel channel, Request request) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ObjectOutput output = createOutput(outputStream);
+    private void encodeRequest(Channel channel, Request request, BufferOutputStream out) throws IOException {
+        int start = writeHeader(out, MotanConstants.FLAG_REQUEST, request.getRequestId());
+
+        ObjectOutput output = createOutput(out);
         output.writeUTF(request.getInterfaceName());
         output.writeUTF(request.getMethodName());
         output.writeUTF(request.getParamtersDesc());
@@ -190,13 +216,9 @@ public class DefaultRpcCodec extends AbstractCodec {
         }
 
         output.flush();
-        byte[] body = outputStream.toByteArray();
-
-        byte flag = MotanConstants.FLAG_REQUEST;
-
         output.close();
 
-        return encode(body, flag, request.getRequestId());
+        writeBodyLength(out, start);
     }
 
     /**
@@ -212,39 +234,41 @@ public class DefaultRpcCodec extends AbstractCodec {
      *
      * @param channel
      * @param value
-     * @return
+     * @param out
      * @throws IOException
      */
-    private byte[] encodeResponse(Channel channel, Response value) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ObjectOutput output = createOutput(outputStream);
+    private void encodeResponse(Channel channel, Response value, BufferOutputStream out) throws IOException {
         Serialization serialization =
                 ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(
                         channel.getUrl().getParameter(URLParamType.serialize.getName(), URLParamType.serialize.getValue()));
 
         byte flag = 0;
 
-        output.writeLong(value.getProcessTime());
-
         if (value.getException() != null) {
-            output.writeUTF(value.getException().getClass().getName());
-            serialize(output, value.getException(), serialization);
             flag = MotanConstants.FLAG_RESPONSE_EXCEPTION;
         } else if (value.getValue() == null) {
             flag = MotanConstants.FLAG_RESPONSE_VOID;
         } else {
-            output.writeUTF(value.getValue().getClass().getName());
-            serialize(output, value.getValue(), serialization);
             flag = MotanConstants.FLAG_RESPONSE;
         }
 
-        output.flush();
+        int start = writeHeader(out, flag, value.getRequestId());
 
-        byte[] body = outputStream.toByteArray();
+        ObjectOutput output = createOutput(out);
+        output.writeLong(value.getProcessTime());
 
+        if (value.getException() != null) {
+            output.writeUTF(value.getException().getClass().getName());
+            serialize(output, value.getException(), serialization);
+        } else if (value.getValue() != null) {
+            output.writeUTF(value.getValue().getClass().getName());
+            serialize(output, value.getValue(), serialization);
+        }
+
+        output.flush();
         output.close();
 
-        return encode(body, flag, value.getRequestId());
+        writeBodyLength(out, start);
     }
 
     /**
@@ -262,55 +286,55 @@ public class DefaultRpcCodec extends AbstractCodec {
 	 * 
 	 * </pre>
      *
-     * @param body
+     * @param out
      * @param flag
      * @param requestId
-     * @return
-     * @throws IOException
+     * @return header 在 out 中的起始位置
      */
-    private byte[] encode(byte[] body, byte flag, long requestId) throws IOException {
-        byte[] header = new byte[RpcProtocolVersion.VERSION_1.getHeaderLength()];
-        int offset = 0;
+    private int writeHeader(BufferOutputStream out, byte flag, long requestId) {
+        int start = out.position();
 
         // 0 - 15 bit : magic
-        ByteUtil.short2bytes(MAGIC, header, offset);
-        offset += 2;
+        out.writeShort(MAGIC);
 
         // 16 - 23 bit : version
-        header[offset++] = RpcProtocolVersion.VERSION_1.getVersion();
+        out.write(RpcProtocolVersion.VERSION_1.getVersion());
 
         // 24 - 31 bit : extend flag
-        header[offset++] = flag;
+        out.write(flag);
 
         // 32 - 95 bit : requestId
-        ByteUtil.long2bytes(requestId, header, offset);
-        offset += 8;
-
-        // 96 - 127 bit : body content length
-        ByteUtil.int2bytes(body.length, header, offset);
+        out.writeLong(requestId);
 
-        byte[] data = new byte[header.length + body.length];
+        // 96 - 127 bit : body content length, body 写完后回填
+        out.writeInt(0);
 
-        System.arraycopy(header, 0, data, 0, header.length);
-        System.arraycopy(body, 0, data, header.length, body.length);
+        return start;
+    }
 
-        return data;
+    private void writeBodyLength(BufferOutputStream out, int start) {
+        int bodyLength = out.position() - start - RpcProtocolVersion.VERSION_1.getHeaderLength();
+        out.setInt(start + RpcProtocolVersion.VERSION_1.getHeaderLength() - 4, bodyLength);
     }
 
-    private Object decodeRequest(byte[] body, long requestId, Serialization serialization) throws IOException, ClassNotFoundException {
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(body);
-        ObjectInput input = createInput(inputStream);
+    private Object decodeRequest(InputStream body, long requestId, Serialization serialization, boolean decodeInWorker)
+            throws IOException, ClassNotFoundException {
+        ObjectInput input = createInput(body);
 
         String interfaceName = input.readUTF();
         String methodName = input.readUTF();
         String paramtersDesc = input.readUTF();
 
-        DefaultRequest rpcRequest = new DefaultRequest();
+        DefaultRequest rpcRequest = decodeInWorker ? new DeferredRequest() : new DefaultRequest();
         rpcRequest.setRequestId(requestId);
         rpcRequest.setInterfaceName(interfaceName);
         rpcRequest.setMethodName(methodName);
         rpcRequest.setParamtersDesc(paramtersDesc);
-        rpcRequest.setArguments(decodeRequestParameter(input, paramtersDesc, serialization));
+        if (decodeInWorker) {
+            ((DeferredRequest) rpcRequest).setArgumentsDecoder(readSerializedArguments(input, paramtersDesc, serialization));
+        } else {
+            rpcRequest.setArguments(decodeRequestParameter(input, paramtersDesc, serialization));
+        }
         rpcRequest.setAttachments(decodeRequestAttachments(input));
 
         input.close();
@@ -351,15 +375,16 @@ public class DefaultRpcCodec extends AbstractCodec {
         return attachments;
     }
 
-    private Object decodeResponse(byte[] body, byte dataType, long requestId, Serialization serialization) throws IOException,
-            ClassNotFoundException {
+    private Object decodeResponse(InputStream body, byte dataType, long requestId, Serialization serialization,
+            boolean lazyDeserialize) throws IOException, ClassNotFoundException {
 
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(body);
-        ObjectInput input = createInput(inputStream);
+        ObjectInput input = createInput(body);
 
         long processTime = input.readLong();
 
-        DefaultResponse response = new DefaultResponse();
+        // lazyDeserialize 时返回值在调用线程中反序列化，异常仍然在 IO 线程中反序列化
+        boolean deferred = lazyDeserialize && dataType == MotanConstants.FLAG_RESPONSE;
+        DefaultResponse response = deferred ? new DeferredResponse() : new DefaultResponse();
         response.setRequestId(requestId);
         response.setProcessTime(processTime);
 
@@ -368,6 +393,14 @@ public class DefaultRpcCodec extends AbstractCodec {
         }
 
         String className = input.readUTF();
+
+        if (deferred) {
+            ((DeferredResponse) response).setValueDecoder(createValueDecoder(className, (byte[]) input.readObject(),
+                    serialization));
+            input.close();
+            return response;
+        }
+
         Class<?> clz = ReflectUtil.forName(className);
 
         Object result = deserialize((byte[]) input.readObject(), clz, serialization);
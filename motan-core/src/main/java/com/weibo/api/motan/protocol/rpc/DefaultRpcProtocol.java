@@ -26,6 +26,8 @@ import com.weibo.api.motan.exception.MotanServiceException;
 import com.weibo.api.motan.protocol.AbstractProtocol;
 import com.weibo.api.motan.rpc.AbstractExporter;
 import com.weibo.api.motan.rpc.AbstractReferer;
+import com.weibo.api.motan.rpc.AvailableListener;
+import com.weibo.api.motan.rpc.AvailableNotifier;
 import com.weibo.api.motan.rpc.Exporter;
 import com.weibo.api.motan.rpc.Future;
 import com.weibo.api.motan.rpc.FutureListener;
@@ -149,7 +151,7 @@ public class DefaultRpcProtocol extends AbstractProtocol {
      * @param <T>
      * @author maijunsheng
      */
-    class DefaultRpcReferer<T> extends AbstractReferer<T> {
+    class DefaultRpcReferer<T> extends AbstractReferer<T> implements AvailableNotifier {
         private Client client;
         private EndpointFactory endpointFactory;
 
@@ -203,6 +205,18 @@ public class DefaultRpcProtocol extends AbstractProtocol {
             return client.isAvailable();
         }
 
+        @Override
+        public boolean addAvailableListener(AvailableListener listener) {
+            return client instanceof AvailableNotifier && ((AvailableNotifier) client).addAvailableListener(listener);
+        }
+
+        @Override
+        public void removeAvailableListener(AvailableListener listener) {
+            if (client instanceof AvailableNotifier) {
+                ((AvailableNotifier) client).removeAvailableListener(listener);
+            }
+        }
+
         @Override
         public void destroy() {
             endpointFactory.safeReleaseResource(client, url);
@@ -22,7 +22,7 @@ package com.weibo.api.motan.protocol.rpc;
  * 
  */
 public enum RpcProtocolVersion {
-    VERSION_1((byte) 1, 16), VERSION_2((byte) 2, 16);// V2为数据包压缩版本
+    VERSION_1((byte) 1, 16), VERSION_2((byte) 2, 16), VERSION_3((byte) 3, 16);// V2为数据包压缩版本，V3为不依赖ObjectStream的紧凑版本
 
     private byte version;
     private int headerLength;
@@ -32,6 +32,8 @@ import com.weibo.api.motan.exception.MotanErrorMsgConstant;
 import com.weibo.api.motan.exception.MotanFrameworkException;
 import com.weibo.api.motan.filter.AccessLogFilter;
 import com.weibo.api.motan.filter.Filter;
+import com.weibo.api.motan.rpc.AvailableListener;
+import com.weibo.api.motan.rpc.AvailableNotifier;
 import com.weibo.api.motan.rpc.Exporter;
 import com.weibo.api.motan.rpc.Protocol;
 import com.weibo.api.motan.rpc.Provider;
@@ -78,59 +80,7 @@ public class ProtocolFilterDecorator implements Protocol {
         List<Filter> filters = getFilters(url, MotanConstants.NODE_TYPE_REFERER);
         Referer<T> lastRef = referer;
         for (Filter filter : filters) {
-            final Filter f = filter;
-            final Referer<T> lf = lastRef;
-            lastRef = new Referer<T>() {
-                @Override
-                public Response call(Request request) {
-                    Activation activation = f.getClass().getAnnotation(Activation.class);
-                    if (activation != null && !activation.retry() && request.getRetries() != 0) {
-                        return lf.call(request);
-                    }
-                    return f.filter(lf, request);
-                }
-
-                @Override
-                public String desc() {
-                    return lf.desc();
-                }
-
-                @Override
-                public void destroy() {
-                    lf.destroy();
-                }
-
-                @Override
-                public Class<T> getInterface() {
-                    return lf.getInterface();
-                }
-
-                @Override
-                public URL getUrl() {
-                    return lf.getUrl();
-                }
-
-                @Override
-                public void init() {
-                    lf.init();
-                }
-
-                @Override
-                public boolean isAvailable() {
-                    return lf.isAvailable();
-                }
-
-                @Override
-                public int activeRefererCount() {
-                    return lf.activeRefererCount();
-                }
-
-
-                @Override
-                public URL getServiceUrl() {
-                    return lf.getServiceUrl();
-                }
-            };
+            lastRef = new FilterReferer<T>(filter, lastRef);
         }
         return lastRef;
     }
@@ -253,4 +203,78 @@ public class ProtocolFilterDecorator implements Protocol {
         }
 
     }
+
+    /**
+     * 经过 filter 调用的 referer，可用状态的通知转交给内部的 referer
+     */
+    static class FilterReferer<T> implements Referer<T>, AvailableNotifier {
+        private final Filter filter;
+        private final Referer<T> referer;
+
+        FilterReferer(Filter filter, Referer<T> referer) {
+            this.filter = filter;
+            this.referer = referer;
+        }
+
+        @Override
+        public Response call(Request request) {
+            Activation activation = filter.getClass().getAnnotation(Activation.class);
+            if (activation != null && !activation.retry() && request.getRetries() != 0) {
+                return referer.call(request);
+            }
+            return filter.filter(referer, request);
+        }
+
+        @Override
+        public String desc() {
+            return referer.desc();
+        }
+
+        @Override
+        public void destroy() {
+            referer.destroy();
+        }
+
+        @Override
+        public Class<T> getInterface() {
+            return referer.getInterface();
+        }
+
+        @Override
+        public URL getUrl() {
+            return referer.getUrl();
+        }
+
+        @Override
+        public void init() {
+            referer.init();
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return referer.isAvailable();
+        }
+
+        @Override
+        public int activeRefererCount() {
+            return referer.activeRefererCount();
+        }
+
+        @Override
+        public URL getServiceUrl() {
+            return referer.getServiceUrl();
+        }
+
+        @Override
+        public boolean addAvailableListener(AvailableListener listener) {
+            return referer instanceof AvailableNotifier && ((AvailableNotifier) referer).addAvailableListener(listener);
+        }
+
+        @Override
+        public void removeAvailableListener(AvailableListener listener) {
+            if (referer instanceof AvailableNotifier) {
+                ((AvailableNotifier) referer).removeAvailableListener(listener);
+            }
+        }
+    }
 }
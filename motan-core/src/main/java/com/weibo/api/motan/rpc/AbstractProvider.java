@@ -18,6 +18,7 @@ package com.weibo.api.motan.rpc;
 
 import java.lang.reflect.Method;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.weibo.api.motan.util.ReflectUtil;
@@ -35,6 +36,9 @@ public abstract class AbstractProvider<T> implements Provider<T> {
 
     protected Map<String, Method> methodMap = new HashMap<String, Method>();
 
+    // 下标与 ProviderMethodTable 中的 method index 一致
+    protected Method[] methodIndex;
+
     public AbstractProvider(URL url, Class<T> clz) {
         this.url = url;
         this.clz = clz;
@@ -87,6 +91,16 @@ public abstract class AbstractProvider<T> implements Provider<T> {
     }
 
     protected Method lookup(Request request) {
+        if (request instanceof DefaultRequest) {
+            int methodId = ((DefaultRequest) request).getMethodId();
+            if (methodId != ProviderMethodTable.NO_METHOD_ID) {
+                int index = ProviderMethodTable.getMethodIndex(methodId);
+                if (index < methodIndex.length) {
+                    return methodIndex[index];
+                }
+            }
+        }
+
         String methodDesc = ReflectUtil.getMethodDesc(request.getMethodName(), request.getParamtersDesc());
 
         return methodMap.get(methodDesc);
@@ -99,6 +113,9 @@ public abstract class AbstractProvider<T> implements Provider<T> {
             String methodDesc = ReflectUtil.getMethodDesc(method);
             methodMap.put(methodDesc, method);
         }
+
+        List<Method> publicMethods = ReflectUtil.getPublicMethodOrderByDesc(clz);
+        methodIndex = publicMethods.toArray(new Method[publicMethods.size()]);
     }
 
 }
@@ -0,0 +1,33 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.rpc;
+
+/**
+ * 用于监听节点可用状态的变化
+ */
+public interface AvailableListener {
+
+    /**
+     * <pre>
+	 * 		在修改状态的线程中同步调用，可能是 IO 线程，只做比较简单的操作
+	 * </pre>
+     *
+     * @param available 变化后的状态
+     */
+    void onAvailableChanged(boolean available);
+
+}
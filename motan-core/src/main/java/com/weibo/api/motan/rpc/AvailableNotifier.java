@@ -0,0 +1,37 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.rpc;
+
+/**
+ * 可用状态变化时通知 {@link AvailableListener} 的节点
+ *
+ * <pre>
+ * 		1） client 在状态变化（如连续失败后不可用、恢复可用、关闭）时通知
+ * 		2） referer 及包装 referer 的 filter 把 listener 转交给内部的 client 或 referer
+ * </pre>
+ */
+public interface AvailableNotifier {
+
+    /**
+     * @param listener
+     * @return 是否支持状态通知，不支持时调用方需要自行检查 isAvailable
+     */
+    boolean addAvailableListener(AvailableListener listener);
+
+    void removeAvailableListener(AvailableListener listener);
+
+}
@@ -45,6 +45,9 @@ public class DefaultRequest implements Serializable, Request {
 
     private byte rpcProtocolVersion = RpcProtocolVersion.VERSION_1.getVersion();
 
+    // server 端 codec 解析出的方法 id，用于 router、provider 按数组下标分发，见 ProviderMethodTable
+    private int methodId = ProviderMethodTable.NO_METHOD_ID;
+
     public String getInterfaceName() {
         return interfaceName;
     }
@@ -124,5 +127,13 @@ public class DefaultRequest implements Serializable, Request {
         this.rpcProtocolVersion = rpcProtocolVersion;
     }
 
+    public int getMethodId() {
+        return methodId;
+    }
+
+    public void setMethodId(int methodId) {
+        this.methodId = methodId;
+    }
+
 
 }
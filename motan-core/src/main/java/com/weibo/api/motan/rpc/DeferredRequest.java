@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.rpc;
+
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.util.ExceptionUtil;
+
+/**
+ * 参数延迟反序列化的 request
+ * 
+ * <pre>
+ * 		1） server 端开启 decodeInWorker 时，codec 在 IO 线程中只解析 header、方法信息和 attachments，参数保持序列化后的数据
+ * 		2） transport 在业务线程中调用 {@link #decodeArguments()} 反序列化参数，线程池拒绝的请求不需要反序列化
+ * 		3） 未调用 decodeArguments 时，getArguments 在当前线程中反序列化
+ * </pre>
+ */
+public class DeferredRequest extends DefaultRequest {
+
+    private static final long serialVersionUID = -3702379462416371537L;
+
+    private transient volatile ArgumentsDecoder argumentsDecoder;
+
+    public void setArgumentsDecoder(ArgumentsDecoder argumentsDecoder) {
+        this.argumentsDecoder = argumentsDecoder;
+    }
+
+    /**
+     * 反序列化参数，只执行一次
+     * 
+     * @throws MotanFrameworkException 反序列化失败
+     */
+    public void decodeArguments() {
+        if (argumentsDecoder == null) {
+            return;
+        }
+
+        synchronized (this) {
+            ArgumentsDecoder decoder = argumentsDecoder;
+            if (decoder == null) {
+                return;
+            }
+            try {
+                super.setArguments(decoder.decode());
+                argumentsDecoder = null;
+            } catch (Exception e) {
+                if (ExceptionUtil.isMotanException(e)) {
+                    throw (RuntimeException) e;
+                }
+                throw new MotanFrameworkException("decode request arguments error: " + this, e,
+                        MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+            }
+        }
+    }
+
+    public boolean isArgumentsDecoded() {
+        return argumentsDecoder == null;
+    }
+
+    @Override
+    public Object[] getArguments() {
+        decodeArguments();
+        return super.getArguments();
+    }
+
+    @Override
+    public void setArguments(Object[] arguments) {
+        argumentsDecoder = null;
+        super.setArguments(arguments);
+    }
+
+    /**
+     * 由 codec 实现，持有序列化后的参数
+     */
+    public interface ArgumentsDecoder {
+        Object[] decode() throws Exception;
+    }
+}
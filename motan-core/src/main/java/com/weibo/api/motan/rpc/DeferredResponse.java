@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.rpc;
+
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.util.ExceptionUtil;
+
+/**
+ * 返回值延迟反序列化的 response
+ *
+ * <pre>
+ * 		1） client 端开启 lazyDeserialize 时，codec 在 IO 线程中只解析 header，返回值保持序列化后的数据
+ * 		2） 第一次 getValue 时在调用线程中反序列化，异常 response 仍在 IO 线程中反序列化
+ * </pre>
+ */
+public class DeferredResponse extends DefaultResponse {
+
+    private static final long serialVersionUID = 2164880393758137428L;
+
+    private transient volatile ValueDecoder valueDecoder;
+
+    public void setValueDecoder(ValueDecoder valueDecoder) {
+        this.valueDecoder = valueDecoder;
+    }
+
+    /**
+     * 反序列化返回值，只执行一次
+     *
+     * @throws MotanFrameworkException 反序列化失败
+     */
+    public void decodeValue() {
+        if (valueDecoder == null) {
+            return;
+        }
+
+        synchronized (this) {
+            ValueDecoder decoder = valueDecoder;
+            if (decoder == null) {
+                return;
+            }
+            try {
+                super.setValue(decoder.decode());
+                valueDecoder = null;
+            } catch (Exception e) {
+                if (ExceptionUtil.isMotanException(e)) {
+                    throw (RuntimeException) e;
+                }
+                throw new MotanFrameworkException("decode response value error: requestId=" + getRequestId(), e,
+                        MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
+            }
+        }
+    }
+
+    public boolean isValueDecoded() {
+        return valueDecoder == null;
+    }
+
+    @Override
+    public Object getValue() {
+        if (getException() == null) {
+            decodeValue();
+        }
+        return super.getValue();
+    }
+
+    @Override
+    public void setValue(Object value) {
+        valueDecoder = null;
+        super.setValue(value);
+    }
+
+    /**
+     * 由 codec 实现，持有序列化后的返回值
+     */
+    public interface ValueDecoder {
+        Object decode() throws Exception;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.rpc;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.weibo.api.motan.core.DefaultThreadFactory;
+import com.weibo.api.motan.util.StatisticCallback;
+import com.weibo.api.motan.util.StatsUtil;
+
+/**
+ * service 或方法独立的业务线程池（bulkhead）
+ *
+ * <pre>
+ * 		1） shareChannel 时同一端口的 service 共用 server 的线程池，单个 service 变慢会占满线程，影响其他 service
+ * 		2） 配置了 bulkheadThread 的 service 或方法在独立的线程池中执行，不占用 server 的线程池
+ * 		3） 线程数固定，排队数由 bulkheadQueueSize 限制，队列满时拒绝请求
+ * 		4） 通过 {@link StatsUtil} 定期输出线程池的使用情况及拒绝数
+ * </pre>
+ */
+public class ProviderBulkhead implements StatisticCallback {
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejectedCount = new AtomicLong(0);
+
+    public ProviderBulkhead(String name, int threads, int queueSize) {
+        this.name = name;
+
+        BlockingQueue<Runnable> queue =
+                queueSize > 0 ? new ArrayBlockingQueue<Runnable>(queueSize) : new SynchronousQueue<Runnable>();
+        this.executor =
+                new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, queue, new DefaultThreadFactory("Bulkhead-" + name, true),
+                        new RejectedExecutionHandler() {
+                            @Override
+                            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                                rejectedCount.incrementAndGet();
+                                throw new RejectedExecutionException("ProviderBulkhead is full: name=" + ProviderBulkhead.this.name);
+                            }
+                        });
+        this.executor.allowCoreThreadTimeOut(true);
+
+        StatsUtil.registryStatisticCallback(this);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * 已进入队列的请求继续执行完
+     */
+    public void shutdown() {
+        StatsUtil.unRegistryStatisticCallback(this);
+        executor.shutdown();
+    }
+
+    @Override
+    public String statisticCallback() {
+        return String.format("bulkhead: %s activeCount: %s queueCount: %s maxThreadCount: %s completedTaskCount: %s rejectedCount: %s",
+                name, executor.getActiveCount(), executor.getQueue().size(), executor.getMaximumPoolSize(),
+                executor.getCompletedTaskCount(), rejectedCount.get());
+    }
+}
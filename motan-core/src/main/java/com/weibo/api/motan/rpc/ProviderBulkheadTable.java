@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.rpc;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.rpc.ProviderMethodTable.MethodKey;
+import com.weibo.api.motan.util.MotanFrameworkUtil;
+import com.weibo.api.motan.util.ReflectUtil;
+
+/**
+ * 按方法查找 service 或方法独立的线程池 {@link ProviderBulkhead}，每个 message router 一个
+ *
+ * <pre>
+ * 		1） provider 加入时按 bulkheadThread 配置创建线程池，方法级别的配置不继承 service 级别的配置，没有方法级别配置的方法使用 service 级别的线程池
+ * 		2） provider 移除时关闭其线程池，已进入队列的请求继续执行完
+ * 		3） 没有任何配置时 transport 不需要查找，直接使用 server 的线程池
+ * </pre>
+ */
+public class ProviderBulkheadTable {
+    private final ConcurrentMap<MethodKey, ProviderBulkhead> bulkheads = new ConcurrentHashMap<MethodKey, ProviderBulkhead>();
+
+    // provider 创建的线程池及对应的方法，移除 provider 时使用
+    private final Map<Provider<?>, Map<MethodKey, ProviderBulkhead>> providerBulkheads =
+            new HashMap<Provider<?>, Map<MethodKey, ProviderBulkhead>>();
+
+    private volatile boolean hasBulkhead;
+
+    public synchronized void addProvider(Provider<?> provider) {
+        URL url = provider.getUrl();
+        ProviderBulkhead serviceBulkhead = createBulkhead(url, "", MotanFrameworkUtil.getServiceKey(url));
+        Map<MethodKey, ProviderBulkhead> created = new HashMap<MethodKey, ProviderBulkhead>();
+        for (Method method : ReflectUtil.getPublicMethodOrderByDesc(provider.getInterface())) {
+            String paramDesc = ReflectUtil.getMethodParamDesc(method);
+            MethodKey key = new MethodKey(url.getGroup(), url.getPath(), url.getVersion(), method.getName(), paramDesc);
+            ProviderBulkhead bulkhead =
+                    createBulkhead(url, MotanConstants.METHOD_CONFIG_PREFIX + method.getName() + "(" + paramDesc + ").", key.toString());
+            if (bulkhead == null) {
+                bulkhead = serviceBulkhead;
+            }
+            if (bulkhead != null) {
+                created.put(key, bulkhead);
+            }
+        }
+        // 所有方法都有方法级别的配置时 service 级别的线程池不会被使用
+        if (serviceBulkhead != null && !created.containsValue(serviceBulkhead)) {
+            serviceBulkhead.shutdown();
+        }
+        if (created.isEmpty()) {
+            return;
+        }
+
+        providerBulkheads.put(provider, created);
+        bulkheads.putAll(created);
+        hasBulkhead = true;
+    }
+
+    public synchronized void removeProvider(Provider<?> provider) {
+        Map<MethodKey, ProviderBulkhead> created = providerBulkheads.remove(provider);
+        if (created == null) {
+            return;
+        }
+
+        List<ProviderBulkhead> closed = new ArrayList<ProviderBulkhead>();
+        for (Map.Entry<MethodKey, ProviderBulkhead> entry : created.entrySet()) {
+            bulkheads.remove(entry.getKey(), entry.getValue());
+            // service 级别的线程池被多个方法共用，只关闭一次
+            if (!closed.contains(entry.getValue())) {
+                entry.getValue().shutdown();
+                closed.add(entry.getValue());
+            }
+        }
+        hasBulkhead = !bulkheads.isEmpty();
+    }
+
+    /**
+     * 方法的独立线程池，没有配置时返回 null
+     */
+    public ProviderBulkhead getBulkhead(MethodKey key) {
+        return hasBulkhead ? bulkheads.get(key) : null;
+    }
+
+    public boolean hasBulkhead() {
+        return hasBulkhead;
+    }
+
+    /**
+     * 按 prefix + bulkheadThread 读取配置，没有配置时返回 null
+     */
+    private ProviderBulkhead createBulkhead(URL url, String prefix, String name) {
+        int threads = url.getIntParameter(prefix + URLParamType.bulkheadThread.getName(), URLParamType.bulkheadThread.getIntValue());
+        if (threads <= 0) {
+            return null;
+        }
+        int queueSize =
+                url.getIntParameter(prefix + URLParamType.bulkheadQueueSize.getName(), URLParamType.bulkheadQueueSize.getIntValue());
+        return new ProviderBulkhead(name, threads, queueSize);
+    }
+}
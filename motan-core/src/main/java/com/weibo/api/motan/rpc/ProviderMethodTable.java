@@ -0,0 +1,303 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.rpc;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.util.MotanFrameworkUtil;
+import com.weibo.api.motan.util.ReflectUtil;
+
+/**
+ * server 端暴露方法的整数 id 表，每个 message router 一个
+ * 
+ * <pre>
+ * 		1） method id = service index << 16 | method index，service index 为 provider 加入的顺序，
+ * 		   method index 为方法在 {@link ReflectUtil#getPublicMethodOrderByDesc(Class)} 中的下标
+ * 		2） provider 移除后 service index 不复用，旧 id 不会被路由到其他方法
+ * 		3） epoch 在每个表创建时随机生成，client 缓存的 id 需要与 epoch 一起使用，server 重启后旧 id 失效
+ * 		4） 由 message router 持有，transport 和 codec 通过 server 关联的 router 获取
+ * 		5） 记录方法的 inlineExecute 配置及平均耗时，transport 据此决定是否在 IO 线程中直接执行
+ * </pre>
+ */
+public class ProviderMethodTable {
+    public static final int NO_METHOD_ID = -1;
+
+    private static final int METHOD_INDEX_BITS = 16;
+    private static final int METHOD_INDEX_MASK = (1 << METHOD_INDEX_BITS) - 1;
+    private static final int MAX_SERVICE_COUNT = Integer.MAX_VALUE >>> METHOD_INDEX_BITS;
+
+    private final int epoch = new Random().nextInt();
+
+    // 下标为 service index，provider 移除后对应位置为 null
+    private volatile Provider<?>[] providers = new Provider<?>[0];
+    private volatile MethodEntry[][] methods = new MethodEntry[0][];
+
+    private final ConcurrentMap<MethodKey, MethodEntry> keyIndex = new ConcurrentHashMap<MethodKey, MethodEntry>();
+
+    // 没有 inlineExecute 的方法时 transport 不需要查找方法
+    private volatile boolean hasInlineMethod;
+
+    public static int getMethodIndex(int methodId) {
+        return methodId & METHOD_INDEX_MASK;
+    }
+
+    public synchronized void addProvider(Provider<?> provider) {
+        int serviceIndex = providers.length;
+        if (serviceIndex >= MAX_SERVICE_COUNT) {
+            throw new MotanFrameworkException("ProviderMethodTable service count over of limit: " + MAX_SERVICE_COUNT);
+        }
+
+        URL url = provider.getUrl();
+        List<Method> publicMethods = ReflectUtil.getPublicMethodOrderByDesc(provider.getInterface());
+        MethodEntry[] entries = new MethodEntry[Math.min(publicMethods.size(), METHOD_INDEX_MASK + 1)];
+        for (int i = 0; i < entries.length; i++) {
+            Method method = publicMethods.get(i);
+            String paramDesc = ReflectUtil.getMethodParamDesc(method);
+            MethodKey key = new MethodKey(url.getGroup(), url.getPath(), url.getVersion(), method.getName(), paramDesc);
+            boolean inlineExecute =
+                    url.getMethodParameter(method.getName(), paramDesc, URLParamType.inlineExecute.getName(),
+                            URLParamType.inlineExecute.getBooleanValue());
+            int inlineLatencyThreshold =
+                    url.getMethodParameter(method.getName(), paramDesc, URLParamType.inlineLatencyThreshold.getName(),
+                            URLParamType.inlineLatencyThreshold.getIntValue());
+            entries[i] =
+                    new MethodEntry(serviceIndex << METHOD_INDEX_BITS | i, key, method.getParameterTypes(), inlineExecute,
+                            inlineLatencyThreshold);
+            keyIndex.put(key, entries[i]);
+            hasInlineMethod |= inlineExecute;
+        }
+
+        Provider<?>[] newProviders = Arrays.copyOf(providers, serviceIndex + 1);
+        newProviders[serviceIndex] = provider;
+        MethodEntry[][] newMethods = Arrays.copyOf(methods, serviceIndex + 1);
+        newMethods[serviceIndex] = entries;
+
+        methods = newMethods;
+        providers = newProviders;
+    }
+
+    public synchronized void removeProvider(Provider<?> provider) {
+        Provider<?>[] newProviders = providers.clone();
+        MethodEntry[][] newMethods = methods.clone();
+        for (int i = 0; i < newProviders.length; i++) {
+            if (newProviders[i] == provider) {
+                for (MethodEntry entry : newMethods[i]) {
+                    keyIndex.remove(entry.getKey(), entry);
+                }
+                newProviders[i] = null;
+                newMethods[i] = null;
+            }
+        }
+
+        providers = newProviders;
+        methods = newMethods;
+    }
+
+    /**
+     * 通过数组下标获取 provider，id 无效时返回 null
+     */
+    public Provider<?> getProvider(int methodId) {
+        Provider<?>[] current = providers;
+        int serviceIndex = methodId >>> METHOD_INDEX_BITS;
+        return methodId >= 0 && serviceIndex < current.length ? current[serviceIndex] : null;
+    }
+
+    /**
+     * 通过数组下标获取方法信息，id 无效时返回 null
+     */
+    public MethodEntry getMethod(int methodId) {
+        MethodEntry[][] current = methods;
+        int serviceIndex = methodId >>> METHOD_INDEX_BITS;
+        if (methodId < 0 || serviceIndex >= current.length || current[serviceIndex] == null) {
+            return null;
+        }
+        MethodEntry[] entries = current[serviceIndex];
+        int methodIndex = getMethodIndex(methodId);
+        return methodIndex < entries.length ? entries[methodIndex] : null;
+    }
+
+    public MethodEntry getMethod(MethodKey key) {
+        return keyIndex.get(key);
+    }
+
+    /**
+     * 优先使用 request 中的 method id，没有时按方法签名查找
+     */
+    public MethodEntry getMethod(Request request) {
+        if (request instanceof DefaultRequest && ((DefaultRequest) request).getMethodId() != NO_METHOD_ID) {
+            return getMethod(((DefaultRequest) request).getMethodId());
+        }
+        return getMethod(MethodKey.of(request));
+    }
+
+    public boolean hasInlineMethod() {
+        return hasInlineMethod;
+    }
+
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public static class MethodEntry {
+        // 平均耗时按 1/8 的权重更新
+        private static final int LATENCY_DECAY_SHIFT = 3;
+
+        private final int id;
+        private final MethodKey key;
+        private final Class<?>[] paramTypes;
+        private final boolean inlineExecute;
+        private final long inlineLatencyThresholdNanos;
+
+        // 执行耗时的指数移动平均（纳秒），并发更新时允许丢失个别样本
+        private volatile long averageLatencyNanos;
+
+        MethodEntry(int id, MethodKey key, Class<?>[] paramTypes) {
+            this(id, key, paramTypes, false, 0);
+        }
+
+        MethodEntry(int id, MethodKey key, Class<?>[] paramTypes, boolean inlineExecute, int inlineLatencyThreshold) {
+            this.id = id;
+            this.key = key;
+            this.paramTypes = paramTypes;
+            this.inlineExecute = inlineExecute;
+            this.inlineLatencyThresholdNanos = TimeUnit.MICROSECONDS.toNanos(inlineLatencyThreshold);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public MethodKey getKey() {
+            return key;
+        }
+
+        public Class<?>[] getParamTypes() {
+            return paramTypes;
+        }
+
+        public boolean isInlineExecute() {
+            return inlineExecute;
+        }
+
+        /**
+         * 配置了 inlineExecute 且平均耗时没有超过阈值时在 IO 线程中执行；超过阈值后回到线程池，线程池中的耗时低于阈值后恢复
+         */
+        public boolean isInline() {
+            return inlineExecute && averageLatencyNanos <= inlineLatencyThresholdNanos;
+        }
+
+        public void recordLatency(long latencyNanos) {
+            long average = averageLatencyNanos;
+            averageLatencyNanos = average + ((latencyNanos - average) >> LATENCY_DECAY_SHIFT);
+        }
+
+        public long getAverageLatencyNanos() {
+            return averageLatencyNanos;
+        }
+    }
+
+    /**
+     * 方法的唯一标识：group/interface/version + method name + param desc，不拼接字符串
+     */
+    public static class MethodKey {
+        private final String group;
+        private final String interfaceName;
+        private final String version;
+        private final String methodName;
+        private final String paramtersDesc;
+        private final int hash;
+
+        public MethodKey(String group, String interfaceName, String version, String methodName, String paramtersDesc) {
+            this.group = group;
+            this.interfaceName = interfaceName;
+            this.version = version;
+            this.methodName = methodName;
+            this.paramtersDesc = paramtersDesc;
+
+            int h = hashCode(group);
+            h = 31 * h + hashCode(interfaceName);
+            h = 31 * h + hashCode(version);
+            h = 31 * h + hashCode(methodName);
+            h = 31 * h + hashCode(paramtersDesc);
+            this.hash = h;
+        }
+
+        public static MethodKey of(Request request) {
+            return new MethodKey(MotanFrameworkUtil.getGroupFromRequest(request), request.getInterfaceName(),
+                    MotanFrameworkUtil.getVersionFromRequest(request), request.getMethodName(), request.getParamtersDesc());
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public String getInterfaceName() {
+            return interfaceName;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public String getParamtersDesc() {
+            return paramtersDesc;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof MethodKey)) {
+                return false;
+            }
+            MethodKey other = (MethodKey) obj;
+            return hash == other.hash && equals(methodName, other.methodName) && equals(paramtersDesc, other.paramtersDesc)
+                    && equals(interfaceName, other.interfaceName) && equals(group, other.group) && equals(version, other.version);
+        }
+
+        @Override
+        public String toString() {
+            return group + "/" + interfaceName + "/" + version + "." + methodName + "(" + paramtersDesc + ")";
+        }
+
+        private static int hashCode(String value) {
+            return value == null ? 0 : value.hashCode();
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -22,32 +22,71 @@ import java.io.IOException;
 
 import com.caucho.hessian.io.Hessian2Input;
 import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.SerializerFactory;
 import com.weibo.api.motan.codec.Serialization;
 import com.weibo.api.motan.core.extension.SpiMeta;
 
 /**
  * hession2 序列化，要求序列化的对象实现 java.io.Serializable 接口
  * 
+ * <pre>
+ * 		1） 每次使用前通过 SerializerFactory.createDefault() 获取当前 context classloader 对应的 SerializerFactory（hessian 按 classloader 缓存），
+ * 		   同一 classloader 下 serializer/deserializer 的查找结果只需要计算一次，且不会固定使用某个 classloader
+ * 		2） Hessian2Output 及输出 buffer 按线程重用，每次使用前通过 init 清空引用和 class 定义，输出与每次新建对象一致；
+ * 		   同一线程嵌套调用时（如自定义 serializer 中再次序列化）使用新建的对象
+ * 		3） Hessian2Input 每次新建：init 不会重置其内部读取 buffer 的位置，payload 未读完的字节会被下一次读取拿到
+ * </pre>
+ * 
  * @author maijunsheng
  * @version 创建时间：2013-5-30
  * 
  */
 @SpiMeta(name = "hessian2")
 public class Hessian2Serialization implements Serialization {
+    // 超过该大小的输出 buffer 不在线程中保留，避免偶尔的大消息长期占用内存
+    private static final int MAX_CACHED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<OutputHolder> OUTPUT = new ThreadLocal<OutputHolder>() {
+        @Override
+        protected OutputHolder initialValue() {
+            return new OutputHolder();
+        }
+    };
 
     @Override
     public byte[] serialize(Object data) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        Hessian2Output out = new Hessian2Output(bos);
-        out.writeObject(data);
-        out.flush();
-        return bos.toByteArray();
+        OutputHolder holder = OUTPUT.get();
+        if (holder.inUse) {
+            holder = new OutputHolder();
+        }
+
+        holder.inUse = true;
+        try {
+            holder.bos.reset();
+            holder.output.setSerializerFactory(SerializerFactory.createDefault());
+            holder.output.init(holder.bos);
+            holder.output.writeObject(data);
+            holder.output.flush();
+            return holder.bos.toByteArray();
+        } finally {
+            holder.inUse = false;
+            if (holder.bos.size() > MAX_CACHED_BUFFER_SIZE) {
+                holder.bos = new ByteArrayOutputStream();
+            }
+        }
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public <T> T deserialize(byte[] data, Class<T> clz) throws IOException {
         Hessian2Input input = new Hessian2Input(new ByteArrayInputStream(data));
+        input.setSerializerFactory(SerializerFactory.createDefault());
         return (T) input.readObject(clz);
     }
+
+    private static class OutputHolder {
+        private ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        private Hessian2Output output = new Hessian2Output(null);
+        private boolean inUse = false;
+    }
 }
@@ -0,0 +1,639 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.serialize;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.weibo.api.motan.codec.Serialization;
+import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.core.extension.SpiMeta;
+import com.weibo.api.motan.exception.MotanAbstractException;
+
+/**
+ * simple 序列化，只支持基本类型及其包装类、String、byte[]、基本类型数组、String[]、以及由这些类型组成的 Collection 和 Map
+ * 
+ * <pre>
+ * 		1） 每个值以 1 字节类型标识开头，不写入类名，便于其他语言实现
+ * 		2） 整数使用 zigzag varint，浮点数为 big-endian 定长，字符串为 varint 字节长度 + utf-8
+ * 		3） 基本类型数组整体一个类型标识，元素不装箱
+ * 		4） 全部为 String 的 Map 和 String[] 使用专门的类型，元素不再写类型标识
+ * 		5） Collection 统一按 array 传输，反序列化时按声明类型转换为 List、Set 或对象数组
+ * 		6） Throwable 只写入类名和 message，不使用 java 序列化；只能出现在最外层（异常 response），
+ * 			反序列化时通过 (String) 或无参构造函数创建，cause 和堆栈不传递
+ * </pre>
+ */
+@SpiMeta(name = "simple")
+public class SimpleSerialization implements Serialization {
+    public static final int TYPE_NULL = 0;
+    public static final int TYPE_STRING = 1;
+    public static final int TYPE_STRING_MAP = 2;
+    public static final int TYPE_BYTE_ARRAY = 3;
+    public static final int TYPE_STRING_ARRAY = 4;
+    public static final int TYPE_BOOL = 5;
+    public static final int TYPE_BYTE = 6;
+    public static final int TYPE_INT16 = 7;
+    public static final int TYPE_INT32 = 8;
+    public static final int TYPE_INT64 = 9;
+    public static final int TYPE_FLOAT32 = 10;
+    public static final int TYPE_FLOAT64 = 11;
+    public static final int TYPE_INT16_ARRAY = 12;
+    public static final int TYPE_INT32_ARRAY = 13;
+    public static final int TYPE_INT64_ARRAY = 14;
+    public static final int TYPE_FLOAT32_ARRAY = 15;
+    public static final int TYPE_FLOAT64_ARRAY = 16;
+    public static final int TYPE_BOOL_ARRAY = 17;
+    public static final int TYPE_MAP = 20;
+    public static final int TYPE_ARRAY = 21;
+    public static final int TYPE_THROWABLE = 30;
+
+    private static final Charset UTF_8 = Charset.forName(MotanConstants.DEFAULT_CHARACTER);
+
+    // 超过该大小的输出 buffer 不在线程中保留，避免偶尔的大消息长期占用内存
+    private static final int MAX_CACHED_BUFFER_SIZE = 1024 * 1024;
+    private static final int INIT_BUFFER_SIZE = 256;
+
+    private static final ThreadLocal<SimpleOutput> OUTPUT = new ThreadLocal<SimpleOutput>() {
+        @Override
+        protected SimpleOutput initialValue() {
+            return new SimpleOutput(INIT_BUFFER_SIZE);
+        }
+    };
+
+    @Override
+    public byte[] serialize(Object obj) throws IOException {
+        SimpleOutput out = OUTPUT.get();
+        if (out.inUse) {
+            out = new SimpleOutput(INIT_BUFFER_SIZE);
+        }
+
+        out.inUse = true;
+        try {
+            out.pos = 0;
+            writeValue(out, obj);
+            return out.toByteArray();
+        } finally {
+            out.inUse = false;
+            if (out.buf.length > MAX_CACHED_BUFFER_SIZE) {
+                out.buf = new byte[INIT_BUFFER_SIZE];
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clz) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        try {
+            if (bytes.length > 0 && bytes[0] == TYPE_THROWABLE) {
+                in.get();
+                return (T) readThrowable(in, clz);
+            }
+            return (T) convert(readValue(in), clz);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("SimpleSerialization deserialize Error: data truncated, class=" + clz.getName());
+        }
+    }
+
+    private static void writeValue(SimpleOutput out, Object obj) throws IOException {
+        if (obj == null) {
+            out.write(TYPE_NULL);
+            return;
+        }
+
+        Class<?> clz = obj.getClass();
+        if (clz == String.class) {
+            out.write(TYPE_STRING);
+            out.writeString((String) obj);
+        } else if (clz == Integer.class) {
+            out.write(TYPE_INT32);
+            out.writeVarint(zigzag((Integer) obj));
+        } else if (clz == Long.class) {
+            out.write(TYPE_INT64);
+            out.writeVarLong(zigzag((Long) obj));
+        } else if (clz == Boolean.class) {
+            out.write(TYPE_BOOL);
+            out.write((Boolean) obj ? 1 : 0);
+        } else if (clz == Byte.class) {
+            out.write(TYPE_BYTE);
+            out.write((Byte) obj);
+        } else if (clz == Short.class) {
+            out.write(TYPE_INT16);
+            out.writeVarint(zigzag((Short) obj));
+        } else if (clz == Float.class) {
+            out.write(TYPE_FLOAT32);
+            out.writeInt(Float.floatToIntBits((Float) obj));
+        } else if (clz == Double.class) {
+            out.write(TYPE_FLOAT64);
+            out.writeLong(Double.doubleToLongBits((Double) obj));
+        } else if (clz == byte[].class) {
+            byte[] value = (byte[]) obj;
+            out.write(TYPE_BYTE_ARRAY);
+            out.writeVarint(value.length);
+            out.write(value, 0, value.length);
+        } else if (clz == long[].class) {
+            long[] value = (long[]) obj;
+            out.write(TYPE_INT64_ARRAY);
+            out.writeVarint(value.length);
+            for (long v : value) {
+                out.writeVarLong(zigzag(v));
+            }
+        } else if (clz == int[].class) {
+            int[] value = (int[]) obj;
+            out.write(TYPE_INT32_ARRAY);
+            out.writeVarint(value.length);
+            for (int v : value) {
+                out.writeVarint(zigzag(v));
+            }
+        } else if (clz == short[].class) {
+            short[] value = (short[]) obj;
+            out.write(TYPE_INT16_ARRAY);
+            out.writeVarint(value.length);
+            for (short v : value) {
+                out.writeVarint(zigzag(v));
+            }
+        } else if (clz == float[].class) {
+            float[] value = (float[]) obj;
+            out.write(TYPE_FLOAT32_ARRAY);
+            out.writeVarint(value.length);
+            for (float v : value) {
+                out.writeInt(Float.floatToIntBits(v));
+            }
+        } else if (clz == double[].class) {
+            double[] value = (double[]) obj;
+            out.write(TYPE_FLOAT64_ARRAY);
+            out.writeVarint(value.length);
+            for (double v : value) {
+                out.writeLong(Double.doubleToLongBits(v));
+            }
+        } else if (clz == boolean[].class) {
+            boolean[] value = (boolean[]) obj;
+            out.write(TYPE_BOOL_ARRAY);
+            out.writeVarint(value.length);
+            for (boolean v : value) {
+                out.write(v ? 1 : 0);
+            }
+        } else if (clz == String[].class && !containsNull((String[]) obj)) {
+            String[] value = (String[]) obj;
+            out.write(TYPE_STRING_ARRAY);
+            out.writeVarint(value.length);
+            for (String v : value) {
+                out.writeString(v);
+            }
+        } else if (obj instanceof Map) {
+            writeMap(out, (Map<?, ?>) obj);
+        } else if (obj instanceof Collection) {
+            Collection<?> value = (Collection<?>) obj;
+            out.write(TYPE_ARRAY);
+            out.writeVarint(value.size());
+            for (Object v : value) {
+                writeValue(out, v);
+            }
+        } else if (obj instanceof Object[]) {
+            Object[] value = (Object[]) obj;
+            out.write(TYPE_ARRAY);
+            out.writeVarint(value.length);
+            for (Object v : value) {
+                writeValue(out, v);
+            }
+        } else if (obj instanceof Throwable) {
+            out.write(TYPE_THROWABLE);
+            out.writeString(clz.getName());
+            // motan 异常的 getMessage 带有 status 等修饰，只传递原始 message
+            writeValue(out, obj instanceof MotanAbstractException ? ((MotanAbstractException) obj).getOriginMessage()
+                    : ((Throwable) obj).getMessage());
+        } else {
+            throw new IllegalArgumentException("can't serialize " + clz);
+        }
+    }
+
+    private static void writeMap(SimpleOutput out, Map<?, ?> map) throws IOException {
+        boolean stringMap = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof String)) {
+                stringMap = false;
+                break;
+            }
+        }
+
+        out.write(stringMap ? TYPE_STRING_MAP : TYPE_MAP);
+        out.writeVarint(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (stringMap) {
+                out.writeString((String) entry.getKey());
+                out.writeString((String) entry.getValue());
+            } else {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        }
+    }
+
+    private static Object readValue(ByteBuffer in) throws IOException {
+        int type = in.get();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_INT32:
+                return unzigzag(readVarint(in));
+            case TYPE_INT64:
+                return unzigzag(readVarLong(in));
+            case TYPE_BOOL:
+                return in.get() != 0;
+            case TYPE_BYTE:
+                return in.get();
+            case TYPE_INT16:
+                return (short) unzigzag(readVarint(in));
+            case TYPE_FLOAT32:
+                return Float.intBitsToFloat(in.getInt());
+            case TYPE_FLOAT64:
+                return Double.longBitsToDouble(in.getLong());
+            case TYPE_BYTE_ARRAY: {
+                byte[] value = new byte[readLength(in, 1)];
+                in.get(value);
+                return value;
+            }
+            case TYPE_INT64_ARRAY: {
+                long[] value = new long[readLength(in, 1)];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = unzigzag(readVarLong(in));
+                }
+                return value;
+            }
+            case TYPE_INT32_ARRAY: {
+                int[] value = new int[readLength(in, 1)];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = unzigzag(readVarint(in));
+                }
+                return value;
+            }
+            case TYPE_INT16_ARRAY: {
+                short[] value = new short[readLength(in, 1)];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = (short) unzigzag(readVarint(in));
+                }
+                return value;
+            }
+            case TYPE_FLOAT32_ARRAY: {
+                float[] value = new float[readLength(in, 4)];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = Float.intBitsToFloat(in.getInt());
+                }
+                return value;
+            }
+            case TYPE_FLOAT64_ARRAY: {
+                double[] value = new double[readLength(in, 8)];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = Double.longBitsToDouble(in.getLong());
+                }
+                return value;
+            }
+            case TYPE_BOOL_ARRAY: {
+                boolean[] value = new boolean[readLength(in, 1)];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = in.get() != 0;
+                }
+                return value;
+            }
+            case TYPE_STRING_ARRAY: {
+                String[] value = new String[readLength(in, 1)];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = readString(in);
+                }
+                return value;
+            }
+            case TYPE_STRING_MAP: {
+                int size = readLength(in, 2);
+                Map<String, String> value = new HashMap<String, String>(capacity(size));
+                for (int i = 0; i < size; i++) {
+                    value.put(readString(in), readString(in));
+                }
+                return value;
+            }
+            case TYPE_MAP: {
+                int size = readLength(in, 2);
+                Map<Object, Object> value = new HashMap<Object, Object>(capacity(size));
+                for (int i = 0; i < size; i++) {
+                    value.put(readValue(in), readValue(in));
+                }
+                return value;
+            }
+            case TYPE_ARRAY: {
+                int size = readLength(in, 1);
+                List<Object> value = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    value.add(readValue(in));
+                }
+                return value;
+            }
+            case TYPE_THROWABLE:
+                throw new IOException("SimpleSerialization deserialize Error: throwable is only allowed at top level");
+            default:
+                throw new IOException("SimpleSerialization deserialize Error: unknown type " + type);
+        }
+    }
+
+    /**
+     * 按类名和 message 创建异常，类名不是声明类型的子类或无法加载时使用声明类型
+     */
+    private static Throwable readThrowable(ByteBuffer in, Class<?> clz) throws IOException {
+        if (clz == null || !Throwable.class.isAssignableFrom(clz)) {
+            throw new IOException("SimpleSerialization deserialize Error: throwable can't be deserialized as "
+                    + (clz == null ? null : clz.getName()));
+        }
+
+        String className = readString(in);
+        Object message = readValue(in);
+        if (message != null && !(message instanceof String)) {
+            throw new IOException("SimpleSerialization deserialize Error: throwable message should be string");
+        }
+
+        Class<?> type = clz;
+        try {
+            // 不初始化类，只有声明类型的子类才使用
+            Class<?> remote = Class.forName(className, false, Thread.currentThread().getContextClassLoader());
+            if (clz.isAssignableFrom(remote)) {
+                type = remote;
+            }
+        } catch (ClassNotFoundException e) {
+            // 使用声明类型
+        }
+
+        try {
+            try {
+                Constructor<?> constructor = type.getConstructor(String.class);
+                return (Throwable) constructor.newInstance(message);
+            } catch (NoSuchMethodException e) {
+                return (Throwable) type.newInstance();
+            }
+        } catch (Exception e) {
+            throw new IOException("SimpleSerialization deserialize Error: can't create " + type.getName());
+        }
+    }
+
+    /**
+     * 按声明类型转换 array 和 map 的反序列化结果
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object convert(Object value, Class<?> clz) throws IOException {
+        if (value == null || clz == null || clz.isInstance(value) || clz.isPrimitive()) {
+            return value;
+        }
+
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            if (clz.isArray() && !clz.getComponentType().isPrimitive()) {
+                Object[] array = (Object[]) Array.newInstance(clz.getComponentType(), list.size());
+                return list.toArray(array);
+            }
+            if (clz.isAssignableFrom(HashSet.class)) {
+                return new HashSet<Object>(list);
+            }
+            if (Collection.class.isAssignableFrom(clz)) {
+                Collection collection = (Collection) newInstance(clz);
+                collection.addAll(list);
+                return collection;
+            }
+        } else if (value instanceof Map && Map.class.isAssignableFrom(clz)) {
+            Map map = (Map) newInstance(clz);
+            map.putAll((Map) value);
+            return map;
+        } else if (value instanceof String[] && clz.isAssignableFrom(ArrayList.class)) {
+            List<String> list = new ArrayList<String>();
+            for (String v : (String[]) value) {
+                list.add(v);
+            }
+            return list;
+        }
+        return value;
+    }
+
+    private static Object newInstance(Class<?> clz) throws IOException {
+        try {
+            return clz.newInstance();
+        } catch (Exception e) {
+            throw new IOException("SimpleSerialization deserialize Error: can't create " + clz.getName());
+        }
+    }
+
+    private static boolean containsNull(Object[] array) {
+        for (Object v : array) {
+            if (v == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int capacity(int size) {
+        return size < 3 ? size + 1 : (int) (size / 0.75f) + 1;
+    }
+
+    /**
+     * 读取元素个数，每个元素至少占用 elementSize 字节，防止错误数据导致分配过大的数组
+     */
+    private static int readLength(ByteBuffer in, int elementSize) throws IOException {
+        int length = readVarint(in);
+        if (length < 0 || (long) length * elementSize > in.remaining()) {
+            throw new IOException("SimpleSerialization deserialize Error: bad length " + length + ", remaining "
+                    + in.remaining());
+        }
+        return length;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = readLength(in, 1);
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("SimpleSerialization deserialize Error: malformed varint");
+    }
+
+    private static long readVarLong(ByteBuffer in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("SimpleSerialization deserialize Error: malformed varint");
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class SimpleOutput {
+        private byte[] buf;
+        private int pos = 0;
+        private boolean inUse = false;
+
+        private SimpleOutput(int size) {
+            buf = new byte[size];
+        }
+
+        private void ensure(int size) {
+            if (pos + size > buf.length) {
+                byte[] newBuf = new byte[Math.max(buf.length << 1, pos + size)];
+                System.arraycopy(buf, 0, newBuf, 0, pos);
+                buf = newBuf;
+            }
+        }
+
+        private void write(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        private void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buf, pos, len);
+            pos += len;
+        }
+
+        private void writeInt(int value) {
+            ensure(4);
+            buf[pos++] = (byte) (value >>> 24);
+            buf[pos++] = (byte) (value >>> 16);
+            buf[pos++] = (byte) (value >>> 8);
+            buf[pos++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        private void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        /**
+         * 直接编码 utf-8 到 buffer，不产生中间数组
+         */
+        private void writeString(String value) {
+            int length = value.length();
+            int utf8Length = utf8Length(value);
+            writeVarint(utf8Length);
+            ensure(utf8Length);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xC0 | (c >> 6));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (isSurrogate(c)) {
+                    // 不成对的 surrogate 与 String.getBytes 一致替换为 '?'
+                    buf[pos++] = (byte) '?';
+                } else {
+                    buf[pos++] = (byte) (0xE0 | (c >> 12));
+                    buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private static int utf8Length(String value) {
+            int length = value.length();
+            int result = length;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    if (c < 0x800) {
+                        result += 1;
+                    } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        // surrogate pair 共 4 字节，两个 char 已计入 2
+                        result += 2;
+                        i++;
+                    } else if (!isSurrogate(c)) {
+                        result += 2;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private static boolean isSurrogate(char c) {
+            return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+        }
+
+        private byte[] toByteArray() {
+            byte[] result = new byte[pos];
+            System.arraycopy(buf, 0, result, 0, pos);
+            return result;
+        }
+    }
+}
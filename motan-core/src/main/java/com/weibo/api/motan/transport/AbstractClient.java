@@ -17,12 +17,17 @@
 package com.weibo.api.motan.transport;
 
 import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.weibo.api.motan.codec.Codec;
+import com.weibo.api.motan.codec.StatefulCodec;
 import com.weibo.api.motan.common.ChannelState;
 import com.weibo.api.motan.common.URLParamType;
 import com.weibo.api.motan.core.extension.ExtensionLoader;
 import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.rpc.AvailableListener;
+import com.weibo.api.motan.rpc.AvailableNotifier;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.URL;
 import com.weibo.api.motan.util.LoggerUtil;
@@ -33,7 +38,7 @@ import com.weibo.api.motan.util.MotanFrameworkUtil;
  * @version 创建时间：2013-5-21
  * 
  */
-public abstract class AbstractClient implements Client {
+public abstract class AbstractClient implements Client, AvailableNotifier {
 
     protected InetSocketAddress localAddress;
     protected InetSocketAddress remoteAddress;
@@ -43,6 +48,8 @@ public abstract class AbstractClient implements Client {
 
     protected volatile ChannelState state = ChannelState.UNINIT;
 
+    private final List<AvailableListener> availableListeners = new CopyOnWriteArrayList<AvailableListener>();
+
     public AbstractClient(URL url) {
         this.url = url;
         this.codec =
@@ -73,4 +80,43 @@ public abstract class AbstractClient implements Client {
     public void setRemoteAddress(InetSocketAddress remoteAddress) {
         this.remoteAddress = remoteAddress;
     }
+
+    @Override
+    public boolean addAvailableListener(AvailableListener listener) {
+        availableListeners.add(listener);
+        return true;
+    }
+
+    @Override
+    public void removeAvailableListener(AvailableListener listener) {
+        availableListeners.remove(listener);
+    }
+
+    /**
+     * 修改状态，可用状态发生变化时通知 {@link AvailableListener}
+     */
+    protected void setState(ChannelState newState) {
+        boolean available = state.isAliveState();
+        state = newState;
+
+        if (available != newState.isAliveState()) {
+            for (AvailableListener listener : availableListeners) {
+                try {
+                    listener.onAvailableChanged(!available);
+                } catch (Exception e) {
+                    LoggerUtil.error("AbstractClient notify available listener Error: url=" + url.getUri(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 新建物理连接使用的 codec：{@link StatefulCodec} 每个连接一个实例，其他 codec 在连接间共享
+     */
+    protected Codec getConnectionCodec() {
+        if (codec instanceof StatefulCodec) {
+            return ((StatefulCodec) codec).newConnectionCodec();
+        }
+        return codec;
+    }
 }
@@ -19,12 +19,19 @@ package com.weibo.api.motan.transport;
 import com.weibo.api.motan.common.URLParamType;
 import com.weibo.api.motan.exception.MotanServiceException;
 import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.transport.support.MultiplexChannelGroup;
 import com.weibo.api.motan.util.LoggerUtil;
 import org.apache.commons.pool.BasePoolableObjectFactory;
 import org.apache.commons.pool.PoolableObjectFactory;
 import org.apache.commons.pool.impl.GenericObjectPool;
 
 /**
+ * <pre>
+ * 		连接管理：
+ * 			1） 默认使用 commons-pool 对象池，每次调用 borrow/return
+ * 			2） multiplexChannel=true 时使用 {@link MultiplexChannelGroup}，固定数量的 channel 被所有请求无锁共享
+ * </pre>
+ *
  * @author maijunsheng
  * @version 创建时间：2013-6-14
  */
@@ -35,12 +42,20 @@ public abstract class AbstractPoolClient extends AbstractClient {
     protected GenericObjectPool pool;
     protected GenericObjectPool.Config poolConfig;
     protected PoolableObjectFactory factory;
+    protected MultiplexChannelGroup channelGroup;
 
     public AbstractPoolClient(URL url) {
         super(url);
     }
 
     protected void initPool() {
+        boolean multiplex = url.getBooleanParameter(URLParamType.multiplexChannel.getName(),
+                URLParamType.multiplexChannel.getBooleanValue());
+        if (multiplex) {
+            initChannelGroup();
+            return;
+        }
+
         poolConfig = new GenericObjectPool.Config();
         poolConfig.minIdle =
                 url.getIntParameter(URLParamType.minClientConnection.getName(), URLParamType.minClientConnection.getIntValue());
@@ -69,10 +84,21 @@ public abstract class AbstractPoolClient extends AbstractClient {
         }
     }
 
+    private void initChannelGroup() {
+        int size = url.getIntParameter(URLParamType.minClientConnection.getName(),
+                URLParamType.minClientConnection.getIntValue());
+        factory = createChannelFactory();
+
+        channelGroup = new MultiplexChannelGroup(this.getClass().getSimpleName() + "_" + url.getHost() + "_"
+                + url.getPort(), factory, size);
+        channelGroup.init(url.getBooleanParameter(URLParamType.lazyInit.getName(),
+                URLParamType.lazyInit.getBooleanValue()));
+    }
+
     protected abstract BasePoolableObjectFactory createChannelFactory();
 
     protected Channel borrowObject() throws Exception {
-        Channel nettyChannel = (Channel) pool.borrowObject();
+        Channel nettyChannel = channelGroup != null ? channelGroup.getChannel() : (Channel) pool.borrowObject();
 
         if (nettyChannel != null && nettyChannel.isAvailable()) {
             return nettyChannel;
@@ -90,14 +116,22 @@ public abstract class AbstractPoolClient extends AbstractClient {
             return;
         }
         try {
-            pool.invalidateObject(nettyChannel);
+            if (channelGroup != null) {
+                // 共享的 channel 只在不可用时移除，避免单个请求的异常影响同一 channel 上的其他请求
+                if (!nettyChannel.isAvailable()) {
+                    channelGroup.invalidate(nettyChannel);
+                }
+            } else {
+                pool.invalidateObject(nettyChannel);
+            }
         } catch (Exception ie) {
             LoggerUtil.error(this.getClass().getSimpleName() + " invalidate client Error: url=" + url.getUri(), ie);
         }
     }
 
     protected void returnObject(Channel channel) {
-        if (channel == null) {
+        // 多路复用的 channel 不需要归还
+        if (channel == null || channelGroup != null) {
             return;
         }
 
@@ -108,4 +142,12 @@ public abstract class AbstractPoolClient extends AbstractClient {
         }
     }
 
+    protected void closePool() throws Exception {
+        if (channelGroup != null) {
+            channelGroup.close();
+        } else {
+            pool.close();
+        }
+    }
+
 }
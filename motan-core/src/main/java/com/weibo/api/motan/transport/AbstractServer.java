@@ -20,6 +20,7 @@ import java.net.InetSocketAddress;
 import java.util.Collection;
 
 import com.weibo.api.motan.codec.Codec;
+import com.weibo.api.motan.codec.StatefulCodec;
 import com.weibo.api.motan.common.ChannelState;
 import com.weibo.api.motan.common.URLParamType;
 import com.weibo.api.motan.core.extension.ExtensionLoader;
@@ -40,6 +41,9 @@ public abstract class AbstractServer implements Server {
 
     protected volatile ChannelState state = ChannelState.UNINIT;
 
+    // 处理该 server 请求的 message router，transport 和 codec 从中获取方法 id 表和独立线程池，server 关闭时解除
+    protected volatile ProviderMessageRouter providerRouter;
+
 
     public AbstractServer() {}
 
@@ -86,4 +90,25 @@ public abstract class AbstractServer implements Server {
         this.codec = codec;
     }
 
+    /**
+     * 没有关联或 server 已关闭时返回 null
+     */
+    public ProviderMessageRouter getProviderRouter() {
+        return providerRouter;
+    }
+
+    public void setProviderRouter(ProviderMessageRouter providerRouter) {
+        this.providerRouter = providerRouter;
+    }
+
+    /**
+     * 新建物理连接使用的 codec：{@link StatefulCodec} 每个连接一个实例，其他 codec 在连接间共享
+     */
+    protected Codec getConnectionCodec() {
+        if (codec instanceof StatefulCodec) {
+            return ((StatefulCodec) codec).newConnectionCodec();
+        }
+        return codec;
+    }
+
 }
@@ -26,8 +26,11 @@ import com.weibo.api.motan.exception.MotanBizException;
 import com.weibo.api.motan.exception.MotanFrameworkException;
 import com.weibo.api.motan.exception.MotanServiceException;
 import com.weibo.api.motan.protocol.rpc.CompressRpcCodec;
+import com.weibo.api.motan.rpc.DefaultRequest;
 import com.weibo.api.motan.rpc.DefaultResponse;
 import com.weibo.api.motan.rpc.Provider;
+import com.weibo.api.motan.rpc.ProviderBulkheadTable;
+import com.weibo.api.motan.rpc.ProviderMethodTable;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
 import com.weibo.api.motan.util.LoggerUtil;
@@ -54,6 +57,12 @@ public class ProviderMessageRouter implements MessageHandler {
     // 有10个public method，那么就是15
     protected AtomicInteger methodCounter = new AtomicInteger(0);
 
+    // 暴露方法的整数 id 表，codec 解析出 method id 后按数组下标分发
+    protected ProviderMethodTable methodTable = new ProviderMethodTable();
+
+    // service 或方法独立的线程池，transport 按方法查找
+    protected ProviderBulkheadTable bulkheadTable = new ProviderBulkheadTable();
+
     public ProviderMessageRouter() {}
 
     public ProviderMessageRouter(Provider<?> provider) {
@@ -72,11 +81,17 @@ public class ProviderMessageRouter implements MessageHandler {
 
         Request request = (Request) message;
 
-        String serviceKey = MotanFrameworkUtil.getServiceKey(request);
+        Provider<?> provider = null;
+        if (request instanceof DefaultRequest && ((DefaultRequest) request).getMethodId() != ProviderMethodTable.NO_METHOD_ID) {
+            provider = methodTable.getProvider(((DefaultRequest) request).getMethodId());
+        }
 
-        Provider<?> provider = providers.get(serviceKey);
+        if (provider == null) {
+            provider = providers.get(MotanFrameworkUtil.getServiceKey(request));
+        }
 
         if (provider == null) {
+            String serviceKey = MotanFrameworkUtil.getServiceKey(request);
             LoggerUtil.error(this.getClass().getSimpleName() + " handler Error: provider not exist serviceKey=" + serviceKey + " "
                     + MotanFrameworkUtil.toString(request));
             MotanServiceException exception =
@@ -108,6 +123,8 @@ public class ProviderMessageRouter implements MessageHandler {
         }
 
         providers.put(serviceKey, provider);
+        methodTable.addProvider(provider);
+        bulkheadTable.addProvider(provider);
 
         // 获取该service暴露的方法数：
         List<Method> methods = ReflectUtil.getPublicMethod(provider.getInterface());
@@ -123,6 +140,8 @@ public class ProviderMessageRouter implements MessageHandler {
         String serviceKey = MotanFrameworkUtil.getServiceKey(provider.getUrl());
 
         providers.remove(serviceKey);
+        methodTable.removeProvider(provider);
+        bulkheadTable.removeProvider(provider);
         List<Method> methods = ReflectUtil.getPublicMethod(provider.getInterface());
         int publicMethodCount = methods.size();
         methodCounter.getAndSet(methodCounter.get() - publicMethodCount);
@@ -133,4 +152,12 @@ public class ProviderMessageRouter implements MessageHandler {
     public int getPublicMethodCount() {
         return methodCounter.get();
     }
+
+    public ProviderMethodTable getMethodTable() {
+        return methodTable;
+    }
+
+    public ProviderBulkheadTable getBulkheadTable() {
+        return bulkheadTable;
+    }
 }
@@ -25,6 +25,7 @@ import com.weibo.api.motan.exception.MotanErrorMsgConstant;
 import com.weibo.api.motan.exception.MotanServiceException;
 import com.weibo.api.motan.rpc.DefaultResponse;
 import com.weibo.api.motan.rpc.Provider;
+import com.weibo.api.motan.rpc.ProviderMethodTable.MethodEntry;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
 import com.weibo.api.motan.util.LoggerUtil;
@@ -42,6 +43,7 @@ import com.weibo.api.motan.util.MotanFrameworkUtil;
  * 		2) 如果接口有多个方法，那么如果单个method超过 maxThread / 2 && totalCount >  (maxThread * 3 / 4)，那么return false;
  * 		3) 如果接口有多个方法(4个)，同时总的请求数超过 maxThread * 3 / 4，同时该method的请求数超过 maxThead * 1 / 4， 那么return false
  * 		4) 其他场景return true
+ * 		5) 配置了独立线程池（bulkheadThread）的 service 或方法不占用 server 的线程池，不参与计数，并发由独立线程池限制
  * 
  * </pre>
  * 
@@ -65,6 +67,13 @@ public class ProviderProtectedMessageRouter extends ProviderMessageRouter {
 
     @Override
     protected Response call(Request request, Provider<?> provider) {
+        if (bulkheadTable.hasBulkhead()) {
+            MethodEntry method = methodTable.getMethod(request);
+            if (method != null && bulkheadTable.getBulkhead(method.getKey()) != null) {
+                return super.call(request, provider);
+            }
+        }
+
         // 支持的最大worker thread数
         int maxThread =
                 provider.getUrl().getIntParameter(URLParamType.maxWorkerThread.getName(), URLParamType.maxWorkerThread.getIntValue());
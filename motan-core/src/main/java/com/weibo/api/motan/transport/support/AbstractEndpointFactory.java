@@ -29,12 +29,14 @@ import com.weibo.api.motan.core.extension.ExtensionLoader;
 import com.weibo.api.motan.exception.MotanErrorMsgConstant;
 import com.weibo.api.motan.exception.MotanFrameworkException;
 import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.transport.AbstractServer;
 import com.weibo.api.motan.transport.Client;
 import com.weibo.api.motan.transport.Endpoint;
 import com.weibo.api.motan.transport.EndpointFactory;
 import com.weibo.api.motan.transport.EndpointManager;
 import com.weibo.api.motan.transport.HeartbeatFactory;
 import com.weibo.api.motan.transport.MessageHandler;
+import com.weibo.api.motan.transport.ProviderMessageRouter;
 import com.weibo.api.motan.transport.Server;
 import com.weibo.api.motan.util.LoggerUtil;
 import com.weibo.api.motan.util.MotanFrameworkUtil;
@@ -84,6 +86,8 @@ public abstract class AbstractEndpointFactory implements EndpointFactory {
     @Override
     public Server createServer(URL url, MessageHandler messageHandler) {
         HeartbeatFactory heartbeatFactory = getHeartbeatFactory(url);
+        // wrap 之后 server 无法从 messageHandler 获取 router，创建 server 时关联
+        ProviderMessageRouter router = messageHandler instanceof ProviderMessageRouter ? (ProviderMessageRouter) messageHandler : null;
         messageHandler = heartbeatFactory.wrapMessageHandler(messageHandler);
 
         synchronized (ipPort2ServerShareChannel) {
@@ -97,7 +101,7 @@ public abstract class AbstractEndpointFactory implements EndpointFactory {
                 LoggerUtil.info(this.getClass().getSimpleName() + " create no_share_channel server: url={}", url);
 
                 // 如果端口已经被使用了，使用该server bind 会有异常
-                return innerCreateServer(url, messageHandler);
+                return bindProviderRouter(innerCreateServer(url, messageHandler), router);
             }
 
             LoggerUtil.info(this.getClass().getSimpleName() + " create share_channel server: url={}", url);
@@ -120,7 +124,7 @@ public abstract class AbstractEndpointFactory implements EndpointFactory {
             url = url.createCopy();
             url.setPath(""); // 共享server端口，由于有多个interfaces存在，所以把path设置为空
 
-            server = innerCreateServer(url, messageHandler);
+            server = bindProviderRouter(innerCreateServer(url, messageHandler), router);
 
             ipPort2ServerShareChannel.put(ipPort, server);
             saveEndpoint2Urls(server2UrlsShareChannel, server, protocolKey);
@@ -174,6 +178,13 @@ public abstract class AbstractEndpointFactory implements EndpointFactory {
         }
     }
 
+    private Server bindProviderRouter(Server server, ProviderMessageRouter router) {
+        if (router != null && server instanceof AbstractServer) {
+            ((AbstractServer) server).setProviderRouter(router);
+        }
+        return server;
+    }
+
     private <T> void saveEndpoint2Urls(ConcurrentMap<T, Set<String>> map, T endpoint, String namespace) {
         Set<String> sets = map.get(endpoint);
 
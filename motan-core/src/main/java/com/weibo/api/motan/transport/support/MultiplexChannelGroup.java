@@ -0,0 +1,233 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.support;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.pool.PoolableObjectFactory;
+
+import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.core.DefaultThreadFactory;
+import com.weibo.api.motan.transport.Channel;
+import com.weibo.api.motan.util.LoggerUtil;
+
+/**
+ * 多路复用的 channel 组
+ *
+ * <pre>
+ * 		response 已经通过 requestId 与 request 对应，同一个 channel 可以同时承载多个请求，因此不需要像对象池一样
+ * 		在每次调用前后 borrow/return：
+ * 			1） 固定大小的 channel 数组，请求时 round-robin 无锁选择一个可用的 channel
+ * 			2） 不可用的 channel 由后台线程池重建，请求线程不会等待建连
+ * 			3） 没有可用 channel 时直接失败，不会像对象池一样等待 maxWait 后表现为超时
+ * 			4） 建连失败后按组指数退避，服务端不可用时不会反复阻塞重连线程
+ * </pre>
+ */
+public class MultiplexChannelGroup {
+    // 所有 channel 组共享的定时检查线程，只负责提交重连任务，不做阻塞的建连
+    private static ScheduledExecutorService checkExecutor = Executors.newScheduledThreadPool(1,
+            new DefaultThreadFactory("motanChannelGroupCheck", true));
+    // 所有 channel 组共享的重连线程池，每个组同一时刻最多只有一个重连任务
+    private static ThreadPoolExecutor reconnectExecutor = new ThreadPoolExecutor(
+            MotanConstants.MULTIPLEX_CHANNEL_RECONNECT_THREADS, MotanConstants.MULTIPLEX_CHANNEL_RECONNECT_THREADS, 60L,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DefaultThreadFactory("motanChannelGroupReconnect",
+                    true));
+
+    static {
+        reconnectExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final String name;
+    private final PoolableObjectFactory factory;
+    private final AtomicReferenceArray<Channel> channels;
+    private final AtomicInteger index = new AtomicInteger(0);
+    // 避免重复提交重连任务
+    private final AtomicBoolean reconnecting = new AtomicBoolean(false);
+    // 连续建连失败次数及退避结束时间，退避期间不提交重连任务
+    private volatile int failCount = 0;
+    private volatile long nextReconnectTime = 0;
+    private ScheduledFuture<?> checkFuture;
+    private volatile boolean closed = false;
+
+    public MultiplexChannelGroup(String name, PoolableObjectFactory factory, int size) {
+        this.name = name;
+        this.factory = factory;
+        this.channels = new AtomicReferenceArray<Channel>(size > 0 ? size : 1);
+    }
+
+    /**
+     * @param lazyInit 为 true 时不在初始化时建连，由后台线程异步建立
+     */
+    public void init(boolean lazyInit) {
+        if (lazyInit) {
+            scheduleReconnect();
+        } else {
+            reconnect();
+        }
+
+        checkFuture = checkExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                scheduleReconnect();
+            }
+        }, MotanConstants.MULTIPLEX_CHANNEL_CHECK_PERIOD, MotanConstants.MULTIPLEX_CHANNEL_CHECK_PERIOD,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * round-robin 选择一个可用的 channel，没有可用 channel 时返回 null 并触发后台重连
+     */
+    public Channel getChannel() {
+        int size = channels.length();
+        int start = index.getAndIncrement() & Integer.MAX_VALUE;
+
+        for (int i = 0; i < size; i++) {
+            Channel channel = channels.get((start + i) % size);
+            if (channel != null && channel.isAvailable()) {
+                return channel;
+            }
+        }
+
+        scheduleReconnect();
+        return null;
+    }
+
+    /**
+     * 将 channel 移出组并关闭，空出的位置由后台线程重建
+     */
+    public void invalidate(Channel channel) {
+        if (channel == null) {
+            return;
+        }
+
+        for (int i = 0; i < channels.length(); i++) {
+            if (channels.compareAndSet(i, channel, null)) {
+                destroy(channel);
+                break;
+            }
+        }
+
+        scheduleReconnect();
+    }
+
+    public void close() {
+        closed = true;
+
+        if (checkFuture != null) {
+            checkFuture.cancel(false);
+        }
+
+        for (int i = 0; i < channels.length(); i++) {
+            destroy(channels.getAndSet(i, null));
+        }
+    }
+
+    public int size() {
+        return channels.length();
+    }
+
+    /**
+     * 当前可用的 channel 数
+     */
+    public int getAvailableCount() {
+        int count = 0;
+        for (int i = 0; i < channels.length(); i++) {
+            Channel channel = channels.get(i);
+            if (channel != null && channel.isAvailable()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void scheduleReconnect() {
+        if (closed || System.currentTimeMillis() < nextReconnectTime || !reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            reconnectExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        reconnect();
+                    } finally {
+                        reconnecting.set(false);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            reconnecting.set(false);
+            LoggerUtil.error(name + " schedule reconnect Error", e);
+        }
+    }
+
+    private synchronized void reconnect() {
+        for (int i = 0; i < channels.length() && !closed; i++) {
+            Channel channel = channels.get(i);
+            if (channel != null && channel.isAvailable()) {
+                continue;
+            }
+
+            Channel newChannel;
+            try {
+                newChannel = (Channel) factory.makeObject();
+            } catch (Exception e) {
+                LoggerUtil.error(name + " create connect Error: index=" + i, e);
+                // 服务端不可用时不再继续尝试其他位置，退避后再重试
+                backoff();
+                return;
+            }
+            failCount = 0;
+            nextReconnectTime = 0;
+
+            if (!closed && channels.compareAndSet(i, channel, newChannel)) {
+                destroy(channel);
+            } else {
+                destroy(newChannel);
+            }
+        }
+    }
+
+    private void backoff() {
+        int shift = Math.min(failCount++, 5);
+        long delay = Math.min((long) MotanConstants.MULTIPLEX_CHANNEL_CHECK_PERIOD << shift,
+                MotanConstants.MULTIPLEX_CHANNEL_MAX_RECONNECT_BACKOFF);
+        nextReconnectTime = System.currentTimeMillis() + delay;
+    }
+
+    private void destroy(Channel channel) {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            factory.destroyObject(channel);
+        } catch (Exception e) {
+            LoggerUtil.error(name + " destroy channel Error", e);
+        }
+    }
+
+}
@@ -14,17 +14,24 @@
  *    limitations under the License.
  */
 
-package com.weibo.api.motan.transport.netty;
+package com.weibo.api.motan.transport.support;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.weibo.api.motan.common.FutureState;
+import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.core.DefaultThreadFactory;
+import com.weibo.api.motan.core.HashedWheelTimer;
 import com.weibo.api.motan.exception.MotanErrorMsgConstant;
 import com.weibo.api.motan.exception.MotanServiceException;
 import com.weibo.api.motan.protocol.rpc.RpcProtocolVersion;
+import com.weibo.api.motan.rpc.DeferredResponse;
 import com.weibo.api.motan.rpc.FutureListener;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
@@ -51,6 +58,13 @@ import com.weibo.api.motan.util.MotanFrameworkUtil;
  * 			if (task is done and get exception):
  * 				return exception
  * 
+ * 		3） 超时：由所有 client 共享的时间轮为每个 future 单独注册超时任务，future 完成时取消；
+ * 			到期的超时任务（cancel future、通知 listener）在单独的线程池中执行，不占用时间轮线程
+ * 
+ * 		4） lazyDeserialize：IO 线程只完成 future，返回值在第一次 getValue() 的调用线程中反序列化；
+ * 			isSuccess()、getException() 只反映传输和远端异常，不触发反序列化（listener 在 IO 线程中调用），
+ * 			反序列化失败时异常在 getValue() 中抛出并记录到 future 上
+ * 
  * </pre>
  * 
  * @author maijunsheng
@@ -58,12 +72,26 @@ import com.weibo.api.motan.util.MotanFrameworkUtil;
  * 
  */
 public class NettyResponseFuture implements ResponseFuture {
+	private static final ThreadPoolExecutor timeoutExecutor = new ThreadPoolExecutor(
+			MotanConstants.NETTY_TIMEOUT_TASK_THREADS, MotanConstants.NETTY_TIMEOUT_TASK_THREADS, 60L, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(MotanConstants.NETTY_TIMEOUT_TASK_QUEUE_SIZE), new DefaultThreadFactory(
+					"motanResponseTimeoutTask", true));
+	private static final HashedWheelTimer timeoutTimer;
+
+	static {
+		timeoutExecutor.allowCoreThreadTimeOut(true);
+		timeoutTimer = new HashedWheelTimer("motanResponseTimeout", MotanConstants.NETTY_TIMEOUT_TIMER_TICK,
+				TimeUnit.MILLISECONDS, MotanConstants.NETTY_TIMEOUT_TIMER_WHEEL_SIZE, timeoutExecutor);
+	}
+
 	private volatile FutureState state = FutureState.DOING;
 
 	private Object lock = new Object();
 
 	private Object result = null;
-	private Exception exception = null;
+	// lazyDeserialize 时返回值在 getValue 的调用线程中反序列化
+	private volatile DeferredResponse deferredResponse = null;
+	private volatile Exception exception = null;
 
 	private long createTime = System.currentTimeMillis();
 	private int timeout = 0;
@@ -72,6 +100,7 @@ public class NettyResponseFuture implements ResponseFuture {
 	private Request request;
 	private List<FutureListener> listeners;
 	private Channel channel;
+	private volatile HashedWheelTimer.Timeout timeoutTask;
 
 	public NettyResponseFuture(Request requestObj, int timeout, Channel channel) {
 		this.request = requestObj;
@@ -80,7 +109,11 @@ public class NettyResponseFuture implements ResponseFuture {
 	}
 
 	public void onSuccess(Response response) {
-		this.result = response.getValue();
+		if (response instanceof DeferredResponse && !((DeferredResponse) response).isValueDecoded()) {
+			this.deferredResponse = (DeferredResponse) response;
+		} else {
+			this.result = response.getValue();
+		}
 		this.processTime = response.getProcessTime();
 
 		done();
@@ -154,7 +187,10 @@ public class NettyResponseFuture implements ResponseFuture {
 		return cancel(e);
 	}
 	
-	private boolean cancel(Exception e) {
+	/**
+	 * 以指定异常取消，如请求写入失败时由 channel 调用
+	 */
+	public boolean cancel(Exception e) {
 		synchronized (lock) {
 			if (!isDoing()) {
 				return false;
@@ -165,6 +201,7 @@ public class NettyResponseFuture implements ResponseFuture {
 			lock.notifyAll();
 		}
 
+		cancelTimeoutTask();
 		notifyListeners();
 		return true;
 	}
@@ -238,9 +275,38 @@ public class NettyResponseFuture implements ResponseFuture {
 			lock.notifyAll();
 		}
 
+		cancelTimeoutTask();
 		notifyListeners();
 	}
 
+	/**
+	 * 在共享的时间轮中注册超时任务，到期时执行 task（如从 client 中移除 callback 并 cancel）
+	 */
+	public void scheduleTimeout(Runnable task) {
+		if (timeout <= 0) {
+			return;
+		}
+
+		timeoutTask = timeoutTimer.newTimeout(task, timeout - (System.currentTimeMillis() - createTime),
+				TimeUnit.MILLISECONDS);
+
+		// 注册过程中已经完成的话，需要取消刚注册的任务
+		if (!isDoing()) {
+			cancelTimeoutTask();
+		}
+	}
+
+	private void cancelTimeoutTask() {
+		HashedWheelTimer.Timeout task = timeoutTask;
+		if (task != null) {
+			task.cancel();
+		}
+	}
+
+	public static HashedWheelTimer getTimeoutTimer() {
+		return timeoutTimer;
+	}
+
 	private void notifyListeners() {
 		if (listeners != null) {
 			for (FutureListener listener : listeners) {
@@ -271,6 +337,7 @@ public class NettyResponseFuture implements ResponseFuture {
 			lock.notifyAll();
 		}
 
+		cancelTimeoutTask();
 		notifyListeners();
 		return true;
 	}
@@ -280,6 +347,8 @@ public class NettyResponseFuture implements ResponseFuture {
 	}
 
 	private Object getValueOrThrowable() {
+		decodeDeferredValue();
+
 		if (exception != null) {
 			throw (exception instanceof RuntimeException) ? (RuntimeException) exception : new MotanServiceException(
 					exception.getMessage(), exception);
@@ -288,6 +357,28 @@ public class NettyResponseFuture implements ResponseFuture {
 		return result;
 	}
 
+	/**
+	 * 反序列化延迟的返回值，失败时把异常记录为 future 的异常
+	 */
+	private void decodeDeferredValue() {
+		if (deferredResponse == null) {
+			return;
+		}
+
+		synchronized (lock) {
+			DeferredResponse response = deferredResponse;
+			if (response == null) {
+				return;
+			}
+			try {
+				result = response.getValue();
+			} catch (RuntimeException e) {
+				exception = e;
+			}
+			deferredResponse = null;
+		}
+	}
+
 	@Override
 	public long getProcessTime() {
 		return processTime;
@@ -0,0 +1,174 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.support;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanServiceException;
+import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.DeferredRequest;
+import com.weibo.api.motan.rpc.ProviderBulkhead;
+import com.weibo.api.motan.rpc.ProviderBulkheadTable;
+import com.weibo.api.motan.rpc.ProviderMethodTable;
+import com.weibo.api.motan.rpc.ProviderMethodTable.MethodEntry;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.Response;
+import com.weibo.api.motan.rpc.RpcContext;
+import com.weibo.api.motan.transport.AbstractServer;
+import com.weibo.api.motan.transport.Channel;
+import com.weibo.api.motan.transport.MessageHandler;
+import com.weibo.api.motan.transport.ProviderMessageRouter;
+import com.weibo.api.motan.util.LoggerUtil;
+
+/**
+ * server 端 request 的分发，与 transport 的实现无关，由各 transport 的 channel handler 调用
+ *
+ * <pre>
+ * 		1） 配置了 inlineExecute 且平均耗时没有超过阈值的方法直接在 IO 线程中执行，并记录耗时
+ * 		2） 配置了独立线程池的 service 或方法在独立的线程池中执行，其他 request 在 server 的线程池中执行，避免 IO 线程被阻塞；
+ * 		   方法配置通过 server 关联的 {@link ProviderMessageRouter} 获取，没有关联时全部在 server 的线程池中执行
+ * 		3） decodeInWorker 时参数在业务线程中反序列化，被拒绝的请求不会产生反序列化开销
+ * 		4） 线程池满、参数反序列化失败、IO 线程中执行出现异常时构造异常 response 写回，异常不会抛到 IO 线程
+ * </pre>
+ */
+public class RequestDispatcher {
+    private Channel serverChannel;
+    private MessageHandler messageHandler;
+    private ThreadPoolExecutor threadPoolExecutor;
+
+    public RequestDispatcher(Channel serverChannel, MessageHandler messageHandler, ThreadPoolExecutor threadPoolExecutor) {
+        this.serverChannel = serverChannel;
+        this.messageHandler = messageHandler;
+        this.threadPoolExecutor = threadPoolExecutor;
+    }
+
+    public void dispatch(final Request request, final ResponseWriter writer) {
+        final long processStartTime = System.currentTimeMillis();
+
+        ProviderMessageRouter router =
+                serverChannel instanceof AbstractServer ? ((AbstractServer) serverChannel).getProviderRouter() : null;
+        MethodEntry method = router == null ? null : getMethod(router, request);
+        final MethodEntry inlineMethod = method != null && method.isInlineExecute() ? method : null;
+        if (inlineMethod != null && inlineMethod.isInline()) {
+            processInline(request, writer, processStartTime, inlineMethod);
+            return;
+        }
+
+        // 配置了独立线程池的 service 或方法不占用 server 的线程池
+        ProviderBulkhead bulkhead = method == null ? null : router.getBulkheadTable().getBulkhead(method.getKey());
+        ThreadPoolExecutor executor = bulkhead != null ? bulkhead.getExecutor() : threadPoolExecutor;
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        RpcContext.init(request);
+                        process(request, writer, processStartTime, inlineMethod);
+                    } finally {
+                        RpcContext.destroy();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException rejectException) {
+            writer.write(buildErrorResponse(request, new MotanServiceException("process thread pool is full, reject",
+                    MotanErrorMsgConstant.SERVICE_REJECT), processStartTime));
+
+            LoggerUtil.debug(
+                    "process thread pool is full, reject, active={} poolSize={} corePoolSize={} maxPoolSize={} taskCount={} requestId={}",
+                    executor.getActiveCount(), executor.getPoolSize(), executor.getCorePoolSize(), executor.getMaximumPoolSize(),
+                    executor.getTaskCount(), request.getRequestId());
+        }
+    }
+
+    /**
+     * 没有方法配置 inlineExecute 或独立线程池时不需要查找，直接返回 null；心跳不在方法表中，也返回 null
+     */
+    private MethodEntry getMethod(ProviderMessageRouter router, Request request) {
+        ProviderMethodTable table = router.getMethodTable();
+        ProviderBulkheadTable bulkheadTable = router.getBulkheadTable();
+        if (!table.hasInlineMethod() && !bulkheadTable.hasBulkhead()) {
+            return null;
+        }
+        return table.getMethod(request);
+    }
+
+    /**
+     * 耗时很短的方法直接在 IO 线程中执行，省去线程池的排队和线程切换；平均耗时超过阈值后回到线程池
+     */
+    private void processInline(Request request, ResponseWriter writer, long processStartTime, MethodEntry inlineMethod) {
+        try {
+            RpcContext.init(request);
+            process(request, writer, processStartTime, inlineMethod);
+        } catch (RuntimeException e) {
+            // 异常不能抛到 IO 线程，否则连接会被关闭
+            LoggerUtil.error("RequestDispatcher process inline request Error: requestId=" + request.getRequestId(), e);
+            writer.write(buildErrorResponse(request, e, processStartTime));
+        } finally {
+            RpcContext.destroy();
+        }
+    }
+
+    private void process(Request request, ResponseWriter writer, long processStartTime, MethodEntry inlineMethod) {
+        long startNanos = inlineMethod == null ? 0 : System.nanoTime();
+
+        if (request instanceof DeferredRequest) {
+            try {
+                ((DeferredRequest) request).decodeArguments();
+            } catch (RuntimeException e) {
+                LoggerUtil.error("RequestDispatcher decode request arguments Error: requestId=" + request.getRequestId(), e);
+                writer.write(buildErrorResponse(request, e, processStartTime));
+                return;
+            }
+        }
+
+        Object result = messageHandler.handle(serverChannel, request);
+        if (inlineMethod != null) {
+            inlineMethod.recordLatency(System.nanoTime() - startNanos);
+        }
+
+        DefaultResponse response = null;
+
+        if (!(result instanceof DefaultResponse)) {
+            response = new DefaultResponse(result);
+        } else {
+            response = (DefaultResponse) result;
+        }
+
+        response.setRequestId(request.getRequestId());
+        response.setProcessTime(System.currentTimeMillis() - processStartTime);
+
+        writer.write(response);
+    }
+
+    private DefaultResponse buildErrorResponse(Request request, Exception e, long processStartTime) {
+        DefaultResponse response = new DefaultResponse();
+        response.setRequestId(request.getRequestId());
+        response.setException(e);
+        response.setProcessTime(System.currentTimeMillis() - processStartTime);
+        return response;
+    }
+
+    /**
+     * transport 写出 response 的方式，连接已断开时由实现忽略
+     */
+    public interface ResponseWriter {
+        void write(Response response);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.util;
+
+import java.io.OutputStream;
+
+/**
+ * codec 直接写入 transport 提供的 buffer 时使用的输出流
+ * 
+ * <pre>
+ * 		1） position 从 0 开始，为 codec 开始写入之后已写入的字节数
+ * 		2） 支持对已写入的位置回填（例如 header 中的 body length），避免先把 body 写到临时数组再拼接
+ * 		3） 多字节数值均为 big-endian，与 {@link ByteUtil} 一致
+ * </pre>
+ */
+public abstract class BufferOutputStream extends OutputStream {
+
+    /**
+     * 已写入的字节数，即下一次写入的位置
+     */
+    public abstract int position();
+
+    /**
+     * 覆盖已写入的 1 个字节，不改变 position
+     */
+    public abstract void setByte(int position, int value);
+
+    /**
+     * 覆盖已写入的 4 个字节，不改变 position
+     */
+    public abstract void setInt(int position, int value);
+
+    public void writeShort(int value) {
+        write(value >>> 8);
+        write(value);
+    }
+
+    public void writeInt(int value) {
+        write(value >>> 24);
+        write(value >>> 16);
+        write(value >>> 8);
+        write(value);
+    }
+
+    public void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    @Override
+    public abstract void write(int b);
+
+    @Override
+    public abstract void write(byte[] b, int off, int len);
+}
@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.util;
+
+import java.util.Arrays;
+
+/**
+ * 基于可扩容 byte[] 的 {@link BufferOutputStream}，用于需要 byte[] 结果的场景
+ */
+public class ByteArrayBufferOutputStream extends BufferOutputStream {
+    private byte[] buf;
+    private int count;
+
+    public ByteArrayBufferOutputStream() {
+        this(256);
+    }
+
+    public ByteArrayBufferOutputStream(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Negative initial capacity: " + initialCapacity);
+        }
+        this.buf = new byte[initialCapacity];
+    }
+
+    @Override
+    public int position() {
+        return count;
+    }
+
+    @Override
+    public void setByte(int position, int value) {
+        checkIndex(position, 1);
+        buf[position] = (byte) value;
+    }
+
+    @Override
+    public void setInt(int position, int value) {
+        checkIndex(position, 4);
+        ByteUtil.int2bytes(value, buf, position);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    @Override
+    public void writeInt(int value) {
+        ensureCapacity(count + 4);
+        ByteUtil.int2bytes(value, buf, count);
+        count += 4;
+    }
+
+    @Override
+    public void writeLong(long value) {
+        ensureCapacity(count + 8);
+        ByteUtil.long2bytes(value, buf, count);
+        count += 8;
+    }
+
+    public void reset() {
+        count = 0;
+    }
+
+    public int capacity() {
+        return buf.length;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    private void checkIndex(int position, int length) {
+        if (position < 0 || position + length > count) {
+            throw new IndexOutOfBoundsException("position: " + position + ", length: " + length + ", count: " + count);
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, minCapacity));
+        }
+    }
+}
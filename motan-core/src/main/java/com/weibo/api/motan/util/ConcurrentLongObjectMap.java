@@ -0,0 +1,253 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * long 为 key 的并发 map
+ *
+ * <pre>
+ * 		用于 requestId 与 response future 的对应关系：
+ * 			1） key 不装箱，按 stripe 分段加锁，每个 stripe 内为开放寻址（线性探测）的数组，不产生 entry 对象
+ * 			2） size() 为 O(1)，由全局计数器维护，不需要像 ConcurrentHashMap 一样遍历 segment 求和
+ * 			3） value 不能为 null
+ * </pre>
+ */
+public class ConcurrentLongObjectMap<V> {
+    private static final int DEFAULT_EXPECTED_SIZE = 256;
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final int MIN_STRIPE_CAPACITY = 4;
+
+    private final Stripe<V>[] stripes;
+    private final int stripeShift;
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    public ConcurrentLongObjectMap() {
+        this(DEFAULT_EXPECTED_SIZE, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param expectedSize 预期的元素个数
+     * @param concurrencyLevel stripe 数，会调整为 2 的幂
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongObjectMap(int expectedSize, int concurrencyLevel) {
+        int stripeCount = 1;
+        int shift = 0;
+        while (stripeCount < concurrencyLevel) {
+            stripeCount <<= 1;
+            shift++;
+        }
+
+        int perStripe = MIN_STRIPE_CAPACITY;
+        // 负载因子 0.75
+        while (perStripe * 3 / 4 * stripeCount < expectedSize) {
+            perStripe <<= 1;
+        }
+
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe<V>(perStripe);
+        }
+        // 取 hash 的高位选择 stripe，低位用于 stripe 内的下标
+        this.stripeShift = 64 - shift;
+    }
+
+    public V get(long key) {
+        long hash = hash(key);
+        return stripeFor(hash).get(key, hash);
+    }
+
+    /**
+     * @return 之前的 value，不存在时为 null
+     */
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("ConcurrentLongObjectMap value is null");
+        }
+
+        long hash = hash(key);
+        V old = stripeFor(hash).put(key, hash, value);
+        if (old == null) {
+            size.incrementAndGet();
+        }
+        return old;
+    }
+
+    public V remove(long key) {
+        long hash = hash(key);
+        V old = stripeFor(hash).remove(key, hash);
+        if (old != null) {
+            size.decrementAndGet();
+        }
+        return old;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    public void clear() {
+        for (Stripe<V> stripe : stripes) {
+            size.addAndGet(-stripe.clear());
+        }
+    }
+
+    private Stripe<V> stripeFor(long hash) {
+        return stripeShift == 64 ? stripes[0] : stripes[(int) (hash >>> stripeShift)];
+    }
+
+    /**
+     * murmur3 fmix64，requestId 通常是连续递增的，需要打散
+     */
+    private static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static final class Stripe<V> {
+        private long[] keys;
+        // value 为 null 表示空位
+        private Object[] values;
+        private int count;
+
+        Stripe(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V get(long key, long hash) {
+            int mask = keys.length - 1;
+            for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+                Object value = values[i];
+                if (value == null) {
+                    return null;
+                }
+                if (keys[i] == key) {
+                    return (V) value;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V put(long key, long hash, V value) {
+            int mask = keys.length - 1;
+            int i = (int) hash & mask;
+            for (;; i = (i + 1) & mask) {
+                Object old = values[i];
+                if (old == null) {
+                    break;
+                }
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return (V) old;
+                }
+            }
+
+            keys[i] = key;
+            values[i] = value;
+            if (++count > keys.length * 3 / 4) {
+                rehash(keys.length << 1);
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V remove(long key, long hash) {
+            int mask = keys.length - 1;
+            int i = (int) hash & mask;
+            for (;; i = (i + 1) & mask) {
+                Object value = values[i];
+                if (value == null) {
+                    return null;
+                }
+                if (keys[i] == key) {
+                    shiftBackward(i);
+                    count--;
+                    return (V) value;
+                }
+            }
+        }
+
+        synchronized int clear() {
+            int removed = count;
+            keys = new long[keys.length];
+            values = new Object[values.length];
+            count = 0;
+            return removed;
+        }
+
+        /**
+         * 删除后把同一探测链上后面的元素前移，保证查找不需要墓碑标记
+         */
+        private void shiftBackward(int gap) {
+            int mask = keys.length - 1;
+            int i = gap;
+            for (;;) {
+                i = (i + 1) & mask;
+                Object value = values[i];
+                if (value == null) {
+                    break;
+                }
+
+                int ideal = (int) hash(keys[i]) & mask;
+                // ideal 不在 (gap, i] 区间内时，可以把元素移动到 gap
+                if (((i - ideal) & mask) >= ((i - gap) & mask)) {
+                    keys[gap] = keys[i];
+                    values[gap] = value;
+                    gap = i;
+                }
+            }
+            keys[gap] = 0;
+            values[gap] = null;
+        }
+
+        private void rehash(int newCapacity) {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[newCapacity];
+            values = new Object[newCapacity];
+
+            int mask = newCapacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] == null) {
+                    continue;
+                }
+                int i = (int) hash(oldKeys[j]) & mask;
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
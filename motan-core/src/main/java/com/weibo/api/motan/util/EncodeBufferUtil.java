@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.weibo.api.motan.rpc.ProviderMethodTable.MethodKey;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.Response;
+
+/**
+ * encode buffer 的大小预测与复用
+ *
+ * <pre>
+ * 		1） 按方法（request）或返回值类型（response 没有方法信息）记录 encode 后的大小，encode 前按预测值分配 buffer，避免多次扩容拷贝；
+ * 		   key 为 {@link MethodKey} 或 Class，不拼接字符串，每个消息只计算一次，并且只由持有完整数据包的一方记录一次大小
+ * 		2） 预测值遇到更大的数据时直接跟上，遇到更小的数据时按 1/8 指数衰减
+ * 		3） 需要 byte[] 结果的 encode 使用线程内复用的 buffer，只在最后拷贝一次
+ * </pre>
+ */
+public class EncodeBufferUtil {
+    public static final int MIN_BUFFER_SIZE = 256;
+    // 预测值上限，超过时按上限分配后扩容
+    public static final int MAX_PREDICT_SIZE = 4 * 1024 * 1024;
+    // 线程内缓存的 buffer 上限，超过时不缓存，避免长期占用大块内存
+    private static final int MAX_CACHED_BUFFER_SIZE = 1024 * 1024;
+    // 统计的 key 数量上限，超过后新的 key 使用默认大小
+    private static final int MAX_KEY_SIZE = 4096;
+    private static final int DECAY_SHIFT = 3;
+
+    private static final ConcurrentHashMap<Object, AtomicInteger> sizes = new ConcurrentHashMap<Object, AtomicInteger>();
+
+    private static final ThreadLocal<ByteArrayBufferOutputStream> cachedBuffer = new ThreadLocal<ByteArrayBufferOutputStream>();
+
+    /**
+     * request 使用方法签名，response 使用返回值或异常的类型
+     *
+     * @return 无法统计时返回 null
+     */
+    public static Object getSizeKey(Object message) {
+        if (message instanceof Request) {
+            return MethodKey.of((Request) message);
+        } else if (message instanceof Response) {
+            Response response = (Response) message;
+            if (response.getException() != null) {
+                return response.getException().getClass();
+            } else if (response.getValue() != null) {
+                return response.getValue().getClass();
+            }
+        }
+        return null;
+    }
+
+    public static int predictSize(Object key) {
+        AtomicInteger size = key == null ? null : sizes.get(key);
+        if (size == null) {
+            return MIN_BUFFER_SIZE;
+        }
+        // 预留 1/8 的余量
+        int predict = Math.min(size.get(), MAX_PREDICT_SIZE);
+        return Math.min(Math.max(predict + (predict >>> DECAY_SHIFT), MIN_BUFFER_SIZE), MAX_PREDICT_SIZE);
+    }
+
+    public static void recordSize(Object key, int encodedSize) {
+        if (key == null) {
+            return;
+        }
+
+        AtomicInteger size = sizes.get(key);
+        if (size == null) {
+            if (sizes.size() >= MAX_KEY_SIZE) {
+                return;
+            }
+            AtomicInteger newSize = new AtomicInteger(encodedSize);
+            size = sizes.putIfAbsent(key, newSize);
+            if (size == null) {
+                return;
+            }
+        }
+
+        for (;;) {
+            int current = size.get();
+            int next = encodedSize >= current ? encodedSize : current - ((current - encodedSize) >>> DECAY_SHIFT);
+            if (next == current || size.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 获取线程内复用的 buffer，使用完后需要调用 {@link #release(ByteArrayBufferOutputStream)}；嵌套使用时分配新的 buffer
+     */
+    public static ByteArrayBufferOutputStream acquire(int capacity) {
+        ByteArrayBufferOutputStream out = cachedBuffer.get();
+        if (out == null || out.capacity() < capacity) {
+            return new ByteArrayBufferOutputStream(capacity);
+        }
+        cachedBuffer.remove();
+        out.reset();
+        return out;
+    }
+
+    public static void release(ByteArrayBufferOutputStream out) {
+        if (out.capacity() > MAX_CACHED_BUFFER_SIZE) {
+            return;
+        }
+        ByteArrayBufferOutputStream cached = cachedBuffer.get();
+        if (cached == null || cached.capacity() < out.capacity()) {
+            cachedBuffer.set(out);
+        }
+    }
+
+}
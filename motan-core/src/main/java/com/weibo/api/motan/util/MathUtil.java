@@ -22,6 +22,7 @@ package com.weibo.api.motan.util;
  */
 
 public class MathUtil {
+    private static final long MURMUR_SEED = 0x1234ABCDL;
 
     public static int parseInt(String intStr, int defaultValue) {
         try {
@@ -40,4 +41,44 @@ public class MathUtil {
     public static int getPositive(int originValue){
         return 0x7fffffff & originValue;
     }
+
+    /**
+     * MurmurHash64A，结果只与输入的字节有关，不同 JVM 间一致
+     * 
+     * @param data
+     * @return 64 位 hash
+     */
+    public static long murmurHash64(byte[] data) {
+        final long m = 0xc6a4a7935bd1e995L;
+        final int r = 47;
+        final int length = data.length;
+
+        long h = MURMUR_SEED ^ (length * m);
+
+        int blockLength = length & ~7;
+        for (int i = 0; i < blockLength; i += 8) {
+            long k = (data[i] & 0xffL) | (data[i + 1] & 0xffL) << 8 | (data[i + 2] & 0xffL) << 16 | (data[i + 3] & 0xffL) << 24
+                    | (data[i + 4] & 0xffL) << 32 | (data[i + 5] & 0xffL) << 40 | (data[i + 6] & 0xffL) << 48
+                    | (data[i + 7] & 0xffL) << 56;
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+
+            h ^= k;
+            h *= m;
+        }
+
+        int remaining = length - blockLength;
+        if (remaining > 0) {
+            for (int i = remaining - 1; i >= 0; i--) {
+                h ^= (data[blockLength + i] & 0xffL) << (i * 8);
+            }
+            h *= m;
+        }
+
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+        return h;
+    }
 }
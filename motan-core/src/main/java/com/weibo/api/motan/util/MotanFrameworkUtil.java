@@ -133,6 +133,7 @@ public class MotanFrameworkUtil {
 	 * 		6） maxWorkerThread
 	 * 		7） workerQueueSize
 	 * 		8） heartbeatFactory
+	 * 		9） decodeInWorker
 	 * </pre>
      * 
      * @param source
@@ -173,6 +174,11 @@ public class MotanFrameworkUtil {
             return false;
         }
 
+        if (!StringUtils.equals(source.getParameter(URLParamType.decodeInWorker.getName()),
+                target.getParameter(URLParamType.decodeInWorker.getName()))) {
+            return false;
+        }
+
         return StringUtils.equals(source.getParameter(URLParamType.heartbeatFactory.getName()),
                 target.getParameter(URLParamType.heartbeatFactory.getName()));
 
@@ -188,6 +194,7 @@ public class MotanFrameworkUtil {
 	 * 		4） maxContentLength
 	 * 		5） maxClientConnection
 	 * 		6） heartbeatFactory
+	 * 		7） lazyDeserialize
 	 * </pre>
      * 
      * @param source
@@ -218,6 +225,11 @@ public class MotanFrameworkUtil {
             return false;
         }
 
+        if (!StringUtils.equals(source.getParameter(URLParamType.lazyDeserialize.getName()),
+                target.getParameter(URLParamType.lazyDeserialize.getName()))) {
+            return false;
+        }
+
         return StringUtils.equals(source.getParameter(URLParamType.heartbeatFactory.getName()),
                 target.getParameter(URLParamType.heartbeatFactory.getName()));
 
@@ -22,6 +22,8 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -116,6 +118,26 @@ public class ReflectUtil {
         return classTypes;
     }
 
+    /**
+     * 参数个数，与 {@link #forNames(String)} 返回的数组长度一致，不需要加载类
+     * 
+     * @param classList
+     * @return
+     */
+    public static int getParamCount(String classList) {
+        if (classList == null || "".equals(classList) || EMPTY_PARAM.equals(classList)) {
+            return 0;
+        }
+
+        int count = 1;
+        for (int i = 0; i < classList.length(); i++) {
+            if (classList.charAt(i) == ',') {
+                count++;
+            }
+        }
+        return count;
+    }
+
     public static Class<?> forName(String className) throws ClassNotFoundException {
         if (null == className || "".equals(className)) {
             return null;
@@ -241,6 +263,23 @@ public class ReflectUtil {
         return ret;
     }
 
+    /**
+     * 按 method desc 排序的 public method，顺序与 {@link Class#getMethods()} 的返回顺序无关，可以作为方法的下标使用
+     * 
+     * @param clz
+     * @return
+     */
+    public static List<Method> getPublicMethodOrderByDesc(Class<?> clz) {
+        List<Method> methods = getPublicMethod(clz);
+        Collections.sort(methods, new Comparator<Method>() {
+            @Override
+            public int compare(Method m1, Method m2) {
+                return getMethodDesc(m1).compareTo(getMethodDesc(m2));
+            }
+        });
+        return methods;
+    }
+
     public static Object getEmptyObject(Class<?> returnType) {
         return getEmptyObject(returnType, new HashMap<Class<?>, Object>(), 0);
     }
@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.cluster.loadbalance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.mock.MockReferer;
+import com.weibo.api.motan.rpc.AvailableListener;
+import com.weibo.api.motan.rpc.AvailableNotifier;
+import com.weibo.api.motan.rpc.Referer;
+
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class AvailableReferersTest {
+
+    @Test
+    public void testAvailableChanged() {
+        List<Referer> referers = new ArrayList<Referer>();
+        for (int i = 0; i < 5; i++) {
+            NotifyReferer referer = new NotifyReferer();
+            referer.available = i != 0;
+            referers.add(referer);
+        }
+        RandomLoadBalance balance = new RandomLoadBalance();
+        balance.onRefresh(referers);
+        Assert.assertEquals(4, balance.getAvailableReferers().size());
+        Assert.assertFalse(balance.getAvailableReferers().contains(referers.get(0)));
+
+        ((NotifyReferer) referers.get(0)).setAvailable(true);
+        ((NotifyReferer) referers.get(1)).setAvailable(false);
+        Assert.assertEquals(4, balance.getAvailableReferers().size());
+        Assert.assertTrue(balance.getAvailableReferers().contains(referers.get(0)));
+        Assert.assertFalse(balance.getAvailableReferers().contains(referers.get(1)));
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNotSame(referers.get(1), balance.select(null));
+        }
+
+        // refresh 后不再监听移除的 referer
+        NotifyReferer removed = (NotifyReferer) referers.remove(0);
+        balance.onRefresh(referers);
+        Assert.assertTrue(removed.listeners.isEmpty());
+        Assert.assertEquals(1, ((NotifyReferer) referers.get(0)).listeners.size());
+        Assert.assertEquals(3, balance.getAvailableReferers().size());
+    }
+
+    @Test
+    public void testAllUnavailable() {
+        List<Referer> referers = new ArrayList<Referer>();
+        for (int i = 0; i < 3; i++) {
+            referers.add(new NotifyReferer());
+        }
+        RoundRobinLoadBalance balance = new RoundRobinLoadBalance();
+        balance.onRefresh(referers);
+
+        for (Referer referer : referers) {
+            ((NotifyReferer) referer).setAvailable(false);
+        }
+        Assert.assertTrue(balance.getAvailableReferers().isEmpty());
+        try {
+            balance.select(null);
+            Assert.assertTrue(false);
+        } catch (Exception e) {
+            Assert.assertTrue(true);
+        }
+
+        ((NotifyReferer) referers.get(2)).setAvailable(true);
+        Assert.assertSame(referers.get(2), balance.select(null));
+    }
+
+    @Test
+    public void testNotSupportNotify() {
+        List<Referer> referers = new ArrayList<Referer>();
+        MockReferer referer = new MockReferer();
+        referer.available = false;
+        referers.add(referer);
+        referers.add(new NotifyReferer());
+
+        // 不支持状态通知的 referer 始终在可用列表中，选择时检查
+        ActiveWeightLoadBalance balance = new ActiveWeightLoadBalance();
+        balance.onRefresh(referers);
+        Assert.assertEquals(2, balance.getAvailableReferers().size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertSame(referers.get(1), balance.select(null));
+        }
+    }
+
+    static class NotifyReferer<T> extends MockReferer<T> implements AvailableNotifier {
+        List<AvailableListener> listeners = new ArrayList<AvailableListener>();
+
+        void setAvailable(boolean available) {
+            this.available = available;
+            for (AvailableListener listener : listeners) {
+                listener.onAvailableChanged(available);
+            }
+        }
+
+        @Override
+        public boolean addAvailableListener(AvailableListener listener) {
+            listeners.add(listener);
+            return true;
+        }
+
+        @Override
+        public void removeAvailableListener(AvailableListener listener) {
+            listeners.remove(listener);
+        }
+    }
+}
@@ -16,11 +16,22 @@
 
 package com.weibo.api.motan.cluster.loadbalance;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.jmock.Expectations;
 
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.mock.MockReferer;
 import com.weibo.api.motan.protocol.example.IHello;
+import com.weibo.api.motan.rpc.DefaultRequest;
 import com.weibo.api.motan.rpc.Referer;
 import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.util.MathUtil;
 
 /**
  * 
@@ -38,6 +49,15 @@ public class ConsistentHashLoadBalanceTest extends AbstractLoadBalanceTest {
     @Override
     public void setUp() throws Exception {
         super.setUp();
+        mockery.checking(new Expectations() {
+            {
+                int i = 0;
+                for (Referer<IHello> ref : referers) {
+                    atLeast(0).of(ref).getUrl();
+                    will(returnValue(new URL("motan", "10.0.0." + i++, 8001, IHello.class.getName())));
+                }
+            }
+        });
         consistentHashLoadBalance.onRefresh(referers);
     }
 
@@ -86,4 +106,176 @@ public class ConsistentHashLoadBalanceTest extends AbstractLoadBalanceTest {
             assertEquals(ref1, ref2);
         }
     }
+
+    public void testMinimalRemapping() {
+        List<Referer<IHello>> mockReferers = createReferers(10, "");
+        ConsistentHashLoadBalance<IHello> balance = new ConsistentHashLoadBalance<IHello>();
+        balance.onRefresh(mockReferers);
+
+        int keyCount = 1000;
+        List<Referer<IHello>> selected = new ArrayList<Referer<IHello>>();
+        for (int i = 0; i < keyCount; i++) {
+            selected.add(balance.select(createRequest("key" + i)));
+        }
+
+        // 去掉一个 referer 后，只有原来映射到该 referer 的 key 会变化
+        Referer<IHello> removed = mockReferers.remove(3);
+        balance.onRefresh(new ArrayList<Referer<IHello>>(mockReferers));
+        int moved = 0;
+        for (int i = 0; i < keyCount; i++) {
+            Referer<IHello> ref = balance.select(createRequest("key" + i));
+            if (selected.get(i) != removed) {
+                assertSame(selected.get(i), ref);
+            } else {
+                moved++;
+            }
+        }
+        assertTrue(moved > 0 && moved < keyCount / 4);
+
+        // 相同地址的新 referer 与原来的映射一致
+        ConsistentHashLoadBalance<IHello> another = new ConsistentHashLoadBalance<IHello>();
+        another.onRefresh(createReferers(10, ""));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(selected.get(i).getUrl(), another.select(createRequest("key" + i)).getUrl());
+        }
+    }
+
+    public void testHashKey() {
+        ConsistentHashLoadBalance<IHello> balance = new ConsistentHashLoadBalance<IHello>();
+        balance.onRefresh(createReferers(10, "argument:0"));
+        for (int i = 0; i < 100; i++) {
+            DefaultRequest request1 = createRequest("key" + i);
+            request1.setArguments(new Object[] {"key" + i, 1});
+            DefaultRequest request2 = createRequest("key" + i);
+            request2.setArguments(new Object[] {"key" + i, 2});
+            assertSame(balance.select(request1), balance.select(request2));
+        }
+
+        balance.onRefresh(createReferers(10, "attachment:uid"));
+        for (int i = 0; i < 100; i++) {
+            DefaultRequest request1 = createRequest("key" + i);
+            request1.setAttachment("uid", String.valueOf(i));
+            DefaultRequest request2 = createRequest("other" + i);
+            request2.setAttachment("uid", String.valueOf(i));
+            assertSame(balance.select(request1), balance.select(request2));
+        }
+    }
+
+    public void testSelectToHolder() {
+        List<Referer<IHello>> mockReferers = createReferers(3, "");
+        final AtomicInteger checked = new AtomicInteger(0);
+        for (int i = 0; i < mockReferers.size(); i++) {
+            mockReferers.set(i, new CountingReferer(checked, mockReferers.get(i).getUrl()));
+        }
+        ConsistentHashLoadBalance<IHello> balance = new ConsistentHashLoadBalance<IHello>();
+        balance.onRefresh(mockReferers);
+
+        DefaultRequest request = createRequest("key");
+        List<Referer<IHello>> holder = new ArrayList<Referer<IHello>>();
+        balance.selectToHolder(request, holder);
+        assertEquals(3, holder.size());
+        assertSame(balance.select(request), holder.get(0));
+
+        // 找到全部 referer 后不再遍历剩余的虚拟节点
+        checked.set(0);
+        balance.selectToHolder(request, new ArrayList<Referer<IHello>>());
+        assertTrue(checked.get() < 3 * URLParamType.consistentHashNodes.getIntValue());
+    }
+
+    public void testSelectWithUnavailableReferers() {
+        List<Referer<IHello>> mockReferers = createReferers(20, "");
+        final AtomicInteger checked = new AtomicInteger(0);
+        for (int i = 0; i < mockReferers.size(); i++) {
+            CountingReferer referer = new CountingReferer(checked, mockReferers.get(i).getUrl());
+            // 只有最后一个 referer 可用
+            referer.available = i == mockReferers.size() - 1;
+            mockReferers.set(i, referer);
+        }
+        ConsistentHashLoadBalance<IHello> balance = new ConsistentHashLoadBalance<IHello>();
+        balance.onRefresh(mockReferers);
+
+        // 附近的节点不可用时每个 referer 只检查一次
+        for (int i = 0; i < 100; i++) {
+            checked.set(0);
+            assertSame(mockReferers.get(mockReferers.size() - 1), balance.select(createRequest("key" + i)));
+            assertTrue(checked.get() <= mockReferers.size());
+        }
+
+        List<Referer<IHello>> holder = new ArrayList<Referer<IHello>>();
+        checked.set(0);
+        balance.selectToHolder(createRequest("key"), holder);
+        assertEquals(1, holder.size());
+        assertTrue(checked.get() <= mockReferers.size());
+    }
+
+    public void testStableArgumentHash() {
+        ConsistentHashLoadBalance<IHello> balance = new ConsistentHashLoadBalance<IHello>();
+        balance.onRefresh(createReferers(10, ""));
+
+        // 没有覆盖 hashCode、toString 的参数对象按序列化后的内容 hash，内容相同的请求落到同一 referer
+        List<Referer<IHello>> selected = new ArrayList<Referer<IHello>>();
+        for (int i = 0; i < 100; i++) {
+            DefaultRequest request1 = createRequest("key");
+            request1.setArguments(new Object[] {new HashKeyPojo("key" + i), new int[] {i}});
+            DefaultRequest request2 = createRequest("key");
+            request2.setArguments(new Object[] {new HashKeyPojo("key" + i), new int[] {i}});
+            Referer<IHello> ref = balance.select(request1);
+            assertSame(ref, balance.select(request2));
+            if (!selected.contains(ref)) {
+                selected.add(ref);
+            }
+        }
+        assertTrue(selected.size() > 1);
+
+        // String、基本类型和数组的编码与 Arrays.deepToString 一致，升级后 key 的映射不变
+        ConsistentHashLoadBalance.HashRing<IHello> ring = new ConsistentHashLoadBalance.HashRing<IHello>(createReferers(10, ""));
+        for (int i = 0; i < 100; i++) {
+            Object[] arguments = new Object[] {"key" + i, i, new long[] {i, 1L}, null};
+            DefaultRequest request = createRequest("key");
+            request.setArguments(arguments);
+            long hash = MathUtil.murmurHash64(Arrays.deepToString(arguments).getBytes());
+            assertEquals(ring.get(ring.indexOf(hash)).getUrl(), balance.select(request).getUrl());
+        }
+    }
+
+    private static class HashKeyPojo implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String name;
+
+        HashKeyPojo(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class CountingReferer extends MockReferer<IHello> {
+        private final AtomicInteger checked;
+
+        CountingReferer(AtomicInteger checked, URL url) {
+            this.checked = checked;
+            this.url = url;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            checked.incrementAndGet();
+            return super.isAvailable();
+        }
+    }
+
+    private List<Referer<IHello>> createReferers(int size, String hashKey) {
+        List<Referer<IHello>> result = new ArrayList<Referer<IHello>>();
+        for (int i = 0; i < size; i++) {
+            MockReferer<IHello> referer = new MockReferer<IHello>();
+            referer.url = new URL("motan", "10.0.0." + i, 8001, IHello.class.getName());
+            referer.url.addParameter(URLParamType.consistentHashKey.getName(), hashKey);
+            result.add(referer);
+        }
+        return result;
+    }
+
+    private DefaultRequest createRequest(String key) {
+        DefaultRequest request = new DefaultRequest();
+        request.setArguments(new Object[] {key});
+        return request;
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.cluster.loadbalance;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.cluster.loadbalance.AvailableReferersTest.NotifyReferer;
+import com.weibo.api.motan.mock.MockReferer;
+import com.weibo.api.motan.rpc.Referer;
+import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.util.NetUtils;
+
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class LocalFirstLoadBalanceTest {
+
+    private String localHost = NetUtils.getLocalAddress().getHostAddress();
+
+    @Test
+    public void testTierOrder() {
+        List<Referer> referers = new ArrayList<Referer>();
+        for (int i = 0; i < 4; i++) {
+            referers.add(createReferer(getRemoteHost(i)));
+            referers.add(createReferer(getSubnetHost(i)));
+        }
+        NotifyReferer local = createReferer(localHost);
+        referers.add(local);
+
+        LocalFirstLoadBalance balance = new LocalFirstLoadBalance();
+        balance.onRefresh(referers);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertSame(local, balance.select(null));
+        }
+
+        // 本机服务不可用时使用同网段的服务
+        local.setAvailable(false);
+        for (int i = 0; i < 100; i++) {
+            Referer referer = balance.select(null);
+            Assert.assertTrue(referer.getUrl().getHost().startsWith(getSubnetPrefix()));
+        }
+
+        List<Referer> referersHolder = new ArrayList<Referer>();
+        balance.selectToHolder(null, referersHolder);
+        Assert.assertEquals(8, referersHolder.size());
+        Assert.assertEquals(8, new HashSet<Referer>(referersHolder).size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(referersHolder.get(i).getUrl().getHost().startsWith(getSubnetPrefix()));
+        }
+        Assert.assertFalse(referersHolder.contains(local));
+
+        local.setAvailable(true);
+        Assert.assertSame(local, balance.select(null));
+    }
+
+    @Test
+    public void testLowActiveFirst() {
+        List<Referer> referers = new ArrayList<Referer>();
+        for (int i = 0; i < 2; i++) {
+            referers.add(createReferer(getRemoteHost(i)));
+        }
+        ((MockReferer) referers.get(0)).active = 10;
+
+        LocalFirstLoadBalance balance = new LocalFirstLoadBalance();
+        balance.onRefresh(referers);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertSame(referers.get(1), balance.select(null));
+        }
+    }
+
+    private NotifyReferer createReferer(String host) {
+        NotifyReferer referer = new NotifyReferer();
+        referer.url = new URL("motan", host, 8001, "com.weibo.api.motan.protocol.example.IHello");
+        return referer;
+    }
+
+    private String getSubnetPrefix() {
+        return localHost.substring(0, localHost.lastIndexOf('.') + 1);
+    }
+
+    private String getSubnetHost(int i) {
+        String host = getSubnetPrefix() + (i + 1);
+        return host.equals(localHost) ? getSubnetPrefix() + (i + 101) : host;
+    }
+
+    private String getRemoteHost(int i) {
+        String prefix = localHost.startsWith("10.") ? "11.0.0." : "10.0.0.";
+        return prefix + (i + 1);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.cluster.loadbalance;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.cluster.loadbalance.PeakEwmaLoadBalance.EwmaReferer;
+import com.weibo.api.motan.mock.MockReferer;
+import com.weibo.api.motan.rpc.Referer;
+
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class PeakEwmaLoadBalanceTest {
+
+    private int smallSize = 5;
+    private int largeSize = 15;
+
+    private int testLoop = 100;
+
+    @Test
+    public void testSelect() {
+        for (int i = 0; i < testLoop; i++) {
+            checkSelect(smallSize, 0);
+            checkSelect(largeSize, 0);
+
+            checkSelect(smallSize, 1);
+            checkSelect(smallSize, smallSize - 1);
+            checkSelect(largeSize, largeSize / 2);
+            checkSelect(largeSize, largeSize - 1);
+
+            allUnAvailableCluster(smallSize);
+            allUnAvailableCluster(largeSize);
+        }
+    }
+
+    @Test
+    public void testLowLatencyFirst() {
+        PeakEwmaLoadBalance balance = createBalance(2, 0);
+        EwmaReferer slow = (EwmaReferer) balance.getReferers().get(0);
+        EwmaReferer fast = (EwmaReferer) balance.getReferers().get(1);
+
+        long now = System.nanoTime();
+        slow.observe(now, TimeUnit.MILLISECONDS.toNanos(10));
+        fast.observe(now, TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertTrue(fast.getCost() < slow.getCost());
+
+        for (int i = 0; i < testLoop; i++) {
+            Assert.assertSame(fast, balance.select(null));
+        }
+
+        // 延迟变大时立即生效
+        fast.observe(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(20));
+        Assert.assertSame(slow, balance.select(null));
+    }
+
+    @Test
+    public void testCallUpdateLatency() {
+        PeakEwmaLoadBalance balance = createBalance(2, 0);
+        EwmaReferer referer = (EwmaReferer) balance.select(null);
+        Assert.assertEquals(0, referer.getCost(), 0);
+
+        referer.call(null);
+        Assert.assertTrue(referer.getCost() > 0);
+
+        // refresh 后保留统计
+        List<Referer> referers = new ArrayList<Referer>();
+        for (Object ewmaReferer : balance.getReferers()) {
+            referers.add(((EwmaReferer) ewmaReferer).getReferer());
+        }
+        balance.onRefresh(referers);
+        Assert.assertTrue(balance.getReferers().contains(referer));
+    }
+
+    private void checkSelect(int refererSize, int unAvailableSize) {
+        PeakEwmaLoadBalance balance = createBalance(refererSize, unAvailableSize);
+
+        Referer referer = balance.select(null);
+        Assert.assertNotNull(referer);
+        Assert.assertTrue(referer.isAvailable());
+
+        List<Referer> referersHolder = new ArrayList<Referer>();
+        balance.selectToHolder(null, referersHolder);
+        Assert.assertEquals(Math.min(refererSize - unAvailableSize, AbstractLoadBalance.MAX_REFERER_COUNT), referersHolder.size());
+        Assert.assertEquals(referersHolder.size(), new HashSet<Referer>(referersHolder).size());
+        for (Referer holder : referersHolder) {
+            Assert.assertTrue(holder.isAvailable());
+        }
+    }
+
+    private void allUnAvailableCluster(int refererSize) {
+        PeakEwmaLoadBalance balance = createBalance(refererSize, refererSize);
+
+        try {
+            balance.select(null);
+            Assert.assertTrue(false);
+        } catch (Exception e) {
+            Assert.assertTrue(true);
+        }
+
+        try {
+            balance.selectToHolder(null, new ArrayList<Referer>());
+            Assert.assertTrue(false);
+        } catch (Exception e) {
+            Assert.assertTrue(true);
+        }
+    }
+
+    private PeakEwmaLoadBalance createBalance(int refererSize, int unAvailableSize) {
+        List<Referer> referers = new ArrayList<Referer>();
+        for (int i = 0; i < refererSize; i++) {
+            MockReferer referer = new MockReferer();
+            referer.available = i >= unAvailableSize;
+            referers.add(referer);
+        }
+
+        PeakEwmaLoadBalance balance = new PeakEwmaLoadBalance();
+        balance.onRefresh(referers);
+        return balance;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.cluster.loadbalance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.cluster.loadbalance.AvailableReferersTest.NotifyReferer;
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.exception.MotanServiceException;
+import com.weibo.api.motan.rpc.Referer;
+import com.weibo.api.motan.rpc.URL;
+
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class WeightRoundRobinLoadBalanceTest {
+
+    @Test
+    public void testSmoothWeight() {
+        List<Referer> referers = new ArrayList<Referer>();
+        referers.add(createReferer(1, 50));
+        referers.add(createReferer(2, 10));
+        referers.add(createReferer(3, 10));
+
+        WeightRoundRobinLoadBalance balance = new WeightRoundRobinLoadBalance();
+        balance.onRefresh(referers);
+
+        // 每个周期（7 次）按 5:1:1 分配
+        for (int round = 0; round < 10; round++) {
+            Map<Referer, Integer> counts = count(balance, 7);
+            Assert.assertEquals(5, counts.get(referers.get(0)).intValue());
+            Assert.assertEquals(1, counts.get(referers.get(1)).intValue());
+            Assert.assertEquals(1, counts.get(referers.get(2)).intValue());
+        }
+
+        // 权重高的节点分散在周期中，不会连续分配 5 次
+        int run = 0;
+        for (int i = 0; i < 70; i++) {
+            run = balance.select(null) == referers.get(0) ? run + 1 : 0;
+            Assert.assertTrue(run < 5);
+        }
+    }
+
+    @Test
+    public void testWeightChanged() {
+        List<Referer> referers = new ArrayList<Referer>();
+        referers.add(createReferer(1, 1));
+        referers.add(createReferer(2, 1));
+
+        WeightRoundRobinLoadBalance balance = new WeightRoundRobinLoadBalance();
+        balance.onRefresh(referers);
+        Map<Referer, Integer> counts = count(balance, 100);
+        Assert.assertEquals(50, counts.get(referers.get(0)).intValue());
+
+        // 注册中心推送新的权重后生效，权重为 0 的节点不分配请求
+        referers.set(0, createReferer(1, 3));
+        referers.add(createReferer(3, 0));
+        balance.onRefresh(referers);
+        counts = count(balance, 100);
+        Assert.assertEquals(75, counts.get(referers.get(0)).intValue());
+        Assert.assertEquals(25, counts.get(referers.get(1)).intValue());
+        Assert.assertNull(counts.get(referers.get(2)));
+
+        // 全部为 0 时按相同权重处理
+        referers.clear();
+        referers.add(createReferer(1, 0));
+        referers.add(createReferer(2, 0));
+        balance.onRefresh(referers);
+        counts = count(balance, 100);
+        Assert.assertEquals(50, counts.get(referers.get(0)).intValue());
+    }
+
+    @Test
+    public void testUnavailable() {
+        List<Referer> referers = new ArrayList<Referer>();
+        for (int i = 0; i < 5; i++) {
+            referers.add(createReferer(i, i + 1));
+        }
+        WeightRoundRobinLoadBalance balance = new WeightRoundRobinLoadBalance();
+        balance.onRefresh(referers);
+
+        ((NotifyReferer) referers.get(4)).setAvailable(false);
+        Map<Referer, Integer> counts = count(balance, 100);
+        Assert.assertNull(counts.get(referers.get(4)));
+        Assert.assertEquals(40, counts.get(referers.get(3)).intValue());
+
+        List<Referer> referersHolder = new ArrayList<Referer>();
+        balance.selectToHolder(null, referersHolder);
+        Assert.assertEquals(4, referersHolder.size());
+        Assert.assertFalse(referersHolder.contains(referers.get(4)));
+    }
+
+    // 权重为 0 的节点不参与 failover，也不作为选中节点不可用时的兜底
+    @Test
+    public void testDrainedNotUsedAsFallback() {
+        List<Referer> referers = new ArrayList<Referer>();
+        referers.add(createReferer(1, 1));
+        referers.add(createReferer(2, 1));
+        referers.add(createReferer(3, 0));
+        WeightRoundRobinLoadBalance balance = new WeightRoundRobinLoadBalance();
+        balance.onRefresh(referers);
+
+        List<Referer> referersHolder = new ArrayList<Referer>();
+        balance.selectToHolder(null, referersHolder);
+        Assert.assertEquals(2, referersHolder.size());
+        Assert.assertFalse(referersHolder.contains(referers.get(2)));
+
+        // 还没有收到状态通知时，权重不为 0 的节点都不可用
+        ((NotifyReferer) referers.get(0)).available = false;
+        ((NotifyReferer) referers.get(1)).available = false;
+        try {
+            balance.select(null);
+            Assert.fail();
+        } catch (MotanServiceException e) {
+        }
+
+        // 可用节点的权重全部为 0 时按相同权重处理
+        ((NotifyReferer) referers.get(0)).setAvailable(false);
+        ((NotifyReferer) referers.get(1)).setAvailable(false);
+        Assert.assertSame(referers.get(2), balance.select(null));
+    }
+
+    // 状态通知可能在 IO 线程中，只替换可用列表，选择顺序在下一次选择时计算
+    @Test
+    public void testNotRebuiltInListener() {
+        final AtomicInteger weightReads = new AtomicInteger(0);
+        List<Referer> referers = new ArrayList<Referer>();
+        for (int i = 0; i < 3; i++) {
+            NotifyReferer referer = new NotifyReferer() {
+                @Override
+                public URL getServiceUrl() {
+                    weightReads.incrementAndGet();
+                    return super.getServiceUrl();
+                }
+            };
+            referer.url = new URL("motan", "10.0.0." + i, 8001, "com.weibo.api.motan.protocol.example.IHello");
+            referer.serviceUrl = referer.url.createCopy();
+            referers.add(referer);
+        }
+        WeightRoundRobinLoadBalance balance = new WeightRoundRobinLoadBalance();
+        balance.onRefresh(referers);
+        balance.select(null);
+
+        weightReads.set(0);
+        ((NotifyReferer) referers.get(0)).setAvailable(false);
+        ((NotifyReferer) referers.get(0)).setAvailable(true);
+        ((NotifyReferer) referers.get(1)).setAvailable(false);
+        Assert.assertEquals(0, weightReads.get());
+
+        // 多次变化后只计算一次
+        Map<Referer, Integer> counts = count(balance, 100);
+        Assert.assertEquals(2, weightReads.get());
+        Assert.assertNull(counts.get(referers.get(1)));
+    }
+
+    @Test
+    public void testMaxSequenceLength() {
+        List<Referer> referers = new ArrayList<Referer>();
+        referers.add(createReferer(1, WeightRoundRobinLoadBalance.MAX_SEQUENCE_LENGTH * 3));
+        referers.add(createReferer(2, 1));
+
+        WeightRoundRobinLoadBalance balance = new WeightRoundRobinLoadBalance();
+        balance.onRefresh(referers);
+        Map<Referer, Integer> counts = count(balance, WeightRoundRobinLoadBalance.MAX_SEQUENCE_LENGTH + 1);
+        Assert.assertEquals(1, counts.get(referers.get(1)).intValue());
+    }
+
+    private Map<Referer, Integer> count(WeightRoundRobinLoadBalance balance, int times) {
+        Map<Referer, Integer> counts = new HashMap<Referer, Integer>();
+        for (int i = 0; i < times; i++) {
+            Referer referer = balance.select(null);
+            Integer count = counts.get(referer);
+            counts.put(referer, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    private NotifyReferer createReferer(int index, int weight) {
+        NotifyReferer referer = new NotifyReferer();
+        referer.url = new URL("motan", "10.0.0." + index, 8001, "com.weibo.api.motan.protocol.example.IHello");
+        referer.serviceUrl = referer.url.createCopy();
+        referer.serviceUrl.addParameter(URLParamType.weight.getName(), String.valueOf(weight));
+        return referer;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.weibo.api.motan.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.codec.Compression;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+
+public class CompressionTest {
+
+    @Test
+    public void testGzip() throws Exception {
+        Compression gzip = new GzipCompression();
+        for (byte[] data : testData()) {
+            byte[] compressed = gzip.compress(data);
+            Assert.assertTrue(GzipCompression.isGzip(compressed));
+            Assert.assertArrayEquals(data, gzip.decompress(compressed));
+            // 与 jdk 的 GZIPInputStream/GZIPOutputStream 兼容
+            Assert.assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+            Assert.assertArrayEquals(data, gzip.decompress(jdkGzip(data)));
+        }
+
+        byte[] compressed = gzip.compress(testData()[2]);
+        compressed[compressed.length - 5]++;
+        try {
+            gzip.decompress(compressed);
+            Assert.fail();
+        } catch (MotanFrameworkException e) {
+        }
+    }
+
+    @Test
+    public void testLz4() throws Exception {
+        Compression lz4 = new Lz4Compression();
+        for (byte[] data : testData()) {
+            Assert.assertArrayEquals(data, lz4.decompress(lz4.compress(data)));
+        }
+
+        // 重复数据能有效压缩
+        byte[] data = testData()[2];
+        Assert.assertTrue(lz4.compress(data).length < data.length / 4);
+
+        // 任意位置截断的数据都抛出 decode 异常
+        byte[] compressed = lz4.compress(data);
+        for (int length = 0; length < compressed.length; length++) {
+            try {
+                lz4.decompress(Arrays.copyOf(compressed, length));
+                Assert.fail("truncated at " + length);
+            } catch (MotanFrameworkException e) {
+            }
+        }
+    }
+
+    // 对端声明的原始长度超出压缩比上限时直接拒绝，不按该长度分配内存
+    @Test
+    public void testDeclaredLengthOutOfRange() throws Exception {
+        byte[] lz4 = new Lz4Compression().compress("hello".getBytes());
+        lz4[0] = 0x7f;
+        try {
+            new Lz4Compression().decompress(lz4);
+            Assert.fail();
+        } catch (MotanFrameworkException e) {
+        }
+
+        byte[] gzip = new GzipCompression().compress("hello".getBytes());
+        gzip[gzip.length - 1] = 0x7f;
+        try {
+            new GzipCompression().decompress(gzip);
+            Assert.fail();
+        } catch (MotanFrameworkException e) {
+        }
+
+        // header 中没有结束符的文件名
+        gzip = new GzipCompression().compress("hello".getBytes());
+        gzip[3] = 8;
+        Arrays.fill(gzip, 10, gzip.length, (byte) 'a');
+        try {
+            new GzipCompression().decompress(gzip);
+            Assert.fail();
+        } catch (MotanFrameworkException e) {
+        }
+    }
+
+    private byte[][] testData() {
+        byte[] random = new byte[10000];
+        new Random(1).nextBytes(random);
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            builder.append("com.weibo.api.motan.protocol.example.Model:").append(i % 17).append(";");
+        }
+
+        byte[] repeat = new byte[300];
+        Arrays.fill(repeat, (byte) 'a');
+
+        return new byte[][] {new byte[0], "hello".getBytes(), builder.toString().getBytes(), random, repeat, "hello world, hello motan".getBytes()};
+    }
+
+    private byte[] jdkGzip(byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gos = new GZIPOutputStream(out);
+        gos.write(data);
+        gos.close();
+        return out.toByteArray();
+    }
+
+    private byte[] readAll(GZIPInputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HashedWheelTimerTest extends TestCase {
+
+    @Test
+    public void testExpire() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("testExpire", 10, TimeUnit.MILLISECONDS, 8);
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            long start = System.currentTimeMillis();
+            // 超过一轮（8 * 10ms）的任务
+            HashedWheelTimer.Timeout timeout = timer.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            }, 150, TimeUnit.MILLISECONDS);
+
+            Assert.assertTrue(latch.await(2000, TimeUnit.MILLISECONDS));
+            Assert.assertTrue(System.currentTimeMillis() - start >= 150);
+            Assert.assertTrue(timeout.isExpired());
+            Assert.assertFalse(timeout.cancel());
+            Assert.assertEquals(0, timer.getPendingCount());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("testCancel", 10, TimeUnit.MILLISECONDS, 8);
+        try {
+            final AtomicInteger count = new AtomicInteger(0);
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    count.incrementAndGet();
+                }
+            };
+
+            HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[100];
+            for (int i = 0; i < timeouts.length; i++) {
+                timeouts[i] = timer.newTimeout(task, 50, TimeUnit.MILLISECONDS);
+            }
+            Assert.assertEquals(100, timer.getPendingCount());
+
+            for (int i = 0; i < timeouts.length; i += 2) {
+                Assert.assertTrue(timeouts[i].cancel());
+                Assert.assertTrue(timeouts[i].isCancelled());
+            }
+            Assert.assertEquals(50, timer.getPendingCount());
+
+            Thread.sleep(300);
+            Assert.assertEquals(50, count.get());
+            Assert.assertEquals(0, timer.getPendingCount());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void testTaskExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("testTimeoutTask", true));
+        HashedWheelTimer timer = new HashedWheelTimer("testTaskExecutor", 10, TimeUnit.MILLISECONDS, 8, executor);
+        try {
+            final CountDownLatch block = new CountDownLatch(1);
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AtomicReference<String> threadName = new AtomicReference<String>();
+
+            // 阻塞的任务不会影响后续任务触发
+            timer.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    threadName.set(Thread.currentThread().getName());
+                    try {
+                        block.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }, 10, TimeUnit.MILLISECONDS);
+            timer.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            }, 30, TimeUnit.MILLISECONDS);
+
+            Thread.sleep(100);
+            Assert.assertEquals(0, timer.getPendingCount());
+            Assert.assertTrue(threadName.get().startsWith("testTimeoutTask"));
+            Assert.assertEquals(1, latch.getCount());
+
+            block.countDown();
+            Assert.assertTrue(latch.await(2000, TimeUnit.MILLISECONDS));
+        } finally {
+            timer.stop();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStop() {
+        HashedWheelTimer timer = new HashedWheelTimer("testStop", 10, TimeUnit.MILLISECONDS, 8);
+        timer.stop();
+        try {
+            timer.newTimeout(new Runnable() {
+                @Override
+                public void run() {}
+            }, 10, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+    }
+}
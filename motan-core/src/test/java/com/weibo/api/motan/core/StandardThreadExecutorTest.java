@@ -14,7 +14,7 @@
  *    limitations under the License.
  */
 
-package com.weibo.api.motan.transport.netty;
+package com.weibo.api.motan.core;
 
 import java.util.concurrent.RejectedExecutionException;
 
@@ -22,8 +22,8 @@ import java.util.Collection;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
 import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.transport.AbstractServer;
 import com.weibo.api.motan.transport.Channel;
-import com.weibo.api.motan.transport.Server;
 import com.weibo.api.motan.transport.TransportException;
 
 /**
@@ -33,8 +33,7 @@ import com.weibo.api.motan.transport.TransportException;
  * @date 2016年3月17日
  *
  */
-public class MockServer implements Server {
-    URL url;
+public class MockServer extends AbstractServer {
 
     public MockServer(URL url) {
         this.url = url;
@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.weibo.api.motan.protocol.rpc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.exception.MotanFrameworkException;
+
+public class AttachmentTableTest {
+
+    @Test
+    public void testIndex() {
+        AttachmentTable table = new AttachmentTable();
+        table.setMaxSize(1024);
+        Assert.assertTrue(table.isMaxSizeChanged());
+
+        table.add("application", "motan");
+        table.add("module", "rpc");
+        Assert.assertEquals(2, table.getCount());
+        Assert.assertEquals("application".length() + "motan".length() + "module".length() + "rpc".length() + 2
+                * AttachmentTable.ENTRY_OVERHEAD, table.getSize());
+
+        // 0 为最近插入的表项
+        Assert.assertEquals(0, table.indexOf("module", "rpc"));
+        Assert.assertEquals(1, table.indexOf("application", "motan"));
+        Assert.assertEquals(-1, table.indexOf("application", "other"));
+        Assert.assertEquals(1, table.indexOfName("application"));
+        Assert.assertEquals("module", table.getName(0));
+        Assert.assertEquals("motan", table.getValue(1));
+
+        try {
+            table.getName(2);
+            Assert.fail();
+        } catch (MotanFrameworkException e) {
+        }
+    }
+
+    @Test
+    public void testShouldAdd() {
+        AttachmentTable table = new AttachmentTable();
+        table.setMaxSize(1024);
+        Assert.assertTrue(table.shouldAdd("requestIdFromClient"));
+        table.add("requestIdFromClient", "1");
+        // value 没有被复用过
+        Assert.assertFalse(table.shouldAdd("requestIdFromClient"));
+
+        table.add("version", "1.0");
+        table.indexOf("version", "1.0");
+        Assert.assertTrue(table.shouldAdd("version"));
+    }
+
+    @Test
+    public void testEvict() {
+        AttachmentTable table = new AttachmentTable();
+        table.setMaxSize(2 * (AttachmentTable.ENTRY_OVERHEAD + 2));
+
+        table.add("a", "1");
+        table.add("b", "2");
+        table.add("c", "3");
+        Assert.assertEquals(2, table.getCount());
+        Assert.assertEquals(-1, table.indexOf("a", "1"));
+        Assert.assertEquals(-1, table.indexOfName("a"));
+        Assert.assertEquals("b", table.getName(1));
+
+        // 缩小表时淘汰最早的表项
+        table.setMaxSize(AttachmentTable.ENTRY_OVERHEAD + 2);
+        Assert.assertEquals(1, table.getCount());
+        Assert.assertEquals("c", table.getName(0));
+
+        // 超过表大小的表项清空整个表
+        table.add("long", "value");
+        Assert.assertEquals(0, table.getCount());
+        Assert.assertEquals(0, table.getSize());
+
+        // 环形数组扩容
+        table.setMaxSize(AttachmentTable.MAX_TABLE_SIZE);
+        for (int i = 0; i < 100; i++) {
+            table.add("key" + i, "value" + i);
+        }
+        Assert.assertEquals(100, table.getCount());
+        Assert.assertEquals("key0", table.getName(99));
+        Assert.assertEquals(0, table.indexOf("key99", "value99"));
+
+        try {
+            table.setMaxSize(AttachmentTable.MAX_TABLE_SIZE + 1);
+            Assert.fail();
+        } catch (MotanFrameworkException e) {
+        }
+    }
+}
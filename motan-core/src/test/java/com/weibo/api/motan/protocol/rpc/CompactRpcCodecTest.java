@@ -0,0 +1,398 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.protocol.rpc;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.weibo.api.motan.codec.Codec;
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.exception.MotanServiceException;
+import com.weibo.api.motan.mock.MockChannel;
+import com.weibo.api.motan.mock.MockServer;
+import com.weibo.api.motan.protocol.example.Hello;
+import com.weibo.api.motan.protocol.example.IHello;
+import com.weibo.api.motan.protocol.example.Model;
+import com.weibo.api.motan.rpc.DefaultProvider;
+import com.weibo.api.motan.rpc.DefaultRequest;
+import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.ProviderMethodTable;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.Response;
+import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.transport.Channel;
+import com.weibo.api.motan.transport.ProviderMessageRouter;
+
+/**
+ * 基础功能由父类进行测试（已协商为 v3），此类中测试协商、与 v1 的兼容性
+ */
+public class CompactRpcCodecTest extends DefaultRpcCodecTest {
+
+    @Before
+    public void setUp() throws Exception {
+        rpcCodec = negotiatedCodec();
+    }
+
+    @Test
+    public void testNegotiate() throws Exception {
+        CompactRpcCodec client = new CompactRpcCodec();
+        CompactRpcCodec server = new CompactRpcCodec();
+        DefaultRequest request = getRequest("java.lang.String", new Object[] {"hello"});
+
+        // 未协商时以 v1 编码，并带上 v3 能力位
+        byte[] bytes = client.encode(channel, request);
+        Assert.assertEquals(RpcProtocolVersion.VERSION_1.getVersion(), bytes[2]);
+        Request serverRequest = (Request) server.decode(channel, "", bytes);
+        Assert.assertTrue(equals(request, serverRequest));
+
+        DefaultResponse response = new DefaultResponse();
+        response.setRequestId(serverRequest.getRequestId());
+        response.setRpcProtocolVersion(serverRequest.getRpcProtocolVersion());
+        response.setValue("world");
+        bytes = server.encode(channel, response);
+        Assert.assertEquals(RpcProtocolVersion.VERSION_1.getVersion(), bytes[2]);
+
+        Assert.assertFalse(client.isV3Supported());
+        Response clientResponse = (Response) client.decode(channel, "", bytes);
+        Assert.assertEquals("world", clientResponse.getValue());
+        Assert.assertTrue(client.isV3Supported());
+
+        // 协商后 request 使用 v3，server 按 request 的版本回复
+        bytes = client.encode(channel, request);
+        Assert.assertEquals(RpcProtocolVersion.VERSION_3.getVersion(), bytes[2]);
+        serverRequest = (Request) server.decode(channel, "", bytes);
+        Assert.assertTrue(equals(request, serverRequest));
+        Assert.assertEquals(RpcProtocolVersion.VERSION_3.getVersion(), serverRequest.getRpcProtocolVersion());
+
+        response.setRpcProtocolVersion(serverRequest.getRpcProtocolVersion());
+        bytes = server.encode(channel, response);
+        Assert.assertEquals(RpcProtocolVersion.VERSION_3.getVersion(), bytes[2]);
+        clientResponse = (Response) client.decode(channel, "", bytes);
+        Assert.assertEquals("world", clientResponse.getValue());
+    }
+
+    // 对端为 DefaultRpcCodec 时一直使用 v1
+    @Test
+    public void testFallbackToV1() throws Exception {
+        CompactRpcCodec client = new CompactRpcCodec();
+        Codec server = new DefaultRpcCodec();
+        DefaultRequest request = getRequest("java.lang.String", new Object[] {"hello"});
+
+        Request serverRequest = (Request) server.decode(channel, "", client.encode(channel, request));
+        Assert.assertTrue(equals(request, serverRequest));
+
+        DefaultResponse response = new DefaultResponse();
+        response.setValue("world");
+        Response clientResponse = (Response) client.decode(channel, "", server.encode(channel, response));
+        Assert.assertEquals("world", clientResponse.getValue());
+
+        Assert.assertFalse(client.isV3Supported());
+        Assert.assertEquals(RpcProtocolVersion.VERSION_1.getVersion(), client.encode(channel, request)[2]);
+
+        // v1 client 也可以访问 motan3 server
+        CompactRpcCodec compactServer = new CompactRpcCodec();
+        serverRequest = (Request) compactServer.decode(channel, "", server.encode(channel, request));
+        Assert.assertTrue(equals(request, serverRequest));
+        response.setRpcProtocolVersion(serverRequest.getRpcProtocolVersion());
+        clientResponse = (Response) server.decode(channel, "", compactServer.encode(channel, response));
+        Assert.assertEquals("world", clientResponse.getValue());
+    }
+
+    @Test
+    public void testV3Response() throws Exception {
+        DefaultResponse response = new DefaultResponse();
+        response.setRpcProtocolVersion(RpcProtocolVersion.VERSION_3.getVersion());
+        response.setProcessTime(123);
+        response.setValue(new Model("world", 12, Model.class));
+
+        byte[] bytes = rpcCodec.encode(channel, response);
+        Assert.assertEquals(RpcProtocolVersion.VERSION_3.getVersion(), bytes[2]);
+        Response result = (Response) rpcCodec.decode(channel, "", bytes);
+        Assert.assertEquals(response.getValue().toString(), result.getValue().toString());
+        Assert.assertEquals(123, result.getProcessTime());
+
+        response = new DefaultResponse();
+        response.setRpcProtocolVersion(RpcProtocolVersion.VERSION_3.getVersion());
+        result = (Response) rpcCodec.decode(channel, "", rpcCodec.encode(channel, response));
+        Assert.assertNull(result.getValue());
+        Assert.assertNull(result.getException());
+
+        response.setException(new MotanServiceException("process thread pool is full, reject", MotanErrorMsgConstant.SERVICE_REJECT));
+        result = (Response) rpcCodec.decode(channel, "", rpcCodec.encode(channel, response));
+        Assert.assertEquals(response.getException().getMessage(), result.getException().getMessage());
+        Assert.assertEquals(response.getException().getClass(), result.getException().getClass());
+    }
+
+    // server 分配方法 id 后 client 在同一连接上只发送 id，router 与 provider 按下标分发
+    @Test
+    public void testMethodId() throws Exception {
+        DefaultProvider<IHello> provider = new DefaultProvider<IHello>(new Hello(), url, IHello.class);
+        ProviderMessageRouter router = new ProviderMessageRouter(provider);
+        // codec 通过 server 关联的 router 获取方法 id 表
+        MockServer serverChannel = new MockServer(url);
+        serverChannel.setProviderRouter(router);
+        try {
+            CompactRpcCodec clientCodec = negotiatedCodec();
+            Codec client = clientCodec.newConnectionCodec();
+            Codec server = new CompactRpcCodec().newConnectionCodec();
+            DefaultRequest request = getRequest("java.lang.String", new Object[] {"motan"});
+
+            byte[] first = client.encode(channel, request);
+            DefaultRequest serverRequest = (DefaultRequest) server.decode(serverChannel, "", first);
+            Assert.assertTrue(serverRequest.getMethodId() != ProviderMethodTable.NO_METHOD_ID);
+            // 方法 id 的下发不会出现在 filter、业务代码可见的 attachments 中
+            Assert.assertEquals(request.getAttachments(), serverRequest.getAttachments());
+            Response response = (Response) router.handle(serverChannel, serverRequest);
+            Assert.assertEquals(new Hello().hello("motan"), response.getValue());
+            Assert.assertEquals(request.getAttachments(), response.getAttachments());
+            client.decode(channel, "", server.encode(serverChannel, response));
+
+            byte[] second = client.encode(channel, request);
+            Assert.assertTrue(second.length < first.length);
+            serverRequest = (DefaultRequest) server.decode(serverChannel, "", second);
+            Assert.assertTrue(equals(request, serverRequest));
+            response = (Response) router.handle(serverChannel, serverRequest);
+            Assert.assertEquals(new Hello().hello("motan"), response.getValue());
+
+            // id 属于连接，新连接（如重连）重新使用字符串
+            Assert.assertEquals(first.length, clientCodec.newConnectionCodec().encode(channel, request).length);
+        } finally {
+            router.removeProvider(provider);
+        }
+    }
+
+    // 重新 export 后方法的 id 变化，旧 id 按下发时的方法签名找到新方法，调用不失败，并下发新的 id
+    @Test
+    public void testMethodIdAfterReexport() throws Exception {
+        DefaultProvider<IHello> provider = new DefaultProvider<IHello>(new Hello(), url, IHello.class);
+        ProviderMessageRouter router = new ProviderMessageRouter(provider);
+        MockServer serverChannel = new MockServer(url);
+        serverChannel.setProviderRouter(router);
+        try {
+            Codec client = negotiatedCodec().newConnectionCodec();
+            Codec server = new CompactRpcCodec().newConnectionCodec();
+            DefaultRequest request = getRequest("java.lang.String", new Object[] {"motan"});
+
+            DefaultRequest serverRequest = (DefaultRequest) server.decode(serverChannel, "", client.encode(channel, request));
+            int oldId = serverRequest.getMethodId();
+            client.decode(channel, "", server.encode(serverChannel, router.handle(serverChannel, serverRequest)));
+
+            router.removeProvider(provider);
+            router.addProvider(provider);
+
+            byte[] stale = client.encode(channel, request);
+            serverRequest = (DefaultRequest) server.decode(serverChannel, "", stale);
+            Assert.assertTrue(equals(request, serverRequest));
+            Assert.assertTrue(serverRequest.getMethodId() != oldId);
+            Response response = (Response) router.handle(serverChannel, serverRequest);
+            Assert.assertEquals(new Hello().hello("motan"), response.getValue());
+            client.decode(channel, "", server.encode(serverChannel, response));
+
+            // client 更新为新的 id
+            serverRequest = (DefaultRequest) server.decode(serverChannel, "", client.encode(channel, request));
+            Assert.assertTrue(serverRequest.getMethodId() != oldId);
+            Assert.assertEquals(new Hello().hello("motan"), ((Response) router.handle(serverChannel, serverRequest)).getValue());
+
+            // 方法不再暴露时按字符串调用处理，由 router 返回错误
+            router.removeProvider(provider);
+            serverRequest = (DefaultRequest) server.decode(serverChannel, "", client.encode(channel, request));
+            Assert.assertEquals(ProviderMethodTable.NO_METHOD_ID, serverRequest.getMethodId());
+            Assert.assertEquals(request.getMethodName(), serverRequest.getMethodName());
+            Assert.assertNotNull(((Response) router.handle(serverChannel, serverRequest)).getException());
+        } finally {
+            router.removeProvider(provider);
+        }
+    }
+
+    // 没有关联 router 的 server 不分配方法 id
+    @Test
+    public void testMethodIdWithoutRouter() throws Exception {
+        DefaultProvider<IHello> provider = new DefaultProvider<IHello>(new Hello(), url, IHello.class);
+        ProviderMessageRouter router = new ProviderMessageRouter(provider);
+        try {
+            Codec server = new CompactRpcCodec().newConnectionCodec();
+            DefaultRequest serverRequest =
+                    (DefaultRequest) server.decode(new MockServer(url), "", negotiatedCodec().encode(channel,
+                            getRequest("java.lang.String", new Object[] {"motan"})));
+            Assert.assertEquals(ProviderMethodTable.NO_METHOD_ID, serverRequest.getMethodId());
+        } finally {
+            router.removeProvider(provider);
+        }
+    }
+
+    // 待下发的方法 id 属于连接，只在同一连接的 response 中下发，任意版本的 response 都会移除对应的条目
+    @Test
+    public void testMethodIdAckPerConnection() throws Exception {
+        DefaultProvider<IHello> provider = new DefaultProvider<IHello>(new Hello(), url, IHello.class);
+        ProviderMessageRouter router = new ProviderMessageRouter(provider);
+        MockServer serverChannel = new MockServer(url);
+        serverChannel.setProviderRouter(router);
+        try {
+            Codec client = negotiatedCodec().newConnectionCodec();
+            CompactRpcCodec server = new CompactRpcCodec();
+            Codec connection = server.newConnectionCodec();
+            DefaultRequest request = getRequest("java.lang.String", new Object[] {"motan"});
+            // 不使用 attachment 表，endpoint 级的 server codec 也可以 decode
+            Channel channel = noAttachmentTableChannel();
+            byte[] first = client.encode(channel, request);
+
+            // endpoint 级的 codec 不下发
+            Response response = (Response) router.handle(serverChannel, (Request) server.decode(serverChannel, "", first));
+            client.decode(channel, "", server.encode(serverChannel, response));
+            Assert.assertEquals(first.length, client.encode(channel, request).length);
+
+            // 其他连接不下发
+            response = (Response) router.handle(serverChannel, (Request) connection.decode(serverChannel, "", first));
+            client.decode(channel, "", server.newConnectionCodec().encode(serverChannel, response));
+            Assert.assertEquals(first.length, client.encode(channel, request).length);
+
+            // v1 的 response 移除条目后，同一 requestId 的 v3 response 不再下发
+            DefaultResponse v1Response = new DefaultResponse();
+            v1Response.setRequestId(request.getRequestId());
+            v1Response.setException(new MotanServiceException("reject", MotanErrorMsgConstant.SERVICE_REJECT));
+            client.decode(channel, "", connection.encode(serverChannel, v1Response));
+            client.decode(channel, "", connection.encode(serverChannel, response));
+            Assert.assertEquals(first.length, client.encode(channel, request).length);
+
+            // 同一连接的 response 下发
+            response = (Response) router.handle(serverChannel, (Request) connection.decode(serverChannel, "", first));
+            client.decode(channel, "", connection.encode(serverChannel, response));
+            Assert.assertTrue(client.encode(channel, request).length < first.length);
+        } finally {
+            router.removeProvider(provider);
+        }
+    }
+
+    // 连接级 codec 通过 attachment 表编码 attachments，重复的 attachment 只发送表的下标
+    @Test
+    public void testAttachmentTable() throws Exception {
+        Codec client = negotiatedCodec().newConnectionCodec();
+        Codec server = new CompactRpcCodec().newConnectionCodec();
+        DefaultRequest request = getRequest("java.lang.String", new Object[] {"hello"});
+        request.setAttachment(URLParamType.application.getName(), "motan-demo");
+        request.setAttachment(URLParamType.module.getName(), "motan-demo-rpc");
+        request.setAttachment(URLParamType.requestIdFromClient.getName(), "1000001");
+
+        byte[] first = client.encode(channel, request);
+        Request serverRequest = (Request) server.decode(channel, "", first);
+        Assert.assertEquals(request.getAttachments(), serverRequest.getAttachments());
+
+        request.setAttachment(URLParamType.requestIdFromClient.getName(), "1000002");
+        byte[] second = client.encode(channel, request);
+        Assert.assertTrue(second.length < first.length);
+        serverRequest = (Request) server.decode(channel, "", second);
+        Assert.assertTrue(equals(request, serverRequest));
+        Assert.assertEquals(request.getAttachments(), serverRequest.getAttachments());
+
+        // 每次都变化的 value 只引用 name，不再插入表
+        request.setAttachment(URLParamType.requestIdFromClient.getName(), "1000003");
+        byte[] third = client.encode(channel, request);
+        Assert.assertEquals(second.length, third.length);
+        serverRequest = (Request) server.decode(channel, "", third);
+        Assert.assertEquals(request.getAttachments(), serverRequest.getAttachments());
+
+        // 不使用表的 codec 无法 decode 表下标
+        try {
+            new CompactRpcCodec().decode(channel, "", client.encode(channel, request));
+            Assert.fail();
+        } catch (MotanFrameworkException e) {
+            Assert.assertEquals(MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR_CODE, e.getErrorCode());
+        }
+    }
+
+    // 表满时两端按相同的顺序淘汰
+    @Test
+    public void testAttachmentTableEviction() throws Exception {
+        URL smallTableUrl = url.createCopy();
+        smallTableUrl.addParameter(URLParamType.attachmentTableSize.getName(), "100");
+        Channel smallTableChannel = new MockChannel(smallTableUrl);
+        Codec client = negotiatedCodec().newConnectionCodec();
+        Codec server = new CompactRpcCodec().newConnectionCodec();
+
+        for (int i = 0; i < 20; i++) {
+            DefaultRequest request = getRequest("java.lang.String", new Object[] {"hello"});
+            request.setAttachment("key" + (i % 3), "value" + (i % 3));
+            request.setAttachment("key" + (i % 5), "value" + (i % 5));
+            Request serverRequest = (Request) server.decode(channel, "", client.encode(smallTableChannel, request));
+            Assert.assertEquals(request.getAttachments(), serverRequest.getAttachments());
+        }
+    }
+
+    @Test
+    public void testRawBytes() throws Exception {
+        byte[] data = new byte[] {1, 2, 3, 4, 5};
+        ByteBuffer buffer = ByteBuffer.wrap(data, 1, 3);
+        DefaultRequest request = getRequest("byte[],java.nio.ByteBuffer,java.lang.Object", new Object[] {data, buffer, data});
+
+        byte[] bytes = rpcCodec.encode(channel, request);
+        Request result = (Request) rpcCodec.decode(channel, "", bytes);
+        Assert.assertArrayEquals(data, (byte[]) result.getArguments()[0]);
+        Assert.assertEquals(ByteBuffer.wrap(data, 1, 3), result.getArguments()[1]);
+        // 声明类型不是 byte[] 的参数仍然序列化
+        Assert.assertArrayEquals(data, (byte[]) result.getArguments()[2]);
+        // 发送时不改变 ByteBuffer 的 position
+        Assert.assertEquals(1, buffer.position());
+
+        // byte[] 入口 decode 时 ByteBuffer 参数为 body 的视图，transport buffer 入口时为拷贝
+        ByteBuffer shared = (ByteBuffer) result.getArguments()[1];
+        Assert.assertSame(bytes, shared.array());
+        ByteBuffer copied = (ByteBuffer) ((Request) bufferCodec().decode(channel, "", ByteBuffer.wrap(bytes))).getArguments()[1];
+        Assert.assertNotSame(bytes, copied.array());
+        Assert.assertEquals(ByteBuffer.wrap(data, 1, 3), copied);
+
+        // 直接发送比序列化后发送小
+        DefaultRequest serialized = getRequest("java.lang.Object", new Object[] {data});
+        DefaultRequest raw = getRequest("byte[]", new Object[] {data});
+        Assert.assertTrue(rpcCodec.encode(channel, raw).length < rpcCodec.encode(channel, serialized).length);
+
+        DefaultResponse response = new DefaultResponse();
+        response.setRpcProtocolVersion(RpcProtocolVersion.VERSION_3.getVersion());
+        response.setValue(data);
+        Response responseResult = (Response) rpcCodec.decode(channel, "", rpcCodec.encode(channel, response));
+        Assert.assertArrayEquals(data, (byte[]) responseResult.getValue());
+
+        response.setValue(ByteBuffer.allocateDirect(3).put(new byte[] {2, 3, 4}).flip());
+        responseResult = (Response) rpcCodec.decode(channel, "", rpcCodec.encode(channel, response));
+        Assert.assertEquals(ByteBuffer.wrap(data, 1, 3), responseResult.getValue());
+    }
+
+    @Test
+    public void testSmallerThanV1() throws Exception {
+        DefaultRequest request = getRequest("java.lang.String", new Object[] {"hello"});
+        Assert.assertTrue(rpcCodec.encode(channel, request).length < new DefaultRpcCodec().encode(channel, request).length);
+    }
+
+    private Channel noAttachmentTableChannel() {
+        URL noTableUrl = url.createCopy();
+        noTableUrl.addParameter(URLParamType.attachmentTableSize.getName(), "0");
+        return new MockChannel(noTableUrl);
+    }
+
+    private CompactRpcCodec negotiatedCodec() throws Exception {
+        CompactRpcCodec codec = new CompactRpcCodec();
+        DefaultResponse response = new DefaultResponse();
+        response.setRpcProtocolVersion(RpcProtocolVersion.VERSION_3.getVersion());
+        codec.decode(channel, "", codec.encode(channel, response));
+        Assert.assertTrue(codec.isV3Supported());
+        return codec;
+    }
+}
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 import java.util.zip.GZIPInputStream;
 
 import org.junit.After;
@@ -32,6 +33,7 @@ import com.weibo.api.motan.common.URLParamType;
 import com.weibo.api.motan.mock.MockChannel;
 import com.weibo.api.motan.protocol.rpc.CompressRpcCodec.MethodInfo;
 import com.weibo.api.motan.rpc.DefaultRequest;
+import com.weibo.api.motan.rpc.DefaultResponse;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
 import com.weibo.api.motan.rpc.URL;
@@ -124,6 +126,68 @@ public class CompressRpcCodecTest extends DefaultRpcCodecTest {
 
 
 
+    // 压缩算法 id 写在 flag 中
+    @Test
+    public void testCompression() throws IOException {
+        DefaultRequest request = getRequest("java.lang.String", new Object[] {repeat("hello motan ", 200)});
+        byte[] plain = rpcCodec.encode(channel, request);
+
+        Channel lz4Channel = new MockChannel(compressUrl("lz4", false));
+        byte[] bytes = rpcCodec.encode(lz4Channel, request);
+        assertTrue(bytes.length < plain.length);
+        Assert.assertEquals(2, (bytes[3] >> 3) & 0x07);
+        Assert.assertTrue(equals(request, (Request) rpcCodec.decode(lz4Channel, "", bytes)));
+
+        DefaultResponse response = new DefaultResponse();
+        response.setRpcProtocolVersion(RpcProtocolVersion.VERSION_2.getVersion());
+        response.setValue(repeat("hello motan ", 200));
+        bytes = rpcCodec.encode(lz4Channel, response);
+        Assert.assertEquals(2, (bytes[3] >> 3) & 0x07);
+        Assert.assertEquals(response.getValue(), ((Response) rpcCodec.decode(lz4Channel, "", bytes)).getValue());
+
+        // 旧版本的 gzip 数据 flag 中没有算法 id
+        bytes = rpcCodec.encode(new MockChannel(compressUrl("gzip", false)), request);
+        Assert.assertEquals(1, (bytes[3] >> 3) & 0x07);
+        bytes[3] = (byte) (bytes[3] & 0x07);
+        assertTrue(isGzip(bytes));
+        Assert.assertTrue(equals(request, (Request) rpcCodec.decode(channel, "", bytes)));
+    }
+
+    // 压缩效果差的方法暂时不压缩
+    @Test
+    public void testAdaptiveCompress() throws IOException {
+        byte[] random = new byte[5000];
+        new Random().nextBytes(random);
+        DefaultRequest request = getRequest("byte[]", new Object[] {random});
+        Channel adaptiveChannel = new MockChannel(compressUrl("gzip", true));
+
+        byte[] bytes = rpcCodec.encode(adaptiveChannel, request);
+        Assert.assertEquals(0, (bytes[3] >> 3) & 0x07);
+        Request result = (Request) rpcCodec.decode(adaptiveChannel, "", bytes);
+        Assert.assertArrayEquals(random, (byte[]) result.getArguments()[0]);
+
+        // 其他方法不受影响
+        request = getRequest("java.lang.String", new Object[] {repeat("hello motan ", 200)});
+        bytes = rpcCodec.encode(adaptiveChannel, request);
+        Assert.assertEquals(1, (bytes[3] >> 3) & 0x07);
+    }
+
+    private URL compressUrl(String compression, boolean adaptive) {
+        URL url = new URL("motan", "localhost", 18080, "com.weibo.api.motan.procotol.example.IHello");
+        url.getParameters().put(URLParamType.compression.getName(), compression);
+        url.getParameters().put(URLParamType.mingzSize.getName(), "100");
+        url.getParameters().put(URLParamType.adaptiveCompress.getName(), String.valueOf(adaptive));
+        return url;
+    }
+
+    private String repeat(String str, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(str);
+        }
+        return builder.toString();
+    }
+
     public void testCodecRequest(Request request) throws Exception {
         byte[] bytes = rpcCodec.encode(channel, request);
         assertTrue(isCompressVersion(bytes));
@@ -16,6 +16,7 @@
 
 package com.weibo.api.motan.protocol.rpc;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import junit.framework.TestCase;
@@ -23,17 +24,23 @@ import junit.framework.TestCase;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.weibo.api.motan.codec.BufferCodec;
 import com.weibo.api.motan.codec.Codec;
+import com.weibo.api.motan.common.URLParamType;
 import com.weibo.api.motan.exception.MotanErrorMsgConstant;
 import com.weibo.api.motan.exception.MotanServiceException;
 import com.weibo.api.motan.mock.MockChannel;
 import com.weibo.api.motan.protocol.example.Model;
 import com.weibo.api.motan.rpc.DefaultRequest;
 import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.DeferredRequest;
+import com.weibo.api.motan.rpc.DeferredResponse;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
 import com.weibo.api.motan.rpc.URL;
 import com.weibo.api.motan.transport.Channel;
+import com.weibo.api.motan.util.ByteArrayBufferOutputStream;
+import com.weibo.api.motan.util.ByteUtil;
 
 /**
  * @author maijunsheng
@@ -172,6 +179,114 @@ public class DefaultRpcCodecTest extends TestCase {
         Assert.assertTrue(result.getException().getClass().equals(response.getException().getClass()));
     }
 
+    @Test
+    public void testDecodeFromBuffer() throws Exception {
+        DefaultRequest request = getRequest("java.lang.String", new Object[] {"hello"});
+        Request requestResult = (Request) bufferCodec().decode(channel, "", wrapInDirectBuffer(rpcCodec.encode(channel, request)));
+        Assert.assertTrue(equals(request, requestResult));
+
+        DefaultResponse response = new DefaultResponse();
+        response.setValue("world");
+        Response responseResult = (Response) bufferCodec().decode(channel, "", wrapInDirectBuffer(rpcCodec.encode(channel, response)));
+        Assert.assertEquals(response.getValue(), responseResult.getValue());
+    }
+
+    @Test
+    public void testEncodeToBuffer() throws Exception {
+        DefaultRequest request = getRequest("java.lang.String", new Object[] {"hello"});
+        byte[] expected = rpcCodec.encode(channel, request);
+
+        // buffer 中已有其他数据时，codec 从当前 position 开始写入并回填 body length
+        ByteArrayBufferOutputStream out = new ByteArrayBufferOutputStream(8);
+        out.write(new byte[5]);
+        bufferCodec().encode(channel, request, out);
+        byte[] bytes = out.toByteArray();
+
+        Assert.assertEquals(5 + expected.length, bytes.length);
+        Assert.assertArrayEquals(expected, Arrays.copyOfRange(bytes, 5, bytes.length));
+        Assert.assertEquals(expected.length - RpcProtocolVersion.VERSION_1.getHeaderLength(), ByteUtil.bytes2int(bytes, 5 + 12));
+
+        Request requestResult = (Request) rpcCodec.decode(channel, "", Arrays.copyOfRange(bytes, 5, bytes.length));
+        Assert.assertTrue(equals(request, requestResult));
+    }
+
+    @Test
+    public void testDecodeInWorker() throws Exception {
+        URL workerUrl = url.createCopy();
+        workerUrl.addParameter(URLParamType.decodeInWorker.getName(), "true");
+        Channel workerChannel = new MockChannel(workerUrl);
+
+        DefaultRequest request =
+                getRequest("com.weibo.api.motan.protocol.example.Model,java.lang.Integer,java.lang.String", new Object[] {
+                        new Model("world", 12, Model.class), 1, "hello"});
+        request.setAttachment("key", "value");
+        byte[] bytes = rpcCodec.encode(channel, request);
+
+        // transport buffer 入口：decode 返回后 buffer 会被回收，参数数据需要已经拷贝
+        ByteBuffer buffer = wrapInDirectBuffer(bytes);
+        Request result = (Request) bufferCodec().decode(workerChannel, "", buffer);
+        buffer.clear();
+        buffer.put(new byte[buffer.capacity()]);
+
+        Assert.assertTrue(result instanceof DeferredRequest);
+        Assert.assertFalse(((DeferredRequest) result).isArgumentsDecoded());
+        Assert.assertEquals("value", result.getAttachments().get("key"));
+
+        ((DeferredRequest) result).decodeArguments();
+        Assert.assertTrue(((DeferredRequest) result).isArgumentsDecoded());
+        Assert.assertTrue(equals(request, result));
+
+        // 未开启时仍在 decode 中反序列化
+        Assert.assertFalse(rpcCodec.decode(channel, "", bytes) instanceof DeferredRequest);
+
+        // 无参数的请求
+        DefaultRequest voidRequest = getRequest("void", null);
+        result = (Request) rpcCodec.decode(workerChannel, "", rpcCodec.encode(channel, voidRequest));
+        Assert.assertTrue(equals(voidRequest, result));
+    }
+
+    @Test
+    public void testLazyDeserialize() throws Exception {
+        URL lazyUrl = url.createCopy();
+        lazyUrl.addParameter(URLParamType.lazyDeserialize.getName(), "true");
+        Channel lazyChannel = new MockChannel(lazyUrl);
+
+        DefaultResponse response = new DefaultResponse();
+        response.setValue(new Model("world", 12, Model.class));
+        byte[] bytes = rpcCodec.encode(channel, response);
+
+        ByteBuffer buffer = wrapInDirectBuffer(bytes);
+        Response result = (Response) bufferCodec().decode(lazyChannel, "", buffer);
+        buffer.clear();
+        buffer.put(new byte[buffer.capacity()]);
+
+        Assert.assertTrue(result instanceof DeferredResponse);
+        Assert.assertFalse(((DeferredResponse) result).isValueDecoded());
+        Assert.assertNull(result.getException());
+        Assert.assertEquals(response.getValue().toString(), result.getValue().toString());
+        Assert.assertTrue(((DeferredResponse) result).isValueDecoded());
+
+        // 异常 response 不延迟
+        DefaultResponse exceptionResponse = new DefaultResponse();
+        exceptionResponse.setException(new MotanServiceException("hello", MotanErrorMsgConstant.SERVICE_REJECT));
+        result = (Response) rpcCodec.decode(lazyChannel, "", rpcCodec.encode(channel, exceptionResponse));
+        Assert.assertFalse(result instanceof DeferredResponse);
+        Assert.assertEquals(exceptionResponse.getException().getMessage(), result.getException().getMessage());
+
+        Assert.assertFalse(rpcCodec.decode(channel, "", bytes) instanceof DeferredResponse);
+    }
+
+    // 模拟 transport 的 buffer：数据前后都有其他数据，只有 position ~ limit 为一个完整的数据包
+    private ByteBuffer wrapInDirectBuffer(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 20);
+        buffer.put(new byte[7]);
+        buffer.put(bytes);
+        buffer.put(new byte[13]);
+        buffer.position(7);
+        buffer.limit(7 + bytes.length);
+        return buffer;
+    }
+
     @Test
     public void testCodecResponse(Response respose) throws Exception {
         byte[] bytes = rpcCodec.encode(channel, respose);
@@ -253,4 +368,8 @@ public class DefaultRpcCodecTest extends TestCase {
 
         return obj.getClass().getName();
     }
+
+    protected BufferCodec bufferCodec() {
+        return (BufferCodec) rpcCodec;
+    }
 }
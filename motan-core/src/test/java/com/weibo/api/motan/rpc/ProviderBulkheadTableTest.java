@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.rpc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.rpc.ProviderMethodTable.MethodKey;
+import com.weibo.api.motan.transport.ProviderB;
+import com.weibo.api.motan.util.ReflectUtil;
+
+public class ProviderBulkheadTableTest extends TestCase {
+
+    @Test
+    public void testBulkhead() throws Exception {
+        ProviderBulkheadTable table = new ProviderBulkheadTable();
+        table.addProvider(createProvider(new URL("motan", "localhost", 0, ProviderB.class.getName())));
+        Assert.assertFalse(table.hasBulkhead());
+        Assert.assertNull(table.getBulkhead(createKey("providerA")));
+
+        URL url = new URL("motan", "localhost", 0, ProviderB.class.getName());
+        url.addParameter(URLParamType.bulkheadThread.getName(), "2");
+        url.addParameter(getMethodParamKey("providerB", URLParamType.bulkheadThread.getName()), "1");
+        url.addParameter(getMethodParamKey("providerB", URLParamType.bulkheadQueueSize.getName()), "1");
+        Provider<ProviderB> provider = createProvider(url);
+        table.addProvider(provider);
+        Assert.assertTrue(table.hasBulkhead());
+
+        // 方法级别的配置优先，其他方法使用 service 级别的线程池
+        ProviderBulkhead serviceBulkhead = table.getBulkhead(createKey("providerA"));
+        ProviderBulkhead methodBulkhead = table.getBulkhead(createKey("providerB"));
+        Assert.assertEquals(2, serviceBulkhead.getExecutor().getMaximumPoolSize());
+        Assert.assertEquals(1, methodBulkhead.getExecutor().getMaximumPoolSize());
+
+        // 线程和队列都占满后拒绝
+        final CountDownLatch latch = new CountDownLatch(1);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        ThreadPoolExecutor executor = methodBulkhead.getExecutor();
+        executor.execute(task);
+        executor.execute(task);
+        try {
+            executor.execute(task);
+            Assert.assertTrue(false);
+        } catch (RejectedExecutionException e) {
+            Assert.assertEquals(1, methodBulkhead.getRejectedCount());
+        }
+        Assert.assertEquals(0, serviceBulkhead.getRejectedCount());
+        latch.countDown();
+
+        table.removeProvider(provider);
+        Assert.assertFalse(table.hasBulkhead());
+        Assert.assertNull(table.getBulkhead(createKey("providerA")));
+        Assert.assertTrue(serviceBulkhead.getExecutor().isShutdown());
+        Assert.assertTrue(executor.isShutdown());
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    private Provider<ProviderB> createProvider(URL url) {
+        return new DefaultProvider<ProviderB>(new ProviderB() {
+            @Override
+            public String providerA() {
+                return "A";
+            }
+
+            @Override
+            public String providerB() {
+                return "B";
+            }
+        }, url, ProviderB.class);
+    }
+
+    private MethodKey createKey(String methodName) {
+        DefaultRequest request = new DefaultRequest();
+        request.setInterfaceName(ProviderB.class.getName());
+        request.setMethodName(methodName);
+        request.setParamtersDesc(ReflectUtil.EMPTY_PARAM);
+        return MethodKey.of(request);
+    }
+
+    private String getMethodParamKey(String methodName, String name) {
+        return MotanConstants.METHOD_CONFIG_PREFIX + methodName + "(" + ReflectUtil.EMPTY_PARAM + ")." + name;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.rpc;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.rpc.ProviderMethodTable.MethodEntry;
+import com.weibo.api.motan.transport.ProviderB;
+import com.weibo.api.motan.util.ReflectUtil;
+
+public class ProviderMethodTableTest extends TestCase {
+
+    @Test
+    public void testInlineExecute() {
+        ProviderMethodTable table = new ProviderMethodTable();
+        table.addProvider(createProvider(new URL("motan", "localhost", 0, ProviderB.class.getName())));
+        Assert.assertFalse(table.hasInlineMethod());
+        Assert.assertFalse(table.getMethod(createRequest("providerB")).isInlineExecute());
+
+        URL url = new URL("motan", "localhost", 0, ProviderB.class.getName());
+        url.addParameter(getMethodParamKey("providerB", URLParamType.inlineExecute.getName()), "true");
+        url.addParameter(getMethodParamKey("providerB", URLParamType.inlineLatencyThreshold.getName()), "10");
+        table.addProvider(createProvider(url));
+        Assert.assertTrue(table.hasInlineMethod());
+
+        MethodEntry inlineMethod = table.getMethod(createRequest("providerB"));
+        Assert.assertTrue(inlineMethod.isInlineExecute());
+        Assert.assertTrue(inlineMethod.isInline());
+        Assert.assertSame(inlineMethod, table.getMethod(inlineMethod.getId()));
+
+        MethodEntry poolMethod = table.getMethod(createRequest("providerA"));
+        Assert.assertFalse(poolMethod.isInlineExecute());
+        Assert.assertFalse(poolMethod.isInline());
+
+        // 通过 method id 查找
+        DefaultRequest request = createRequest("unknown");
+        request.setMethodId(inlineMethod.getId());
+        Assert.assertSame(inlineMethod, table.getMethod(request));
+    }
+
+    @Test
+    public void testLatencyGuard() {
+        URL url = new URL("motan", "localhost", 0, ProviderB.class.getName());
+        url.addParameter(URLParamType.inlineExecute.getName(), "true");
+        url.addParameter(URLParamType.inlineLatencyThreshold.getName(), "10");
+        ProviderMethodTable table = new ProviderMethodTable();
+        table.addProvider(createProvider(url));
+
+        // service 级别的配置对所有方法生效
+        MethodEntry method = table.getMethod(createRequest("providerA"));
+        Assert.assertTrue(method.isInline());
+
+        for (int i = 0; i < 10; i++) {
+            method.recordLatency(TimeUnit.MICROSECONDS.toNanos(1));
+        }
+        Assert.assertTrue(method.isInline());
+
+        // 慢调用后回到线程池
+        method.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertFalse(method.isInline());
+        Assert.assertTrue(method.isInlineExecute());
+
+        // 耗时恢复后重新在 IO 线程中执行
+        for (int i = 0; i < 100 && !method.isInline(); i++) {
+            method.recordLatency(TimeUnit.MICROSECONDS.toNanos(1));
+        }
+        Assert.assertTrue(method.isInline());
+        Assert.assertTrue(method.getAverageLatencyNanos() <= TimeUnit.MICROSECONDS.toNanos(10));
+    }
+
+    private Provider<ProviderB> createProvider(URL url) {
+        return new DefaultProvider<ProviderB>(new ProviderB() {
+            @Override
+            public String providerA() {
+                return "A";
+            }
+
+            @Override
+            public String providerB() {
+                return "B";
+            }
+        }, url, ProviderB.class);
+    }
+
+    private DefaultRequest createRequest(String methodName) {
+        DefaultRequest request = new DefaultRequest();
+        request.setInterfaceName(ProviderB.class.getName());
+        request.setMethodName(methodName);
+        request.setParamtersDesc(ReflectUtil.EMPTY_PARAM);
+        return request;
+    }
+
+    private String getMethodParamKey(String methodName, String name) {
+        return MotanConstants.METHOD_CONFIG_PREFIX + methodName + "(" + ReflectUtil.EMPTY_PARAM + ")." + name;
+    }
+}
@@ -97,6 +97,46 @@ public class Hessian2SerializationTest extends TestCase {
         assertNull(result.getTimeStamp());
     }
 
+    @Test
+    public void testReuse() throws Exception {
+        // 同一线程重复序列化，复用的 output 不应残留上一次的引用或类定义
+        Model model = new Model();
+        model.add("a", new SubModel("a", 1));
+        byte[] first = hessian2Serialization.serialize(model);
+        byte[] second = hessian2Serialization.serialize(model);
+        Assert.assertArrayEquals(first, second);
+
+        for (int i = 0; i < 3; i++) {
+            Model result = hessian2Serialization.deserialize(second, Model.class);
+            Assert.assertEquals(model.toString(), result.toString());
+        }
+    }
+
+    @Test
+    public void testReuseAfterMalformedInput() throws Exception {
+        // 不完整的 payload 反序列化失败后，同一线程后续的反序列化不受影响
+        try {
+            hessian2Serialization.deserialize(new byte[] {0x40, 'x', 'y', 'z', 'w'}, Object.class);
+            fail("malformed input should fail");
+        } catch (Exception e) {
+        }
+
+        Assert.assertEquals("hello", hessian2Serialization.deserialize(hessian2Serialization.serialize("hello"), String.class));
+    }
+
+    @Test
+    public void testTrailingBytesNotLeaked() throws Exception {
+        // payload 末尾有未读取的字节时，不应被同一线程的下一次反序列化读到
+        byte[] first = hessian2Serialization.serialize("first");
+        byte[] second = hessian2Serialization.serialize("second");
+        byte[] concat = new byte[first.length + second.length];
+        System.arraycopy(first, 0, concat, 0, first.length);
+        System.arraycopy(second, 0, concat, first.length, second.length);
+
+        Assert.assertEquals("first", hessian2Serialization.deserialize(concat, String.class));
+        Assert.assertEquals("third", hessian2Serialization.deserialize(hessian2Serialization.serialize("third"), String.class));
+    }
+
     @Test
     public void testHessianDeserializeException() throws Exception {
         UserAttentions user = new UserAttentions();
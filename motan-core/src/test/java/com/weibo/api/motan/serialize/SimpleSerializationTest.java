@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.serialize;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.exception.MotanServiceException;
+
+public class SimpleSerializationTest extends TestCase {
+    private SimpleSerialization serialization = new SimpleSerialization();
+
+    @Test
+    public void testBasicType() throws Exception {
+        Assert.assertNull(serialization.deserialize(serialization.serialize(null), Object.class));
+        Assert.assertEquals(Integer.MIN_VALUE, (int) serialization.deserialize(serialization.serialize(Integer.MIN_VALUE), int.class));
+        Assert.assertEquals(Long.MAX_VALUE, (long) serialization.deserialize(serialization.serialize(Long.MAX_VALUE), Long.class));
+        Assert.assertEquals((short) -3, (short) serialization.deserialize(serialization.serialize((short) -3), short.class));
+        Assert.assertEquals((byte) 7, (byte) serialization.deserialize(serialization.serialize((byte) 7), byte.class));
+        Assert.assertEquals(true, serialization.deserialize(serialization.serialize(true), boolean.class));
+        Assert.assertEquals(1.5f, serialization.deserialize(serialization.serialize(1.5f), float.class), 0);
+        Assert.assertEquals(-2.25d, serialization.deserialize(serialization.serialize(-2.25d), double.class), 0);
+
+        String[] strings = new String[] {"", "abc", "中文", "😀", "\ud800x"};
+        for (String s : strings) {
+            byte[] bytes = serialization.serialize(s);
+            // 与 String.getBytes 的编码结果一致
+            Assert.assertEquals(s.getBytes("UTF-8").length + 2, bytes.length);
+            Assert.assertEquals(new String(s.getBytes("UTF-8"), "UTF-8"), serialization.deserialize(bytes, String.class));
+        }
+        // 1 字节类型 + 1 字节长度 + 内容
+        Assert.assertEquals(5, serialization.serialize("abc").length);
+        Assert.assertEquals(2, serialization.serialize(1).length);
+    }
+
+    @Test
+    public void testArray() throws Exception {
+        long[] longs = new long[] {0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE};
+        Assert.assertArrayEquals(longs, serialization.deserialize(serialization.serialize(longs), long[].class));
+        int[] ints = new int[] {0, -100, Integer.MAX_VALUE};
+        Assert.assertArrayEquals(ints, serialization.deserialize(serialization.serialize(ints), int[].class));
+        short[] shorts = new short[] {Short.MIN_VALUE, 2};
+        Assert.assertArrayEquals(shorts, serialization.deserialize(serialization.serialize(shorts), short[].class));
+        double[] doubles = new double[] {0.1, -1e10};
+        Assert.assertTrue(Arrays.equals(doubles, serialization.deserialize(serialization.serialize(doubles), double[].class)));
+        float[] floats = new float[] {0.1f};
+        Assert.assertTrue(Arrays.equals(floats, serialization.deserialize(serialization.serialize(floats), float[].class)));
+        boolean[] booleans = new boolean[] {true, false};
+        boolean[] booleanResult = serialization.deserialize(serialization.serialize(booleans), boolean[].class);
+        Assert.assertTrue(booleanResult[0] && !booleanResult[1]);
+        byte[] bytes = new byte[] {1, 2, 3};
+        Assert.assertArrayEquals(bytes, serialization.deserialize(serialization.serialize(bytes), byte[].class));
+        String[] strings = new String[] {"a", "b"};
+        Assert.assertArrayEquals(strings, serialization.deserialize(serialization.serialize(strings), String[].class));
+        String[] withNull = new String[] {"a", null};
+        Assert.assertArrayEquals(withNull, serialization.deserialize(serialization.serialize(withNull), String[].class));
+        Integer[] integers = new Integer[] {1, null, 3};
+        Assert.assertArrayEquals(integers, serialization.deserialize(serialization.serialize(integers), Integer[].class));
+    }
+
+    @Test
+    public void testCollection() throws Exception {
+        List<Long> uids = new ArrayList<Long>();
+        uids.add(1L);
+        uids.add(-1L);
+        uids.add(null);
+        Assert.assertEquals(uids, serialization.deserialize(serialization.serialize(uids), List.class));
+
+        LinkedList<Long> linked = serialization.deserialize(serialization.serialize(uids), LinkedList.class);
+        Assert.assertEquals(uids, linked);
+        Set<?> set = serialization.deserialize(serialization.serialize(uids), Set.class);
+        Assert.assertEquals(3, set.size());
+        Assert.assertTrue(set.contains(-1L));
+
+        Map<Long, Integer> userTypes = new HashMap<Long, Integer>();
+        userTypes.put(1L, 1);
+        userTypes.put(2L, null);
+        Assert.assertEquals(userTypes, serialization.deserialize(serialization.serialize(userTypes), Map.class));
+
+        Map<String, String> stringMap = new HashMap<String, String>();
+        stringMap.put("k1", "v1");
+        stringMap.put("k2", "");
+        byte[] bytes = serialization.serialize(stringMap);
+        Assert.assertEquals(SimpleSerialization.TYPE_STRING_MAP, bytes[0]);
+        Assert.assertEquals(stringMap, serialization.deserialize(bytes, Map.class));
+        TreeMap<?, ?> treeMap = serialization.deserialize(bytes, TreeMap.class);
+        Assert.assertEquals(stringMap, treeMap);
+
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("list", uids);
+        nested.put("map", stringMap);
+        nested.put("longs", new long[] {1, 2});
+        Map<?, ?> result = serialization.deserialize(serialization.serialize(nested), Map.class);
+        Assert.assertEquals(uids, result.get("list"));
+        Assert.assertEquals(stringMap, result.get("map"));
+        Assert.assertArrayEquals(new long[] {1, 2}, (long[]) result.get("longs"));
+    }
+
+    @Test
+    public void testThrowableOnlyAtTopLevel() throws Exception {
+        // 异常只写入类名和 message
+        byte[] bytes = serialization.serialize(new IllegalStateException("state"));
+        Assert.assertEquals(SimpleSerialization.TYPE_THROWABLE, bytes[0]);
+        RuntimeException result = serialization.deserialize(bytes, RuntimeException.class);
+        Assert.assertEquals(IllegalStateException.class, result.getClass());
+        Assert.assertEquals("state", result.getMessage());
+
+        // 类名不是声明类型的子类时使用声明类型
+        byte[] other = serialization.serialize(new IOException("io"));
+        result = serialization.deserialize(other, RuntimeException.class);
+        Assert.assertEquals(RuntimeException.class, result.getClass());
+        Assert.assertEquals("io", result.getMessage());
+
+        // 嵌套在 array 或 map 中的异常不能反序列化
+        byte[] nested = new byte[bytes.length + 2];
+        nested[0] = SimpleSerialization.TYPE_ARRAY;
+        nested[1] = 1;
+        System.arraycopy(bytes, 0, nested, 2, bytes.length);
+        try {
+            serialization.deserialize(nested, Object[].class);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("top level"));
+        }
+
+        // 声明类型不是 Throwable 时不能反序列化
+        try {
+            serialization.deserialize(bytes, Object.class);
+            Assert.fail();
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testException() throws Exception {
+        MotanServiceException exception = new MotanServiceException("test");
+        Exception result = serialization.deserialize(serialization.serialize(exception), Exception.class);
+        Assert.assertTrue(result instanceof MotanServiceException);
+        Assert.assertEquals(exception.getMessage(), result.getMessage());
+
+        try {
+            serialization.serialize(new Object());
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("can't serialize"));
+        }
+
+        byte[] bytes = serialization.serialize(new long[] {1, 2, 3});
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        try {
+            serialization.deserialize(truncated, long[].class);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("SimpleSerialization"));
+        }
+    }
+}
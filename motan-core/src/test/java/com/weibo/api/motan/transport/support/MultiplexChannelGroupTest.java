@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.support;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.TestConstants;
+import com.weibo.api.motan.mock.MockChannel;
+import com.weibo.api.motan.transport.Channel;
+
+public class MultiplexChannelGroupTest extends TestCase {
+
+    @Test
+    public void testRoundRobin() {
+        MockChannelFactory factory = new MockChannelFactory();
+        MultiplexChannelGroup group = new MultiplexChannelGroup("test", factory, 3);
+        group.init(false);
+
+        Assert.assertEquals(3, factory.created.get());
+        Assert.assertEquals(3, group.getAvailableCount());
+
+        Set<Channel> selected = new HashSet<Channel>();
+        for (int i = 0; i < 3; i++) {
+            selected.add(group.getChannel());
+        }
+        Assert.assertEquals(3, selected.size());
+
+        group.close();
+        Assert.assertEquals(3, factory.destroyed.get());
+    }
+
+    @Test
+    public void testInvalidateAndReconnect() throws Exception {
+        MockChannelFactory factory = new MockChannelFactory();
+        MultiplexChannelGroup group = new MultiplexChannelGroup("test", factory, 2);
+        group.init(false);
+
+        AvailableChannel channel = (AvailableChannel) group.getChannel();
+        channel.available = false;
+
+        // 不可用的 channel 不会被选中
+        for (int i = 0; i < 4; i++) {
+            Assert.assertNotSame(channel, group.getChannel());
+        }
+
+        group.invalidate(channel);
+        Assert.assertEquals(1, factory.destroyed.get());
+
+        for (int i = 0; i < 50 && group.getAvailableCount() < 2; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(2, group.getAvailableCount());
+        Assert.assertEquals(3, factory.created.get());
+
+        group.close();
+    }
+
+    @Test
+    public void testNoAvailableChannel() {
+        MockChannelFactory factory = new MockChannelFactory();
+        factory.fail = true;
+        MultiplexChannelGroup group = new MultiplexChannelGroup("test", factory, 2);
+        group.init(false);
+
+        Assert.assertNull(group.getChannel());
+        group.close();
+    }
+
+    @Test
+    public void testReconnectBackoff() throws Exception {
+        MockChannelFactory factory = new MockChannelFactory();
+        factory.fail = true;
+        MultiplexChannelGroup group = new MultiplexChannelGroup("test", factory, 2);
+        group.init(false);
+        Assert.assertEquals(1, factory.attempts.get());
+
+        // 退避期间请求不会触发重连
+        for (int i = 0; i < 10; i++) {
+            Assert.assertNull(group.getChannel());
+        }
+        Thread.sleep(100);
+        Assert.assertEquals(1, factory.attempts.get());
+
+        group.close();
+    }
+
+    static class AvailableChannel extends MockChannel {
+        volatile boolean available = true;
+
+        public AvailableChannel() {
+            super(TestConstants.EMPTY_URL);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return available;
+        }
+    }
+
+    static class MockChannelFactory extends BasePoolableObjectFactory {
+        AtomicInteger attempts = new AtomicInteger(0);
+        AtomicInteger created = new AtomicInteger(0);
+        AtomicInteger destroyed = new AtomicInteger(0);
+        volatile boolean fail = false;
+
+        @Override
+        public Object makeObject() throws Exception {
+            attempts.incrementAndGet();
+            if (fail) {
+                throw new Exception("connect fail");
+            }
+            created.incrementAndGet();
+            return new AvailableChannel();
+        }
+
+        @Override
+        public void destroyObject(Object obj) throws Exception {
+            destroyed.incrementAndGet();
+        }
+    }
+}
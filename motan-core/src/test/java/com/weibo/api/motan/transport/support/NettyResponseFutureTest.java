@@ -0,0 +1,377 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.support;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.exception.MotanServiceException;
+import com.weibo.api.motan.mock.MockChannel;
+import com.weibo.api.motan.rpc.DefaultRequest;
+import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.DeferredResponse;
+import com.weibo.api.motan.rpc.Future;
+import com.weibo.api.motan.rpc.FutureListener;
+import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.transport.Channel;
+import com.weibo.api.motan.transport.Server;
+
+/**
+ * @author maijunsheng
+ * @version 创建时间：2013-6-14
+ * 
+ */
+public class NettyResponseFutureTest extends TestCase {
+    private static Channel client = new MockChannel(new URL("motan", "localhost", 18080, Server.class.getName()));
+
+    @Test
+    public void testNormal() {
+        DefaultRequest request = new DefaultRequest();
+
+        DefaultResponse defaultResponse = new DefaultResponse();
+        defaultResponse.setValue("success");
+
+        NettyResponseFuture response = new NettyResponseFuture(request, 100, client);
+
+        response.onSuccess(defaultResponse);
+
+        Object result = response.getValue();
+        Assert.assertEquals(result, defaultResponse.getValue());
+        Assert.assertTrue(response.isDone());
+    }
+
+    @Test
+    public void testLazyDeserialize() throws Exception {
+        DefaultRequest request = new DefaultRequest();
+
+        final Thread ioThread = Thread.currentThread();
+        final AtomicBoolean decodeInCaller = new AtomicBoolean(false);
+        DeferredResponse deferredResponse = new DeferredResponse();
+        deferredResponse.setValueDecoder(new DeferredResponse.ValueDecoder() {
+            @Override
+            public Object decode() throws Exception {
+                decodeInCaller.set(Thread.currentThread() != ioThread);
+                return "success";
+            }
+        });
+
+        final NettyResponseFuture response = new NettyResponseFuture(request, 100, client);
+        response.onSuccess(deferredResponse);
+        Assert.assertTrue(response.isDone());
+        Assert.assertFalse(deferredResponse.isValueDecoded());
+
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread caller = new Thread() {
+            public void run() {
+                result.set(response.getValue());
+            }
+        };
+        caller.start();
+        caller.join();
+
+        Assert.assertEquals("success", result.get());
+        Assert.assertTrue(decodeInCaller.get());
+        Assert.assertEquals("success", response.getValue());
+        Assert.assertTrue(response.isSuccess());
+    }
+
+    @Test
+    public void testLazyDeserializeWithListener() throws Exception {
+        DefaultRequest request = new DefaultRequest();
+
+        final AtomicReference<Thread> decodeThread = new AtomicReference<Thread>();
+        DeferredResponse deferredResponse = new DeferredResponse();
+        deferredResponse.setValueDecoder(new DeferredResponse.ValueDecoder() {
+            @Override
+            public Object decode() throws Exception {
+                decodeThread.set(Thread.currentThread());
+                return "success";
+            }
+        });
+
+        final NettyResponseFuture response = new NettyResponseFuture(request, 100, client);
+        // 与 NettyChannel 的错误计数 listener 一样，在 IO 线程中检查 isSuccess、getException
+        final AtomicBoolean listenerSuccess = new AtomicBoolean(false);
+        response.addListener(new FutureListener() {
+            @Override
+            public void operationComplete(Future future) throws Exception {
+                listenerSuccess.set(future.isSuccess() && future.getException() == null);
+            }
+        });
+        response.onSuccess(deferredResponse);
+
+        Assert.assertTrue(listenerSuccess.get());
+        Assert.assertNull(decodeThread.get());
+        Assert.assertFalse(deferredResponse.isValueDecoded());
+
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread caller = new Thread() {
+            public void run() {
+                result.set(response.getValue());
+            }
+        };
+        caller.start();
+        caller.join();
+
+        Assert.assertEquals("success", result.get());
+        Assert.assertSame(caller, decodeThread.get());
+    }
+
+    @Test
+    public void testLazyDeserializeFailure() throws Exception {
+        DefaultRequest request = new DefaultRequest();
+
+        final AtomicInteger decodeTimes = new AtomicInteger(0);
+        DeferredResponse deferredResponse = new DeferredResponse();
+        deferredResponse.setValueDecoder(new DeferredResponse.ValueDecoder() {
+            @Override
+            public Object decode() throws Exception {
+                decodeTimes.incrementAndGet();
+                throw new ClassNotFoundException("com.weibo.NotExist");
+            }
+        });
+
+        NettyResponseFuture response = new NettyResponseFuture(request, 100, client);
+        response.onSuccess(deferredResponse);
+
+        // 传输成功，getValue 之前不反序列化
+        Assert.assertTrue(response.isSuccess());
+        Assert.assertNull(response.getException());
+        Assert.assertEquals(0, decodeTimes.get());
+
+        // 反序列化失败时在 getValue 中抛出，并记录到 future 上
+        MotanFrameworkException exception = null;
+        try {
+            response.getValue();
+            fail("deferred decode failure should be thrown");
+        } catch (MotanFrameworkException e) {
+            exception = e;
+        }
+        Assert.assertEquals(MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR_CODE, exception.getErrorCode());
+        Assert.assertSame(exception, response.getException());
+        Assert.assertFalse(response.isSuccess());
+        try {
+            response.getValue();
+            fail("deferred decode failure should be thrown");
+        } catch (MotanFrameworkException e) {
+            Assert.assertSame(exception, e);
+        }
+        Assert.assertEquals(1, decodeTimes.get());
+    }
+
+    @Test
+    public void testException() {
+        DefaultRequest request = new DefaultRequest();
+
+        NettyResponseFuture response = new NettyResponseFuture(request, 100, client);
+        Exception exception = new Exception("hello");
+        DefaultResponse defaultResponse = new DefaultResponse();
+        defaultResponse.setException(exception);
+
+        response.onFailure(defaultResponse);
+
+
+        try {
+            response.getValue();
+            Assert.assertTrue(false);
+        } catch (Exception e) {
+            Assert.assertTrue(true);
+        }
+        Assert.assertTrue(response.isDone());
+    }
+
+    @Test
+    public void testTimeout() {
+        DefaultRequest request = new DefaultRequest();
+
+        NettyResponseFuture response = new NettyResponseFuture(request, 10, client);
+
+        try {
+            response.getValue();
+            Assert.assertTrue(false);
+        } catch (Exception e) {
+            Assert.assertTrue(true);
+        }
+
+        Assert.assertTrue(response.isCancelled());
+    }
+
+    @Test
+    public void testCancel() {
+        DefaultRequest request = new DefaultRequest();
+
+        NettyResponseFuture response = new NettyResponseFuture(request, 10, client);
+        response.cancel();
+
+        try {
+            response.getValue();
+            Assert.assertTrue(false);
+        } catch (Exception e) {
+            Assert.assertTrue(true);
+        }
+
+        Assert.assertTrue(response.isCancelled());
+    }
+
+    @Test
+    public void testCancelWithException() {
+        DefaultRequest request = new DefaultRequest();
+
+        NettyResponseFuture response = new NettyResponseFuture(request, 100, client);
+        MotanServiceException exception = new MotanServiceException("write fail");
+        Assert.assertTrue(response.cancel(exception));
+        Assert.assertFalse(response.cancel(new MotanServiceException("cancel again")));
+
+        try {
+            response.getValue();
+            Assert.assertTrue(false);
+        } catch (Exception e) {
+            Assert.assertSame(exception, e);
+        }
+
+        Assert.assertTrue(response.isCancelled());
+        Assert.assertSame(exception, response.getException());
+    }
+
+    @Test
+    public void testScheduleTimeout() throws Exception {
+        DefaultRequest request = new DefaultRequest();
+
+        final NettyResponseFuture response = new NettyResponseFuture(request, 30, client);
+        response.scheduleTimeout(new Runnable() {
+            @Override
+            public void run() {
+                response.cancel();
+            }
+        });
+
+        Thread.sleep(200);
+        Assert.assertTrue(response.isCancelled());
+
+        // 完成后超时任务被取消
+        final NettyResponseFuture success = new NettyResponseFuture(request, 30, client);
+        success.scheduleTimeout(new Runnable() {
+            @Override
+            public void run() {
+                success.cancel();
+            }
+        });
+        DefaultResponse defaultResponse = new DefaultResponse();
+        defaultResponse.setValue("success");
+        success.onSuccess(defaultResponse);
+
+        Thread.sleep(200);
+        Assert.assertTrue(success.isSuccess());
+    }
+
+    @Test
+    public void testListener() {
+        DefaultRequest request = new DefaultRequest();
+
+        NettyResponseFuture response = new NettyResponseFuture(request, 100, client);
+
+        final AtomicBoolean result = new AtomicBoolean(false);
+
+        response.addListener(new FutureListener() {
+            @Override
+            public void operationComplete(Future future) throws Exception {
+                if (future.isSuccess()) {
+                    result.set(true);
+                } else {
+                    result.set(false);
+                }
+            }
+        });
+
+        DefaultResponse defaultResponse = new DefaultResponse();
+        defaultResponse.setValue(new Object());
+        response.onSuccess(defaultResponse);
+
+        Assert.assertTrue(result.get());
+
+        response = new NettyResponseFuture(request, 100, client);
+
+        response.addListener(new FutureListener() {
+            @Override
+            public void operationComplete(Future future) throws Exception {
+                if (future.isSuccess()) {
+                    result.set(true);
+                } else {
+                    result.set(false);
+                }
+            }
+        });
+
+        response.cancel();
+
+        result.set(true);
+
+        response.addListener(new FutureListener() {
+            @Override
+            public void operationComplete(Future future) throws Exception {
+                if (future.isSuccess()) {
+                    result.set(true);
+                } else {
+                    result.set(false);
+                }
+            }
+        });
+
+        Assert.assertFalse(result.get());
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        final NettyResponseFuture future = new NettyResponseFuture(null, 1100, client);
+
+        new Thread() {
+            public void run() {
+                try {
+                    System.out.println("start get value");
+                    Object result = future.getValue();
+                    System.out.println("finish get value: " + result);
+                } catch (Exception e) {
+                    System.out.println("throwable get value: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }.start();
+
+        Thread.sleep(1000);
+
+        System.out.println("onComplete:" + future.getState());
+        //
+        // future.onComplete("hello");
+        // System.out.println("onComplete:" + future.state);
+        DefaultResponse defaultResponse = new DefaultResponse();
+        defaultResponse.setException(new Exception("exception ~~~~"));
+
+        future.onFailure(defaultResponse);
+        System.out.println("onError:" + future.getState());
+
+        Thread.sleep(1000);
+        System.out.println("finish");
+    }
+}
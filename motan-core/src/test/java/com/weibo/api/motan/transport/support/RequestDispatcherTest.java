@@ -0,0 +1,192 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.support;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanServiceException;
+import com.weibo.api.motan.mock.MockChannel;
+import com.weibo.api.motan.mock.MockServer;
+import com.weibo.api.motan.rpc.DefaultProvider;
+import com.weibo.api.motan.rpc.DefaultRequest;
+import com.weibo.api.motan.rpc.DeferredRequest;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.Response;
+import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.transport.Channel;
+import com.weibo.api.motan.transport.MessageHandler;
+import com.weibo.api.motan.transport.ProviderB;
+import com.weibo.api.motan.transport.ProviderMessageRouter;
+import com.weibo.api.motan.util.ReflectUtil;
+
+public class RequestDispatcherTest extends TestCase {
+    private Channel serverChannel = new MockChannel(new URL("motan", "localhost", 18099, "com.weibo.api.motan.protocol.example.IHello"));
+    private ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+    private ResponseQueue writer = new ResponseQueue();
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        RequestDispatcher dispatcher = new RequestDispatcher(serverChannel, new MessageHandler() {
+            @Override
+            public Object handle(Channel channel, Object message) {
+                return "hello " + ((Request) message).getRequestId();
+            }
+        }, executor);
+
+        dispatcher.dispatch(newRequest(1L), writer);
+
+        Response response = writer.poll();
+        Assert.assertEquals(1L, response.getRequestId());
+        Assert.assertEquals("hello 1", response.getValue());
+    }
+
+    // 线程池满时直接写回 reject response
+    @Test
+    public void testReject() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RequestDispatcher dispatcher = new RequestDispatcher(serverChannel, new MessageHandler() {
+            @Override
+            public Object handle(Channel channel, Object message) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                return "done";
+            }
+        }, executor);
+
+        dispatcher.dispatch(newRequest(1L), writer);
+        Assert.assertTrue(blocked.await(1, TimeUnit.SECONDS));
+
+        dispatcher.dispatch(newRequest(2L), writer);
+        Response rejected = writer.poll();
+        Assert.assertEquals(2L, rejected.getRequestId());
+        Assert.assertEquals(MotanErrorMsgConstant.SERVICE_REJECT.getErrorCode(),
+                ((MotanServiceException) rejected.getException()).getErrorCode());
+
+        release.countDown();
+        Assert.assertEquals("done", writer.poll().getValue());
+    }
+
+    // 参数反序列化失败时写回异常 response，不调用 message handler
+    @Test
+    public void testDecodeArgumentsError() throws Exception {
+        final AtomicInteger handled = new AtomicInteger();
+        RequestDispatcher dispatcher = new RequestDispatcher(serverChannel, new MessageHandler() {
+            @Override
+            public Object handle(Channel channel, Object message) {
+                handled.incrementAndGet();
+                return null;
+            }
+        }, executor);
+
+        DeferredRequest request = new DeferredRequest();
+        request.setRequestId(3L);
+        request.setArgumentsDecoder(new DeferredRequest.ArgumentsDecoder() {
+            @Override
+            public Object[] decode() throws Exception {
+                throw new IllegalStateException("bad arguments");
+            }
+        });
+        dispatcher.dispatch(request, writer);
+
+        Response response = writer.poll();
+        Assert.assertEquals(3L, response.getRequestId());
+        Assert.assertNotNull(response.getException());
+        Assert.assertEquals(0, handled.get());
+    }
+
+    // 配置了独立线程池的方法通过 server 关联的 router 找到线程池，解除关联后使用 server 的线程池
+    @Test
+    public void testBulkhead() throws Exception {
+        URL url = new URL("motan", "localhost", 18099, ProviderB.class.getName());
+        url.addParameter(URLParamType.bulkheadThread.getName(), "1");
+        ProviderMessageRouter router = new ProviderMessageRouter(new DefaultProvider<ProviderB>(new ProviderB() {
+            @Override
+            public String providerA() {
+                return Thread.currentThread().getName();
+            }
+
+            @Override
+            public String providerB() {
+                return Thread.currentThread().getName();
+            }
+        }, url, ProviderB.class));
+        MockServer server = new MockServer(url);
+        server.setProviderRouter(router);
+        RequestDispatcher dispatcher = new RequestDispatcher(server, router, executor);
+
+        DefaultRequest request = newRequest(1L);
+        request.setInterfaceName(ProviderB.class.getName());
+        request.setMethodName("providerA");
+        request.setParamtersDesc(ReflectUtil.EMPTY_PARAM);
+        try {
+            dispatcher.dispatch(request, writer);
+            Assert.assertTrue(((String) writer.poll().getValue()).startsWith("Bulkhead-"));
+
+            server.setProviderRouter(null);
+            dispatcher.dispatch(request, writer);
+            Assert.assertFalse(((String) writer.poll().getValue()).startsWith("Bulkhead-"));
+        } finally {
+            router.removeProvider(router.getMethodTable().getProvider(0));
+        }
+    }
+
+    private DefaultRequest newRequest(long requestId) {
+        DefaultRequest request = new DefaultRequest();
+        request.setRequestId(requestId);
+        request.setInterfaceName("com.weibo.api.motan.protocol.example.IHello");
+        request.setMethodName("hello");
+        request.setParamtersDesc("void");
+        return request;
+    }
+
+    private static class ResponseQueue implements RequestDispatcher.ResponseWriter {
+        private BlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+
+        @Override
+        public void write(Response response) {
+            responses.add(response);
+        }
+
+        Response poll() throws InterruptedException {
+            Response response = responses.poll(1, TimeUnit.SECONDS);
+            Assert.assertNotNull(response);
+            return response;
+        }
+    }
+}
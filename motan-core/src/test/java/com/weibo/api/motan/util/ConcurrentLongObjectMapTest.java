@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class ConcurrentLongObjectMapTest extends TestCase {
+
+    @Test
+    public void testPutGetRemove() {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<String>(4, 2);
+
+        assertNull(map.put(1L, "a"));
+        assertNull(map.put(0L, "zero"));
+        assertNull(map.put(-1L, "minus"));
+        assertEquals("a", map.put(1L, "b"));
+        assertEquals(3, map.size());
+
+        assertEquals("b", map.get(1L));
+        assertEquals("zero", map.get(0L));
+        assertEquals("minus", map.get(-1L));
+        assertNull(map.get(2L));
+
+        assertEquals("b", map.remove(1L));
+        assertNull(map.remove(1L));
+        assertEquals(2, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0L));
+    }
+
+    @Test
+    public void testRandomAgainstHashMap() {
+        ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<Long>(8, 4);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random random = new Random(17);
+
+        for (int i = 0; i < 200000; i++) {
+            // key 范围较小，制造大量冲突和删除
+            long key = random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                Long value = random.nextLong();
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (long key = 0; key < 2000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final ConcurrentLongObjectMap<Object> map = new ConcurrentLongObjectMap<Object>();
+        final int threads = 8;
+        final int perThread = 20000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        final AtomicInteger errors = new AtomicInteger(0);
+
+        for (int t = 0; t < threads; t++) {
+            final long base = (long) t * perThread;
+            new Thread() {
+                public void run() {
+                    try {
+                        Object value = new Object();
+                        for (long i = base; i < base + perThread; i++) {
+                            map.put(i, value);
+                        }
+                        for (long i = base; i < base + perThread; i += 2) {
+                            if (map.remove(i) != value) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        latch.await();
+        assertEquals(0, errors.get());
+        assertEquals(threads * perThread / 2, map.size());
+        for (long i = 0; i < threads * perThread; i++) {
+            assertEquals(i % 2 != 0, map.containsKey(i));
+        }
+    }
+}
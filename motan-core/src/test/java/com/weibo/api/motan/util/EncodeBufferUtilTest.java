@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.util;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.weibo.api.motan.rpc.DefaultRequest;
+import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.ProviderMethodTable.MethodKey;
+
+public class EncodeBufferUtilTest extends TestCase {
+
+    @Test
+    public void testSizeKey() {
+        DefaultRequest request = new DefaultRequest();
+        request.setInterfaceName("com.weibo.api.motan.protocol.example.IHello");
+        request.setMethodName("hello");
+        request.setParamtersDesc("java.lang.String");
+        // 同一方法的 key 相等，不依赖拼接的字符串
+        assertEquals(MethodKey.of(request), EncodeBufferUtil.getSizeKey(request));
+        assertEquals(EncodeBufferUtil.getSizeKey(request), EncodeBufferUtil.getSizeKey(request));
+
+        DefaultResponse response = new DefaultResponse();
+        assertNull(EncodeBufferUtil.getSizeKey(response));
+        response.setValue("hello");
+        assertEquals(String.class, EncodeBufferUtil.getSizeKey(response));
+        response.setException(new IllegalStateException());
+        assertEquals(IllegalStateException.class, EncodeBufferUtil.getSizeKey(response));
+    }
+
+    @Test
+    public void testPredictSize() {
+        String key = "testPredictSize";
+        assertEquals(EncodeBufferUtil.MIN_BUFFER_SIZE, EncodeBufferUtil.predictSize(key));
+        assertEquals(EncodeBufferUtil.MIN_BUFFER_SIZE, EncodeBufferUtil.predictSize(null));
+
+        // 更大的数据直接跟上，预留余量
+        EncodeBufferUtil.recordSize(key, 80000);
+        assertTrue(EncodeBufferUtil.predictSize(key) >= 80000);
+        EncodeBufferUtil.recordSize(key, 160000);
+        assertTrue(EncodeBufferUtil.predictSize(key) >= 160000);
+
+        // 更小的数据逐渐衰减
+        int last = EncodeBufferUtil.predictSize(key);
+        for (int i = 0; i < 10; i++) {
+            EncodeBufferUtil.recordSize(key, 20000);
+            int predict = EncodeBufferUtil.predictSize(key);
+            assertTrue(predict < last);
+            assertTrue(predict >= 20000);
+            last = predict;
+        }
+        for (int i = 0; i < 100; i++) {
+            EncodeBufferUtil.recordSize(key, 20000);
+        }
+        assertTrue(EncodeBufferUtil.predictSize(key) < 30000);
+
+        EncodeBufferUtil.recordSize(key, Integer.MAX_VALUE);
+        assertEquals(EncodeBufferUtil.MAX_PREDICT_SIZE, EncodeBufferUtil.predictSize(key));
+    }
+
+    @Test
+    public void testAcquireAndRelease() throws Exception {
+        ByteArrayBufferOutputStream out = EncodeBufferUtil.acquire(1024);
+        assertTrue(out.capacity() >= 1024);
+        out.write(new byte[10]);
+        EncodeBufferUtil.release(out);
+
+        // 复用同一个 buffer，position 从 0 开始
+        ByteArrayBufferOutputStream reused = EncodeBufferUtil.acquire(512);
+        assertSame(out, reused);
+        assertEquals(0, reused.position());
+
+        // 使用中再次获取时分配新的 buffer
+        ByteArrayBufferOutputStream nested = EncodeBufferUtil.acquire(512);
+        assertNotSame(reused, nested);
+        EncodeBufferUtil.release(nested);
+        EncodeBufferUtil.release(reused);
+
+        // 需要更大的 buffer 时不复用（线程中可能已缓存其他测试留下的更大 buffer）
+        assertNotSame(out, EncodeBufferUtil.acquire(out.capacity() + 1));
+
+        // 过大的 buffer 不缓存
+        ByteArrayBufferOutputStream large = new ByteArrayBufferOutputStream(4 * 1024 * 1024);
+        EncodeBufferUtil.release(large);
+        assertNotSame(large, EncodeBufferUtil.acquire(0));
+    }
+}
@@ -15,8 +15,9 @@
  */
 package com.weibo.api.motan.codec;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -34,7 +35,9 @@ import com.weibo.api.motan.rpc.DefaultResponse;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
 import com.weibo.api.motan.transport.Channel;
-import com.weibo.api.motan.util.ByteUtil;
+import com.weibo.api.motan.util.BufferOutputStream;
+import com.weibo.api.motan.util.ByteArrayBufferOutputStream;
+import com.weibo.api.motan.util.EncodeBufferUtil;
 import com.weibo.api.motan.util.ExceptionUtil;
 import com.weibo.api.motan.util.ReflectUtil;
 
@@ -45,18 +48,36 @@ import com.weibo.api.motan.util.ReflectUtil;
  *
  */
 @SpiMeta(name = "protobuf")
-public class ProtobufCodec implements Codec {
+public class ProtobufCodec implements BufferCodec {
 	private static final short MAGIC = (short) 0xF0F0;
 
 	private static final byte MASK = 0x07;
 
 	@Override
 	public byte[] encode(Channel channel, Object message) throws IOException {
+		Object sizeKey = EncodeBufferUtil.getSizeKey(message);
+		ByteArrayBufferOutputStream out = EncodeBufferUtil.acquire(EncodeBufferUtil.predictSize(sizeKey));
+		try {
+			encode(channel, message, out);
+			EncodeBufferUtil.recordSize(sizeKey, out.position());
+			return out.toByteArray();
+		} finally {
+			EncodeBufferUtil.release(out);
+		}
+	}
+
+	/**
+	 * header 与 body 直接写入 out，body length 在 body 写完后回填
+	 */
+	@Override
+	public void encode(Channel channel, Object message, BufferOutputStream out) throws IOException {
 		try {
 			if (message instanceof Request) {
-				return encodeRequest(channel, (Request) message);
+				encodeRequest(channel, (Request) message, out);
+				return;
 			} else if (message instanceof Response) {
-				return encodeResponse(channel, (Response) message);
+				encodeResponse(channel, (Response) message, out);
+				return;
 			}
 		} catch (Exception e) {
 			if (ExceptionUtil.isMotanException(e)) {
@@ -91,12 +112,13 @@ public class ProtobufCodec implements Codec {
 	 * </pre>
 	 *
 	 * @param request
-	 * @return
+	 * @param out
 	 * @throws IOException
 	 */
-	private byte[] encodeRequest(Channel channel, Request request) throws IOException {
-		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-		CodedOutputStream output = CodedOutputStream.newInstance(outputStream);
+	private void encodeRequest(Channel channel, Request request, BufferOutputStream out) throws IOException {
+		int start = writeHeader(out, MotanConstants.FLAG_REQUEST, request.getRequestId());
+
+		CodedOutputStream output = CodedOutputStream.newInstance(out);
 		output.writeStringNoTag(request.getInterfaceName());
 		output.writeStringNoTag(request.getMethodName());
 		output.writeStringNoTag(request.getParamtersDesc());
@@ -123,11 +145,8 @@ public class ProtobufCodec implements Codec {
 		}
 
 		output.flush();
-		byte[] body = outputStream.toByteArray();
-
-		byte flag = MotanConstants.FLAG_REQUEST;
 
-		return encode(body, flag, request.getRequestId());
+		writeBodyLength(out, start);
 	}
 
 	/**
@@ -143,72 +162,87 @@ public class ProtobufCodec implements Codec {
 	 *
 	 * @param channel
 	 * @param value
-	 * @return
+	 * @param out
 	 * @throws IOException
 	 */
-	private byte[] encodeResponse(Channel channel, Response value) throws IOException {
-		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-		CodedOutputStream output = CodedOutputStream.newInstance(outputStream);
+	private void encodeResponse(Channel channel, Response value, BufferOutputStream out) throws IOException {
 		Serialization serialization = ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(
 				channel.getUrl().getParameter(URLParamType.serialize.getName(), URLParamType.serialize.getValue()));
 
 		byte flag = 0;
 
-		output.writeUInt64NoTag(value.getProcessTime());
-
 		if (value.getException() != null) {
-			output.writeStringNoTag(value.getException().getClass().getName());
-			output.writeByteArrayNoTag(serialization.serialize(value.getException()));
 			flag = MotanConstants.FLAG_RESPONSE_EXCEPTION;
 		} else if (value.getValue() == null) {
 			flag = MotanConstants.FLAG_RESPONSE_VOID;
 		} else {
+			flag = MotanConstants.FLAG_RESPONSE;
+		}
+
+		int start = writeHeader(out, flag, value.getRequestId());
+
+		CodedOutputStream output = CodedOutputStream.newInstance(out);
+		output.writeUInt64NoTag(value.getProcessTime());
+
+		if (value.getException() != null) {
+			output.writeStringNoTag(value.getException().getClass().getName());
+			output.writeByteArrayNoTag(serialization.serialize(value.getException()));
+		} else if (value.getValue() != null) {
 			output.writeStringNoTag(value.getValue().getClass().getName());
 			output.writeByteArrayNoTag(serialization.serialize(value.getValue()));
-			flag = MotanConstants.FLAG_RESPONSE;
 		}
 
 		output.flush();
 
-		byte[] body = outputStream.toByteArray();
-
-		return encode(body, flag, value.getRequestId());
+		writeBodyLength(out, start);
 	}
 
 	@Override
 	public Object decode(Channel channel, String remoteIp, byte[] data) throws IOException {
-		if (data.length <= RpcProtocolVersion.VERSION_1.getHeaderLength()) {
+		return decode(channel, remoteIp, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * header 及 body 都直接在 buffer 上解析，不拷贝数据
+	 */
+	@Override
+	public Object decode(Channel channel, String remoteIp, ByteBuffer buffer) throws IOException {
+		ByteBuffer data = buffer.slice();
+		data.order(ByteOrder.BIG_ENDIAN);
+
+		if (data.remaining() <= RpcProtocolVersion.VERSION_1.getHeaderLength()) {
 			throw new MotanFrameworkException("decode error: format problem",
 					MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
 		}
 
-		short type = ByteUtil.bytes2short(data, 0);
+		short type = data.getShort(0);
 
 		if (type != MAGIC) {
 			throw new MotanFrameworkException("decode error: magic error",
 					MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
 		}
 
-		if (data[2] != RpcProtocolVersion.VERSION_1.getVersion()) {
+		if (data.get(2) != RpcProtocolVersion.VERSION_1.getVersion()) {
 			throw new MotanFrameworkException("decode error: version error",
 					MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
 		}
 
-		int bodyLength = ByteUtil.bytes2int(data, 12);
+		int bodyLength = data.getInt(12);
 
-		if (RpcProtocolVersion.VERSION_1.getHeaderLength() + bodyLength != data.length) {
+		if (RpcProtocolVersion.VERSION_1.getHeaderLength() + bodyLength != data.remaining()) {
 			throw new MotanFrameworkException("decode error: content length error",
 					MotanErrorMsgConstant.FRAMEWORK_DECODE_ERROR);
 		}
 
-		byte flag = data[3];
+		byte flag = data.get(3);
 		byte dataType = (byte) (flag & MASK);
 		boolean isResponse = (dataType != MotanConstants.FLAG_REQUEST);
 
-		CodedInputStream body = CodedInputStream.newInstance(data, RpcProtocolVersion.VERSION_1.getHeaderLength(),
-				bodyLength);
+		long requestId = data.getLong(4);
+
+		data.position(RpcProtocolVersion.VERSION_1.getHeaderLength());
+		CodedInputStream body = CodedInputStream.newInstance(data);
 
-		long requestId = ByteUtil.bytes2long(data, 4);
 		Serialization serialization = ExtensionLoader.getExtensionLoader(Serialization.class).getExtension(
 				channel.getUrl().getParameter(URLParamType.serialize.getName(), URLParamType.serialize.getValue()));
 
@@ -330,39 +364,35 @@ public class ProtobufCodec implements Codec {
 	 *
 	 * </pre>
 	 *
-	 * @param body
+	 * @param out
 	 * @param flag
 	 * @param requestId
-	 * @return
-	 * @throws IOException
+	 * @return header 在 out 中的起始位置
 	 */
-	private byte[] encode(byte[] body, byte flag, long requestId) throws IOException {
-		byte[] header = new byte[RpcProtocolVersion.VERSION_1.getHeaderLength()];
-		int offset = 0;
+	private int writeHeader(BufferOutputStream out, byte flag, long requestId) {
+		int start = out.position();
 
 		// 0 - 15 bit : magic
-		ByteUtil.short2bytes(MAGIC, header, offset);
-		offset += 2;
+		out.writeShort(MAGIC);
 
 		// 16 - 23 bit : version
-		header[offset++] = RpcProtocolVersion.VERSION_1.getVersion();
+		out.write(RpcProtocolVersion.VERSION_1.getVersion());
 
 		// 24 - 31 bit : extend flag
-		header[offset++] = flag;
+		out.write(flag);
 
 		// 32 - 95 bit : requestId
-		ByteUtil.long2bytes(requestId, header, offset);
-		offset += 8;
+		out.writeLong(requestId);
 
-		// 96 - 127 bit : body content length
-		ByteUtil.int2bytes(body.length, header, offset);
+		// 96 - 127 bit : body content length, body 写完后回填
+		out.writeInt(0);
 
-		byte[] data = new byte[header.length + body.length];
-
-		System.arraycopy(header, 0, data, 0, header.length);
-		System.arraycopy(body, 0, data, header.length, body.length);
+		return start;
+	}
 
-		return data;
+	private void writeBodyLength(BufferOutputStream out, int start) {
+		int bodyLength = out.position() - start - RpcProtocolVersion.VERSION_1.getHeaderLength();
+		out.setInt(start + RpcProtocolVersion.VERSION_1.getHeaderLength() - 4, bodyLength);
 	}
 
 }
@@ -0,0 +1,198 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.serialize;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.JavaSerializer;
+import com.weibo.api.motan.codec.Serialization;
+import com.weibo.api.motan.core.extension.SpiMeta;
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+
+/**
+ * kryo 序列化，不要求序列化的对象实现 java.io.Serializable 接口，按字段顺序输出二进制。
+ * 
+ * <pre>
+ * 		1） 通过 {@link #register(Class, int)} 注册的类型在传输中只写入注册 id，不写入类名；未注册的类型写入类名
+ * 		2） 注册 id 需要在 client 和 server 两端保持一致，建议在服务接口所在的公共包中统一注册
+ * 		3） Kryo 非线程安全，Kryo 实例及输入输出 buffer 按线程重用；注册变化后线程内的 Kryo 实例会重建
+ * 		4） 异常使用 java 序列化，保证 stack trace、cause 等信息完整
+ * 		5） 开启引用跟踪，支持循环引用
+ * </pre>
+ * 
+ * 使用方式：服务两端注册类型后配置 serialization="kryo"
+ */
+@SpiMeta(name = "kryo")
+public class KryoSerialization implements Serialization {
+    // 用户注册 id 的起始值，小于该值的 id 保留给 kryo 内置类型及常用 jdk 类型
+    public static final int MIN_USER_REGISTRATION_ID = 100;
+
+    // 超过该大小的输出 buffer 不在线程中保留，避免偶尔的大消息长期占用内存
+    private static final int MAX_CACHED_BUFFER_SIZE = 1024 * 1024;
+    private static final int INIT_BUFFER_SIZE = 4096;
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    // 常用 jdk 类型，按固定 id 注册，不允许调整顺序
+    private static final Class<?>[] DEFAULT_REGISTRATIONS = new Class<?>[] {byte[].class, char[].class,
+            short[].class, int[].class, long[].class, float[].class, double[].class, boolean[].class,
+            String[].class, Object[].class, ArrayList.class, LinkedList.class, HashMap.class, LinkedHashMap.class,
+            TreeMap.class, HashSet.class, LinkedHashSet.class, TreeSet.class, Date.class, BigInteger.class,
+            BigDecimal.class};
+    private static final int DEFAULT_REGISTRATION_START = 20;
+
+    private static final Map<Class<?>, Integer> registrations = new ConcurrentHashMap<Class<?>, Integer>();
+    private static final AtomicInteger registrationVersion = new AtomicInteger(0);
+
+    private static final ThreadLocal<KryoHolder> HOLDER = new ThreadLocal<KryoHolder>() {
+        @Override
+        protected KryoHolder initialValue() {
+            return new KryoHolder();
+        }
+    };
+
+    /**
+     * 注册类型，client 与 server 两端对同一类型需要使用相同的 id
+     * 
+     * @param clz
+     * @param id 需要大于等于 {@link #MIN_USER_REGISTRATION_ID}
+     */
+    public static synchronized void register(Class<?> clz, int id) {
+        if (clz == null || id < MIN_USER_REGISTRATION_ID) {
+            throw new MotanFrameworkException("KryoSerialization register Error: class=" + clz + ", id=" + id
+                    + ", id should not less than " + MIN_USER_REGISTRATION_ID, MotanErrorMsgConstant.FRAMEWORK_INIT_ERROR);
+        }
+        Integer old = registrations.get(clz);
+        if (old != null && old == id) {
+            return;
+        }
+        for (Map.Entry<Class<?>, Integer> entry : registrations.entrySet()) {
+            if (entry.getValue() == id) {
+                throw new MotanFrameworkException("KryoSerialization register Error: id " + id + " of " + clz.getName()
+                        + " already registered by " + entry.getKey().getName(), MotanErrorMsgConstant.FRAMEWORK_INIT_ERROR);
+            }
+        }
+        registrations.put(clz, id);
+        registrationVersion.incrementAndGet();
+    }
+
+    @Override
+    public byte[] serialize(Object obj) throws IOException {
+        KryoHolder holder = getHolder();
+        holder.inUse = true;
+        try {
+            holder.output.clear();
+            holder.kryo.writeClassAndObject(holder.output, obj);
+            return holder.output.toBytes();
+        } catch (KryoException e) {
+            throw new IOException("KryoSerialization serialize Error: class=" + (obj == null ? null : obj.getClass().getName()), e);
+        } finally {
+            holder.inUse = false;
+            if (holder.output.getBuffer().length > MAX_CACHED_BUFFER_SIZE) {
+                holder.output = new Output(INIT_BUFFER_SIZE, -1);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clz) throws IOException {
+        KryoHolder holder = getHolder();
+        holder.inUse = true;
+        try {
+            holder.input.setBuffer(bytes);
+            return (T) holder.kryo.readClassAndObject(holder.input);
+        } catch (KryoException e) {
+            throw new IOException("KryoSerialization deserialize Error: class=" + clz.getName(), e);
+        } finally {
+            holder.inUse = false;
+            // 不持有 bytes 的引用
+            holder.input.setBuffer(EMPTY_BYTES);
+        }
+    }
+
+    private KryoHolder getHolder() {
+        KryoHolder holder = HOLDER.get();
+        if (holder.inUse) {
+            // 同一线程嵌套调用
+            return new KryoHolder();
+        }
+        if (holder.version != registrationVersion.get()) {
+            holder = new KryoHolder();
+            HOLDER.set(holder);
+        }
+        return holder;
+    }
+
+    private static Kryo createKryo() {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setReferences(true);
+        // 优先使用无参构造函数，没有时不经过构造函数创建对象
+        Kryo.DefaultInstantiatorStrategy instantiatorStrategy = new Kryo.DefaultInstantiatorStrategy();
+        instantiatorStrategy.setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+        kryo.setInstantiatorStrategy(instantiatorStrategy);
+        kryo.addDefaultSerializer(Throwable.class, JavaSerializer.class);
+
+        for (int i = 0; i < DEFAULT_REGISTRATIONS.length; i++) {
+            kryo.register(DEFAULT_REGISTRATIONS[i], DEFAULT_REGISTRATION_START + i);
+        }
+        for (Map.Entry<Class<?>, Integer> entry : registrations.entrySet()) {
+            Registration registration = kryo.register(entry.getKey(), entry.getValue());
+            if (registration.getId() != entry.getValue()) {
+                throw new MotanFrameworkException("KryoSerialization register Error: class=" + entry.getKey().getName()
+                        + ", id=" + entry.getValue(), MotanErrorMsgConstant.FRAMEWORK_INIT_ERROR);
+            }
+        }
+        return kryo;
+    }
+
+    private static class KryoHolder {
+        private final int version;
+        private final Kryo kryo;
+        private Output output = new Output(INIT_BUFFER_SIZE, -1);
+        private final Input input = new Input();
+        private boolean inUse = false;
+
+        private KryoHolder() {
+            // 先取版本再创建，期间的注册变化会在下次使用时触发重建
+            this.version = registrationVersion.get();
+            this.kryo = createKryo();
+        }
+    }
+}
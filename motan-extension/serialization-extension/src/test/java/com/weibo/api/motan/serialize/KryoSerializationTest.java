@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.serialize;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.weibo.api.motan.exception.MotanFrameworkException;
+
+public class KryoSerializationTest {
+    private KryoSerialization serialization = new KryoSerialization();
+
+    @Test
+    public void testBasicType() throws Exception {
+        Assert.assertNull(serialization.deserialize(serialization.serialize(null), Object.class));
+        Assert.assertEquals("hello", serialization.deserialize(serialization.serialize("hello"), String.class));
+        Assert.assertEquals(Long.MAX_VALUE, (long) serialization.deserialize(serialization.serialize(Long.MAX_VALUE), long.class));
+
+        long[] longs = new long[] {1, -1, Long.MIN_VALUE};
+        Assert.assertArrayEquals(longs, serialization.deserialize(serialization.serialize(longs), long[].class));
+
+        Map<Long, Integer> map = new HashMap<Long, Integer>();
+        map.put(1L, 2);
+        map.put(3L, 4);
+        Assert.assertEquals(map, serialization.deserialize(serialization.serialize(map), Map.class));
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        Node node = new Node();
+        node.name = "root";
+        node.value = 10;
+        // kryo 输出 ascii 字符串时最后一个字符带结束标记，只比较类名前缀
+        String className = Node.class.getName().substring(0, Node.class.getName().length() - 1);
+        byte[] unregistered = serialization.serialize(node);
+        Assert.assertTrue(new String(unregistered, "ISO-8859-1").contains(className));
+
+        KryoSerialization.register(Node.class, 100);
+        // 重复注册相同 id 不影响
+        KryoSerialization.register(Node.class, 100);
+        byte[] registered = serialization.serialize(node);
+        Assert.assertFalse(new String(registered, "ISO-8859-1").contains(className));
+        Assert.assertTrue(registered.length < unregistered.length);
+
+        Node child = new Node();
+        child.name = "child";
+        child.parent = node;
+        node.children = new ArrayList<Node>();
+        node.children.add(child);
+
+        Node result = serialization.deserialize(serialization.serialize(node), Node.class);
+        Assert.assertEquals("root", result.name);
+        Assert.assertEquals(10, result.value);
+        Assert.assertEquals("child", result.children.get(0).name);
+        // 循环引用
+        Assert.assertSame(result, result.children.get(0).parent);
+
+        try {
+            KryoSerialization.register(String.class, 100);
+            Assert.fail();
+        } catch (MotanFrameworkException e) {
+            Assert.assertTrue(e.getMessage().contains("already registered"));
+        }
+        try {
+            KryoSerialization.register(String.class, 1);
+            Assert.fail();
+        } catch (MotanFrameworkException e) {
+            Assert.assertTrue(e.getMessage().contains("should not less than"));
+        }
+    }
+
+    @Test
+    public void testException() throws Exception {
+        IllegalStateException exception = new IllegalStateException("test", new RuntimeException("cause"));
+        Exception result = serialization.deserialize(serialization.serialize(exception), Exception.class);
+        Assert.assertTrue(result instanceof IllegalStateException);
+        Assert.assertEquals("test", result.getMessage());
+        Assert.assertEquals("cause", result.getCause().getMessage());
+        Assert.assertArrayEquals(exception.getStackTrace(), result.getStackTrace());
+    }
+
+    public static class Node {
+        private String name;
+        private int value;
+        private Node parent;
+        private List<Node> children;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import com.weibo.api.motan.util.BufferOutputStream;
+
+/**
+ * 将 {@link ChannelBuffer} 适配为 codec 使用的 {@link BufferOutputStream}，position 相对于创建时的 writerIndex
+ */
+public class NettyBufferOutputStream extends BufferOutputStream {
+	private final ChannelBuffer buffer;
+	private final int startIndex;
+
+	public NettyBufferOutputStream(ChannelBuffer buffer) {
+		this.buffer = buffer;
+		this.startIndex = buffer.writerIndex();
+	}
+
+	@Override
+	public int position() {
+		return buffer.writerIndex() - startIndex;
+	}
+
+	@Override
+	public void setByte(int position, int value) {
+		buffer.setByte(startIndex + position, value);
+	}
+
+	@Override
+	public void setInt(int position, int value) {
+		buffer.setInt(startIndex + position, value);
+	}
+
+	@Override
+	public void write(int b) {
+		buffer.writeByte(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		buffer.writeBytes(b, off, len);
+	}
+
+	@Override
+	public void writeShort(int value) {
+		buffer.writeShort(value);
+	}
+
+	@Override
+	public void writeInt(int value) {
+		buffer.writeInt(value);
+	}
+
+	@Override
+	public void writeLong(long value) {
+		buffer.writeLong(value);
+	}
+}
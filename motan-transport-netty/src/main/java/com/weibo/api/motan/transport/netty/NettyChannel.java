@@ -20,6 +20,7 @@ import java.net.InetSocketAddress;
 import java.util.concurrent.TimeUnit;
 
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 
 import com.weibo.api.motan.common.ChannelState;
 import com.weibo.api.motan.common.URLParamType;
@@ -32,6 +33,7 @@ import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
 import com.weibo.api.motan.rpc.URL;
 import com.weibo.api.motan.transport.TransportException;
+import com.weibo.api.motan.transport.support.NettyResponseFuture;
 import com.weibo.api.motan.util.ExceptionUtil;
 import com.weibo.api.motan.util.LoggerUtil;
 import com.weibo.api.motan.util.MotanFrameworkUtil;
@@ -64,47 +66,60 @@ public class NettyChannel implements com.weibo.api.motan.transport.Channel {
                throw new MotanFrameworkException("NettyClient init Error: timeout(" + timeout + ") <= 0 is forbid.",
                        MotanErrorMsgConstant.FRAMEWORK_INIT_ERROR);
            }
-		NettyResponseFuture response = new NettyResponseFuture(request, timeout, this.nettyClient);
+		final NettyResponseFuture response = new NettyResponseFuture(request, timeout, this.nettyClient);
+		// 错误计数统一由 response 的 listener 驱动：写失败、超时、服务端异常都会在 response 完成时体现
+		response.addListener(new FutureListener() {
+			@Override
+			public void operationComplete(Future future) throws Exception {
+				if (future.isSuccess() || (future.isDone() && ExceptionUtil.isBizException(future.getException()))) {
+					// 成功的调用 
+					nettyClient.resetErrorCount();
+				} else {
+					// 失败的调用 
+					nettyClient.incrErrorCount();
+				}
+			}
+		});
 		this.nettyClient.registerCallback(request.getRequestId(), response);
 
+		// 非阻塞写：不在调用线程上等待写完成，写失败时由 write listener 将 response 置为失败
 		ChannelFuture writeFuture = this.channel.write(request);
+		writeFuture.addListener(new WriteListener(request, response));
 
-		boolean result = writeFuture.awaitUninterruptibly(timeout, TimeUnit.MILLISECONDS);
-
-		if (result && writeFuture.isSuccess()) {
-			response.addListener(new FutureListener() {
-				@Override
-				public void operationComplete(Future future) throws Exception {
-					if (future.isSuccess() || (future.isDone() && ExceptionUtil.isBizException(future.getException()))) {
-						// 成功的调用 
-						nettyClient.resetErrorCount();
-					} else {
-						// 失败的调用 
-						nettyClient.incrErrorCount();
-					}
-				}
-			});
-			return response;
-		}
+		return response;
+	}
 
-		writeFuture.cancel();
-		response = this.nettyClient.removeCallback(request.getRequestId());
+	/**
+	 * 写结果回调：写失败时移除 callback 并以发送异常结束 response
+	 */
+	private class WriteListener implements ChannelFutureListener {
+		private final Request request;
+		private final NettyResponseFuture response;
 
-		if (response != null) {
-			response.cancel();
+		WriteListener(Request request, NettyResponseFuture response) {
+			this.request = request;
+			this.response = response;
 		}
 
-		// 失败的调用 
-		nettyClient.incrErrorCount();
-
-		if (writeFuture.getCause() != null) {
-			throw new MotanServiceException("NettyChannel send request to server Error: url="
-					+ nettyClient.getUrl().getUri() + " local=" + localAddress + " "
-					+ MotanFrameworkUtil.toString(request), writeFuture.getCause());
-		} else {
-			throw new MotanServiceException("NettyChannel send request to server Timeout: url="
-					+ nettyClient.getUrl().getUri() + " local=" + localAddress + " "
-					+ MotanFrameworkUtil.toString(request));
+		@Override
+		public void operationComplete(ChannelFuture future) throws Exception {
+			if (future.isSuccess()) {
+				return;
+			}
+
+			nettyClient.removeCallback(request.getRequestId());
+
+			MotanServiceException exception;
+			if (future.getCause() != null) {
+				exception = new MotanServiceException("NettyChannel send request to server Error: url="
+						+ nettyClient.getUrl().getUri() + " local=" + localAddress + " "
+						+ MotanFrameworkUtil.toString(request), future.getCause());
+			} else {
+				exception = new MotanServiceException("NettyChannel send request to server Cancelled: url="
+						+ nettyClient.getUrl().getUri() + " local=" + localAddress + " "
+						+ MotanFrameworkUtil.toString(request));
+			}
+			response.cancel(exception);
 		}
 	}
 
@@ -202,7 +217,7 @@ public class NettyChannel implements com.weibo.api.motan.transport.Channel {
 
 	@Override
 	public boolean isAvailable() {
-		return state.isAliveState();
+		return state.isAliveState() && channel != null && channel.isConnected();
 	}
 
 	@Override
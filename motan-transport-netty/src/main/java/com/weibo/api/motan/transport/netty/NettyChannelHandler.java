@@ -16,7 +16,6 @@
 
 package com.weibo.api.motan.transport.netty;
 
-import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.jboss.netty.channel.ChannelHandlerContext;
@@ -26,15 +25,12 @@ import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelHandler;
 
 import com.weibo.api.motan.common.URLParamType;
-import com.weibo.api.motan.exception.MotanErrorMsgConstant;
 import com.weibo.api.motan.exception.MotanFrameworkException;
-import com.weibo.api.motan.exception.MotanServiceException;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
-import com.weibo.api.motan.rpc.DefaultResponse;
-import com.weibo.api.motan.rpc.RpcContext;
 import com.weibo.api.motan.transport.Channel;
 import com.weibo.api.motan.transport.MessageHandler;
+import com.weibo.api.motan.transport.support.RequestDispatcher;
 import com.weibo.api.motan.util.LoggerUtil;
 import com.weibo.api.motan.util.NetUtils;
 
@@ -45,9 +41,9 @@ import com.weibo.api.motan.util.NetUtils;
  * 
  */
 public class NettyChannelHandler extends SimpleChannelHandler {
-	private ThreadPoolExecutor threadPoolExecutor;
 	private MessageHandler messageHandler;
 	private Channel serverChannel;
+	private RequestDispatcher dispatcher;
 
 	public NettyChannelHandler(Channel serverChannel) {
 		this.serverChannel = serverChannel;
@@ -62,7 +58,7 @@ public class NettyChannelHandler extends SimpleChannelHandler {
 			ThreadPoolExecutor threadPoolExecutor) {
 		this.serverChannel = serverChannel;
 		this.messageHandler = messageHandler;
-		this.threadPoolExecutor = threadPoolExecutor;
+		this.dispatcher = new RequestDispatcher(serverChannel, messageHandler, threadPoolExecutor);
 	}
 
 	@Override
@@ -94,64 +90,24 @@ public class NettyChannelHandler extends SimpleChannelHandler {
 
 	/**
 	 * <pre>
-	 *  request process: 主要来自于client的请求，需要使用threadPoolExecutor进行处理，避免service message处理比较慢导致iothread被阻塞
+	 *  request process: 主要来自于client的请求，由 {@link RequestDispatcher} 决定在 IO 线程还是线程池中处理，避免service message处理比较慢导致iothread被阻塞
 	 * </pre>
 	 * 
 	 * @param ctx
 	 * @param e
 	 */
 	private void processRequest(final ChannelHandlerContext ctx, MessageEvent e) {
-		final Request request = (Request) e.getMessage();
+		Request request = (Request) e.getMessage();
 		request.setAttachment(URLParamType.host.getName(), NetUtils.getHostName(ctx.getChannel().getRemoteAddress()));
 
-		final long processStartTime = System.currentTimeMillis();
-
-		// 使用线程池方式处理
-		try {
-			threadPoolExecutor.execute(new Runnable() {
-				@Override
-                public void run() {
-				    try{
-				        RpcContext.init(request);
-	                    processRequest(ctx, request, processStartTime);
-				    }finally{
-				        RpcContext.destroy();
-				    }
-                }
-            });
-		} catch (RejectedExecutionException rejectException) {
-			DefaultResponse response = new DefaultResponse();
-			response.setRequestId(request.getRequestId());
-			response.setException(new MotanServiceException("process thread pool is full, reject",
-					MotanErrorMsgConstant.SERVICE_REJECT));
-			response.setProcessTime(System.currentTimeMillis() - processStartTime);
-			e.getChannel().write(response);
-
-			LoggerUtil
-					.debug("process thread pool is full, reject, active={} poolSize={} corePoolSize={} maxPoolSize={} taskCount={} requestId={}",
-							threadPoolExecutor.getActiveCount(), threadPoolExecutor.getPoolSize(),
-							threadPoolExecutor.getCorePoolSize(), threadPoolExecutor.getMaximumPoolSize(),
-							threadPoolExecutor.getTaskCount(), request.getRequestId());
-		}
-	}
-
-	private void processRequest(ChannelHandlerContext ctx, Request request, long processStartTime) {
-		Object result = messageHandler.handle(serverChannel, request);
-
-		DefaultResponse response = null;
-
-		if (!(result instanceof DefaultResponse)) {
-			response = new DefaultResponse(result);
-		} else {
-			response = (DefaultResponse) result;
-		}
-
-		response.setRequestId(request.getRequestId());
-		response.setProcessTime(System.currentTimeMillis() - processStartTime);
-
-		if (ctx.getChannel().isConnected()) {
-			ctx.getChannel().write(response);
-		}
+		dispatcher.dispatch(request, new RequestDispatcher.ResponseWriter() {
+			@Override
+			public void write(Response response) {
+				if (ctx.getChannel().isConnected()) {
+					ctx.getChannel().write(response);
+				}
+			}
+		});
 	}
 
 	private void processResponse(ChannelHandlerContext ctx, MessageEvent e) {
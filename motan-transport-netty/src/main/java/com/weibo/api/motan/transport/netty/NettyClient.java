@@ -16,13 +16,7 @@
 
 package com.weibo.api.motan.transport.netty;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.pool.BasePoolableObjectFactory;
@@ -33,6 +27,7 @@ import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 
+import com.weibo.api.motan.codec.Codec;
 import com.weibo.api.motan.common.ChannelState;
 import com.weibo.api.motan.common.MotanConstants;
 import com.weibo.api.motan.common.URLParamType;
@@ -42,6 +37,8 @@ import com.weibo.api.motan.exception.MotanErrorMsgConstant;
 import com.weibo.api.motan.exception.MotanFrameworkException;
 import com.weibo.api.motan.exception.MotanServiceException;
 import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.Future;
+import com.weibo.api.motan.rpc.FutureListener;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
 import com.weibo.api.motan.rpc.RpcContext;
@@ -50,6 +47,8 @@ import com.weibo.api.motan.transport.AbstractPoolClient;
 import com.weibo.api.motan.transport.Channel;
 import com.weibo.api.motan.transport.MessageHandler;
 import com.weibo.api.motan.transport.TransportException;
+import com.weibo.api.motan.transport.support.NettyResponseFuture;
+import com.weibo.api.motan.util.ConcurrentLongObjectMap;
 import com.weibo.api.motan.util.LoggerUtil;
 import com.weibo.api.motan.util.MotanFrameworkUtil;
 import com.weibo.api.motan.util.StatisticCallback;
@@ -77,15 +76,10 @@ public class NettyClient extends AbstractPoolClient implements StatisticCallback
 			Executors.newCachedThreadPool(new DefaultThreadFactory("nettyClientBoss", true)),
 			Executors.newCachedThreadPool(new DefaultThreadFactory("nettyClientWorker", true)));
 
-	// 回收过期任务
-	private static ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(4);
-
 	// 异步的request，需要注册callback future
-	// 触发remove的操作有： 1) service的返回结果处理。 2) timeout thread cancel
-	protected ConcurrentMap<Long, NettyResponseFuture> callbackMap = new ConcurrentHashMap<Long, NettyResponseFuture>();
-
-	private ScheduledFuture<?> timeMonitorFuture = null;
-
+	// 触发remove的操作有： 1) service的返回结果处理。 2) 时间轮中的超时任务 cancel
+	// requestId 不装箱，size() 为 O(1)
+	protected ConcurrentLongObjectMap<NettyResponseFuture> callbackMap = new ConcurrentLongObjectMap<NettyResponseFuture>();
 
 	// 连续失败次数
 	private AtomicLong errorCount = new AtomicLong(0);
@@ -99,11 +93,6 @@ public class NettyClient extends AbstractPoolClient implements StatisticCallback
 
 		maxClientConnection = url.getIntParameter(URLParamType.maxClientConnection.getName(),
 				URLParamType.maxClientConnection.getIntValue());
-
-		timeMonitorFuture = scheduledExecutor.scheduleWithFixedDelay(
-				new TimeoutMonitor("timeout_monitor_" + url.getHost() + "_" + url.getPort()),
-				MotanConstants.NETTY_TIMEOUT_TIMER_PERIOD, MotanConstants.NETTY_TIMEOUT_TIMER_PERIOD,
-				TimeUnit.MILLISECONDS);
 	}
 
 	@Override
@@ -171,8 +160,13 @@ public class NettyClient extends AbstractPoolClient implements StatisticCallback
 
 			// async request
 			response = channel.request(request);
-			// return channel to pool
-			returnObject(channel);
+			// 写是异步的，写失败（如 encode 异常）后 channel 可能已被关闭，此时不能放回连接池
+			if (channel.isAvailable()) {
+				// return channel to pool
+				returnObject(channel);
+			} else {
+				invalidateObject(channel);
+			}
 		} catch (Exception e) {
 			LoggerUtil.error(
 					"NettyClient request Error: url=" + url.getUri() + " " + MotanFrameworkUtil.toString(request), e);
@@ -226,7 +220,7 @@ public class NettyClient extends AbstractPoolClient implements StatisticCallback
 		StatsUtil.registryStatisticCallback(this);
 
 		// 设置可用状态
-		state = ChannelState.ALIVE;
+		setState(ChannelState.ALIVE);
 		return state.isAliveState();
 	}
 
@@ -255,8 +249,9 @@ public class NettyClient extends AbstractPoolClient implements StatisticCallback
 		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
 			public ChannelPipeline getPipeline() {
 				ChannelPipeline pipeline = Channels.pipeline();
-				pipeline.addLast("decoder", new NettyDecoder(codec, NettyClient.this, maxContentLength));
-				pipeline.addLast("encoder", new NettyEncoder(codec, NettyClient.this));
+				Codec connectionCodec = getConnectionCodec();
+				pipeline.addLast("decoder", new NettyDecoder(connectionCodec, NettyClient.this, maxContentLength));
+				pipeline.addLast("encoder", new NettyEncoder(connectionCodec, NettyClient.this, connectionCodec != codec));
 				pipeline.addLast("handler", new NettyChannelHandler(NettyClient.this, new MessageHandler() {
 					@Override
 					public Object handle(Channel channel, Object message) {
@@ -308,15 +303,13 @@ public class NettyClient extends AbstractPoolClient implements StatisticCallback
 		}
 
 		try {
-			// 取消定期的回收任务
-			timeMonitorFuture.cancel(true);
 			// 关闭连接池
-			pool.close();
+			closePool();
 			// 清空callback
 			callbackMap.clear();
 
 			// 设置close状态
-			state = ChannelState.CLOSE;
+			setState(ChannelState.CLOSE);
 			// 解除统计回调的注册
 			StatsUtil.unRegistryStatisticCallback(this);
 			LoggerUtil.info("NettyClient close Success: url={}", url.getUri());
@@ -368,7 +361,7 @@ public class NettyClient extends AbstractPoolClient implements StatisticCallback
 				if (count >= maxClientConnection && state.isAliveState()) {
 					LoggerUtil.error("NettyClient unavailable Error: url=" + url.getIdentity() + " "
 							+ url.getServerPortStr());
-					state = ChannelState.UNALIVE;
+					setState(ChannelState.UNALIVE);
 				}
 			}
 		}
@@ -400,7 +393,7 @@ public class NettyClient extends AbstractPoolClient implements StatisticCallback
 
 				// 过程中有其他并发更新errorCount的，因此这里需要进行一次判断
 				if (count < maxClientConnection) {
-					state = ChannelState.ALIVE;
+					setState(ChannelState.ALIVE);
 					LoggerUtil.info("NettyClient recover available: url=" + url.getIdentity() + " "
 							+ url.getServerPortStr());
 				}
@@ -429,6 +422,9 @@ public class NettyClient extends AbstractPoolClient implements StatisticCallback
 		}
 
 		this.callbackMap.put(requestId, nettyResponseFuture);
+		// 超时、cancel 等任意结束状态都移除 callback，避免 callbackMap 堆积到 NETTY_CLIENT_MAX_REQUEST
+		nettyResponseFuture.addListener(new CallbackRemover(requestId));
+		nettyResponseFuture.scheduleTimeout(new TimeoutTask(requestId));
 	}
 
 	/**
@@ -460,37 +456,40 @@ public class NettyClient extends AbstractPoolClient implements StatisticCallback
 	}
 
 	/**
-	 * 回收超时任务
+	 * 超时任务：remove from callback list, and then cancel
 	 * 
 	 * @author maijunsheng
 	 * 
 	 */
-	class TimeoutMonitor implements Runnable {
-		private String name;
+	class TimeoutTask implements Runnable {
+		private long requestId;
 
-		public TimeoutMonitor(String name) {
-			this.name = name;
+		public TimeoutTask(long requestId) {
+			this.requestId = requestId;
 		}
 
+		@Override
 		public void run() {
-
-			long currentTime = System.currentTimeMillis();
-
-			for (Map.Entry<Long, NettyResponseFuture> entry : callbackMap.entrySet()) {
-				try {
-					NettyResponseFuture future = entry.getValue();
-
-					if (future.getCreateTime() + future.getTimeout() < currentTime) {
-						// timeout: remove from callback list, and then cancel
-						removeCallback(entry.getKey());
-						future.cancel();
-					} 
-				} catch (Exception e) {
-					LoggerUtil.error(
-							name + " clear timeout future Error: uri=" + url.getUri() + " requestId=" + entry.getKey(),
-							e);
-				}
+			NettyResponseFuture future = removeCallback(requestId);
+			if (future != null) {
+				future.cancel();
 			}
 		}
 	}
+
+	/**
+	 * future 结束（成功、失败、超时、cancel）时从 callback list 中移除
+	 */
+	class CallbackRemover implements FutureListener {
+		private long requestId;
+
+		public CallbackRemover(long requestId) {
+			this.requestId = requestId;
+		}
+
+		@Override
+		public void operationComplete(Future future) throws Exception {
+			removeCallback(requestId);
+		}
+	}
 }
@@ -19,12 +19,14 @@ package com.weibo.api.motan.transport.netty;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
 
+import com.weibo.api.motan.codec.BufferCodec;
 import com.weibo.api.motan.codec.Codec;
 import com.weibo.api.motan.common.MotanConstants;
 import com.weibo.api.motan.exception.MotanFrameworkException;
@@ -95,14 +97,9 @@ public class NettyDecoder extends FrameDecoder {
 			}
 		}
 
-		
-		byte[] data = new byte[dataLength];
-
-		buffer.readBytes(data);
-
 		try {
 		    String remoteIp = getRemoteIp(channel);
-			return codec.decode(client, remoteIp, data);
+			return decodeFrame(buffer, dataLength, remoteIp);
 		} catch (Exception e) {
 			if (messageType == MotanConstants.FLAG_REQUEST) {
 				Response resonse = buildExceptionResponse(requestId, e);
@@ -116,6 +113,21 @@ public class NettyDecoder extends FrameDecoder {
 		}
 	}
 
+	/**
+	 * BufferCodec 直接使用 buffer 的视图，不拷贝；decode 完成前 buffer 不会被回收。其他 codec 先拷贝成 byte[]
+	 */
+	private Object decodeFrame(ChannelBuffer buffer, int dataLength, String remoteIp) throws Exception {
+		if (codec instanceof BufferCodec) {
+			ByteBuffer data = buffer.toByteBuffer(buffer.readerIndex(), dataLength);
+			buffer.skipBytes(dataLength);
+			return ((BufferCodec) codec).decode(client, remoteIp, data);
+		}
+
+		byte[] data = new byte[dataLength];
+		buffer.readBytes(data);
+		return codec.decode(client, remoteIp, data);
+	}
+
 	private Response buildExceptionResponse(long requestId, Exception e) {
 		DefaultResponse response = new DefaultResponse();
 		response.setRequestId(requestId);
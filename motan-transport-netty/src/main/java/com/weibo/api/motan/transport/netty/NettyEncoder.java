@@ -16,17 +16,20 @@
 
 package com.weibo.api.motan.transport.netty;
 
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 
+import com.weibo.api.motan.codec.BufferCodec;
 import com.weibo.api.motan.codec.Codec;
 import com.weibo.api.motan.common.MotanConstants;
 import com.weibo.api.motan.rpc.DefaultResponse;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
-import com.weibo.api.motan.util.ByteUtil;
+import com.weibo.api.motan.util.EncodeBufferUtil;
 import com.weibo.api.motan.util.LoggerUtil;
 
 /**
@@ -37,37 +40,74 @@ import com.weibo.api.motan.util.LoggerUtil;
 public class NettyEncoder extends OneToOneEncoder {
 	private Codec codec;
 	private com.weibo.api.motan.transport.Channel client;
+	// 连接级 codec 要求 encode 的顺序与写出的顺序一致，netty3 在业务线程中 encode，需要串行执行 encode 和写入队列
+	private boolean ordered;
 
 	public NettyEncoder(Codec codec, com.weibo.api.motan.transport.Channel client) {
+		this(codec, client, false);
+	}
+
+	public NettyEncoder(Codec codec, com.weibo.api.motan.transport.Channel client, boolean ordered) {
 		this.codec = codec;
 		this.client = client;
+		this.ordered = ordered;
+	}
+
+	@Override
+	public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
+		if (ordered) {
+			synchronized (this) {
+				super.handleDownstream(ctx, evt);
+			}
+		} else {
+			super.handleDownstream(ctx, evt);
+		}
 	}
 
 	@Override
 	protected Object encode(ChannelHandlerContext ctx, Channel nettyChannel, Object message) throws Exception {
 		
 		long requestId = getRequestId(message);
-		byte[] data = null;
-		
+		// 按同一方法（返回值类型）之前 encode 的大小分配 buffer，避免扩容拷贝
+		Object sizeKey = EncodeBufferUtil.getSizeKey(message);
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(EncodeBufferUtil.predictSize(sizeKey));
+
+		// transport header，length 先写占位值，codec 写完后回填
+		buffer.writeShort(MotanConstants.NETTY_MAGIC_TYPE);
+		buffer.writeByte(0);
+		buffer.writeByte(getType(message));
+		buffer.writeLong(requestId);
+		buffer.writeInt(0);
+
 		if (message instanceof Response) {
 			try {
-				data = codec.encode(client, message);
+				writeMessage(message, buffer);
 			} catch (Exception e) {
 				LoggerUtil.error("NettyEncoder encode error, identity=" + client.getUrl().getIdentity(), e);
+				// 丢弃已写入的部分数据
+				buffer.writerIndex(MotanConstants.NETTY_HEADER);
 				Response response = buildExceptionResponse(requestId, e);
-				data = codec.encode(client, response);
+				writeMessage(response, buffer);
 			}
 		} else {
-			data = codec.encode(client, message);
+			writeMessage(message, buffer);
 		}
 
-		byte[] transportHeader = new byte[MotanConstants.NETTY_HEADER];
-		ByteUtil.short2bytes(MotanConstants.NETTY_MAGIC_TYPE, transportHeader, 0);
-		transportHeader[3] = getType(message);
-		ByteUtil.long2bytes(getRequestId(message), transportHeader, 4);
-		ByteUtil.int2bytes(data.length, transportHeader, 12);
+		buffer.setInt(MotanConstants.NETTY_HEADER - 4, buffer.writerIndex() - MotanConstants.NETTY_HEADER);
+		EncodeBufferUtil.recordSize(sizeKey, buffer.writerIndex());
 
-		return ChannelBuffers.wrappedBuffer(transportHeader, data);
+		return buffer;
+	}
+
+	/**
+	 * BufferCodec 直接写入 buffer，其他 codec 先 encode 成 byte[]
+	 */
+	private void writeMessage(Object message, ChannelBuffer buffer) throws Exception {
+		if (codec instanceof BufferCodec) {
+			((BufferCodec) codec).encode(client, message, new NettyBufferOutputStream(buffer));
+		} else {
+			buffer.writeBytes(codec.encode(client, message));
+		}
 	}
 
 	private long getRequestId(Object message) {
@@ -26,10 +26,12 @@ import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 
+import com.weibo.api.motan.codec.Codec;
 import com.weibo.api.motan.common.ChannelState;
 import com.weibo.api.motan.common.MotanConstants;
 import com.weibo.api.motan.common.URLParamType;
 import com.weibo.api.motan.core.DefaultThreadFactory;
+import com.weibo.api.motan.core.StandardThreadExecutor;
 import com.weibo.api.motan.exception.MotanFrameworkException;
 import com.weibo.api.motan.rpc.Request;
 import com.weibo.api.motan.rpc.Response;
@@ -147,9 +149,10 @@ public class NettyServer extends AbstractServer implements StatisticCallback {
 			// FrameDecoder非线程安全，每个连接一个 Pipeline
 			public ChannelPipeline getPipeline() {
 				ChannelPipeline pipeline = Channels.pipeline();
+				Codec connectionCodec = getConnectionCodec();
 				pipeline.addLast("channel_manage", channelManage);
-				pipeline.addLast("decoder", new NettyDecoder(codec, NettyServer.this, maxContentLength));
-				pipeline.addLast("encoder", new NettyEncoder(codec, NettyServer.this));
+				pipeline.addLast("decoder", new NettyDecoder(connectionCodec, NettyServer.this, maxContentLength));
+				pipeline.addLast("encoder", new NettyEncoder(connectionCodec, NettyServer.this, connectionCodec != codec));
 				pipeline.addLast("handler", handler);
 				return pipeline;
 			}
@@ -183,6 +186,8 @@ public class NettyServer extends AbstractServer implements StatisticCallback {
 			standardThreadExecutor.shutdownNow();
 			// 设置close状态
 			state = ChannelState.CLOSE;
+			// 解除与 message router 的关联，router 的方法表和独立线程池不再被该 server 使用
+			providerRouter = null;
 			// 取消统计回调的注册
 			StatsUtil.unRegistryStatisticCallback(this);
 			LoggerUtil.info("NettyServer close Success: url={}", url.getUri());
@@ -18,6 +18,7 @@ package com.weibo.api.motan.transport.netty;
 
 import com.weibo.api.motan.common.MotanConstants;
 import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
 import com.weibo.api.motan.exception.MotanServiceException;
 import com.weibo.api.motan.rpc.*;
 import com.weibo.api.motan.transport.Channel;
@@ -30,6 +31,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.net.ServerSocket;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -152,4 +154,26 @@ public class NettyClientTest {
 
     }
 
+    @Test
+    public void testTimeoutRemoveCallback() throws Exception {
+        // 只建立连接、从不返回 response 的 server
+        ServerSocket silentServer = new ServerSocket(18081);
+        try {
+            URL silentUrl = new URL("netty", "localhost", 18081, "com.weibo.api.motan.procotol.example.IHello");
+            silentUrl.addParameter(URLParamType.requestTimeout.getName(), "100");
+            nettyClient = new NettyClient(silentUrl);
+            nettyClient.open();
+
+            try {
+                nettyClient.request(request).getValue();
+                fail("request should be timeout");
+            } catch (MotanServiceException e) {
+                assertEquals(MotanErrorMsgConstant.SERVICE_TIMEOUT.getErrorCode(), e.getErrorCode());
+            }
+            assertTrue(nettyClient.callbackMap.isEmpty());
+        } finally {
+            silentServer.close();
+        }
+    }
+
 }
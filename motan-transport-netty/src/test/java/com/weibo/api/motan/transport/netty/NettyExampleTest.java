@@ -16,6 +16,8 @@
 
 package com.weibo.api.motan.transport.netty;
 
+import java.io.IOException;
+
 import junit.framework.TestCase;
 
 import org.junit.Assert;
@@ -25,6 +27,8 @@ import org.junit.Test;
 import com.weibo.api.motan.codec.Codec;
 import com.weibo.api.motan.common.URLParamType;
 import com.weibo.api.motan.core.extension.ExtensionLoader;
+import com.weibo.api.motan.core.extension.SpiMeta;
+import com.weibo.api.motan.protocol.rpc.DefaultRpcCodec;
 import com.weibo.api.motan.rpc.DefaultRequest;
 import com.weibo.api.motan.rpc.DefaultResponse;
 import com.weibo.api.motan.rpc.Request;
@@ -46,6 +50,7 @@ public class NettyExampleTest extends TestCase {
     static {
         ExtensionLoader loader = ExtensionLoader.getExtensionLoader(Codec.class);
         loader.addExtensionClass(MockDefaultRpcCodec.class);
+        loader.addExtensionClass(ByteArrayCodec.class);
     }
 
     @Before
@@ -180,6 +185,55 @@ public class NettyExampleTest extends TestCase {
         }
     }
 
+    /**
+     * 只实现 byte[] encode、decode 的 codec 仍然可以使用
+     */
+    @Test
+    public void testByteArrayCodec() throws Exception {
+        url.addParameter(URLParamType.codec.getName(), "byteArrayMotan");
+        NettyServer nettyServer = new NettyServer(url, new MessageHandler() {
+            @Override
+            public Object handle(Channel channel, Object message) {
+                Request request = (Request) message;
+                DefaultResponse response = new DefaultResponse();
+                response.setRequestId(request.getRequestId());
+                response.setValue("success");
+                return response;
+            }
+        });
+        nettyServer.open();
+
+        NettyClient nettyClient = new NettyClient(url);
+        nettyClient.open();
+
+        DefaultRequest request = new DefaultRequest();
+        request.setRequestId(RequestIdGenerator.getRequestId());
+        request.setInterfaceName(url.getPath());
+        request.setMethodName("hello");
+        request.setParamtersDesc("void");
+
+        try {
+            Assert.assertEquals("success", nettyClient.request(request).getValue());
+        } finally {
+            nettyClient.close();
+            nettyServer.close();
+        }
+    }
+
+    @SpiMeta(name = "byteArrayMotan")
+    public static class ByteArrayCodec implements Codec {
+        private DefaultRpcCodec codec = new DefaultRpcCodec();
+
+        @Override
+        public byte[] encode(Channel channel, Object message) throws IOException {
+            return codec.encode(channel, message);
+        }
+
+        @Override
+        public Object decode(Channel channel, String remoteIp, byte[] buffer) throws IOException {
+            return codec.decode(channel, remoteIp, buffer);
+        }
+    }
 }
 
 class UnSerializableClass {
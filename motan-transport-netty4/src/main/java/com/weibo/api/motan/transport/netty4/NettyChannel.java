@@ -0,0 +1,224 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.netty4;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import com.weibo.api.motan.common.ChannelState;
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.exception.MotanServiceException;
+import com.weibo.api.motan.rpc.Future;
+import com.weibo.api.motan.rpc.FutureListener;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.Response;
+import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.transport.TransportException;
+import com.weibo.api.motan.transport.support.NettyResponseFuture;
+import com.weibo.api.motan.util.ExceptionUtil;
+import com.weibo.api.motan.util.LoggerUtil;
+import com.weibo.api.motan.util.MotanFrameworkUtil;
+
+public class NettyChannel implements com.weibo.api.motan.transport.Channel {
+	private volatile ChannelState state = ChannelState.UNINIT;
+
+	private NettyClient nettyClient;
+
+	private io.netty.channel.Channel channel = null;
+
+	private InetSocketAddress remoteAddress = null;
+	private InetSocketAddress localAddress = null;
+
+	public NettyChannel(NettyClient nettyClient) {
+		this.nettyClient = nettyClient;
+		this.remoteAddress = new InetSocketAddress(nettyClient.getUrl().getHost(), nettyClient.getUrl().getPort());
+	}
+
+	@Override
+	public Response request(Request request) throws TransportException {
+		int timeout = nettyClient.getUrl().getMethodParameter(request.getMethodName(), request.getParamtersDesc(),
+				URLParamType.requestTimeout.getName(), URLParamType.requestTimeout.getIntValue());
+		if (timeout <= 0) {
+			throw new MotanFrameworkException("NettyClient init Error: timeout(" + timeout + ") <= 0 is forbid.",
+					MotanErrorMsgConstant.FRAMEWORK_INIT_ERROR);
+		}
+		final NettyResponseFuture response = new NettyResponseFuture(request, timeout, this.nettyClient);
+		// 错误计数统一由 response 的 listener 驱动：写失败、超时、服务端异常都会在 response 完成时体现
+		response.addListener(new FutureListener() {
+			@Override
+			public void operationComplete(Future future) throws Exception {
+				if (future.isSuccess() || (future.isDone() && ExceptionUtil.isBizException(future.getException()))) {
+					// 成功的调用
+					nettyClient.resetErrorCount();
+				} else {
+					// 失败的调用
+					nettyClient.incrErrorCount();
+				}
+			}
+		});
+		this.nettyClient.registerCallback(request.getRequestId(), response);
+
+		// 非阻塞写：不在调用线程上等待写完成，写失败时由 write listener 将 response 置为失败
+		ChannelFuture writeFuture = this.channel.writeAndFlush(request);
+		writeFuture.addListener(new WriteListener(request, response));
+
+		return response;
+	}
+
+	/**
+	 * 写结果回调：写失败时移除 callback 并以发送异常结束 response
+	 */
+	private class WriteListener implements ChannelFutureListener {
+		private final Request request;
+		private final NettyResponseFuture response;
+
+		WriteListener(Request request, NettyResponseFuture response) {
+			this.request = request;
+			this.response = response;
+		}
+
+		@Override
+		public void operationComplete(ChannelFuture future) throws Exception {
+			if (future.isSuccess()) {
+				return;
+			}
+
+			nettyClient.removeCallback(request.getRequestId());
+
+			MotanServiceException exception;
+			if (future.cause() != null) {
+				exception = new MotanServiceException("NettyChannel send request to server Error: url="
+						+ nettyClient.getUrl().getUri() + " local=" + localAddress + " "
+						+ MotanFrameworkUtil.toString(request), future.cause());
+			} else {
+				exception = new MotanServiceException("NettyChannel send request to server Cancelled: url="
+						+ nettyClient.getUrl().getUri() + " local=" + localAddress + " "
+						+ MotanFrameworkUtil.toString(request));
+			}
+			response.cancel(exception);
+		}
+	}
+
+	@Override
+	public synchronized boolean open() {
+		if (isAvailable()) {
+			LoggerUtil.warn("the channel already open, local: " + localAddress + " remote: " + remoteAddress + " url: "
+					+ nettyClient.getUrl().getUri());
+			return true;
+		}
+
+		try {
+			ChannelFuture channelFuture = nettyClient.getBootstrap().connect(remoteAddress);
+
+			long start = System.currentTimeMillis();
+
+			int timeout = nettyClient.getUrl().getIntParameter(URLParamType.connectTimeout.getName(),
+					URLParamType.connectTimeout.getIntValue());
+			if (timeout <= 0) {
+				throw new MotanFrameworkException("NettyClient init Error: timeout(" + timeout + ") <= 0 is forbid.",
+						MotanErrorMsgConstant.FRAMEWORK_INIT_ERROR);
+			}
+			// 不去依赖于connectTimeout
+			boolean result = channelFuture.awaitUninterruptibly(timeout, TimeUnit.MILLISECONDS);
+			boolean success = channelFuture.isSuccess();
+
+			if (result && success) {
+				channel = channelFuture.channel();
+				if (channel.localAddress() != null && channel.localAddress() instanceof InetSocketAddress) {
+					localAddress = (InetSocketAddress) channel.localAddress();
+				}
+
+				state = ChannelState.ALIVE;
+				return true;
+			}
+			boolean connected = false;
+			if (channelFuture.channel() != null) {
+				connected = channelFuture.channel().isActive();
+			}
+
+			if (channelFuture.cause() != null) {
+				channelFuture.cancel(true);
+				throw new MotanServiceException("NettyChannel failed to connect to server, url: "
+						+ nettyClient.getUrl().getUri() + ", result: " + result + ", success: " + success
+						+ ", connected: " + connected, channelFuture.cause());
+			} else {
+				channelFuture.cancel(true);
+				throw new MotanServiceException("NettyChannel connect to server timeout url: "
+						+ nettyClient.getUrl().getUri() + ", cost: " + (System.currentTimeMillis() - start)
+						+ ", result: " + result + ", success: " + success + ", connected: " + connected);
+			}
+		} catch (MotanServiceException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new MotanServiceException("NettyChannel failed to connect to server, url: "
+					+ nettyClient.getUrl().getUri(), e);
+		} finally {
+			if (!state.isAliveState()) {
+				nettyClient.incrErrorCount();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		close(0);
+	}
+
+	@Override
+	public synchronized void close(int timeout) {
+		try {
+			state = ChannelState.CLOSE;
+
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (Exception e) {
+			LoggerUtil
+					.error("NettyChannel close Error: " + nettyClient.getUrl().getUri() + " local=" + localAddress, e);
+		}
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress() {
+		return localAddress;
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return state.isCloseState();
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return state.isAliveState() && channel != null && channel.isActive();
+	}
+
+	@Override
+	public URL getUrl() {
+		return nettyClient.getUrl();
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.netty4;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.Response;
+import com.weibo.api.motan.transport.Channel;
+import com.weibo.api.motan.transport.MessageHandler;
+import com.weibo.api.motan.transport.support.RequestDispatcher;
+import com.weibo.api.motan.util.LoggerUtil;
+import com.weibo.api.motan.util.NetUtils;
+
+@Sharable
+public class NettyChannelHandler extends ChannelInboundHandlerAdapter {
+	private MessageHandler messageHandler;
+	private Channel serverChannel;
+	private RequestDispatcher dispatcher;
+
+	public NettyChannelHandler(Channel serverChannel, MessageHandler messageHandler) {
+		this.serverChannel = serverChannel;
+		this.messageHandler = messageHandler;
+	}
+
+	public NettyChannelHandler(Channel serverChannel, MessageHandler messageHandler,
+			ThreadPoolExecutor threadPoolExecutor) {
+		this.serverChannel = serverChannel;
+		this.messageHandler = messageHandler;
+		this.dispatcher = new RequestDispatcher(serverChannel, messageHandler, threadPoolExecutor);
+	}
+
+	@Override
+	public void channelActive(ChannelHandlerContext ctx) throws Exception {
+		LoggerUtil.info("NettyChannelHandler channelActive: remote=" + ctx.channel().remoteAddress() + " local="
+				+ ctx.channel().localAddress());
+		ctx.fireChannelActive();
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		LoggerUtil.info("NettyChannelHandler channelInactive: remote=" + ctx.channel().remoteAddress() + " local="
+				+ ctx.channel().localAddress());
+		ctx.fireChannelInactive();
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object message) throws Exception {
+		if (message instanceof Request) {
+			processRequest(ctx, (Request) message);
+		} else if (message instanceof Response) {
+			processResponse(message);
+		} else {
+			LoggerUtil.error("NettyChannelHandler messageReceived type not support: class=" + message.getClass());
+			throw new MotanFrameworkException("NettyChannelHandler messageReceived type not support: class="
+					+ message.getClass());
+		}
+	}
+
+	/**
+	 * <pre>
+	 *  request process: 主要来自于client的请求，由 {@link RequestDispatcher} 决定在 IO 线程还是线程池中处理，避免service message处理比较慢导致iothread被阻塞
+	 * </pre>
+	 *
+	 * @param ctx
+	 * @param request
+	 */
+	private void processRequest(final ChannelHandlerContext ctx, Request request) {
+		request.setAttachment(URLParamType.host.getName(), NetUtils.getHostName(ctx.channel().remoteAddress()));
+
+		dispatcher.dispatch(request, new RequestDispatcher.ResponseWriter() {
+			@Override
+			public void write(Response response) {
+				if (ctx.channel().isActive()) {
+					ctx.channel().writeAndFlush(response);
+				}
+			}
+		});
+	}
+
+	private void processResponse(Object message) {
+		messageHandler.handle(serverChannel, message);
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+		LoggerUtil.error("NettyChannelHandler exceptionCaught: remote=" + ctx.channel().remoteAddress() + " local="
+				+ ctx.channel().localAddress() + " event=" + cause, cause);
+
+		ctx.channel().close();
+	}
+}
@@ -0,0 +1,478 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.netty4;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.socket.SocketChannel;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+
+import com.weibo.api.motan.codec.Codec;
+import com.weibo.api.motan.common.ChannelState;
+import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.exception.MotanAbstractException;
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.exception.MotanServiceException;
+import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.Future;
+import com.weibo.api.motan.rpc.FutureListener;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.Response;
+import com.weibo.api.motan.rpc.RpcContext;
+import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.transport.AbstractPoolClient;
+import com.weibo.api.motan.transport.Channel;
+import com.weibo.api.motan.transport.MessageHandler;
+import com.weibo.api.motan.transport.TransportException;
+import com.weibo.api.motan.transport.support.NettyResponseFuture;
+import com.weibo.api.motan.util.ConcurrentLongObjectMap;
+import com.weibo.api.motan.util.LoggerUtil;
+import com.weibo.api.motan.util.MotanFrameworkUtil;
+import com.weibo.api.motan.util.StatisticCallback;
+import com.weibo.api.motan.util.StatsUtil;
+
+/**
+ * <pre>
+ * 		netty4 client，与 netty3 版本的区别：
+ * 			1） 所有 client 共享 {@link NettyEventLoopFactory} 中线程数固定的 worker event loop，linux 下优先使用 epoll
+ * 			2） 使用 pooled direct buffer 进行编解码，减少 heap buffer 带来的 gc 压力
+ * 			3） 连接池、超时、失败计数等逻辑与 netty3 版本保持一致
+ * </pre>
+ */
+public class NettyClient extends AbstractPoolClient implements StatisticCallback {
+	// 异步的request，需要注册callback future
+	// 触发remove的操作有： 1) service的返回结果处理。 2) 时间轮中的超时任务 cancel
+	// requestId 不装箱，size() 为 O(1)
+	protected ConcurrentLongObjectMap<NettyResponseFuture> callbackMap = new ConcurrentLongObjectMap<NettyResponseFuture>();
+
+	// 连续失败次数
+	private AtomicLong errorCount = new AtomicLong(0);
+	// 最大连接数
+	private int maxClientConnection = 0;
+
+	private Bootstrap bootstrap;
+
+	public NettyClient(URL url) {
+		super(url);
+
+		maxClientConnection = url.getIntParameter(URLParamType.maxClientConnection.getName(),
+				URLParamType.maxClientConnection.getIntValue());
+	}
+
+	@Override
+	public Response request(Request request) throws TransportException {
+		if (!isAvailable()) {
+			throw new MotanServiceException("NettyChannel is unavaliable: url=" + url.getUri()
+					+ MotanFrameworkUtil.toString(request));
+		}
+		boolean isAsync = false;
+		Object async = RpcContext.getContext().getAttribute(MotanConstants.ASYNC_SUFFIX);
+		if (async != null && async instanceof Boolean) {
+			isAsync = (Boolean) async;
+		}
+		return request(request, isAsync);
+	}
+
+	@Override
+	public void heartbeat(Request request) {
+		// 如果节点还没有初始化或者节点已经被close掉了，那么heartbeat也不需要进行了
+		if (state.isUnInitState() || state.isCloseState()) {
+			LoggerUtil.warn("NettyClient heartbeat Error: state={} url={}", state.name(), url.getUri());
+			return;
+		}
+
+		LoggerUtil.info("NettyClient heartbeat request: url={}", url.getUri());
+
+		try {
+			// async request后，如果service is
+			// available，那么将会自动把该client设置成可用
+			request(request, true);
+		} catch (Exception e) {
+			LoggerUtil.error("NettyClient heartbeat Error: url=" + url.getUri(), e);
+		}
+	}
+
+	/**
+	 * 请求remote service
+	 *
+	 * <pre>
+	 * 		1)  get connection from pool
+	 * 		2)  async requset
+	 * 		3)  return connection to pool
+	 * 		4)  check if async return response, true: return ResponseFuture;  false: return result
+	 * </pre>
+	 *
+	 * @param request
+	 * @param async
+	 * @return
+	 * @throws TransportException
+	 */
+	private Response request(Request request, boolean async) throws TransportException {
+		Channel channel = null;
+
+		Response response = null;
+
+		try {
+			// return channel or throw exception(timeout or connection_fail)
+			channel = borrowObject();
+
+			if (channel == null) {
+				LoggerUtil.error("NettyClient borrowObject null: url=" + url.getUri() + " "
+						+ MotanFrameworkUtil.toString(request));
+				return null;
+			}
+
+			// async request
+			response = channel.request(request);
+			// 写是异步的，写失败（如 encode 异常）后 channel 可能已被关闭，此时不能放回连接池
+			if (channel.isAvailable()) {
+				// return channel to pool
+				returnObject(channel);
+			} else {
+				invalidateObject(channel);
+			}
+		} catch (Exception e) {
+			LoggerUtil.error(
+					"NettyClient request Error: url=" + url.getUri() + " " + MotanFrameworkUtil.toString(request), e);
+			invalidateObject(channel);
+
+			if (e instanceof MotanAbstractException) {
+				throw (MotanAbstractException) e;
+			} else {
+				throw new MotanServiceException("NettyClient request Error: url=" + url.getUri() + " "
+						+ MotanFrameworkUtil.toString(request), e);
+			}
+		}
+
+		// aysnc or sync result
+		response = asyncResponse(response, async);
+
+		return response;
+	}
+
+	/**
+	 * 如果async是false，那么同步获取response的数据
+	 *
+	 * @param response
+	 * @param async
+	 * @return
+	 */
+	private Response asyncResponse(Response response, boolean async) {
+		if (async || !(response instanceof NettyResponseFuture)) {
+			return response;
+		}
+
+		return new DefaultResponse(response);
+	}
+
+	@Override
+	public synchronized boolean open() {
+		if (isAvailable()) {
+			return true;
+		}
+
+		// 初始化netty client bootstrap
+		initClientBootstrap();
+
+		// 初始化连接池
+		initPool();
+
+		LoggerUtil.info("NettyClient finish Open: url={}", url);
+
+		// 注册统计回调
+		StatsUtil.registryStatisticCallback(this);
+
+		// 设置可用状态
+		setState(ChannelState.ALIVE);
+		return state.isAliveState();
+	}
+
+	/**
+	 * 初始化 netty clientBootstrap
+	 */
+	private void initClientBootstrap() {
+		bootstrap = new Bootstrap();
+
+		int timeout = getUrl().getIntParameter(URLParamType.connectTimeout.getName(),
+				URLParamType.connectTimeout.getIntValue());
+		if (timeout <= 0) {
+			throw new MotanFrameworkException("NettyClient init Error: timeout(" + timeout + ") <= 0 is forbid.",
+					MotanErrorMsgConstant.FRAMEWORK_INIT_ERROR);
+		}
+
+		// 最大响应包限制
+		final int maxContentLength = url.getIntParameter(URLParamType.maxContentLength.getName(),
+				URLParamType.maxContentLength.getIntValue());
+
+		bootstrap.group(NettyEventLoopFactory.getClientWorkerGroup())
+				.channel(NettyEventLoopFactory.getSocketChannelClass())
+				.option(ChannelOption.SO_KEEPALIVE, true)
+				.option(ChannelOption.TCP_NODELAY, true)
+				.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeout)
+				.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+				.handler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(SocketChannel ch) throws Exception {
+						ChannelPipeline pipeline = ch.pipeline();
+						Codec connectionCodec = getConnectionCodec();
+						pipeline.addLast("decoder", new NettyDecoder(connectionCodec, NettyClient.this, maxContentLength));
+						pipeline.addLast("encoder", new NettyEncoder(connectionCodec, NettyClient.this));
+						pipeline.addLast("handler", new NettyChannelHandler(NettyClient.this, new MessageHandler() {
+							@Override
+							public Object handle(Channel channel, Object message) {
+								Response response = (Response) message;
+
+								NettyResponseFuture responseFuture = NettyClient.this.removeCallback(response
+										.getRequestId());
+
+								if (responseFuture == null) {
+									LoggerUtil.warn(
+											"NettyClient has response from server, but resonseFuture not exist,  requestId={}",
+											response.getRequestId());
+									return null;
+								}
+
+								if (response.getException() != null) {
+									responseFuture.onFailure(response);
+								} else {
+									responseFuture.onSuccess(response);
+								}
+
+								return null;
+							}
+						}));
+					}
+				});
+	}
+
+	@Override
+	public synchronized void close() {
+		close(0);
+	}
+
+	/**
+	 * 目前close不支持timeout的概念
+	 */
+	@Override
+	public synchronized void close(int timeout) {
+		if (state.isCloseState()) {
+			LoggerUtil.info("NettyClient close fail: already close, url={}", url.getUri());
+			return;
+		}
+
+		// 如果当前nettyClient还没有初始化，那么就没有close的理由。
+		if (state.isUnInitState()) {
+			LoggerUtil.info("NettyClient close Fail: don't need to close because node is unInit state: url={}",
+					url.getUri());
+			return;
+		}
+
+		try {
+			// 关闭连接池
+			closePool();
+			// 清空callback
+			callbackMap.clear();
+
+			// 设置close状态
+			setState(ChannelState.CLOSE);
+			// 解除统计回调的注册
+			StatsUtil.unRegistryStatisticCallback(this);
+			LoggerUtil.info("NettyClient close Success: url={}", url.getUri());
+		} catch (Exception e) {
+			LoggerUtil.error("NettyClient close Error: url=" + url.getUri(), e);
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return state.isCloseState();
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return state.isAliveState();
+	}
+
+	@Override
+	public URL getUrl() {
+		return url;
+	}
+
+	/**
+	 * connection factory
+	 */
+	@Override
+	protected BasePoolableObjectFactory createChannelFactory() {
+		return new NettyChannelFactory(this);
+	}
+
+	/**
+	 * 增加调用失败的次数：
+	 *
+	 * <pre>
+	 * 	 	如果连续失败的次数 >= maxClientConnection, 那么把client设置成不可用状态
+	 * </pre>
+	 *
+	 */
+	void incrErrorCount() {
+		long count = errorCount.incrementAndGet();
+
+		// 如果节点是可用状态，同时当前连续失败的次数超过限制maxClientConnection次，那么把该节点标示为不可用
+		if (count >= maxClientConnection && state.isAliveState()) {
+			synchronized (this) {
+				count = errorCount.longValue();
+
+				if (count >= maxClientConnection && state.isAliveState()) {
+					LoggerUtil.error("NettyClient unavailable Error: url=" + url.getIdentity() + " "
+							+ url.getServerPortStr());
+					setState(ChannelState.UNALIVE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 重置调用失败的计数 ：
+	 *
+	 * <pre>
+	 * 把节点设置成可用
+	 * </pre>
+	 *
+	 */
+	void resetErrorCount() {
+		errorCount.set(0);
+
+		if (state.isAliveState()) {
+			return;
+		}
+
+		synchronized (this) {
+			if (state.isAliveState()) {
+				return;
+			}
+
+			// 如果节点是unalive才进行设置，而如果是 close 或者 uninit，那么直接忽略
+			if (state.isUnAliveState()) {
+				long count = errorCount.longValue();
+
+				// 过程中有其他并发更新errorCount的，因此这里需要进行一次判断
+				if (count < maxClientConnection) {
+					setState(ChannelState.ALIVE);
+					LoggerUtil.info("NettyClient recover available: url=" + url.getIdentity() + " "
+							+ url.getServerPortStr());
+				}
+			}
+		}
+	}
+
+	/**
+	 * 注册回调的resposne
+	 *
+	 * <pre>
+	 *
+	 * 		进行最大的请求并发数的控制，如果超过NETTY_CLIENT_MAX_REQUEST的话，那么throw reject exception
+	 *
+	 * </pre>
+	 *
+	 * @throws MotanServiceException
+	 * @param requestId
+	 * @param nettyResponseFuture
+	 */
+	public void registerCallback(long requestId, NettyResponseFuture nettyResponseFuture) {
+		if (this.callbackMap.size() >= MotanConstants.NETTY_CLIENT_MAX_REQUEST) {
+			// reject request, prevent from OutOfMemoryError
+			throw new MotanServiceException("NettyClient over of max concurrent request, drop request, url: "
+					+ url.getUri() + " requestId=" + requestId, MotanErrorMsgConstant.SERVICE_REJECT);
+		}
+
+		this.callbackMap.put(requestId, nettyResponseFuture);
+		// 超时、cancel 等任意结束状态都移除 callback，避免 callbackMap 堆积到 NETTY_CLIENT_MAX_REQUEST
+		nettyResponseFuture.addListener(new CallbackRemover(requestId));
+		nettyResponseFuture.scheduleTimeout(new TimeoutTask(requestId));
+	}
+
+	/**
+	 * 统计回调接口
+	 */
+	@Override
+	public String statisticCallback() {
+		//避免消息泛滥，如果节点是可用状态，并且堆积的请求不超过100的话，那么就不记录log了
+		if (isAvailable() && callbackMap.size() < 100) {
+			return null;
+		}
+
+		return String.format("identity: %s available: %s concurrent_count: %s", url.getIdentity(), isAvailable(),
+				callbackMap.size());
+	}
+
+	/**
+	 * 移除回调的response
+	 *
+	 * @param requestId
+	 * @return
+	 */
+	public NettyResponseFuture removeCallback(long requestId) {
+		return callbackMap.remove(requestId);
+	}
+
+	public Bootstrap getBootstrap() {
+		return bootstrap;
+	}
+
+	/**
+	 * 超时任务：remove from callback list, and then cancel
+	 */
+	class TimeoutTask implements Runnable {
+		private long requestId;
+
+		public TimeoutTask(long requestId) {
+			this.requestId = requestId;
+		}
+
+		@Override
+		public void run() {
+			NettyResponseFuture future = removeCallback(requestId);
+			if (future != null) {
+				future.cancel();
+			}
+		}
+	}
+
+	/**
+	 * future 结束（成功、失败、超时、cancel）时从 callback list 中移除
+	 */
+	class CallbackRemover implements FutureListener {
+		private long requestId;
+
+		public CallbackRemover(long requestId) {
+			this.requestId = requestId;
+		}
+
+		@Override
+		public void operationComplete(Future future) throws Exception {
+			removeCallback(requestId);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.netty4;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.weibo.api.motan.codec.BufferCodec;
+import com.weibo.api.motan.codec.Codec;
+import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.exception.MotanServiceException;
+import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.Response;
+import com.weibo.api.motan.util.LoggerUtil;
+
+/**
+ * netty4 decode，传输层 header 与 netty3 版本保持一致
+ */
+public class NettyDecoder extends ByteToMessageDecoder {
+
+	private Codec codec;
+	private com.weibo.api.motan.transport.Channel client;
+	private int maxContentLength = 0;
+
+	public NettyDecoder(Codec codec, com.weibo.api.motan.transport.Channel client, int maxContentLength) {
+		this.codec = codec;
+		this.client = client;
+		this.maxContentLength = maxContentLength;
+	}
+
+	@Override
+	protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+		if (in.readableBytes() <= MotanConstants.NETTY_HEADER) {
+			return;
+		}
+
+		in.markReaderIndex();
+
+		short type = in.readShort();
+
+		if (type != MotanConstants.NETTY_MAGIC_TYPE) {
+			in.resetReaderIndex();
+			throw new MotanFrameworkException("NettyDecoder transport header not support, type: " + type);
+		}
+
+		byte messageType = (byte) in.readShort();
+		long requestId = in.readLong();
+
+		int dataLength = in.readInt();
+
+		if (maxContentLength > 0 && dataLength > maxContentLength) {
+			LoggerUtil.warn(
+					"NettyDecoder transport data content length over of limit, size: {}  > {}. remote={} local={}",
+					dataLength, maxContentLength, ctx.channel().remoteAddress(), ctx.channel().localAddress());
+			Exception e = new MotanServiceException("NettyDecoder transport data content length over of limit, size: "
+					+ dataLength + " > " + maxContentLength);
+
+			if (messageType == MotanConstants.FLAG_REQUEST) {
+				Response response = buildExceptionResponse(requestId, e);
+				ctx.channel().writeAndFlush(response);
+			}
+			throw e;
+		}
+
+		if (in.readableBytes() < dataLength) {
+			in.resetReaderIndex();
+			return;
+		}
+
+		try {
+			String remoteIp = getRemoteIp(ctx.channel());
+			out.add(decodeFrame(in, dataLength, remoteIp));
+		} catch (Exception e) {
+			Response response = buildExceptionResponse(requestId, e);
+			if (messageType == MotanConstants.FLAG_REQUEST) {
+				ctx.channel().writeAndFlush(response);
+			} else {
+				out.add(response);
+			}
+		}
+	}
+
+	/**
+	 * BufferCodec 直接使用 pooled direct buffer 的视图，不拷贝；decode 完成前 buffer 不会被释放。其他 codec 先拷贝成 byte[]
+	 */
+	private Object decodeFrame(ByteBuf in, int dataLength, String remoteIp) throws Exception {
+		if (codec instanceof BufferCodec) {
+			ByteBuffer data = in.nioBuffer(in.readerIndex(), dataLength);
+			in.skipBytes(dataLength);
+			return ((BufferCodec) codec).decode(client, remoteIp, data);
+		}
+
+		byte[] data = new byte[dataLength];
+		in.readBytes(data);
+		return codec.decode(client, remoteIp, data);
+	}
+
+	private Response buildExceptionResponse(long requestId, Exception e) {
+		DefaultResponse response = new DefaultResponse();
+		response.setRequestId(requestId);
+		response.setException(e);
+		return response;
+	}
+
+	private String getRemoteIp(io.netty.channel.Channel channel) {
+		String ip = "";
+		SocketAddress remote = channel.remoteAddress();
+		if (remote != null) {
+			try {
+				ip = ((InetSocketAddress) remote).getAddress().getHostAddress();
+			} catch (Exception e) {
+				LoggerUtil.warn("get remoteIp error!dedault will use. msg:" + e.getMessage() + ", remote:" + remote.toString());
+			}
+		}
+		return ip;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.netty4;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import com.weibo.api.motan.codec.BufferCodec;
+import com.weibo.api.motan.codec.Codec;
+import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.Response;
+import com.weibo.api.motan.util.EncodeBufferUtil;
+import com.weibo.api.motan.util.LoggerUtil;
+
+/**
+ * netty4 encode，transport header 和 codec 数据直接写入 pooled direct buffer，不经过中间 byte[]
+ */
+public class NettyEncoder extends MessageToByteEncoder<Object> {
+	private Codec codec;
+	private com.weibo.api.motan.transport.Channel client;
+	// allocateBuffer 计算的 key，encode 时使用；同一个连接的 encode 在 event loop 中顺序执行
+	private Object sizeKey;
+
+	public NettyEncoder(Codec codec, com.weibo.api.motan.transport.Channel client) {
+		this.codec = codec;
+		this.client = client;
+	}
+
+	/**
+	 * 按同一方法（返回值类型）之前 encode 的大小分配 buffer，避免扩容拷贝
+	 */
+	@Override
+	protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, Object message, boolean preferDirect) throws Exception {
+		sizeKey = EncodeBufferUtil.getSizeKey(message);
+		int initialCapacity = EncodeBufferUtil.predictSize(sizeKey);
+		return preferDirect ? ctx.alloc().ioBuffer(initialCapacity) : ctx.alloc().heapBuffer(initialCapacity);
+	}
+
+	@Override
+	protected void encode(ChannelHandlerContext ctx, Object message, ByteBuf out) throws Exception {
+		long requestId = getRequestId(message);
+
+		// transport header，length 先写占位值，codec 写完后回填
+		int headerIndex = out.writerIndex();
+		out.writeShort(MotanConstants.NETTY_MAGIC_TYPE);
+		out.writeByte(0);
+		out.writeByte(getType(message));
+		out.writeLong(requestId);
+		out.writeInt(0);
+		int bodyIndex = out.writerIndex();
+
+		if (message instanceof Response) {
+			try {
+				writeMessage(message, out);
+			} catch (Exception e) {
+				LoggerUtil.error("NettyEncoder encode error, identity=" + client.getUrl().getIdentity(), e);
+				// 丢弃已写入的部分数据
+				out.writerIndex(bodyIndex);
+				Response response = buildExceptionResponse(requestId, e);
+				writeMessage(response, out);
+			}
+		} else {
+			writeMessage(message, out);
+		}
+
+		out.setInt(headerIndex + MotanConstants.NETTY_HEADER - 4, out.writerIndex() - bodyIndex);
+		EncodeBufferUtil.recordSize(sizeKey, out.writerIndex() - headerIndex);
+		sizeKey = null;
+	}
+
+	/**
+	 * BufferCodec 直接写入 buffer，其他 codec 先 encode 成 byte[]
+	 */
+	private void writeMessage(Object message, ByteBuf out) throws Exception {
+		if (codec instanceof BufferCodec) {
+			((BufferCodec) codec).encode(client, message, new NettyBufferOutputStream(out));
+		} else {
+			out.writeBytes(codec.encode(client, message));
+		}
+	}
+
+	private long getRequestId(Object message) {
+		if (message instanceof Request) {
+			return ((Request) message).getRequestId();
+		} else if (message instanceof Response) {
+			return ((Response) message).getRequestId();
+		} else {
+			return 0;
+		}
+	}
+
+	private byte getType(Object message) {
+		if (message instanceof Request) {
+			return MotanConstants.FLAG_REQUEST;
+		} else if (message instanceof Response) {
+			return MotanConstants.FLAG_RESPONSE;
+		} else {
+			return MotanConstants.FLAG_OTHER;
+		}
+	}
+
+	private Response buildExceptionResponse(long requestId, Exception e) {
+		DefaultResponse response = new DefaultResponse();
+		response.setRequestId(requestId);
+		response.setException(e);
+		return response;
+	}
+}
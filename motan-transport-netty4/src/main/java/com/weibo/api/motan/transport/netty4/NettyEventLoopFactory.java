@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.netty4;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import com.weibo.api.motan.core.DefaultThreadFactory;
+import com.weibo.api.motan.util.LoggerUtil;
+
+/**
+ * <pre>
+ * 		netty4 共享的 event loop：
+ * 			1） 所有 client 共享一组 worker，所有 server 共享一组 boss 和一组 worker，线程数固定，不再随连接数增长
+ * 			2） linux 下 epoll 可用时使用 native epoll transport，否则退回 nio
+ * 			3） 可以通过 -Dmotan.netty4.epoll=false 关闭 epoll
+ * </pre>
+ */
+public class NettyEventLoopFactory {
+	private static final int IO_THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static final boolean USE_EPOLL = Boolean.parseBoolean(System.getProperty("motan.netty4.epoll", "true"))
+			&& Epoll.isAvailable();
+
+	private static final EventLoopGroup clientWorkerGroup = newEventLoopGroup(IO_THREADS, "nettyClientWorker");
+
+	private static final EventLoopGroup serverBossGroup = newEventLoopGroup(1, "nettyServerBoss");
+
+	private static final EventLoopGroup serverWorkerGroup = newEventLoopGroup(IO_THREADS, "nettyServerWorker");
+
+	static {
+		LoggerUtil.info("NettyEventLoopFactory init: epoll=" + USE_EPOLL + " ioThreads=" + IO_THREADS);
+	}
+
+	private NettyEventLoopFactory() {}
+
+	public static EventLoopGroup getClientWorkerGroup() {
+		return clientWorkerGroup;
+	}
+
+	public static EventLoopGroup getServerBossGroup() {
+		return serverBossGroup;
+	}
+
+	public static EventLoopGroup getServerWorkerGroup() {
+		return serverWorkerGroup;
+	}
+
+	public static Class<? extends SocketChannel> getSocketChannelClass() {
+		return USE_EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+	}
+
+	public static Class<? extends ServerChannel> getServerSocketChannelClass() {
+		return USE_EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+	}
+
+	public static boolean isEpoll() {
+		return USE_EPOLL;
+	}
+
+	private static EventLoopGroup newEventLoopGroup(int threads, String name) {
+		DefaultThreadFactory threadFactory = new DefaultThreadFactory(name, true);
+		return USE_EPOLL ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+	}
+}
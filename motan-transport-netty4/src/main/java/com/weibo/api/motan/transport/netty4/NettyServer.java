@@ -0,0 +1,229 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.netty4;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.socket.SocketChannel;
+
+import java.net.InetSocketAddress;
+
+import com.weibo.api.motan.codec.Codec;
+import com.weibo.api.motan.common.ChannelState;
+import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.core.DefaultThreadFactory;
+import com.weibo.api.motan.core.StandardThreadExecutor;
+import com.weibo.api.motan.exception.MotanFrameworkException;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.Response;
+import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.transport.AbstractServer;
+import com.weibo.api.motan.transport.MessageHandler;
+import com.weibo.api.motan.transport.TransportException;
+import com.weibo.api.motan.util.LoggerUtil;
+import com.weibo.api.motan.util.StatisticCallback;
+import com.weibo.api.motan.util.StatsUtil;
+
+/**
+ * <pre>
+ * 		netty4 server，与 netty3 版本的区别：
+ * 		1） boss/worker 使用 {@link NettyEventLoopFactory} 中进程内共享、线程数固定的 event loop
+ * 		2） 使用 pooled direct buffer
+ * 		3） 业务线程池、连接数限制等与 netty3 版本保持一致
+ * </pre>
+ */
+public class NettyServer extends AbstractServer implements StatisticCallback {
+	// 单端口需要对应单executor 1) 为了更好的隔离性 2) 为了防止被动releaseExternalResources:
+	private StandardThreadExecutor standardThreadExecutor = null;
+
+	protected NettyServerChannelManage channelManage = null;
+	private io.netty.channel.Channel serverChannel;
+	private ServerBootstrap bootstrap;
+	private MessageHandler messageHandler;
+
+	public NettyServer(URL url, MessageHandler messageHandler) {
+		super(url);
+		this.messageHandler = messageHandler;
+	}
+
+	@Override
+	public Response request(Request request) throws TransportException {
+		throw new MotanFrameworkException("NettyServer request(Request request) method unsupport: url: " + url);
+	}
+
+	@Override
+	public synchronized boolean open() {
+		if (isAvailable()) {
+			LoggerUtil.warn("NettyServer ServerChannel already Open: url=" + url);
+			return true;
+		}
+
+		LoggerUtil.info("NettyServer ServerChannel start Open: url=" + url);
+
+		initServerBootstrap();
+
+		ChannelFuture bindFuture = bootstrap.bind(new InetSocketAddress(url.getPort())).syncUninterruptibly();
+		serverChannel = bindFuture.channel();
+		state = ChannelState.ALIVE;
+
+		StatsUtil.registryStatisticCallback(this);
+		LoggerUtil.info("NettyServer ServerChannel finish Open: url=" + url);
+
+		return state.isAliveState();
+	}
+
+	private synchronized void initServerBootstrap() {
+		boolean shareChannel = url.getBooleanParameter(URLParamType.shareChannel.getName(),
+				URLParamType.shareChannel.getBooleanValue());
+		final int maxContentLength = url.getIntParameter(URLParamType.maxContentLength.getName(),
+				URLParamType.maxContentLength.getIntValue());
+		int maxServerConnection = url.getIntParameter(URLParamType.maxServerConnection.getName(),
+				URLParamType.maxServerConnection.getIntValue());
+		int workerQueueSize = url.getIntParameter(URLParamType.workerQueueSize.getName(),
+				URLParamType.workerQueueSize.getIntValue());
+
+		int minWorkerThread = 0, maxWorkerThread = 0;
+
+		if (shareChannel) {
+			minWorkerThread = url.getIntParameter(URLParamType.minWorkerThread.getName(),
+					MotanConstants.NETTY_SHARECHANNEL_MIN_WORKDER);
+			maxWorkerThread = url.getIntParameter(URLParamType.maxWorkerThread.getName(),
+					MotanConstants.NETTY_SHARECHANNEL_MAX_WORKDER);
+		} else {
+			minWorkerThread = url.getIntParameter(URLParamType.minWorkerThread.getName(),
+					MotanConstants.NETTY_NOT_SHARECHANNEL_MIN_WORKDER);
+			maxWorkerThread = url.getIntParameter(URLParamType.maxWorkerThread.getName(),
+					MotanConstants.NETTY_NOT_SHARECHANNEL_MAX_WORKDER);
+		}
+
+		standardThreadExecutor = (standardThreadExecutor != null && !standardThreadExecutor.isShutdown()) ? standardThreadExecutor
+				: new StandardThreadExecutor(minWorkerThread, maxWorkerThread, workerQueueSize,
+						new DefaultThreadFactory("NettyServer-" + url.getServerPortStr(), true));
+		standardThreadExecutor.prestartAllCoreThreads();
+
+		// 连接数的管理，进行最大连接数的限制
+		channelManage = new NettyServerChannelManage(maxServerConnection);
+
+		final NettyChannelHandler handler = new NettyChannelHandler(NettyServer.this, messageHandler,
+				standardThreadExecutor);
+
+		bootstrap = new ServerBootstrap();
+		bootstrap.group(NettyEventLoopFactory.getServerBossGroup(), NettyEventLoopFactory.getServerWorkerGroup())
+				.channel(NettyEventLoopFactory.getServerSocketChannelClass())
+				.option(ChannelOption.SO_REUSEADDR, true)
+				.childOption(ChannelOption.TCP_NODELAY, true)
+				.childOption(ChannelOption.SO_KEEPALIVE, true)
+				.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+				.childHandler(new ChannelInitializer<SocketChannel>() {
+					// ByteToMessageDecoder非线程安全，每个连接一个 decoder
+					@Override
+					protected void initChannel(SocketChannel ch) throws Exception {
+						ChannelPipeline pipeline = ch.pipeline();
+						Codec connectionCodec = getConnectionCodec();
+						pipeline.addLast("channel_manage", channelManage);
+						pipeline.addLast("decoder", new NettyDecoder(connectionCodec, NettyServer.this, maxContentLength));
+						pipeline.addLast("encoder", new NettyEncoder(connectionCodec, NettyServer.this));
+						pipeline.addLast("handler", handler);
+					}
+				});
+	}
+
+	@Override
+	public synchronized void close() {
+		close(0);
+	}
+
+	@Override
+	public synchronized void close(int timeout) {
+		if (state.isCloseState()) {
+			LoggerUtil.info("NettyServer close fail: already close, url={}", url.getUri());
+			return;
+		}
+
+		if (state.isUnInitState()) {
+			LoggerUtil.info("NettyServer close Fail: don't need to close because node is unInit state: url={}",
+					url.getUri());
+			return;
+		}
+
+		try {
+			// close listen socket, event loop 为共享资源，不在这里关闭
+			serverChannel.close();
+			// close all clients's channel
+			channelManage.close();
+			// shutdown the threadPool
+			standardThreadExecutor.shutdownNow();
+			// 设置close状态
+			state = ChannelState.CLOSE;
+			// 解除与 message router 的关联，router 的方法表和独立线程池不再被该 server 使用
+			providerRouter = null;
+			// 取消统计回调的注册
+			StatsUtil.unRegistryStatisticCallback(this);
+			LoggerUtil.info("NettyServer close Success: url={}", url.getUri());
+		} catch (Exception e) {
+			LoggerUtil.error("NettyServer close Error: url=" + url.getUri(), e);
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return state.isCloseState();
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return state.isAliveState();
+	}
+
+	@Override
+	public URL getUrl() {
+		return url;
+	}
+
+	/**
+	 * 统计回调接口
+	 */
+	@Override
+	public String statisticCallback() {
+		return String.format(
+				"identity: %s connectionCount: %s taskCount: %s queueCount: %s maxThreadCount: %s maxTaskCount: %s",
+				url.getIdentity(), channelManage.getChannels().size(), standardThreadExecutor.getSubmittedTasksCount(),
+				standardThreadExecutor.getQueue().size(), standardThreadExecutor.getMaximumPoolSize(),
+				standardThreadExecutor.getMaxSubmittedTaskCount());
+	}
+
+	/**
+	 * 是否已经绑定端口
+	 */
+	@Override
+	public boolean isBound() {
+		return serverChannel != null && serverChannel.isActive();
+	}
+
+	public MessageHandler getMessageHandler() {
+		return messageHandler;
+	}
+
+	public void setMessageHandler(MessageHandler messageHandler) {
+		this.messageHandler = messageHandler;
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ *  Copyright 2009-2016 Weibo, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.weibo.api.motan.transport.netty4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.weibo.api.motan.common.MotanConstants;
+import com.weibo.api.motan.common.URLParamType;
+import com.weibo.api.motan.exception.MotanErrorMsgConstant;
+import com.weibo.api.motan.exception.MotanServiceException;
+import com.weibo.api.motan.rpc.DefaultRequest;
+import com.weibo.api.motan.rpc.DefaultResponse;
+import com.weibo.api.motan.rpc.Request;
+import com.weibo.api.motan.rpc.Response;
+import com.weibo.api.motan.rpc.ResponseFuture;
+import com.weibo.api.motan.rpc.RpcContext;
+import com.weibo.api.motan.rpc.URL;
+import com.weibo.api.motan.transport.Channel;
+import com.weibo.api.motan.transport.MessageHandler;
+import com.weibo.api.motan.util.RequestIdGenerator;
+
+public class NettyClientTest {
+
+    private NettyServer nettyServer;
+    private NettyClient nettyClient;
+    private DefaultRequest request;
+    private URL url;
+
+    @Before
+    public void setUp() {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("requestTimeout", "500");
+
+        url = new URL("netty4", "localhost", 18080, "com.weibo.api.motan.procotol.example.IHello", parameters);
+
+        request = new DefaultRequest();
+        request.setRequestId(RequestIdGenerator.getRequestId());
+        request.setInterfaceName("com.weibo.api.motan.procotol.example.IHello");
+        request.setMethodName("hello");
+        request.setParamtersDesc("void");
+
+        nettyServer = new NettyServer(url, new MessageHandler() {
+            @Override
+            public Object handle(Channel channel, Object message) {
+                Request request = (Request) message;
+                DefaultResponse response = new DefaultResponse();
+                response.setRequestId(request.getRequestId());
+                response.setValue("method: " + request.getMethodName() + " requestId: " + request.getRequestId());
+
+                return response;
+            }
+        });
+
+        nettyServer.open();
+    }
+
+    @After
+    public void tearDown() {
+        nettyClient.close();
+        nettyServer.close();
+    }
+
+    @Test
+    public void testNormal() throws Exception {
+        nettyClient = new NettyClient(url);
+        nettyClient.open();
+
+        Response response = nettyClient.request(request);
+        Object result = response.getValue();
+
+        assertNotNull(result);
+        assertEquals("method: " + request.getMethodName() + " requestId: " + request.getRequestId(), result);
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        nettyClient = new NettyClient(url);
+        nettyClient.open();
+        RpcContext.getContext().putAttribute(MotanConstants.ASYNC_SUFFIX, true);
+        try {
+            Response response = nettyClient.request(request);
+            assertTrue(response instanceof ResponseFuture);
+            Object result = response.getValue();
+            assertNotNull(result);
+            assertEquals("method: " + request.getMethodName() + " requestId: " + request.getRequestId(), result);
+        } finally {
+            RpcContext.destroy();
+        }
+    }
+
+    @Test
+    public void testAbNormal() throws Exception {
+        url.addParameter(URLParamType.requestTimeout.getName(), URLParamType.requestTimeout.getValue());
+        nettyClient = new NettyClient(url);
+        // nettyClient未开启，状态为INIT
+        try {
+            nettyClient.request(request);
+            fail("Netty Client should not be active!");
+        } catch (MotanServiceException e) {
+            assertTrue(true);
+        }
+
+        // 模拟失败连接的次数大于或者等于设置的次数，client期望为不可用
+        url.addParameter(URLParamType.maxClientConnection.getName(), "1");
+        url.addParameter(URLParamType.requestTimeout.getName(), "1");
+        nettyClient = new NettyClient(url);
+        nettyClient.open();
+        try {
+            nettyClient.request(request).getValue();
+        } catch (MotanServiceException e) {
+            assertFalse(nettyClient.isAvailable());
+            nettyClient.resetErrorCount();
+            assertTrue(nettyClient.isAvailable());
+        }
+    }
+
+    @Test
+    public void testTimeoutRemoveCallback() throws Exception {
+        // 只建立连接、从不返回 response 的 server
+        ServerSocket silentServer = new ServerSocket(18081);
+        try {
+            URL silentUrl = new URL("netty4", "localhost", 18081, "com.weibo.api.motan.procotol.example.IHello");
+            silentUrl.addParameter(URLParamType.requestTimeout.getName(), "100");
+            nettyClient = new NettyClient(silentUrl);
+            nettyClient.open();
+
+            try {
+                nettyClient.request(request).getValue();
+                fail("request should be timeout");
+            } catch (MotanServiceException e) {
+                assertEquals(MotanErrorMsgConstant.SERVICE_TIMEOUT.getErrorCode(), e.getErrorCode());
+            }
+            assertTrue(nettyClient.callbackMap.isEmpty());
+        } finally {
+            silentServer.close();
+        }
+    }
+
+}